@@ -0,0 +1,483 @@
+package com.googlecode.javaewah;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/*
+ * Copyright 2009-2014, Daniel Lemire, Cliff Moon, David McIntosh, Robert Becho, Google Inc., Veronika Zenz, Owen Kaser, Gregory Ssi-Yan-Kai, Rory Graves
+ * Licensed under the Apache License, Version 2.0.
+ */
+
+/**
+ * A compressed bitmap kept in a file and updated in place. New words are
+ * appended to the file and, apart from the last word, only the current
+ * marker word is ever rewritten: a bitmap can be extended with set (in
+ * increasing order) or as a BitmapStorage and persisted with commit(),
+ * without serializing it again.
+ *
+ * Only the current marker word and its literal words (at most a block of
+ * them) are held in memory. A new marker word is started whenever the block
+ * is full.
+ *
+ * Each commit forces the words to disk, then records the state of the
+ * bitmap (number of words, size in bits, current marker word and last word)
+ * in one of two alternating checksummed slots of the file header. The words
+ * that may be overwritten after a commit are exactly those saved in the
+ * slot, so that after a crash, opening the file again restores the last
+ * committed state, whatever was written afterwards.
+ *
+ * The file layout is little-endian: a header of 128 bytes (magic number,
+ * version and the two slots) followed by the words.
+ *
+ * Here is a code sample:
+ *
+ * <pre>
+ * AppendOnlyBitmapStorage storage = AppendOnlyBitmapStorage.open(file);
+ * storage.set(rowId);
+ * storage.commit();
+ * EWAHCompressedBitmap b = AppendOnlyBitmapStorage.read(file);
+ * </pre>
+ *
+ * This class is not thread-safe.
+ *
+ * @author Daniel Lemire
+ * @since 0.8.12
+ */
+public final class AppendOnlyBitmapStorage implements BitmapStorage, Closeable {
+
+    private AppendOnlyBitmapStorage(final RandomAccessFile file) {
+        this.file = file;
+        this.channel = file.getChannel();
+    }
+
+    /**
+     * Open a bitmap file, creating an empty bitmap if the file is empty or
+     * does not exist. The last committed state is recovered: words written
+     * after the last commit are discarded.
+     *
+     * @param file the file
+     * @return the storage
+     * @throws IOException if the file cannot be opened, or does not hold a
+     *                     valid bitmap
+     */
+    public static AppendOnlyBitmapStorage open(final File file) throws IOException {
+        final AppendOnlyBitmapStorage answer = new AppendOnlyBitmapStorage(new RandomAccessFile(file, "rw"));
+        try {
+            if (answer.channel.size() == 0)
+                answer.initialize();
+            else
+                answer.recover();
+        } catch (IOException e) {
+            answer.file.close();
+            throw e;
+        }
+        return answer;
+    }
+
+    /**
+     * Read the last committed state of a bitmap file, without modifying
+     * the file.
+     *
+     * @param file the file
+     * @return the bitmap
+     * @throws IOException if the file cannot be read, or does not hold a
+     *                     valid bitmap
+     */
+    public static EWAHCompressedBitmap read(final File file) throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            final FileChannel channel = raf.getChannel();
+            final ByteBuffer slot = readLastSlot(channel);
+            final int numberOfWords = slot.getInt(SLOT_WORDS);
+            final int markerPosition = slot.getInt(SLOT_MARKER_POSITION);
+            final ByteBuffer serialized = ByteBuffer.allocate(12 + 8 * numberOfWords).order(ByteOrder.LITTLE_ENDIAN);
+            serialized.putInt(slot.getInt(SLOT_SIZE_IN_BITS));
+            serialized.putInt(numberOfWords);
+            serialized.limit(8 + 8 * numberOfWords);
+            long position = DATA_OFFSET;
+            while (serialized.hasRemaining()) {
+                final int n = channel.read(serialized, position);
+                if (n < 0)
+                    throw new IOException("Corrupted bitmap file (truncated): " + file);
+                position += n;
+            }
+            serialized.limit(serialized.capacity());
+            serialized.putLong(8 + 8 * markerPosition, slot.getLong(SLOT_MARKER));
+            serialized.putLong(8 + 8 * (numberOfWords - 1), slot.getLong(SLOT_LAST_WORD));
+            serialized.putInt(8 + 8 * numberOfWords, markerPosition);
+            serialized.rewind();
+            final EWAHCompressedBitmap answer = new EWAHCompressedBitmap(numberOfWords);
+            answer.deserialize(serialized);
+            return answer;
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Set the bit at position i to true. The bits must be set in increasing
+     * order, as with EWAHCompressedBitmap.set.
+     *
+     * @param i the index
+     * @return true if the value was set, false if i is smaller than the size
+     * in bits
+     */
+    public boolean set(final int i) {
+        if ((i > Integer.MAX_VALUE - WORD_IN_BITS) || (i < 0))
+            throw new IndexOutOfBoundsException("Set values should be between 0 and " + (Integer.MAX_VALUE - WORD_IN_BITS));
+        if (i < this.sizeInBits)
+            return false;
+        // distance in words:
+        final int dist = (i + WORD_IN_BITS) / WORD_IN_BITS - (this.sizeInBits + WORD_IN_BITS - 1) / WORD_IN_BITS;
+        this.sizeInBits = i + 1;
+        if (dist > 0) {
+            if (dist > 1)
+                addEmptyWords(false, dist - 1);
+            addLiteralWord(1l << (i % WORD_IN_BITS));
+            return true;
+        }
+        if (this.numberOfLiteralWords == 0) {
+            --this.runningLength;
+            addLiteralWord(1l << (i % WORD_IN_BITS));
+            return true;
+        }
+        final int last = this.numberOfLiteralWords - 1;
+        this.literalWords[last] |= 1l << (i % WORD_IN_BITS);
+        literalWordChanged(last);
+        if (this.literalWords[last] == ~0l) {
+            this.numberOfLiteralWords = last;
+            addEmptyWords(true, 1);
+        }
+        return true;
+    }
+
+    @Override
+    public void addWord(final long newData) {
+        this.sizeInBits += WORD_IN_BITS;
+        if (newData == 0)
+            addEmptyWords(false, 1);
+        else if (newData == ~0l)
+            addEmptyWords(true, 1);
+        else
+            addLiteralWord(newData);
+    }
+
+    @Override
+    public void addStreamOfLiteralWords(final long[] data, final int start, final int number) {
+        for (int k = start; k < start + number; ++k)
+            addLiteralWord(data[k]);
+        this.sizeInBits += number * WORD_IN_BITS;
+    }
+
+    @Override
+    public void addStreamOfEmptyWords(final boolean v, final long number) {
+        if (number == 0)
+            return;
+        this.sizeInBits += number * WORD_IN_BITS;
+        addEmptyWords(v, number);
+    }
+
+    @Override
+    public void addStreamOfNegatedLiteralWords(final long[] data, final int start, final int number) {
+        for (int k = start; k < start + number; ++k)
+            addLiteralWord(~data[k]);
+        this.sizeInBits += number * WORD_IN_BITS;
+    }
+
+    /**
+     * Empty the bitmap. Since the words of the bitmap are overwritten
+     * afterwards, the empty bitmap is committed immediately.
+     */
+    @Override
+    public void clear() {
+        this.sizeInBits = 0;
+        this.markerPosition = 0;
+        this.runningBit = false;
+        this.runningLength = 0;
+        this.numberOfLiteralWords = 0;
+        this.literalWordsOnDisk = 0;
+        try {
+            // the slot holds all the words of an empty bitmap
+            writeSlot();
+            writeMarker();
+            this.channel.truncate(DATA_OFFSET + 8);
+            this.channel.force(false);
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not write the bitmap", e);
+        }
+    }
+
+    @Override
+    public void setSizeInBitsWithinLastWord(final int size) {
+        if ((size + WORD_IN_BITS - 1) / WORD_IN_BITS != (this.sizeInBits + WORD_IN_BITS - 1) / WORD_IN_BITS)
+            throw new RuntimeException("You can only reduce the size of the bitmap within the scope of the last word. To extend the bitmap, please call setSizeInBits(int,boolean).");
+        this.sizeInBits = size;
+        final int usedBitsInLast = this.sizeInBits % WORD_IN_BITS;
+        if (usedBitsInLast == 0)
+            return;
+        final long mask = (~0l) >>> (WORD_IN_BITS - usedBitsInLast);
+        if (this.numberOfLiteralWords == 0) {
+            if ((this.runningLength > 0) && this.runningBit) {
+                --this.runningLength;
+                addLiteralWord(mask);
+            }
+            return;
+        }
+        final int last = this.numberOfLiteralWords - 1;
+        this.literalWords[last] &= mask;
+        literalWordChanged(last);
+        if (this.literalWords[last] == 0) {
+            this.numberOfLiteralWords = last;
+            addEmptyWords(false, 1);
+        }
+    }
+
+    /**
+     * @return the size in bits of the bitmap (including uncommitted bits)
+     */
+    public int sizeInBits() {
+        return this.sizeInBits;
+    }
+
+    /**
+     * @return the number of words of the bitmap (including uncommitted
+     * words)
+     */
+    public int sizeInWords() {
+        return this.markerPosition + 1 + this.numberOfLiteralWords;
+    }
+
+    /**
+     * Write the pending words and make the current state durable. If the
+     * process stops before the end of the commit, the file is recovered in
+     * its previous committed state.
+     *
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    public void commit() throws IOException {
+        writeMarker();
+        this.channel.force(false);
+        writeSlot();
+        this.channel.force(false);
+    }
+
+    /**
+     * Commit and close the file.
+     *
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            commit();
+        } finally {
+            this.file.close();
+        }
+    }
+
+    private void addLiteralWord(final long newData) {
+        if (this.numberOfLiteralWords == this.literalWords.length)
+            flushMarker();
+        this.literalWords[this.numberOfLiteralWords++] = newData;
+    }
+
+    private void addEmptyWords(final boolean v, long number) {
+        if ((this.numberOfLiteralWords == 0) && ((this.runningLength == 0) || (this.runningBit == v))) {
+            this.runningBit = v;
+            final long whatWeCanAdd = Math.min(number, RunningLengthWord.LARGEST_RUNNING_LENGTH_COUNT
+                    - this.runningLength);
+            this.runningLength += whatWeCanAdd;
+            number -= whatWeCanAdd;
+        }
+        while (number > 0) {
+            flushMarker();
+            this.runningBit = v;
+            this.runningLength = Math.min(number, RunningLengthWord.LARGEST_RUNNING_LENGTH_COUNT);
+            number -= this.runningLength;
+        }
+    }
+
+    /**
+     * A literal word of the current marker was modified (or removed): it
+     * has to be written again.
+     */
+    private void literalWordChanged(final int index) {
+        if (this.literalWordsOnDisk > index)
+            this.literalWordsOnDisk = index;
+    }
+
+    /**
+     * Write the current marker word and its literal words, and start a new
+     * marker word after them.
+     */
+    private void flushMarker() {
+        try {
+            writeMarker();
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not write the bitmap", e);
+        }
+        this.markerPosition += 1 + this.numberOfLiteralWords;
+        this.runningBit = false;
+        this.runningLength = 0;
+        this.numberOfLiteralWords = 0;
+        this.literalWordsOnDisk = 0;
+    }
+
+    /**
+     * Write the current marker word and those of its literal words that are
+     * not yet on disk.
+     */
+    private void writeMarker() throws IOException {
+        if (this.literalWordsOnDisk > this.numberOfLiteralWords)
+            this.literalWordsOnDisk = this.numberOfLiteralWords;
+        this.block.clear();
+        this.block.putLong(markerWord());
+        this.block.flip();
+        writeFully(this.block, DATA_OFFSET + 8l * this.markerPosition);
+        final int n = this.numberOfLiteralWords - this.literalWordsOnDisk;
+        if (n > 0) {
+            this.block.clear();
+            this.block.asLongBuffer().put(this.literalWords, this.literalWordsOnDisk, n);
+            this.block.limit(8 * n);
+            writeFully(this.block, DATA_OFFSET + 8l * (this.markerPosition + 1 + this.literalWordsOnDisk));
+            this.literalWordsOnDisk = this.numberOfLiteralWords;
+        }
+    }
+
+    private long markerWord() {
+        return (this.runningBit ? 1l : 0l) | (this.runningLength << 1)
+                | (((long) this.numberOfLiteralWords) << (1 + RunningLengthWord.RUNNING_LENGTH_BITS));
+    }
+
+    private void writeSlot() throws IOException {
+        ++this.sequence;
+        final ByteBuffer slot = ByteBuffer.allocate(SLOT_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        slot.putLong(SLOT_SEQUENCE, this.sequence);
+        slot.putLong(SLOT_MARKER, markerWord());
+        slot.putLong(SLOT_LAST_WORD, this.numberOfLiteralWords == 0 ? markerWord()
+                : this.literalWords[this.numberOfLiteralWords - 1]);
+        slot.putInt(SLOT_SIZE_IN_BITS, this.sizeInBits);
+        slot.putInt(SLOT_WORDS, sizeInWords());
+        slot.putInt(SLOT_MARKER_POSITION, this.markerPosition);
+        final CRC32 crc = new CRC32();
+        crc.update(slot.array(), 0, SLOT_CHECKSUM);
+        slot.putInt(SLOT_CHECKSUM, (int) crc.getValue());
+        writeFully(slot, SLOTS_OFFSET + (this.sequence & 1) * SLOT_SIZE);
+    }
+
+    private void initialize() throws IOException {
+        final ByteBuffer header = ByteBuffer.allocate(DATA_OFFSET).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC);
+        header.putInt(VERSION);
+        header.rewind();
+        writeFully(header, 0);
+        commit();
+    }
+
+    private void recover() throws IOException {
+        final ByteBuffer slot = readLastSlot(this.channel);
+        this.sequence = slot.getLong(SLOT_SEQUENCE);
+        this.sizeInBits = slot.getInt(SLOT_SIZE_IN_BITS);
+        this.markerPosition = slot.getInt(SLOT_MARKER_POSITION);
+        final long marker = slot.getLong(SLOT_MARKER);
+        this.runningBit = (marker & 1) != 0;
+        this.runningLength = (marker >>> 1) & RunningLengthWord.LARGEST_RUNNING_LENGTH_COUNT;
+        this.numberOfLiteralWords = (int) (marker >>> (1 + RunningLengthWord.RUNNING_LENGTH_BITS));
+        if ((this.numberOfLiteralWords > this.literalWords.length)
+                || (sizeInWords() != slot.getInt(SLOT_WORDS)))
+            throw new IOException("Corrupted bitmap file (bad marker word)");
+        // the literal words, except the last one which is in the slot
+        if (this.numberOfLiteralWords > 1) {
+            this.block.clear();
+            this.block.limit(8 * (this.numberOfLiteralWords - 1));
+            readFully(this.block, DATA_OFFSET + 8l * (this.markerPosition + 1));
+            this.block.flip();
+            this.block.asLongBuffer().get(this.literalWords, 0, this.numberOfLiteralWords - 1);
+        }
+        if (this.numberOfLiteralWords > 0)
+            this.literalWords[this.numberOfLiteralWords - 1] = slot.getLong(SLOT_LAST_WORD);
+        // undo whatever was written after the commit
+        this.literalWordsOnDisk = Math.max(0, this.numberOfLiteralWords - 1);
+        writeMarker();
+        this.channel.truncate(DATA_OFFSET + 8l * sizeInWords());
+        this.channel.force(false);
+    }
+
+    private static ByteBuffer readLastSlot(final FileChannel channel) throws IOException {
+        final ByteBuffer header = ByteBuffer.allocate(SLOTS_OFFSET + 2 * SLOT_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        while (header.hasRemaining())
+            if (channel.read(header, header.position()) < 0)
+                throw new IOException("Not a bitmap file (too short)");
+        if ((header.getInt(0) != MAGIC) || (header.getInt(4) != VERSION))
+            throw new IOException("Not a bitmap file (bad magic number or version)");
+        ByteBuffer answer = null;
+        for (int k = 0; k < 2; ++k) {
+            final ByteBuffer slot = ByteBuffer.allocate(SLOT_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            System.arraycopy(header.array(), SLOTS_OFFSET + k * SLOT_SIZE, slot.array(), 0, SLOT_SIZE);
+            final CRC32 crc = new CRC32();
+            crc.update(slot.array(), 0, SLOT_CHECKSUM);
+            if ((int) crc.getValue() != slot.getInt(SLOT_CHECKSUM))
+                continue;
+            if ((answer == null) || (slot.getLong(SLOT_SEQUENCE) > answer.getLong(SLOT_SEQUENCE)))
+                answer = slot;
+        }
+        if (answer == null)
+            throw new IOException("Corrupted bitmap file (no valid commit)");
+        if ((answer.getInt(SLOT_WORDS) < 1) || (answer.getInt(SLOT_MARKER_POSITION) < 0)
+                || (answer.getInt(SLOT_MARKER_POSITION) >= answer.getInt(SLOT_WORDS)))
+            throw new IOException("Corrupted bitmap file (bad commit)");
+        return answer;
+    }
+
+    private void writeFully(final ByteBuffer b, long position) throws IOException {
+        while (b.hasRemaining())
+            position += this.channel.write(b, position);
+    }
+
+    private void readFully(final ByteBuffer b, long position) throws IOException {
+        while (b.hasRemaining()) {
+            final int n = this.channel.read(b, position);
+            if (n < 0)
+                throw new IOException("Corrupted bitmap file (truncated)");
+            position += n;
+        }
+    }
+
+    static final int MAGIC = 0x4c415745; // "EWAL"
+    static final int VERSION = 1;
+    static final int SLOTS_OFFSET = 8;
+    static final int SLOT_SIZE = 40;
+    static final int DATA_OFFSET = 128;
+    private static final int SLOT_SEQUENCE = 0;
+    private static final int SLOT_MARKER = 8;
+    private static final int SLOT_LAST_WORD = 16;
+    private static final int SLOT_SIZE_IN_BITS = 24;
+    private static final int SLOT_WORDS = 28;
+    private static final int SLOT_MARKER_POSITION = 32;
+    private static final int SLOT_CHECKSUM = 36;
+
+    /**
+     * Number of literal words held in memory after the current marker word.
+     */
+    private static final int BLOCK_IN_WORDS = 1024;
+
+    private static final int WORD_IN_BITS = EWAHCompressedBitmap.WORD_IN_BITS;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final long[] literalWords = new long[BLOCK_IN_WORDS];
+    private final ByteBuffer block = ByteBuffer.allocate(8 * BLOCK_IN_WORDS).order(ByteOrder.LITTLE_ENDIAN);
+    private long sequence = 0;
+    private int markerPosition = 0;
+    private boolean runningBit = false;
+    private long runningLength = 0;
+    private int numberOfLiteralWords = 0;
+    private int literalWordsOnDisk = 0;
+    private int sizeInBits = 0;
+}
@@ -0,0 +1,259 @@
+package com.googlecode.javaewah;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/*
+ * Copyright 2009-2014, Daniel Lemire, Cliff Moon, David McIntosh, Robert Becho, Google Inc., Veronika Zenz, Owen Kaser, Gregory Ssi-Yan-Kai, Rory Graves
+ * Licensed under the Apache License, Version 2.0.
+ */
+
+/**
+ * A BitmapStorage encoding the words it receives straight into a file, in
+ * the format of EWAHCompressedBitmap.serialize(ByteBuffer). It can be used as
+ * the container of the logical operations (e.g., andToContainer,
+ * FastAggregation.orToContainer) so that large results are written out
+ * without being materialized in memory: only the current marker word and its
+ * literal words (at most a block of them) are buffered.
+ *
+ * The bitmap is written at the position of the channel. The header (size in
+ * bits and number of words) is written when the storage is closed, at which
+ * point the channel is positioned after the bitmap. The result can be read
+ * back with EWAHCompressedBitmap.deserialize(ByteBuffer) or
+ * readFrom(ReadableByteChannel), or streamed with SerializedIteratingRLW.
+ *
+ * Since the methods of BitmapStorage cannot throw an IOException, errors
+ * while writing are reported as IllegalStateException.
+ *
+ * Here is a code sample:
+ *
+ * <pre>
+ * ChannelBitmapStorage storage = new ChannelBitmapStorage(channel);
+ * FastAggregation.orToContainer(storage, bitmaps);
+ * storage.close(); // the channel remains open
+ * </pre>
+ *
+ * This class is not thread-safe.
+ *
+ * @author Daniel Lemire
+ * @since 0.8.12
+ */
+public final class ChannelBitmapStorage implements BitmapStorage, Closeable {
+
+    /**
+     * Start writing a bitmap at the current position of the channel.
+     *
+     * @param channel the channel (it is not closed by this class)
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    public ChannelBitmapStorage(final FileChannel channel) throws IOException {
+        this.channel = channel;
+        this.headerPosition = channel.position();
+        // the header is written again once the counts are known
+        this.block.putInt(0);
+        this.block.putInt(0);
+        this.block.flip();
+        write(this.block);
+    }
+
+    @Override
+    public void addWord(final long newData) {
+        this.sizeInBits += WORD_IN_BITS;
+        if (newData == 0)
+            addEmptyWords(false, 1);
+        else if (newData == ~0l)
+            addEmptyWords(true, 1);
+        else
+            addLiteralWord(newData);
+    }
+
+    @Override
+    public void addStreamOfLiteralWords(final long[] data, final int start, final int number) {
+        int k = start;
+        final int end = start + number;
+        while (k < end) {
+            if (this.numberOfLiteralWords == this.literalWords.length)
+                flushMarker();
+            final int n = Math.min(end - k, this.literalWords.length - this.numberOfLiteralWords);
+            System.arraycopy(data, k, this.literalWords, this.numberOfLiteralWords, n);
+            this.numberOfLiteralWords += n;
+            k += n;
+        }
+        this.sizeInBits += number * WORD_IN_BITS;
+    }
+
+    @Override
+    public void addStreamOfEmptyWords(final boolean v, final long number) {
+        if (number == 0)
+            return;
+        this.sizeInBits += number * WORD_IN_BITS;
+        addEmptyWords(v, number);
+    }
+
+    @Override
+    public void addStreamOfNegatedLiteralWords(final long[] data, final int start, final int number) {
+        for (int k = start; k < start + number; ++k)
+            addLiteralWord(~data[k]);
+        this.sizeInBits += number * WORD_IN_BITS;
+    }
+
+    /**
+     * Discard the words added so far: the channel is moved back to the start
+     * of the bitmap. The file is not truncated.
+     */
+    @Override
+    public void clear() {
+        checkOpen();
+        this.sizeInBits = 0;
+        this.runningBit = false;
+        this.runningLength = 0;
+        this.numberOfLiteralWords = 0;
+        if (this.wordsWritten > 0) {
+            try {
+                this.channel.position(this.headerPosition + 8);
+            } catch (IOException e) {
+                throw new IllegalStateException("Could not write the bitmap", e);
+            }
+            this.wordsWritten = 0;
+        }
+    }
+
+    @Override
+    public void setSizeInBitsWithinLastWord(final int size) {
+        if ((size + WORD_IN_BITS - 1) / WORD_IN_BITS != (this.sizeInBits + WORD_IN_BITS - 1) / WORD_IN_BITS)
+            throw new RuntimeException("You can only reduce the size of the bitmap within the scope of the last word. To extend the bitmap, please call setSizeInBits(int,boolean).");
+        this.sizeInBits = size;
+        final int usedBitsInLast = this.sizeInBits % WORD_IN_BITS;
+        if (usedBitsInLast == 0)
+            return;
+        final long mask = (~0l) >>> (WORD_IN_BITS - usedBitsInLast);
+        // the last word is always buffered
+        if (this.numberOfLiteralWords == 0) {
+            if ((this.runningLength > 0) && this.runningBit) {
+                --this.runningLength;
+                addLiteralWord(mask);
+            }
+            return;
+        }
+        this.literalWords[this.numberOfLiteralWords - 1] &= mask;
+        if (this.literalWords[this.numberOfLiteralWords - 1] == 0) {
+            --this.numberOfLiteralWords;
+            addEmptyWords(false, 1);
+        }
+    }
+
+    /**
+     * @return the number of bits added so far
+     */
+    public int sizeInBits() {
+        return this.sizeInBits;
+    }
+
+    /**
+     * Write the last marker word, the header and the position of the last
+     * marker. The channel is left open and positioned after the bitmap.
+     * Closing an already closed storage has no effect.
+     *
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    @Override
+    public void close() throws IOException {
+        if (this.closed)
+            return;
+        final int lastMarker = this.wordsWritten;
+        writeMarker();
+        this.closed = true;
+        this.block.clear();
+        this.block.putInt(lastMarker);
+        this.block.flip();
+        write(this.block);
+        this.block.clear();
+        this.block.putInt(this.sizeInBits);
+        this.block.putInt(this.wordsWritten);
+        this.block.flip();
+        long position = this.headerPosition;
+        while (this.block.hasRemaining())
+            position += this.channel.write(this.block, position);
+    }
+
+    private void addLiteralWord(final long newData) {
+        if (this.numberOfLiteralWords == this.literalWords.length)
+            flushMarker();
+        this.literalWords[this.numberOfLiteralWords++] = newData;
+    }
+
+    private void addEmptyWords(final boolean v, long number) {
+        if ((this.numberOfLiteralWords == 0) && ((this.runningLength == 0) || (this.runningBit == v))) {
+            this.runningBit = v;
+            final long whatWeCanAdd = Math.min(number, RunningLengthWord.LARGEST_RUNNING_LENGTH_COUNT
+                    - this.runningLength);
+            this.runningLength += whatWeCanAdd;
+            number -= whatWeCanAdd;
+        }
+        while (number > 0) {
+            flushMarker();
+            this.runningBit = v;
+            this.runningLength = Math.min(number, RunningLengthWord.LARGEST_RUNNING_LENGTH_COUNT);
+            number -= this.runningLength;
+        }
+    }
+
+    /**
+     * Write the current marker word and its literal words, and start a new
+     * marker word.
+     */
+    private void flushMarker() {
+        try {
+            writeMarker();
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not write the bitmap", e);
+        }
+        this.runningBit = false;
+        this.runningLength = 0;
+        this.numberOfLiteralWords = 0;
+    }
+
+    private void writeMarker() throws IOException {
+        checkOpen();
+        this.block.clear();
+        this.block.putLong((this.runningBit ? 1l : 0l) | (this.runningLength << 1)
+                | (((long) this.numberOfLiteralWords) << (1 + RunningLengthWord.RUNNING_LENGTH_BITS)));
+        this.block.asLongBuffer().put(this.literalWords, 0, this.numberOfLiteralWords);
+        this.block.position(this.block.position() + this.numberOfLiteralWords * (WORD_IN_BITS / 8));
+        this.block.flip();
+        write(this.block);
+        this.wordsWritten += 1 + this.numberOfLiteralWords;
+    }
+
+    private void write(final ByteBuffer b) throws IOException {
+        while (b.hasRemaining())
+            this.channel.write(b);
+    }
+
+    private void checkOpen() {
+        if (this.closed)
+            throw new IllegalStateException("The storage is closed");
+    }
+
+    /**
+     * Number of literal words buffered after the current marker word.
+     */
+    private static final int BLOCK_IN_WORDS = 1024;
+
+    private static final int WORD_IN_BITS = EWAHCompressedBitmap.WORD_IN_BITS;
+
+    private final FileChannel channel;
+    private final long headerPosition;
+    private final long[] literalWords = new long[BLOCK_IN_WORDS];
+    private final ByteBuffer block = ByteBuffer.allocate((BLOCK_IN_WORDS + 1) * (WORD_IN_BITS / 8))
+            .order(ByteOrder.LITTLE_ENDIAN);
+    private boolean runningBit = false;
+    private long runningLength = 0;
+    private int numberOfLiteralWords = 0;
+    private int wordsWritten = 0;
+    private int sizeInBits = 0;
+    private boolean closed = false;
+}
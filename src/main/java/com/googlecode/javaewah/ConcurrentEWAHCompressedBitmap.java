@@ -0,0 +1,502 @@
+package com.googlecode.javaewah;
+
+import java.util.Arrays;
+
+/*
+ * Copyright 2009-2014, Daniel Lemire, Cliff Moon, David McIntosh, Robert Becho, Google Inc., Veronika Zenz, Owen Kaser, Gregory Ssi-Yan-Kai, Rory Graves
+ * Licensed under the Apache License, Version 2.0.
+ */
+
+/**
+ * A compressed bitmap which a single thread appends to (with set, addWord,
+ * ...) while any number of threads read it, without locks: a reader calls
+ * snapshot() and gets an immutable view of the bitmap as of the last
+ * completed append.
+ *
+ * Appending to an EWAH bitmap only touches its last words, so the bitmap is
+ * kept as a list of sealed segments, which are immutable, followed by a
+ * short tail which the writer appends to. After each append, the writer
+ * publishes a new snapshot through a volatile field: the snapshot shares
+ * the sealed segments and the words of the tail, since the writer only
+ * rewrites the last marker word and the last word in place, so that
+ * publishing costs a constant time whatever the size of the tail (see the
+ * segment size given to the constructor). Once the tail reaches the
+ * segment size, it is sealed
+ * without being copied (see EWAHCompressedBitmap.freeze()) and the last
+ * segments are merged when they have similar sizes, so that the number of
+ * segments grows logarithmically with the size of the bitmap.
+ *
+ * Here is a code sample:
+ *
+ * <pre>
+ * ConcurrentEWAHCompressedBitmap bitmap = new ConcurrentEWAHCompressedBitmap();
+ * // indexing thread
+ * bitmap.set(1);
+ * bitmap.set(10);
+ * // query threads
+ * ConcurrentEWAHCompressedBitmap.Snapshot snapshot = bitmap.snapshot();
+ * EWAHCompressedBitmap answer = snapshot.toBitmap().and(other);
+ * </pre>
+ *
+ * The snapshots are thread-safe; the methods which append to the bitmap
+ * must only be called by one thread at a time.
+ *
+ * @author Daniel Lemire
+ * @since 0.8.12
+ */
+public final class ConcurrentEWAHCompressedBitmap {
+
+    /**
+     * Creates an empty bitmap, with tails of at most
+     * DEFAULT_SEGMENT_SIZE_IN_WORDS words.
+     */
+    public ConcurrentEWAHCompressedBitmap() {
+        this(DEFAULT_SEGMENT_SIZE_IN_WORDS);
+    }
+
+    /**
+     * Creates an empty bitmap. A larger segment size makes the snapshots
+     * faster to read (they have fewer segments), but the first read of each
+     * snapshot copies the tail.
+     *
+     * @param segmentSizeInWords the size of the tail, in words, past which
+     *                           it is sealed
+     */
+    public ConcurrentEWAHCompressedBitmap(final int segmentSizeInWords) {
+        if (segmentSizeInWords < 1)
+            throw new IllegalArgumentException("The segment size should be positive, got " + segmentSizeInWords);
+        this.segmentSizeInBytes = segmentSizeInWords * (EWAHCompressedBitmap.WORD_IN_BITS / 8);
+        publish();
+    }
+
+    /**
+     * Set the bit at position i to true, the bits must be set in (strictly)
+     * increasing order. See EWAHCompressedBitmap.set(int).
+     *
+     * This method must only be called by the writing thread.
+     *
+     * @param i the index
+     * @return true if the value was set
+     * @throws IndexOutOfBoundsException if i is negative or greater than
+     *                                   Integer.MAX_VALUE - 64
+     */
+    public boolean set(final int i) {
+        if ((i > Integer.MAX_VALUE - EWAHCompressedBitmap.WORD_IN_BITS) || (i < 0))
+            throw new IndexOutOfBoundsException("Set values should be between 0 and "
+                    + (Integer.MAX_VALUE - EWAHCompressedBitmap.WORD_IN_BITS));
+        if (i - this.sealedSizeInBits < this.tail.sizeInBits())
+            return false;
+        final int tailWords = (this.tail.sizeInBits() + EWAHCompressedBitmap.WORD_IN_BITS - 1)
+                / EWAHCompressedBitmap.WORD_IN_BITS;
+        if (i - this.sealedSizeInBits >= tailWords * EWAHCompressedBitmap.WORD_IN_BITS) {
+            // the bit starts a new word, the tail can end here
+            sealIfFull();
+        }
+        this.tail.set(i - this.sealedSizeInBits);
+        publish();
+        return true;
+    }
+
+    /**
+     * Adding words directly to the bitmap (for expert use). See
+     * EWAHCompressedBitmap.addWord(long). If the size in bits is not a
+     * multiple of 64, the bitmap is first padded with zeroes.
+     *
+     * This method must only be called by the writing thread.
+     *
+     * @param newData the word
+     */
+    public void addWord(final long newData) {
+        alignTail();
+        this.tail.addWord(newData);
+        publish();
+    }
+
+    /**
+     * For experts: You want to add many zeroes or ones? This is the method
+     * you use. See EWAHCompressedBitmap.addStreamOfEmptyWords(boolean, long).
+     * As with addWord, the words start at a word boundary.
+     *
+     * This method must only be called by the writing thread.
+     *
+     * @param v      the boolean value
+     * @param number the number of words
+     */
+    public void addStreamOfEmptyWords(final boolean v, final long number) {
+        if (number == 0)
+            return;
+        alignTail();
+        this.tail.addStreamOfEmptyWords(v, number);
+        publish();
+    }
+
+    /**
+     * Adding literal words directly to the bitmap (for expert use); the
+     * words are published at once. See
+     * EWAHCompressedBitmap.addStreamOfLiteralWords(long[], int, int). As
+     * with addWord, the words start at a word boundary.
+     *
+     * This method must only be called by the writing thread.
+     *
+     * @param data   the literal words
+     * @param start  the starting point in the array
+     * @param number the number of literal words to add
+     */
+    public void addStreamOfLiteralWords(final long[] data, final int start, final int number) {
+        if (number == 0)
+            return;
+        alignTail();
+        for (int k = 0; k < number; ++k)
+            this.tail.addWord(data[start + k]);
+        publish();
+    }
+
+    /**
+     * @return the size in bits of the bitmap, as of the last append
+     */
+    public int sizeInBits() {
+        return this.snapshot.sizeInBits();
+    }
+
+    /**
+     * Get an immutable view of the bitmap, as of the last completed append.
+     * This method does not lock nor copy anything, it can be called by any
+     * thread.
+     *
+     * @return the snapshot
+     */
+    public Snapshot snapshot() {
+        return this.snapshot;
+    }
+
+    /**
+     * Pad the tail to a whole number of words, since the words added
+     * directly start at a word boundary, and seal it if it is full.
+     */
+    private void alignTail() {
+        final int words = (this.tail.sizeInBits() + EWAHCompressedBitmap.WORD_IN_BITS - 1)
+                / EWAHCompressedBitmap.WORD_IN_BITS;
+        this.tail.setSizeInBits(words * EWAHCompressedBitmap.WORD_IN_BITS, false);
+        sealIfFull();
+    }
+
+    /**
+     * Seal the tail if it is full: it becomes the last segment and the last
+     * segments are merged while the one before is not larger, as in a binary
+     * counter. The tail is padded to a whole number of words first.
+     */
+    private void sealIfFull() {
+        if (this.tail.sizeInBytes() < this.segmentSizeInBytes)
+            return;
+        final int words = (this.tail.sizeInBits() + EWAHCompressedBitmap.WORD_IN_BITS - 1)
+                / EWAHCompressedBitmap.WORD_IN_BITS;
+        this.tail.setSizeInBits(words * EWAHCompressedBitmap.WORD_IN_BITS, false);
+        int n = this.segments.length;
+        // the published arrays are never modified
+        final ImmutableEWAHCompressedBitmap[] newSegments = Arrays.copyOf(this.segments, n + 1);
+        final int[] newOffsets = Arrays.copyOf(this.offsets, n + 1);
+        newOffsets[n] = this.sealedSizeInBits;
+        this.sealedSizeInBits += this.tail.sizeInBits();
+        newSegments[n++] = this.tail.freeze();
+        while ((n >= 2) && (newSegments[n - 2].sizeInBytes() <= newSegments[n - 1].sizeInBytes())) {
+            final EWAHCompressedBitmap merged = newSegments[n - 2].toMutable();
+            IteratorUtil.materialize(newSegments[n - 1].getIteratingRLW(), merged);
+            merged.trim();
+            newSegments[n - 2] = new ImmutableEWAHCompressedBitmap(merged);
+            --n;
+        }
+        this.segments = Arrays.copyOf(newSegments, n);
+        this.offsets = Arrays.copyOf(newOffsets, n);
+    }
+
+    private void publish() {
+        // the words are shared, except the two which may be rewritten later
+        final long[] words = this.tail.buffer;
+        final int sizeInWords = this.tail.sizeInBytes() / (EWAHCompressedBitmap.WORD_IN_BITS / 8);
+        final int rlwPosition = this.tail.getRunningLengthWordPosition();
+        this.snapshot = new Snapshot(this.version++, this.segments, this.offsets, this.sealedSizeInBits,
+                words, sizeInWords, rlwPosition, words[rlwPosition], words[sizeInWords - 1],
+                this.tail.sizeInBits());
+    }
+
+    /**
+     * An immutable view of a ConcurrentEWAHCompressedBitmap. It can be
+     * shared freely across threads.
+     */
+    public static final class Snapshot {
+
+        private Snapshot(final long version, final ImmutableEWAHCompressedBitmap[] segments, final int[] offsets,
+                         final int sealedSizeInBits, final long[] tailWords, final int tailSizeInWords,
+                         final int tailRlwPosition, final long tailRlw, final long tailLastWord,
+                         final int tailSizeInBits) {
+            this.version = version;
+            this.segments = segments;
+            this.offsets = offsets;
+            this.sealedSizeInBits = sealedSizeInBits;
+            this.tailWords = tailWords;
+            this.tailSizeInWords = tailSizeInWords;
+            this.tailRlwPosition = tailRlwPosition;
+            this.tailRlw = tailRlw;
+            this.tailLastWord = tailLastWord;
+            this.tailSizeInBits = tailSizeInBits;
+        }
+
+        /**
+         * The version is incremented with each append, so that it can be
+         * used as a cache key (e.g., with Expr.of(String, long, ...)).
+         *
+         * @return the version of the bitmap
+         */
+        public long version() {
+            return this.version;
+        }
+
+        /**
+         * @return the size in bits
+         */
+        public int sizeInBits() {
+            return this.sealedSizeInBits + this.tailSizeInBits;
+        }
+
+        /**
+         * @return the number of bits set to true
+         */
+        public int cardinality() {
+            int answer = tail().cardinality();
+            for (ImmutableEWAHCompressedBitmap segment : this.segments)
+                answer += segment.cardinality();
+            return answer;
+        }
+
+        /**
+         * @return whether no bit is set
+         */
+        public boolean isEmpty() {
+            if (!tail().isEmpty())
+                return false;
+            for (ImmutableEWAHCompressedBitmap segment : this.segments)
+                if (!segment.isEmpty())
+                    return false;
+            return true;
+        }
+
+        /**
+         * Query the value of a single bit.
+         *
+         * @param i the bit we are interested in
+         * @return whether the bit is set to true
+         */
+        public boolean get(final int i) {
+            if ((i < 0) || (i >= sizeInBits()))
+                return false;
+            if (i >= this.sealedSizeInBits)
+                return tail().get(i - this.sealedSizeInBits);
+            final int position = Arrays.binarySearch(this.offsets, i);
+            final int k = position >= 0 ? position : -position - 2;
+            return this.segments[k].get(i - this.offsets[k]);
+        }
+
+        /**
+         * @return the number of immutable segments before the tail
+         */
+        public int numberOfSegments() {
+            return this.segments.length;
+        }
+
+        /**
+         * Iterate over the words of the snapshot, segment after segment,
+         * e.g., to compute a logical operation with IteratorAggregation
+         * without copying the snapshot.
+         *
+         * @return an iterator over the marker and literal words
+         */
+        public IteratingRLW getIteratingRLW() {
+            final ImmutableEWAHCompressedBitmap[] parts = Arrays.copyOf(this.segments, this.segments.length + 1);
+            parts[this.segments.length] = tail();
+            return new SegmentIteratingRLW(parts);
+        }
+
+        /**
+         * @return an iterator over the set bits
+         */
+        public IntIterator intIterator() {
+            return IteratorUtil.toSetBitsIntIterator(getIteratingRLW());
+        }
+
+        /**
+         * @return the positions of the set bits
+         */
+        public int[] toArray() {
+            final int[] answer = new int[cardinality()];
+            final IntIterator i = intIterator();
+            for (int k = 0; k < answer.length; ++k)
+                answer[k] = i.next();
+            return answer;
+        }
+
+        /**
+         * Copy the snapshot into a single bitmap.
+         *
+         * @return a new bitmap
+         */
+        public EWAHCompressedBitmap toBitmap() {
+            final EWAHCompressedBitmap answer = IteratorUtil.materialize(getIteratingRLW());
+            if (answer.sizeInBits() > sizeInBits())
+                answer.setSizeInBitsWithinLastWord(sizeInBits());
+            else
+                answer.setSizeInBits(sizeInBits(), false);
+            return answer;
+        }
+
+        /**
+         * The tail is only copied on the first use: the words which the
+         * writer may have rewritten since are restored from their values
+         * at the time of the snapshot, and the others are left unchanged.
+         */
+        private ImmutableEWAHCompressedBitmap tail() {
+            ImmutableEWAHCompressedBitmap answer = this.tail;
+            if (answer == null) {
+                final long[] words = Arrays.copyOf(this.tailWords, this.tailSizeInWords);
+                words[this.tailRlwPosition] = this.tailRlw;
+                words[this.tailSizeInWords - 1] = this.tailLastWord;
+                answer = new ImmutableEWAHCompressedBitmap(EWAHCompressedBitmap.wrap(words, this.tailSizeInWords,
+                        this.tailRlwPosition, this.tailSizeInBits));
+                this.tail = answer;
+            }
+            return answer;
+        }
+
+        @Override
+        public String toString() {
+            return "version " + this.version + ", " + this.segments.length + " segments, " + toBitmap();
+        }
+
+        private final long version;
+        private final ImmutableEWAHCompressedBitmap[] segments;
+        private final int[] offsets;
+        private final int sealedSizeInBits;
+        private final long[] tailWords;
+        private final int tailSizeInWords;
+        private final int tailRlwPosition;
+        private final long tailRlw;
+        private final long tailLastWord;
+        private final int tailSizeInBits;
+        private volatile ImmutableEWAHCompressedBitmap tail;
+    }
+
+    /**
+     * Iterates over the words of consecutive bitmaps, each one holding a
+     * whole number of words, as if they were a single bitmap. The iterator
+     * is always positioned on a non-empty marker, unless it is exhausted.
+     */
+    private static final class SegmentIteratingRLW implements IteratingRLW {
+
+        SegmentIteratingRLW(final ImmutableEWAHCompressedBitmap[] parts) {
+            this(parts, 0, parts[0].getIteratingRLW());
+            skipEmpty();
+        }
+
+        private SegmentIteratingRLW(final ImmutableEWAHCompressedBitmap[] parts, final int index,
+                                    final IteratingRLW current) {
+            this.parts = parts;
+            this.index = index;
+            this.current = current;
+        }
+
+        @Override
+        public boolean next() {
+            if (!this.current.next() && !nextPart())
+                return false;
+            return skipEmpty();
+        }
+
+        @Override
+        public long getLiteralWordAt(final int index) {
+            return this.current.getLiteralWordAt(index);
+        }
+
+        @Override
+        public int getNumberOfLiteralWords() {
+            return this.current.getNumberOfLiteralWords();
+        }
+
+        @Override
+        public boolean getRunningBit() {
+            return this.current.getRunningBit();
+        }
+
+        @Override
+        public long size() {
+            return this.current.size();
+        }
+
+        @Override
+        public long getRunningLength() {
+            return this.current.getRunningLength();
+        }
+
+        @Override
+        public void discardFirstWords(long x) {
+            while (x > 0) {
+                final long size = this.current.size();
+                if (x < size) {
+                    this.current.discardFirstWords(x);
+                    return;
+                }
+                // never go past the end of the current part
+                this.current.discardFirstWords(size);
+                x -= size;
+                if (!skipEmpty())
+                    return;
+            }
+        }
+
+        @Override
+        public void discardRunningWords() {
+            this.current.discardRunningWords();
+            skipEmpty();
+        }
+
+        @Override
+        public SegmentIteratingRLW clone() throws CloneNotSupportedException {
+            return new SegmentIteratingRLW(this.parts, this.index, this.current.clone());
+        }
+
+        /**
+         * Move to the next non-empty marker, if the current one is empty.
+         *
+         * @return whether there is one
+         */
+        private boolean skipEmpty() {
+            while (this.current.size() == 0) {
+                if (!this.current.next() && !nextPart())
+                    return false;
+            }
+            return true;
+        }
+
+        private boolean nextPart() {
+            if (this.index + 1 == this.parts.length)
+                return false;
+            this.current = this.parts[++this.index].getIteratingRLW();
+            return true;
+        }
+
+        private final ImmutableEWAHCompressedBitmap[] parts;
+        private int index;
+        private IteratingRLW current;
+    }
+
+    /**
+     * The default size of the tail, in words, past which it is sealed.
+     */
+    public static final int DEFAULT_SEGMENT_SIZE_IN_WORDS = 256;
+
+    private final int segmentSizeInBytes;
+    private final EWAHCompressedBitmap tail = new EWAHCompressedBitmap();
+    private ImmutableEWAHCompressedBitmap[] segments = new ImmutableEWAHCompressedBitmap[0];
+    private int[] offsets = new int[0];
+    private int sealedSizeInBits = 0;
+    private long version = 0;
+    private volatile Snapshot snapshot;
+}
@@ -0,0 +1,167 @@
+package com.googlecode.javaewah;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/*
+ * Copyright 2009-2014, Daniel Lemire, Cliff Moon, David McIntosh, Robert Becho, Google Inc., Veronika Zenz, Owen Kaser, Gregory Ssi-Yan-Kai, Rory Graves
+ * Licensed under the Apache License, Version 2.0.
+ */
+
+/**
+ * A patch turning a version of a bitmap into a newer version, e.g., to
+ * replicate bitmaps by shipping only what changed. The patch holds the bits
+ * which differ between the two versions, as a compressed bitmap: it is
+ * computed and applied with a single pass over the marker and literal words
+ * of the bitmaps (see xorToContainer), so that unchanged runs cost a marker
+ * word at most. The serialized patch uses LiteralCoding, where a literal word
+ * with few changed bits takes a few bytes: the size of the patch is
+ * proportional to the number of changed words rather than to the size of the
+ * bitmaps.
+ *
+ * Here is a code sample:
+ *
+ * <pre>
+ * EWAHBitmapDelta patch = EWAHBitmapDelta.diff(older, newer);
+ * patch.serialize(out);
+ * // on the replica
+ * EWAHBitmapDelta received = EWAHBitmapDelta.deserialize(in);
+ * EWAHCompressedBitmap updated = EWAHBitmapDelta.apply(replica, received);
+ * </pre>
+ *
+ * The patch records the size in bits and the cardinality of the older
+ * version, so that applying it to another bitmap is usually detected.
+ *
+ * @author Daniel Lemire
+ * @since 0.8.12
+ */
+public final class EWAHBitmapDelta {
+
+    private EWAHBitmapDelta(final EWAHCompressedBitmap changes, final int olderSizeInBits,
+                            final int olderCardinality, final int sizeInBits) {
+        this.changes = changes;
+        this.olderSizeInBits = olderSizeInBits;
+        this.olderCardinality = olderCardinality;
+        this.sizeInBits = sizeInBits;
+    }
+
+    /**
+     * Compute the patch turning a bitmap into another one.
+     *
+     * @param older the older version
+     * @param newer the newer version
+     * @return the patch
+     */
+    public static EWAHBitmapDelta diff(final EWAHCompressedBitmap older, final EWAHCompressedBitmap newer) {
+        return new EWAHBitmapDelta(older.xor(newer), older.sizeInBits(), older.cardinality(), newer.sizeInBits());
+    }
+
+    /**
+     * Apply a patch to the version of the bitmap it was computed from. The
+     * bitmap is not modified.
+     *
+     * @param older the older version
+     * @param patch the patch
+     * @return a new bitmap, equal to the newer version
+     * @throws IllegalArgumentException if the patch was computed from
+     *                                  another bitmap
+     */
+    public static EWAHCompressedBitmap apply(final EWAHCompressedBitmap older, final EWAHBitmapDelta patch) {
+        if ((older.sizeInBits() != patch.olderSizeInBits) || (older.cardinality() != patch.olderCardinality))
+            throw new IllegalArgumentException("The patch was computed from another bitmap");
+        final EWAHCompressedBitmap answer = older.xor(patch.changes);
+        if (answer.sizeInBits() > patch.sizeInBits) {
+            // the bits past the end of the newer version are all cleared
+            return truncate(answer, patch.sizeInBits);
+        }
+        answer.setSizeInBits(patch.sizeInBits, false);
+        return answer;
+    }
+
+    /**
+     * @return the bits which differ between the two versions
+     */
+    public EWAHCompressedBitmap getChanges() {
+        return this.changes;
+    }
+
+    /**
+     * @return the size in bits of the newer version
+     */
+    public int sizeInBits() {
+        return this.sizeInBits;
+    }
+
+    /**
+     * @return whether the two versions are equal
+     */
+    public boolean isEmpty() {
+        return (this.olderSizeInBits == this.sizeInBits) && this.changes.isEmpty();
+    }
+
+    /**
+     * Write the patch.
+     *
+     * @param out the output
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    public void serialize(final DataOutput out) throws IOException {
+        out.writeInt(this.olderSizeInBits);
+        out.writeInt(this.olderCardinality);
+        out.writeInt(this.sizeInBits);
+        LiteralCoding.serialize(this.changes, out);
+    }
+
+    /**
+     * Read a patch written by serialize.
+     *
+     * @param in the input
+     * @return the patch
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    public static EWAHBitmapDelta deserialize(final DataInput in) throws IOException {
+        final int olderSizeInBits = in.readInt();
+        final int olderCardinality = in.readInt();
+        final int sizeInBits = in.readInt();
+        return new EWAHBitmapDelta(LiteralCoding.deserialize(in), olderSizeInBits, olderCardinality, sizeInBits);
+    }
+
+    /**
+     * @return the number of bytes written by serialize
+     */
+    public long serializedSizeInBytes() {
+        return 12 + LiteralCoding.serializedSizeInBytes(this.changes);
+    }
+
+    /**
+     * Copy the first words of a bitmap, enough to hold the given number of
+     * bits.
+     */
+    private static EWAHCompressedBitmap truncate(final EWAHCompressedBitmap bitmap, final int sizeInBits) {
+        final EWAHCompressedBitmap answer = new EWAHCompressedBitmap();
+        long words = (sizeInBits + EWAHCompressedBitmap.WORD_IN_BITS - 1) / EWAHCompressedBitmap.WORD_IN_BITS;
+        final IteratingRLW i = bitmap.getIteratingRLW();
+        while (words > 0) {
+            final long runningLength = Math.min(i.getRunningLength(), words);
+            answer.addStreamOfEmptyWords(i.getRunningBit(), runningLength);
+            words -= runningLength;
+            final int numberOfLiteralWords = (int) Math.min(i.getNumberOfLiteralWords(), words);
+            for (int k = 0; k < numberOfLiteralWords; ++k)
+                answer.addWord(i.getLiteralWordAt(k));
+            words -= numberOfLiteralWords;
+            if (!i.next())
+                break;
+        }
+        if (answer.sizeInBits() > sizeInBits)
+            answer.setSizeInBitsWithinLastWord(sizeInBits);
+        else
+            answer.setSizeInBits(sizeInBits, false);
+        return answer;
+    }
+
+    private final EWAHCompressedBitmap changes;
+    private final int olderSizeInBits;
+    private final int olderCardinality;
+    private final int sizeInBits;
+}
@@ -1,8 +1,14 @@
 package com.googlecode.javaewah;
 
-import com.googlecode.javaewah.symmetric.RunningBitmapMerge;
+import com.googlecode.javaewah.symmetric.SymmetricAlgorithmSelector;
 import com.googlecode.javaewah.symmetric.ThresholdFuncBitmap;
 import java.io.*;
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
@@ -552,6 +558,77 @@ public final class EWAHCompressedBitmap implements Cloneable, Externalizable, It
         this.rlw = new RunningLengthWord(this, in.readInt());
     }
 
+    /**
+     * Deserialize from a ByteBuffer, starting at its position, which is
+     * then advanced. The data should have been written by
+     * serialize(ByteBuffer) or writeTo(WritableByteChannel): the fields are
+     * the same as with serialize(DataOutput), in little-endian byte order.
+     * The byte order of the ByteBuffer is ignored and left unchanged.
+     *
+     * @param buffer the ByteBuffer
+     * @throws BufferUnderflowException if the buffer is too short (the
+     *                                  bitmap is then left unchanged)
+     * @since 0.8.12
+     */
+    public void deserialize(ByteBuffer buffer) {
+        final ByteBuffer b = buffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+        final int sizeInBits = b.getInt();
+        final int sizeInWords = b.getInt();
+        if ((sizeInWords < 0) || (b.remaining() < (long) sizeInWords * 8 + 4))
+            throw new BufferUnderflowException();
+        if (this.buffer.length < sizeInWords)
+            this.buffer = new long[sizeInWords];
+        b.asLongBuffer().get(this.buffer, 0, sizeInWords);
+        b.position(b.position() + sizeInWords * 8);
+        this.sizeInBits = sizeInBits;
+        this.actualSizeInWords = sizeInWords;
+        this.rlw = new RunningLengthWord(this, b.getInt());
+        buffer.position(buffer.position() + b.position());
+    }
+
+    /**
+     * Deserialize from a channel. The data should have been written by
+     * writeTo(WritableByteChannel) or serialize(ByteBuffer). The words are
+     * read in blocks and copied in bulk. The channel should be blocking.
+     *
+     * @param channel the channel
+     * @throws IOException Signals that an I/O exception has occurred (an
+     *                     EOFException if the channel ends too soon, the
+     *                     bitmap is then left unchanged).
+     * @since 0.8.12
+     */
+    public void readFrom(ReadableByteChannel channel) throws IOException {
+        final ByteBuffer header = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(channel, header);
+        header.flip();
+        final int sizeInBits = header.getInt();
+        final int sizeInWords = header.getInt();
+        if (sizeInWords < 0)
+            throw new IOException("Invalid number of words: " + sizeInWords);
+        // the fields are only changed once everything was read
+        final long[] words = new long[Math.max(1, sizeInWords)];
+        final ByteBuffer block = ByteBuffer.allocate(8 * Math.max(1, Math.min(sizeInWords,
+                CHANNEL_BLOCK_IN_WORDS))).order(ByteOrder.LITTLE_ENDIAN);
+        for (int k = 0; k < sizeInWords; ) {
+            final int n = Math.min(sizeInWords - k, block.capacity() / 8);
+            block.clear();
+            block.limit(n * 8);
+            readFully(channel, block);
+            block.flip();
+            block.asLongBuffer().get(words, k, n);
+            k += n;
+        }
+        header.clear();
+        header.limit(4);
+        readFully(channel, header);
+        header.flip();
+        final int rlwPosition = header.getInt();
+        this.buffer = words;
+        this.sizeInBits = sizeInBits;
+        this.actualSizeInWords = sizeInWords;
+        this.rlw = new RunningLengthWord(this, rlwPosition);
+    }
+
     /**
      * Check to see whether the two compressed bitmaps contain the same set
      * bits.
@@ -561,6 +638,8 @@ public final class EWAHCompressedBitmap implements Cloneable, Externalizable, It
     @Override
     public boolean equals(Object o) {
         if (o instanceof EWAHCompressedBitmap) {
+            if (sameWords((EWAHCompressedBitmap) o))
+                return true;
             try {
                 this.xorToContainer((EWAHCompressedBitmap) o, new NonEmptyVirtualStorage());
                 return true;
@@ -571,6 +650,22 @@ public final class EWAHCompressedBitmap implements Cloneable, Externalizable, It
         return false;
     }
 
+    /**
+     * Compare the words of two bitmaps: this is cheaper than comparing their
+     * bits, e.g., when both are canonical (see canonicalize).
+     *
+     * @param other the other bitmap
+     * @return whether the bitmaps have the same words
+     */
+    private boolean sameWords(final EWAHCompressedBitmap other) {
+        if (this.actualSizeInWords != other.actualSizeInWords)
+            return false;
+        for (int k = 0; k < this.actualSizeInWords; ++k)
+            if (this.buffer[k] != other.buffer[k])
+                return false;
+        return true;
+    }
+
     /**
      * For experts: You want to add many zeroes or ones faster?
      * 
@@ -1075,6 +1170,66 @@ public final class EWAHCompressedBitmap implements Cloneable, Externalizable, It
         out.writeInt(this.rlw.position);
     }
 
+    /**
+     * Serialize to a ByteBuffer, starting at its position, which is then
+     * advanced. The fields are the same as with serialize(DataOutput), in
+     * little-endian byte order whatever the order of the ByteBuffer (which
+     * is left unchanged), and the words are copied in bulk. The buffer
+     * needs serializedSizeInBytes() bytes.
+     *
+     * The current bitmap is not modified.
+     *
+     * @param buffer the ByteBuffer
+     * @throws BufferOverflowException if the buffer is too short (nothing
+     *                                 is then written)
+     * @since 0.8.12
+     */
+    public void serialize(ByteBuffer buffer) {
+        if (buffer.remaining() < serializedSizeInBytes())
+            throw new BufferOverflowException();
+        final ByteBuffer b = buffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+        b.putInt(this.sizeInBits);
+        b.putInt(this.actualSizeInWords);
+        b.asLongBuffer().put(this.buffer, 0, this.actualSizeInWords);
+        b.position(b.position() + this.actualSizeInWords * 8);
+        b.putInt(this.rlw.position);
+        buffer.position(buffer.position() + b.position());
+    }
+
+    /**
+     * Serialize to a channel, in the format of serialize(ByteBuffer). The
+     * words are copied in bulk to blocks which are then written. The
+     * channel should be blocking.
+     *
+     * The current bitmap is not modified.
+     *
+     * @param channel the channel
+     * @throws IOException Signals that an I/O exception has occurred.
+     * @since 0.8.12
+     */
+    public void writeTo(WritableByteChannel channel) throws IOException {
+        final ByteBuffer block = ByteBuffer.allocate(12 + 8 * Math.min(this.actualSizeInWords,
+                CHANNEL_BLOCK_IN_WORDS)).order(ByteOrder.LITTLE_ENDIAN);
+        block.putInt(this.sizeInBits);
+        block.putInt(this.actualSizeInWords);
+        int k = 0;
+        boolean done = false;
+        while (!done) {
+            final int n = Math.min(this.actualSizeInWords - k, block.remaining() / 8);
+            block.asLongBuffer().put(this.buffer, k, n);
+            block.position(block.position() + n * 8);
+            k += n;
+            if ((k == this.actualSizeInWords) && (block.remaining() >= 4)) {
+                block.putInt(this.rlw.position);
+                done = true;
+            }
+            block.flip();
+            while (block.hasRemaining())
+                channel.write(block);
+            block.clear();
+        }
+    }
+
     /**
      * Report the number of bytes required to serialize this bitmap
      * 
@@ -1324,7 +1479,9 @@ public final class EWAHCompressedBitmap implements Cloneable, Externalizable, It
      * Compute a Boolean threshold function: bits are true where at least T
      * bitmaps have a true bit.
      * 
-     * The content of the container is overwritten.
+     * The content of the container is overwritten. The algorithm is chosen
+     * by SymmetricAlgorithmSelector given the number and the sizes of the
+     * bitmaps.
      *
      * @param t         the threshold
      * @param bitmaps   input data
@@ -1332,7 +1489,23 @@ public final class EWAHCompressedBitmap implements Cloneable, Externalizable, It
      * @since 0.8.1
      */
     public static void thresholdWithContainer(final BitmapStorage container, final int t, final EWAHCompressedBitmap... bitmaps) {
-        (new RunningBitmapMerge()).symmetric(new ThresholdFuncBitmap(t), container, bitmaps);
+        (new SymmetricAlgorithmSelector()).symmetric(new ThresholdFuncBitmap(t), container, bitmaps);
+    }
+
+    /**
+     * Compute the cardinality of a Boolean threshold function: the number of
+     * positions where at least t bitmaps have a true bit. The result is
+     * counted as it is computed: it is never materialized.
+     *
+     * @param t       the threshold
+     * @param bitmaps input data
+     * @return the number of true bits of the threshold function
+     * @since 0.8.12
+     */
+    public static int thresholdCardinality(final int t, final EWAHCompressedBitmap... bitmaps) {
+        final BitCounter counter = new BitCounter();
+        thresholdWithContainer(counter, t, bitmaps);
+        return counter.getCount();
     }
 
     /**
@@ -1445,6 +1618,134 @@ public final class EWAHCompressedBitmap implements Cloneable, Externalizable, It
         this.buffer = Arrays.copyOf(this.buffer, this.actualSizeInWords);
     }
 
+    /**
+     * Turn the content of this bitmap into an immutable bitmap, which can be
+     * shared across threads without cloning it. The words are handed over
+     * without being copied: this bitmap is left empty, and it can be reused.
+     * To keep this bitmap unchanged, use
+     * ImmutableEWAHCompressedBitmap.copyOf instead.
+     *
+     * Since this modifies the bitmap, this method is not thread-safe.
+     *
+     * @return the immutable bitmap
+     * @since 0.8.12
+     */
+    public ImmutableEWAHCompressedBitmap freeze() {
+        final EWAHCompressedBitmap frozen = new EWAHCompressedBitmap(1);
+        frozen.swap(this);
+        return new ImmutableEWAHCompressedBitmap(frozen);
+    }
+
+    /**
+     * The position of the current marker word: after an append, only this
+     * word and the last one may have been rewritten in place, the words
+     * before them are left unchanged.
+     *
+     * @return the position of the current marker word in the buffer
+     */
+    int getRunningLengthWordPosition() {
+        return this.rlw.position;
+    }
+
+    /**
+     * Creates a bitmap over the first sizeInWords words of the array, which
+     * is not copied: it should not be modified afterwards.
+     *
+     * @param words       the words
+     * @param sizeInWords the number of words in use
+     * @param rlwPosition the position of the last marker word
+     * @param sizeInBits  the size of the bitmap in bits
+     * @return the bitmap
+     */
+    static EWAHCompressedBitmap wrap(final long[] words, final int sizeInWords, final int rlwPosition,
+                                     final int sizeInBits) {
+        final EWAHCompressedBitmap answer = new EWAHCompressedBitmap(0);
+        answer.buffer = words;
+        answer.actualSizeInWords = sizeInWords;
+        answer.sizeInBits = sizeInBits;
+        answer.rlw = new RunningLengthWord(answer, rlwPosition);
+        return answer;
+    }
+
+    /**
+     * Re-encode the bitmap in its canonical form, in one pass: literal words
+     * made of zeros or ones are turned into runs, and adjacent marker words
+     * which can be merged are merged. This is the form obtained by adding
+     * the words one at a time with addWord. Bitmaps built with
+     * addStreamOfLiteralWords, setSizeInBits or some of the logical
+     * operations may not be canonical: canonicalizing them can save memory
+     * and speed up later operations. The internal buffer is trimmed.
+     *
+     * The size in bits and the set bits are unchanged.
+     *
+     * Since this modifies the bitmap, this method is not thread-safe.
+     *
+     * @since 0.8.12
+     */
+    public void canonicalize() {
+        if (isCanonical()) {
+            trim();
+            return;
+        }
+        final EWAHCompressedBitmap answer = new EWAHCompressedBitmap(this.actualSizeInWords);
+        final EWAHIterator i = this.getEWAHIterator();
+        while (i.hasNext()) {
+            final RunningLengthWord localrlw = i.next();
+            answer.addStreamOfEmptyWords(localrlw.getRunningBit(), localrlw.getRunningLength());
+            final int start = i.literalWords();
+            for (int k = 0; k < localrlw.getNumberOfLiteralWords(); ++k)
+                answer.addWord(this.buffer[start + k]);
+        }
+        this.buffer = Arrays.copyOf(answer.buffer, answer.actualSizeInWords);
+        this.actualSizeInWords = answer.actualSizeInWords;
+        this.rlw = new RunningLengthWord(this, answer.rlw.position);
+    }
+
+    /**
+     * Check whether the bitmap is in its canonical form (see canonicalize).
+     * A sequence of words has a single canonical encoding: canonical bitmaps
+     * holding the same words can be compared word by word.
+     *
+     * The current bitmap is not modified.
+     *
+     * @return whether the bitmap is canonical
+     * @since 0.8.12
+     */
+    public boolean isCanonical() {
+        final EWAHIterator i = this.getEWAHIterator();
+        boolean first = true;
+        boolean previousRunningBit = false;
+        long previousRunningLength = 0;
+        int previousNumberOfLiteralWords = 0;
+        while (i.hasNext()) {
+            final RunningLengthWord localrlw = i.next();
+            final boolean runningBit = localrlw.getRunningBit();
+            final long runningLength = localrlw.getRunningLength();
+            final int numberOfLiteralWords = localrlw.getNumberOfLiteralWords();
+            if ((runningLength == 0) && runningBit)
+                return false;
+            if (!first) {
+                // the words of this marker should have been added to the previous one
+                if ((runningLength == 0) && ((numberOfLiteralWords == 0)
+                        || (previousNumberOfLiteralWords < RunningLengthWord.LARGEST_LITERAL_COUNT)))
+                    return false;
+                if ((previousNumberOfLiteralWords == 0) && ((previousRunningLength == 0)
+                        || ((previousRunningBit == runningBit)
+                        && (previousRunningLength < RunningLengthWord.LARGEST_RUNNING_LENGTH_COUNT))))
+                    return false;
+            }
+            final int start = i.literalWords();
+            for (int k = 0; k < numberOfLiteralWords; ++k)
+                if ((this.buffer[start + k] == 0) || (this.buffer[start + k] == ~0l))
+                    return false;
+            first = false;
+            previousRunningBit = runningBit;
+            previousRunningLength = runningLength;
+            previousNumberOfLiteralWords = numberOfLiteralWords;
+        }
+        return true;
+    }
+
     /*
      * @see java.io.Externalizable#writeExternal(java.io.ObjectOutput)
      */
@@ -1706,6 +2007,15 @@ public final class EWAHCompressedBitmap implements Cloneable, Externalizable, It
         return a;
     }
 
+    /**
+     * Read from the channel until the buffer is full.
+     */
+    private static void readFully(final ReadableByteChannel channel, final ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining())
+            if (channel.read(buffer) < 0)
+                throw new EOFException();
+    }
+
     /**
      * For internal use. This simply adds a stream of words made of zeroes
      * so that we pad to the desired size.
@@ -1877,5 +2187,10 @@ public final class EWAHCompressedBitmap implements Cloneable, Externalizable, It
      */
     public static final int WORD_IN_BITS = 64;
 
+    /**
+     * Number of words copied at a time by writeTo and readFrom.
+     */
+    private static final int CHANNEL_BLOCK_IN_WORDS = 8192;
+
     static final long serialVersionUID = 1L;
 }
@@ -22,6 +22,35 @@ public final class FastAggregation {
     /** Private constructor to prevent instantiation */
     private FastAggregation() {}
 
+    /**
+     * Compute the and aggregate using a temporary uncompressed bitmap. The
+     * size of the buffer is chosen automatically from the number of inputs,
+     * their sizes and the cache sizes, and it is adapted as the computation
+     * goes.
+     *
+     * @param bitmaps the source bitmaps
+     * @return the and aggregate.
+     * @since 0.8.12
+     */
+    public static EWAHCompressedBitmap adaptivebufferedand(final EWAHCompressedBitmap... bitmaps) {
+        EWAHCompressedBitmap answer = new EWAHCompressedBitmap();
+        adaptivebufferedandWithContainer(answer, bitmaps);
+        return answer;
+    }
+
+    /**
+     * Compute the and aggregate using a temporary uncompressed bitmap. The
+     * size of the buffer is chosen automatically.
+     *
+     * @param container where the aggregate is written
+     * @param bitmaps   the source bitmaps
+     * @since 0.8.12
+     */
+    public static void adaptivebufferedandWithContainer(final BitmapStorage container,
+                                                        final EWAHCompressedBitmap... bitmaps) {
+        andWithBuffer(container, BufferSizing.bufferSize(bitmaps), true, bitmaps);
+    }
+
     /**
      * Compute the and aggregate using a temporary uncompressed bitmap.
      *
@@ -48,39 +77,82 @@ public final class FastAggregation {
     public static void bufferedandWithContainer(
             final BitmapStorage container, final int bufSize,
             final EWAHCompressedBitmap... bitmaps) {
+        andWithBuffer(container, bufSize * bitmaps.length, false, bitmaps);
+    }
 
-        java.util.LinkedList<IteratingBufferedRunningLengthWord> al = new java.util.LinkedList<IteratingBufferedRunningLengthWord>();
-        for (EWAHCompressedBitmap bitmap : bitmaps) {
-            al.add(new IteratingBufferedRunningLengthWord(bitmap));
-        }
-
-        long[] hardbitmap = new long[bufSize * bitmaps.length];
-
-        for (IteratingRLW i : al)
-            if (i.size() == 0) {
-                al.clear();
-                break;
-            }
-
-        while (!al.isEmpty()) {
-            Arrays.fill(hardbitmap, ~0l);
-            long effective = Integer.MAX_VALUE;
-            for (IteratingRLW i : al) {
-                int eff = IteratorAggregation.inplaceand(
-                        hardbitmap, i);
+    private static void andWithBuffer(final BitmapStorage container, final int capacity,
+                                      final boolean adaptive, final EWAHCompressedBitmap... bitmaps) {
+        final IteratingBufferedRunningLengthWord[] al = new IteratingBufferedRunningLengthWord[bitmaps.length];
+        for (int k = 0; k < bitmaps.length; ++k)
+            al[k] = new IteratingBufferedRunningLengthWord(bitmaps[k]);
+        final long[] hardbitmap = new long[capacity];
+        int blockSize = capacity;
+        while ((al.length > 0) && !anyEmpty(al)) {
+            Arrays.fill(hardbitmap, 0, blockSize, ~0l);
+            int effective = Integer.MAX_VALUE;
+            for (IteratingBufferedRunningLengthWord i : al) {
+                final int eff = IteratorAggregation.inplaceand(hardbitmap, blockSize, i);
                 if (eff < effective)
                     effective = eff;
             }
-            for (int k = 0; k < effective; ++k)
-                container.addWord(hardbitmap[k]);
-            for (IteratingRLW i : al)
-                if (i.size() == 0) {
-                    al.clear();
-                    break;
-                }
+            final int literals = addWords(container, hardbitmap, effective);
+            if (adaptive)
+                blockSize = BufferSizing.adapt(blockSize, effective, literals, capacity);
         }
     }
 
+    /**
+     * Write the first words of the buffer to the container.
+     *
+     * @return the number of literal words (neither 0 nor ~0) written
+     */
+    private static int addWords(final BitmapStorage container, final long[] hardbitmap, final int effective) {
+        int literals = 0;
+        for (int k = 0; k < effective; ++k) {
+            final long w = hardbitmap[k];
+            if ((w != 0) && (w != ~0l))
+                ++literals;
+            container.addWord(w);
+        }
+        return literals;
+    }
+
+    private static boolean anyEmpty(final IteratingBufferedRunningLengthWord[] al) {
+        for (IteratingBufferedRunningLengthWord i : al)
+            if (i.size() == 0)
+                return true;
+        return false;
+    }
+
+    /**
+     * Compute the or aggregate using a temporary uncompressed bitmap. The
+     * size of the buffer is chosen automatically from the number of inputs,
+     * their sizes and the cache sizes, and it is adapted as the computation
+     * goes.
+     *
+     * @param bitmaps the source bitmaps
+     * @return the or aggregate.
+     * @since 0.8.12
+     */
+    public static EWAHCompressedBitmap adaptivebufferedor(final EWAHCompressedBitmap... bitmaps) {
+        EWAHCompressedBitmap answer = new EWAHCompressedBitmap();
+        adaptivebufferedorWithContainer(answer, bitmaps);
+        return answer;
+    }
+
+    /**
+     * Compute the or aggregate using a temporary uncompressed bitmap. The
+     * size of the buffer is chosen automatically.
+     *
+     * @param container where the aggregate is written
+     * @param bitmaps   the source bitmaps
+     * @since 0.8.12
+     */
+    public static void adaptivebufferedorWithContainer(final BitmapStorage container,
+                                                       final EWAHCompressedBitmap... bitmaps) {
+        orWithBuffer(container, BufferSizing.bufferSize(bitmaps), true, bitmaps);
+    }
+
     /**
      * Compute the or aggregate using a temporary uncompressed bitmap.
      *
@@ -107,6 +179,11 @@ public final class FastAggregation {
     public static void bufferedorWithContainer(
             final BitmapStorage container, final int bufSize,
             final EWAHCompressedBitmap... bitmaps) {
+        orWithBuffer(container, bufSize, false, bitmaps);
+    }
+
+    private static void orWithBuffer(final BitmapStorage container, final int capacity,
+                                     final boolean adaptive, final EWAHCompressedBitmap... bitmaps) {
         int range = 0;
         EWAHCompressedBitmap[] sbitmaps = bitmaps.clone();
         Arrays.sort(sbitmaps, new Comparator<EWAHCompressedBitmap>() {
@@ -117,34 +194,62 @@ public final class FastAggregation {
             }
         });
 
-        java.util.ArrayList<IteratingBufferedRunningLengthWord> al = new java.util.ArrayList<IteratingBufferedRunningLengthWord>();
-        for (EWAHCompressedBitmap bitmap : sbitmaps) {
-            if (bitmap.sizeInBits > range)
-                range = bitmap.sizeInBits;
-            al.add(new IteratingBufferedRunningLengthWord(bitmap));
+        final IteratingBufferedRunningLengthWord[] al = new IteratingBufferedRunningLengthWord[sbitmaps.length];
+        for (int k = 0; k < sbitmaps.length; ++k) {
+            if (sbitmaps[k].sizeInBits > range)
+                range = sbitmaps[k].sizeInBits;
+            al[k] = new IteratingBufferedRunningLengthWord(sbitmaps[k]);
         }
-        long[] hardbitmap = new long[bufSize];
-        int maxr = al.size();
+        long[] hardbitmap = new long[capacity];
+        int blockSize = capacity;
+        int maxr = al.length;
         while (maxr > 0) {
-            long effective = 0;
+            int effective = 0;
             for (int k = 0; k < maxr; ++k) {
-                if (al.get(k).size() > 0) {
-                    int eff = IteratorAggregation
-                            .inplaceor(hardbitmap,
-                                    al.get(k));
+                if (al[k].size() > 0) {
+                    final int eff = IteratorAggregation.inplaceor(hardbitmap, blockSize, al[k]);
                     if (eff > effective)
                         effective = eff;
                 } else
                     maxr = k;
             }
-            for (int k = 0; k < effective; ++k)
-                container.addWord(hardbitmap[k]);
-            Arrays.fill(hardbitmap, 0);
-
+            final int literals = addWords(container, hardbitmap, effective);
+            Arrays.fill(hardbitmap, 0, effective, 0);
+            if (adaptive)
+                blockSize = BufferSizing.adapt(blockSize, effective, literals, capacity);
         }
         container.setSizeInBitsWithinLastWord(range);
     }
 
+    /**
+     * Compute the xor aggregate using a temporary uncompressed bitmap. The
+     * size of the buffer is chosen automatically from the number of inputs,
+     * their sizes and the cache sizes, and it is adapted as the computation
+     * goes.
+     *
+     * @param bitmaps the source bitmaps
+     * @return the xor aggregate.
+     * @since 0.8.12
+     */
+    public static EWAHCompressedBitmap adaptivebufferedxor(final EWAHCompressedBitmap... bitmaps) {
+        EWAHCompressedBitmap answer = new EWAHCompressedBitmap();
+        adaptivebufferedxorWithContainer(answer, bitmaps);
+        return answer;
+    }
+
+    /**
+     * Compute the xor aggregate using a temporary uncompressed bitmap. The
+     * size of the buffer is chosen automatically.
+     *
+     * @param container where the aggregate is written
+     * @param bitmaps   the source bitmaps
+     * @since 0.8.12
+     */
+    public static void adaptivebufferedxorWithContainer(final BitmapStorage container,
+                                                        final EWAHCompressedBitmap... bitmaps) {
+        xorWithBuffer(container, BufferSizing.bufferSize(bitmaps), true, bitmaps);
+    }
+
     /**
      * Compute the xor aggregate using a temporary uncompressed bitmap.
      *
@@ -171,6 +276,11 @@ public final class FastAggregation {
     public static void bufferedxorWithContainer(
             final BitmapStorage container, final int bufSize,
             final EWAHCompressedBitmap... bitmaps) {
+        xorWithBuffer(container, bufSize, false, bitmaps);
+    }
+
+    private static void xorWithBuffer(final BitmapStorage container, final int capacity,
+                                      final boolean adaptive, final EWAHCompressedBitmap... bitmaps) {
         int range = 0;
         EWAHCompressedBitmap[] sbitmaps = bitmaps.clone();
         Arrays.sort(sbitmaps, new Comparator<EWAHCompressedBitmap>() {
@@ -181,27 +291,29 @@ public final class FastAggregation {
             }
         });
 
-        java.util.ArrayList<IteratingBufferedRunningLengthWord> al = new java.util.ArrayList<IteratingBufferedRunningLengthWord>();
-        for (EWAHCompressedBitmap bitmap : sbitmaps) {
-            if (bitmap.sizeInBits > range)
-                range = bitmap.sizeInBits;
-            al.add(new IteratingBufferedRunningLengthWord(bitmap));
+        final IteratingBufferedRunningLengthWord[] al = new IteratingBufferedRunningLengthWord[sbitmaps.length];
+        for (int k = 0; k < sbitmaps.length; ++k) {
+            if (sbitmaps[k].sizeInBits > range)
+                range = sbitmaps[k].sizeInBits;
+            al[k] = new IteratingBufferedRunningLengthWord(sbitmaps[k]);
         }
-        long[] hardbitmap = new long[bufSize];
-        int maxr = al.size();
+        long[] hardbitmap = new long[capacity];
+        int blockSize = capacity;
+        int maxr = al.length;
         while (maxr > 0) {
-            long effective = 0;
+            int effective = 0;
             for (int k = 0; k < maxr; ++k) {
-                if (al.get(k).size() > 0) {
-                    int eff = IteratorAggregation.inplacexor(hardbitmap, al.get(k));
+                if (al[k].size() > 0) {
+                    final int eff = IteratorAggregation.inplacexor(hardbitmap, blockSize, al[k]);
                     if (eff > effective)
                         effective = eff;
                 } else
                     maxr = k;
             }
-            for (int k = 0; k < effective; ++k)
-                container.addWord(hardbitmap[k]);
-            Arrays.fill(hardbitmap, 0);
+            final int literals = addWords(container, hardbitmap, effective);
+            Arrays.fill(hardbitmap, 0, effective, 0);
+            if (adaptive)
+                blockSize = BufferSizing.adapt(blockSize, effective, literals, capacity);
         }
         container.setSizeInBitsWithinLastWord(range);
     }
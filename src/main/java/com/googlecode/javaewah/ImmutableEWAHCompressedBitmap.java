@@ -0,0 +1,445 @@
+package com.googlecode.javaewah;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Iterator;
+import java.util.List;
+
+/*
+ * Copyright 2009-2014, Daniel Lemire, Cliff Moon, David McIntosh, Robert Becho, Google Inc., Veronika Zenz, Owen Kaser, Gregory Ssi-Yan-Kai, Rory Graves
+ * Licensed under the Apache License, Version 2.0.
+ */
+
+/**
+ * An immutable compressed bitmap, which can be shared freely across threads
+ * without cloning it. It offers the operations of EWAHCompressedBitmap which
+ * do not modify the bitmap; the results of logical operations are new
+ * (mutable) EWAHCompressedBitmap instances.
+ *
+ * An instance is obtained with EWAHCompressedBitmap.freeze(), which hands
+ * the words over without copying them (the mutable bitmap is left empty),
+ * or with copyOf, which copies them. The words are held through a final
+ * field and never modified, so that an instance is safely published to
+ * other threads even through a data race. The cardinality and the hash code
+ * are computed once.
+ *
+ * Here is a code sample:
+ *
+ * <pre>
+ * EWAHCompressedBitmap bitmap = EWAHCompressedBitmap.bitmapOf(1, 10, 100);
+ * ImmutableEWAHCompressedBitmap frozen = bitmap.freeze(); // bitmap is now empty
+ * EWAHCompressedBitmap answer = frozen.and(other);
+ * </pre>
+ *
+ * This class is thread-safe.
+ *
+ * @author Daniel Lemire
+ * @see EWAHCompressedBitmap#freeze()
+ * @since 0.8.12
+ */
+public final class ImmutableEWAHCompressedBitmap implements Iterable<Integer> {
+
+    /**
+     * Wrap a bitmap which is not referenced anywhere else.
+     *
+     * @param bitmap the bitmap
+     */
+    ImmutableEWAHCompressedBitmap(final EWAHCompressedBitmap bitmap) {
+        this.bitmap = bitmap;
+    }
+
+    /**
+     * Copy a bitmap. The bitmap is not modified.
+     *
+     * @param bitmap the bitmap
+     * @return the immutable copy
+     */
+    public static ImmutableEWAHCompressedBitmap copyOf(final EWAHCompressedBitmap bitmap) {
+        final EWAHCompressedBitmap copy = bitmap.clone();
+        copy.trim();
+        return new ImmutableEWAHCompressedBitmap(copy);
+    }
+
+    /**
+     * Return an immutable bitmap with the specified bits set.
+     *
+     * @param setBits list of set bit positions, in increasing order
+     * @return the bitmap
+     */
+    public static ImmutableEWAHCompressedBitmap bitmapOf(final int... setBits) {
+        return EWAHCompressedBitmap.bitmapOf(setBits).freeze();
+    }
+
+    /**
+     * Read a bitmap written by EWAHCompressedBitmap.serialize(DataOutput).
+     *
+     * @param in the input
+     * @return the bitmap
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    public static ImmutableEWAHCompressedBitmap deserialize(final DataInput in) throws IOException {
+        final EWAHCompressedBitmap bitmap = new EWAHCompressedBitmap();
+        bitmap.deserialize(in);
+        return new ImmutableEWAHCompressedBitmap(bitmap);
+    }
+
+    /**
+     * Read a bitmap written by EWAHCompressedBitmap.serialize(ByteBuffer).
+     * The position of the buffer is advanced.
+     *
+     * @param buffer the buffer
+     * @return the bitmap
+     */
+    public static ImmutableEWAHCompressedBitmap deserialize(final ByteBuffer buffer) {
+        final EWAHCompressedBitmap bitmap = new EWAHCompressedBitmap();
+        bitmap.deserialize(buffer);
+        return new ImmutableEWAHCompressedBitmap(bitmap);
+    }
+
+    /**
+     * @return a new mutable copy of this bitmap
+     */
+    public EWAHCompressedBitmap toMutable() {
+        return this.bitmap.clone();
+    }
+
+    /**
+     * @param a the other bitmap
+     * @return a new bitmap holding the intersection
+     * @see EWAHCompressedBitmap#and(EWAHCompressedBitmap)
+     */
+    public EWAHCompressedBitmap and(final ImmutableEWAHCompressedBitmap a) {
+        return this.bitmap.and(a.bitmap);
+    }
+
+    /**
+     * @param a the other bitmap (it is not modified)
+     * @return a new bitmap holding the intersection
+     * @see EWAHCompressedBitmap#and(EWAHCompressedBitmap)
+     */
+    public EWAHCompressedBitmap and(final EWAHCompressedBitmap a) {
+        return this.bitmap.and(a);
+    }
+
+    /**
+     * @param a the other bitmap
+     * @return a new bitmap holding the difference
+     * @see EWAHCompressedBitmap#andNot(EWAHCompressedBitmap)
+     */
+    public EWAHCompressedBitmap andNot(final ImmutableEWAHCompressedBitmap a) {
+        return this.bitmap.andNot(a.bitmap);
+    }
+
+    /**
+     * @param a the other bitmap (it is not modified)
+     * @return a new bitmap holding the difference
+     * @see EWAHCompressedBitmap#andNot(EWAHCompressedBitmap)
+     */
+    public EWAHCompressedBitmap andNot(final EWAHCompressedBitmap a) {
+        return this.bitmap.andNot(a);
+    }
+
+    /**
+     * @param a the other bitmap
+     * @return a new bitmap holding the union
+     * @see EWAHCompressedBitmap#or(EWAHCompressedBitmap)
+     */
+    public EWAHCompressedBitmap or(final ImmutableEWAHCompressedBitmap a) {
+        return this.bitmap.or(a.bitmap);
+    }
+
+    /**
+     * @param a the other bitmap (it is not modified)
+     * @return a new bitmap holding the union
+     * @see EWAHCompressedBitmap#or(EWAHCompressedBitmap)
+     */
+    public EWAHCompressedBitmap or(final EWAHCompressedBitmap a) {
+        return this.bitmap.or(a);
+    }
+
+    /**
+     * @param a the other bitmap
+     * @return a new bitmap holding the symmetric difference
+     * @see EWAHCompressedBitmap#xor(EWAHCompressedBitmap)
+     */
+    public EWAHCompressedBitmap xor(final ImmutableEWAHCompressedBitmap a) {
+        return this.bitmap.xor(a.bitmap);
+    }
+
+    /**
+     * @param a the other bitmap (it is not modified)
+     * @return a new bitmap holding the symmetric difference
+     * @see EWAHCompressedBitmap#xor(EWAHCompressedBitmap)
+     */
+    public EWAHCompressedBitmap xor(final EWAHCompressedBitmap a) {
+        return this.bitmap.xor(a);
+    }
+
+    /**
+     * @return a new bitmap holding the negation, within sizeInBits()
+     * @see EWAHCompressedBitmap#not()
+     */
+    public EWAHCompressedBitmap not() {
+        final EWAHCompressedBitmap answer = this.bitmap.clone();
+        answer.not();
+        return answer;
+    }
+
+    /**
+     * @param a the other bitmap
+     * @return the cardinality of the intersection
+     */
+    public int andCardinality(final ImmutableEWAHCompressedBitmap a) {
+        return this.bitmap.andCardinality(a.bitmap);
+    }
+
+    /**
+     * @param a the other bitmap (it is not modified)
+     * @return the cardinality of the intersection
+     */
+    public int andCardinality(final EWAHCompressedBitmap a) {
+        return this.bitmap.andCardinality(a);
+    }
+
+    /**
+     * @param a the other bitmap
+     * @return the cardinality of the difference
+     */
+    public int andNotCardinality(final ImmutableEWAHCompressedBitmap a) {
+        return this.bitmap.andNotCardinality(a.bitmap);
+    }
+
+    /**
+     * @param a the other bitmap (it is not modified)
+     * @return the cardinality of the difference
+     */
+    public int andNotCardinality(final EWAHCompressedBitmap a) {
+        return this.bitmap.andNotCardinality(a);
+    }
+
+    /**
+     * @param a the other bitmap
+     * @return the cardinality of the union
+     */
+    public int orCardinality(final ImmutableEWAHCompressedBitmap a) {
+        return this.bitmap.orCardinality(a.bitmap);
+    }
+
+    /**
+     * @param a the other bitmap (it is not modified)
+     * @return the cardinality of the union
+     */
+    public int orCardinality(final EWAHCompressedBitmap a) {
+        return this.bitmap.orCardinality(a);
+    }
+
+    /**
+     * @param a the other bitmap
+     * @return the cardinality of the symmetric difference
+     */
+    public int xorCardinality(final ImmutableEWAHCompressedBitmap a) {
+        return this.bitmap.xorCardinality(a.bitmap);
+    }
+
+    /**
+     * @param a the other bitmap (it is not modified)
+     * @return the cardinality of the symmetric difference
+     */
+    public int xorCardinality(final EWAHCompressedBitmap a) {
+        return this.bitmap.xorCardinality(a);
+    }
+
+    /**
+     * @param a the other bitmap
+     * @return whether the bitmaps have a set bit in common
+     */
+    public boolean intersects(final ImmutableEWAHCompressedBitmap a) {
+        return this.bitmap.intersects(a.bitmap);
+    }
+
+    /**
+     * @param a the other bitmap (it is not modified)
+     * @return whether the bitmaps have a set bit in common
+     */
+    public boolean intersects(final EWAHCompressedBitmap a) {
+        return this.bitmap.intersects(a);
+    }
+
+    /**
+     * The number of set bits, computed on the first call.
+     *
+     * @return the cardinality
+     */
+    public int cardinality() {
+        // 0 means not computed: a thread may compute it again, harmlessly
+        int c = this.cardinalityPlusOne;
+        if (c == 0) {
+            c = this.bitmap.cardinality() + 1;
+            this.cardinalityPlusOne = c;
+        }
+        return c - 1;
+    }
+
+    /**
+     * @return whether no bit is set
+     */
+    public boolean isEmpty() {
+        return cardinality() == 0;
+    }
+
+    /**
+     * @param i the position of the bit
+     * @return whether the bit is set
+     * @see EWAHCompressedBitmap#get(int)
+     */
+    public boolean get(final int i) {
+        return this.bitmap.get(i);
+    }
+
+    /**
+     * @return the size in bits of the bitmap
+     */
+    public int sizeInBits() {
+        return this.bitmap.sizeInBits();
+    }
+
+    /**
+     * @return the size in bytes of the compressed words
+     */
+    public int sizeInBytes() {
+        return this.bitmap.sizeInBytes();
+    }
+
+    /**
+     * @return the positions of the set bits
+     */
+    public int[] toArray() {
+        return this.bitmap.toArray();
+    }
+
+    /**
+     * @return the positions of the set bits
+     */
+    public List<Integer> toList() {
+        return this.bitmap.toList();
+    }
+
+    /**
+     * @return an iterator over the positions of the set bits
+     */
+    public IntIterator intIterator() {
+        return this.bitmap.intIterator();
+    }
+
+    /**
+     * @return an iterator over the positions of the set bits, in decreasing
+     * order
+     */
+    public IntIterator reverseIntIterator() {
+        return this.bitmap.reverseIntIterator();
+    }
+
+    /**
+     * @return an iterator over the positions of the clear bits
+     */
+    public IntIterator clearIntIterator() {
+        return this.bitmap.clearIntIterator();
+    }
+
+    /**
+     * @return an iterator over the chunks of set and clear bits
+     */
+    public ChunkIterator chunkIterator() {
+        return this.bitmap.chunkIterator();
+    }
+
+    @Override
+    public Iterator<Integer> iterator() {
+        return this.bitmap.iterator();
+    }
+
+    /**
+     * The iterator can be used with IteratorAggregation and IteratorUtil.
+     *
+     * @return an iterator over the words of the bitmap
+     */
+    public IteratingRLW getIteratingRLW() {
+        return this.bitmap.getIteratingRLW();
+    }
+
+    /**
+     * @param out the output
+     * @throws IOException Signals that an I/O exception has occurred.
+     * @see EWAHCompressedBitmap#serialize(DataOutput)
+     */
+    public void serialize(final DataOutput out) throws IOException {
+        this.bitmap.serialize(out);
+    }
+
+    /**
+     * @param buffer the buffer
+     * @see EWAHCompressedBitmap#serialize(ByteBuffer)
+     */
+    public void serialize(final ByteBuffer buffer) {
+        this.bitmap.serialize(buffer);
+    }
+
+    /**
+     * @param channel the channel
+     * @throws IOException Signals that an I/O exception has occurred.
+     * @see EWAHCompressedBitmap#writeTo(WritableByteChannel)
+     */
+    public void writeTo(final WritableByteChannel channel) throws IOException {
+        this.bitmap.writeTo(channel);
+    }
+
+    /**
+     * @return the size in bytes of the serialized bitmap
+     */
+    public int serializedSizeInBytes() {
+        return this.bitmap.serializedSizeInBytes();
+    }
+
+    /**
+     * Two immutable bitmaps are equal if they have the same set bits (see
+     * EWAHCompressedBitmap.equals).
+     */
+    @Override
+    public boolean equals(final Object o) {
+        if (o == this)
+            return true;
+        if (!(o instanceof ImmutableEWAHCompressedBitmap))
+            return false;
+        final ImmutableEWAHCompressedBitmap other = (ImmutableEWAHCompressedBitmap) o;
+        if (((this.cardinalityPlusOne != 0) && (other.cardinalityPlusOne != 0)
+                && (this.cardinalityPlusOne != other.cardinalityPlusOne)))
+            return false;
+        return this.bitmap.equals(other.bitmap);
+    }
+
+    /**
+     * The hash code, computed on the first call.
+     */
+    @Override
+    public int hashCode() {
+        // 0 means not computed, as with String.hashCode
+        int h = this.hashCode;
+        if (h == 0) {
+            h = this.bitmap.hashCode();
+            this.hashCode = h;
+        }
+        return h;
+    }
+
+    @Override
+    public String toString() {
+        return this.bitmap.toString();
+    }
+
+    private final EWAHCompressedBitmap bitmap;
+    private int cardinalityPlusOne = 0;
+    private int hashCode = 0;
+}
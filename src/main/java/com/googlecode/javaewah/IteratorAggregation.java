@@ -1,9 +1,6 @@
 package com.googlecode.javaewah;
 
 import java.util.Arrays;
-import java.util.Collections;
-import java.util.Iterator;
-import java.util.LinkedList;
 
 /*
  * Copyright 2009-2014, Daniel Lemire, Cliff Moon, David McIntosh, Robert Becho, Google Inc., Veronika Zenz, Owen Kaser, Gregory Ssi-Yan-Kai, Rory Graves
@@ -96,10 +93,7 @@ public final class IteratorAggregation {
             throw new IllegalArgumentException("Need at least one iterator");
         if (al.length == 1)
             return al[0];
-        final LinkedList<IteratingRLW> basell = new LinkedList<IteratingRLW>();
-        Collections.addAll(basell, al);
-        return new BufferedIterator(new BufferedAndIterator(basell,
-                bufSize));
+        return new BufferedIterator(new BufferedAndIterator(al, bufSize));
     }
 
     /**
@@ -112,6 +106,25 @@ public final class IteratorAggregation {
         return bufferedor(DEFAULT_MAX_BUF_SIZE, al);
     }
 
+    /**
+     * Aggregate the iterators using a bitmap buffer. The size of the buffer
+     * depends on the number of iterators (up to DEFAULT_MAX_BUF_SIZE words)
+     * and the size of the blocks is adapted to the density of the literal
+     * words in the aggregate.
+     *
+     * @param al set of iterators to aggregate
+     * @return or aggregate
+     * @since 0.8.12
+     */
+    public static IteratingRLW adaptivebufferedor(final IteratingRLW... al) {
+        if (al.length == 0)
+            throw new IllegalArgumentException("Need at least one iterator");
+        if (al.length == 1)
+            return al[0];
+        final int bufSize = Math.min(DEFAULT_MAX_BUF_SIZE, BufferSizing.bufferSize(al.length, -1, 0));
+        return new BufferedIterator(new BufferedORIterator(al, bufSize, true));
+    }
+
     /**
      * Aggregate the iterators using a bitmap buffer.
      *
@@ -126,10 +139,7 @@ public final class IteratorAggregation {
             throw new IllegalArgumentException("Need at least one iterator");
         if (al.length == 1)
             return al[0];
-
-        final LinkedList<IteratingRLW> basell = new LinkedList<IteratingRLW>();
-        Collections.addAll(basell, al);
-        return new BufferedIterator(new BufferedORIterator(basell, bufSize));
+        return new BufferedIterator(new BufferedORIterator(al, bufSize, false));
     }
 
     /**
@@ -142,6 +152,25 @@ public final class IteratorAggregation {
         return bufferedxor(DEFAULT_MAX_BUF_SIZE, al);
     }
 
+    /**
+     * Aggregate the iterators using a bitmap buffer. The size of the buffer
+     * depends on the number of iterators (up to DEFAULT_MAX_BUF_SIZE words)
+     * and the size of the blocks is adapted to the density of the literal
+     * words in the aggregate.
+     *
+     * @param al set of iterators to aggregate
+     * @return xor aggregate
+     * @since 0.8.12
+     */
+    public static IteratingRLW adaptivebufferedxor(final IteratingRLW... al) {
+        if (al.length == 0)
+            throw new IllegalArgumentException("Need at least one iterator");
+        if (al.length == 1)
+            return al[0];
+        final int bufSize = Math.min(DEFAULT_MAX_BUF_SIZE, BufferSizing.bufferSize(al.length, -1, 0));
+        return new BufferedIterator(new BufferedXORIterator(al, bufSize, true));
+    }
+
     /**
      * Aggregate the iterators using a bitmap buffer.
      *
@@ -154,11 +183,7 @@ public final class IteratorAggregation {
             throw new IllegalArgumentException("Need at least one iterator");
         if (al.length == 1)
             return al[0];
-
-        final LinkedList<IteratingRLW> basell = new LinkedList<IteratingRLW>();
-        Collections.addAll(basell, al);
-
-        return new BufferedIterator(new BufferedXORIterator(basell, bufSize));
+        return new BufferedIterator(new BufferedXORIterator(al, bufSize, false));
     }
 
     /**
@@ -332,11 +357,82 @@ public final class IteratorAggregation {
     }
 
     protected static int inplaceor(long[] bitmap, IteratingRLW i) {
+        return inplaceor(bitmap, bitmap.length, i);
+    }
+
+    /**
+     * Same as inplaceor(bitmap, i), but only the first words of the bitmap
+     * are used.
+     *
+     * @param bitmap the buffer
+     * @param length how many words of the buffer should be used
+     * @param i      the iterator
+     * @return how many words were written
+     */
+    protected static int inplaceor(long[] bitmap, int length, IteratingRLW i) {
+
+        int pos = 0;
+        long s;
+        while ((s = i.size()) > 0) {
+            if (pos + s < length) {
+                final int L = (int) i.getRunningLength();
+                if (i.getRunningBit())
+                    java.util.Arrays.fill(bitmap, pos, pos + L, ~0l);
+                pos += L;
+                final int LR = i.getNumberOfLiteralWords();
+
+                for (int k = 0; k < LR; ++k)
+                    bitmap[pos++] |= i.getLiteralWordAt(k);
+                if (!i.next()) {
+                    return pos;
+                }
+            } else {
+                int howmany = length - pos;
+                int l = (int) i.getRunningLength();
+
+                if (pos + l > length) {
+                    if (i.getRunningBit()) {
+                        java.util.Arrays.fill(bitmap, pos, length, ~0l);
+                    }
+                    i.discardFirstWords(howmany);
+                    return length;
+                }
+                if (i.getRunningBit())
+                    java.util.Arrays.fill(bitmap, pos, pos + l, ~0l);
+                pos += l;
+                for (int k = 0; pos < length; ++k)
+                    bitmap[pos++] |= i.getLiteralWordAt(k);
+                i.discardFirstWords(howmany);
+                return pos;
+            }
+        }
+        return pos;
+    }
+
+    /**
+     * Specialized version of inplaceor for the common case: the calls on
+     * the final class IteratingBufferedRunningLengthWord do not depend on the other iterator types
+     * seen by the virtual machine.
+     */
+    static int inplaceor(long[] bitmap, IteratingBufferedRunningLengthWord i) {
+        return inplaceor(bitmap, bitmap.length, i);
+    }
+
+    /**
+     * Same as inplaceor(bitmap, i), but only the first words of the bitmap
+     * are used.
+     *
+     * @param bitmap the buffer
+     * @param length how many words of the buffer should be used
+     * @param i      the iterator
+     * @return how many words were written
+     */
+    static int inplaceor(long[] bitmap, int length, IteratingBufferedRunningLengthWord i) {
 
         int pos = 0;
         long s;
         while ((s = i.size()) > 0) {
-            if (pos + s < bitmap.length) {
+            if (pos + s < length) {
                 final int L = (int) i.getRunningLength();
                 if (i.getRunningBit())
                     java.util.Arrays.fill(bitmap, pos, pos + L, ~0l);
@@ -349,20 +445,20 @@ public final class IteratorAggregation {
                     return pos;
                 }
             } else {
-                int howmany = bitmap.length - pos;
+                int howmany = length - pos;
                 int l = (int) i.getRunningLength();
 
-                if (pos + l > bitmap.length) {
+                if (pos + l > length) {
                     if (i.getRunningBit()) {
-                        java.util.Arrays.fill(bitmap, pos, bitmap.length, ~0l);
+                        java.util.Arrays.fill(bitmap, pos, length, ~0l);
                     }
                     i.discardFirstWords(howmany);
-                    return bitmap.length;
+                    return length;
                 }
                 if (i.getRunningBit())
                     java.util.Arrays.fill(bitmap, pos, pos + l, ~0l);
                 pos += l;
-                for (int k = 0; pos < bitmap.length; ++k)
+                for (int k = 0; pos < length; ++k)
                     bitmap[pos++] |= i.getLiteralWordAt(k);
                 i.discardFirstWords(howmany);
                 return pos;
@@ -372,10 +468,82 @@ public final class IteratorAggregation {
     }
 
     protected static int inplacexor(long[] bitmap, IteratingRLW i) {
+        return inplacexor(bitmap, bitmap.length, i);
+    }
+
+    /**
+     * Same as inplacexor(bitmap, i), but only the first words of the bitmap
+     * are used.
+     *
+     * @param bitmap the buffer
+     * @param length how many words of the buffer should be used
+     * @param i      the iterator
+     * @return how many words were written
+     */
+    protected static int inplacexor(long[] bitmap, int length, IteratingRLW i) {
+        int pos = 0;
+        long s;
+        while ((s = i.size()) > 0) {
+            if (pos + s < length) {
+                final int L = (int) i.getRunningLength();
+                if (i.getRunningBit()) {
+                    for (int k = pos; k < pos + L; ++k)
+                        bitmap[k] = ~bitmap[k];
+                }
+                pos += L;
+                final int LR = i.getNumberOfLiteralWords();
+                for (int k = 0; k < LR; ++k)
+                    bitmap[pos++] ^= i.getLiteralWordAt(k);
+                if (!i.next()) {
+                    return pos;
+                }
+            } else {
+                int howMany = length - pos;
+                int l = (int) i.getRunningLength();
+                if (pos + l > length) {
+                    if (i.getRunningBit()) {
+                        for (int k = pos; k < length; ++k)
+                            bitmap[k] = ~bitmap[k];
+                    }
+                    i.discardFirstWords(howMany);
+                    return length;
+                }
+                if (i.getRunningBit())
+                    for (int k = pos; k < pos + l; ++k)
+                        bitmap[k] = ~bitmap[k];
+                pos += l;
+                for (int k = 0; pos < length; ++k)
+                    bitmap[pos++] ^= i.getLiteralWordAt(k);
+                i.discardFirstWords(howMany);
+                return pos;
+            }
+        }
+        return pos;
+    }
+
+    /**
+     * Specialized version of inplacexor for the common case: the calls on
+     * the final class IteratingBufferedRunningLengthWord do not depend on the other iterator types
+     * seen by the virtual machine.
+     */
+    static int inplacexor(long[] bitmap, IteratingBufferedRunningLengthWord i) {
+        return inplacexor(bitmap, bitmap.length, i);
+    }
+
+    /**
+     * Same as inplacexor(bitmap, i), but only the first words of the bitmap
+     * are used.
+     *
+     * @param bitmap the buffer
+     * @param length how many words of the buffer should be used
+     * @param i      the iterator
+     * @return how many words were written
+     */
+    static int inplacexor(long[] bitmap, int length, IteratingBufferedRunningLengthWord i) {
         int pos = 0;
         long s;
         while ((s = i.size()) > 0) {
-            if (pos + s < bitmap.length) {
+            if (pos + s < length) {
                 final int L = (int) i.getRunningLength();
                 if (i.getRunningBit()) {
                     for (int k = pos; k < pos + L; ++k)
@@ -389,21 +557,21 @@ public final class IteratorAggregation {
                     return pos;
                 }
             } else {
-                int howMany = bitmap.length - pos;
+                int howMany = length - pos;
                 int l = (int) i.getRunningLength();
-                if (pos + l > bitmap.length) {
+                if (pos + l > length) {
                     if (i.getRunningBit()) {
-                        for (int k = pos; k < bitmap.length; ++k)
+                        for (int k = pos; k < length; ++k)
                             bitmap[k] = ~bitmap[k];
                     }
                     i.discardFirstWords(howMany);
-                    return bitmap.length;
+                    return length;
                 }
                 if (i.getRunningBit())
                     for (int k = pos; k < pos + l; ++k)
                         bitmap[k] = ~bitmap[k];
                 pos += l;
-                for (int k = 0; pos < bitmap.length; ++k)
+                for (int k = 0; pos < length; ++k)
                     bitmap[pos++] ^= i.getLiteralWordAt(k);
                 i.discardFirstWords(howMany);
                 return pos;
@@ -413,10 +581,82 @@ public final class IteratorAggregation {
     }
 
     protected static int inplaceand(long[] bitmap, IteratingRLW i) {
+        return inplaceand(bitmap, bitmap.length, i);
+    }
+
+    /**
+     * Same as inplaceand(bitmap, i), but only the first words of the bitmap
+     * are used.
+     *
+     * @param bitmap the buffer
+     * @param length how many words of the buffer should be used
+     * @param i      the iterator
+     * @return how many words were written
+     */
+    protected static int inplaceand(long[] bitmap, int length, IteratingRLW i) {
+        int pos = 0;
+        long s;
+        while ((s = i.size()) > 0) {
+            if (pos + s < length) {
+                final int L = (int) i.getRunningLength();
+                if (!i.getRunningBit()) {
+                    for (int k = pos; k < pos + L; ++k)
+                        bitmap[k] = 0;
+                }
+                pos += L;
+                final int LR = i.getNumberOfLiteralWords();
+                for (int k = 0; k < LR; ++k)
+                    bitmap[pos++] &= i.getLiteralWordAt(k);
+                if (!i.next()) {
+                    return pos;
+                }
+            } else {
+                int howmany = length - pos;
+                int l = (int) i.getRunningLength();
+                if (pos + l > length) {
+                    if (!i.getRunningBit()) {
+                        for (int k = pos; k < length; ++k)
+                            bitmap[k] = 0;
+                    }
+                    i.discardFirstWords(howmany);
+                    return length;
+                }
+                if (!i.getRunningBit())
+                    for (int k = pos; k < pos + l; ++k)
+                        bitmap[k] = 0;
+                pos += l;
+                for (int k = 0; pos < length; ++k)
+                    bitmap[pos++] &= i.getLiteralWordAt(k);
+                i.discardFirstWords(howmany);
+                return pos;
+            }
+        }
+        return pos;
+    }
+
+    /**
+     * Specialized version of inplaceand for the common case: the calls on
+     * the final class IteratingBufferedRunningLengthWord do not depend on the other iterator types
+     * seen by the virtual machine.
+     */
+    static int inplaceand(long[] bitmap, IteratingBufferedRunningLengthWord i) {
+        return inplaceand(bitmap, bitmap.length, i);
+    }
+
+    /**
+     * Same as inplaceand(bitmap, i), but only the first words of the bitmap
+     * are used.
+     *
+     * @param bitmap the buffer
+     * @param length how many words of the buffer should be used
+     * @param i      the iterator
+     * @return how many words were written
+     */
+    static int inplaceand(long[] bitmap, int length, IteratingBufferedRunningLengthWord i) {
         int pos = 0;
         long s;
         while ((s = i.size()) > 0) {
-            if (pos + s < bitmap.length) {
+            if (pos + s < length) {
                 final int L = (int) i.getRunningLength();
                 if (!i.getRunningBit()) {
                     for (int k = pos; k < pos + L; ++k)
@@ -430,21 +670,21 @@ public final class IteratorAggregation {
                     return pos;
                 }
             } else {
-                int howmany = bitmap.length - pos;
+                int howmany = length - pos;
                 int l = (int) i.getRunningLength();
-                if (pos + l > bitmap.length) {
+                if (pos + l > length) {
                     if (!i.getRunningBit()) {
-                        for (int k = pos; k < bitmap.length; ++k)
+                        for (int k = pos; k < length; ++k)
                             bitmap[k] = 0;
                     }
                     i.discardFirstWords(howmany);
-                    return bitmap.length;
+                    return length;
                 }
                 if (!i.getRunningBit())
                     for (int k = pos; k < pos + l; ++k)
                         bitmap[k] = 0;
                 pos += l;
-                for (int k = 0; pos < bitmap.length; ++k)
+                for (int k = 0; pos < length; ++k)
                     bitmap[pos++] &= i.getLiteralWordAt(k);
                 i.discardFirstWords(howmany);
                 return pos;
@@ -453,6 +693,32 @@ public final class IteratorAggregation {
         return pos;
     }
 
+    /**
+     * @param al iterators
+     * @return true if all iterators are IteratingBufferedRunningLengthWord
+     * instances, so that the specialized in-place methods can be used
+     */
+    static boolean allBuffered(final IteratingRLW[] al) {
+        for (IteratingRLW i : al)
+            if (!(i instanceof IteratingBufferedRunningLengthWord))
+                return false;
+        return true;
+    }
+
+    /**
+     * @param al     iterators
+     * @param length how many iterators should be copied
+     * @return copies of the first iterators
+     * @throws CloneNotSupportedException if an iterator cannot be cloned
+     */
+    static IteratingRLW[] cloneAll(final IteratingRLW[] al, final int length)
+            throws CloneNotSupportedException {
+        final IteratingRLW[] answer = new IteratingRLW[al.length];
+        for (int k = 0; k < length; ++k)
+            answer[k] = al[k].clone();
+        return answer;
+    }
+
     /**
      * An optimization option. Larger values may improve speed, but at the
      * expense of memory.
@@ -461,49 +727,67 @@ public final class IteratorAggregation {
 }
 
 class BufferedORIterator implements CloneableIterator<EWAHIterator> {
-    final EWAHCompressedBitmap buffer = new EWAHCompressedBitmap();
-    final long[] hardBitmap;
-    final LinkedList<IteratingRLW> ll;
-
-    BufferedORIterator(LinkedList<IteratingRLW> basell, int bufSize) {
-        this.ll = basell;
+    EWAHCompressedBitmap buffer = new EWAHCompressedBitmap();
+    long[] hardBitmap;
+    IteratingRLW[] rlws;
+    int size;
+    final boolean buffered;
+    final boolean adaptive;
+    int blockSize;
+
+    BufferedORIterator(IteratingRLW[] al, int bufSize, boolean adaptive) {
+        this.rlws = al.clone();
+        this.size = al.length;
+        this.buffered = IteratorAggregation.allBuffered(al);
         this.hardBitmap = new long[bufSize];
+        this.adaptive = adaptive;
+        this.blockSize = bufSize;
     }
 
     @Override
-    public BufferedXORIterator clone() throws CloneNotSupportedException {
-        BufferedXORIterator answer = (BufferedXORIterator) super
-                .clone();
+    public BufferedORIterator clone() throws CloneNotSupportedException {
+        BufferedORIterator answer = (BufferedORIterator) super.clone();
         answer.buffer = this.buffer.clone();
-        answer.hardbitmap = this.hardBitmap.clone();
-        answer.ll = (LinkedList<IteratingRLW>) this.ll.clone();
+        answer.hardBitmap = this.hardBitmap.clone();
+        answer.rlws = IteratorAggregation.cloneAll(this.rlws, this.size);
         return answer;
     }
 
     @Override
     public boolean hasNext() {
-        return !this.ll.isEmpty();
+        return this.size > 0;
     }
 
     @Override
     public EWAHIterator next() {
         this.buffer.clear();
-        long effective = 0;
-        Iterator<IteratingRLW> i = this.ll.iterator();
-        while (i.hasNext()) {
-            IteratingRLW rlw = i.next();
+        int effective = 0;
+        int k = 0;
+        while (k < this.size) {
+            final IteratingRLW rlw = this.rlws[k];
             if (rlw.size() > 0) {
-                int eff = IteratorAggregation.inplaceor(this.hardBitmap, rlw);
+                final int eff = this.buffered
+                        ? IteratorAggregation.inplaceor(this.hardBitmap, this.blockSize, (IteratingBufferedRunningLengthWord) rlw)
+                        : IteratorAggregation.inplaceor(this.hardBitmap, this.blockSize, rlw);
                 if (eff > effective)
                     effective = eff;
-            } else
-                i.remove();
+                ++k;
+            } else {
+                // exhausted: the order of the inputs does not matter
+                this.rlws[k] = this.rlws[--this.size];
+                this.rlws[this.size] = null;
+            }
         }
-        for (int k = 0; k < effective; ++k) {
-            this.buffer.addWord(this.hardBitmap[k]);
+        int literals = 0;
+        for (int j = 0; j < effective; ++j) {
+            final long w = this.hardBitmap[j];
+            if ((w != 0) && (w != ~0l))
+                ++literals;
+            this.buffer.addWord(w);
         }
-
-        Arrays.fill(this.hardBitmap, 0);
+        Arrays.fill(this.hardBitmap, 0, effective, 0);
+        if (this.adaptive)
+            this.blockSize = BufferSizing.adapt(this.blockSize, effective, literals, this.hardBitmap.length);
         return this.buffer.getEWAHIterator();
     }
 }
@@ -511,11 +795,19 @@ class BufferedORIterator implements CloneableIterator<EWAHIterator> {
 class BufferedXORIterator implements CloneableIterator<EWAHIterator> {
     EWAHCompressedBitmap buffer = new EWAHCompressedBitmap();
     long[] hardbitmap;
-    LinkedList<IteratingRLW> ll;
-
-    BufferedXORIterator(LinkedList<IteratingRLW> basell, int bufSize) {
-        this.ll = basell;
+    IteratingRLW[] rlws;
+    int size;
+    final boolean buffered;
+    final boolean adaptive;
+    int blockSize;
+
+    BufferedXORIterator(IteratingRLW[] al, int bufSize, boolean adaptive) {
+        this.rlws = al.clone();
+        this.size = al.length;
+        this.buffered = IteratorAggregation.allBuffered(al);
         this.hardbitmap = new long[bufSize];
+        this.adaptive = adaptive;
+        this.blockSize = bufSize;
     }
 
     @Override
@@ -523,78 +815,91 @@ class BufferedXORIterator implements CloneableIterator<EWAHIterator> {
         BufferedXORIterator answer = (BufferedXORIterator) super.clone();
         answer.buffer = this.buffer.clone();
         answer.hardbitmap = this.hardbitmap.clone();
-        answer.ll = (LinkedList<IteratingRLW>) this.ll.clone();
+        answer.rlws = IteratorAggregation.cloneAll(this.rlws, this.size);
         return answer;
     }
 
     @Override
     public boolean hasNext() {
-        return !this.ll.isEmpty();
+        return this.size > 0;
     }
 
     @Override
     public EWAHIterator next() {
         this.buffer.clear();
-        long effective = 0;
-        Iterator<IteratingRLW> i = this.ll.iterator();
-        while (i.hasNext()) {
-            IteratingRLW rlw = i.next();
+        int effective = 0;
+        int k = 0;
+        while (k < this.size) {
+            final IteratingRLW rlw = this.rlws[k];
             if (rlw.size() > 0) {
-                int eff = IteratorAggregation.inplacexor(this.hardbitmap, rlw);
+                final int eff = this.buffered
+                        ? IteratorAggregation.inplacexor(this.hardbitmap, this.blockSize, (IteratingBufferedRunningLengthWord) rlw)
+                        : IteratorAggregation.inplacexor(this.hardbitmap, this.blockSize, rlw);
                 if (eff > effective)
                     effective = eff;
-            } else
-                i.remove();
+                ++k;
+            } else {
+                // exhausted: the order of the inputs does not matter
+                this.rlws[k] = this.rlws[--this.size];
+                this.rlws[this.size] = null;
+            }
+        }
+        int literals = 0;
+        for (int j = 0; j < effective; ++j) {
+            final long w = this.hardbitmap[j];
+            if ((w != 0) && (w != ~0l))
+                ++literals;
+            this.buffer.addWord(w);
         }
-        for (int k = 0; k < effective; ++k)
-            this.buffer.addWord(this.hardbitmap[k]);
-        Arrays.fill(this.hardbitmap, 0);
+        Arrays.fill(this.hardbitmap, 0, effective, 0);
+        if (this.adaptive)
+            this.blockSize = BufferSizing.adapt(this.blockSize, effective, literals, this.hardbitmap.length);
         return this.buffer.getEWAHIterator();
     }
 }
 
 class BufferedAndIterator implements CloneableIterator<EWAHIterator> {
     EWAHCompressedBitmap buffer = new EWAHCompressedBitmap();
-    LinkedList<IteratingRLW> ll;
+    EWAHCompressedBitmap tmpbuffer = new EWAHCompressedBitmap();
+    IteratingRLW[] rlws;
+    int size;
     final int bufferSize;
 
-    public BufferedAndIterator(LinkedList<IteratingRLW> basell, int bufSize) {
-        this.ll = basell;
+    public BufferedAndIterator(IteratingRLW[] al, int bufSize) {
+        this.rlws = al.clone();
+        this.size = al.length;
         this.bufferSize = bufSize;
     }
 
     @Override
     public boolean hasNext() {
-        return !this.ll.isEmpty();
+        return this.size > 0;
     }
 
     @Override
     public BufferedAndIterator clone() throws CloneNotSupportedException {
         BufferedAndIterator answer = (BufferedAndIterator) super.clone();
         answer.buffer = this.buffer.clone();
-        answer.ll = (LinkedList<IteratingRLW>) this.ll.clone();
+        answer.tmpbuffer = new EWAHCompressedBitmap();
+        answer.rlws = IteratorAggregation.cloneAll(this.rlws, this.size);
         return answer;
     }
 
     @Override
     public EWAHIterator next() {
         this.buffer.clear();
-        IteratorAggregation.andToContainer(this.buffer, this.bufferSize * this.ll.size(),
-                this.ll.get(0), this.ll.get(1));
-        if (this.ll.size() > 2) {
-            Iterator<IteratingRLW> i = this.ll.iterator();
-            i.next();
-            i.next();
-            EWAHCompressedBitmap tmpbuffer = new EWAHCompressedBitmap();
-            while (i.hasNext() && this.buffer.sizeInBytes() > 0) {
-                IteratorAggregation.andToContainer(tmpbuffer, this.buffer.getIteratingRLW(), i.next());
-                this.buffer.swap(tmpbuffer);
-                tmpbuffer.clear();
-            }
+        IteratorAggregation.andToContainer(this.buffer, this.bufferSize * this.size,
+                this.rlws[0], this.rlws[1]);
+        for (int k = 2; (k < this.size) && (this.buffer.sizeInBytes() > 0); ++k) {
+            IteratorAggregation.andToContainer(this.tmpbuffer, this.buffer.getIteratingRLW(), this.rlws[k]);
+            this.buffer.swap(this.tmpbuffer);
+            this.tmpbuffer.clear();
         }
-        for (IteratingRLW aLl : this.ll) {
-            if (aLl.size() == 0) {
-                this.ll.clear();
+        for (int k = 0; k < this.size; ++k) {
+            if (this.rlws[k].size() == 0) {
+                // the intersection is over as soon as one input is exhausted
+                Arrays.fill(this.rlws, null);
+                this.size = 0;
                 break;
             }
         }
@@ -0,0 +1,394 @@
+package com.googlecode.javaewah;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/*
+ * Copyright 2009-2014, Daniel Lemire, Cliff Moon, David McIntosh, Robert Becho, Google Inc., Veronika Zenz, Owen Kaser, Gregory Ssi-Yan-Kai, Rory Graves
+ * Licensed under the Apache License, Version 2.0.
+ */
+
+/**
+ * A more compact serialized form for bitmaps kept in cold storage, where
+ * reading fewer bytes matters more than decoding speed. The marker words are
+ * kept, but their fields are written as variable-length integers, and each
+ * literal word is coded after its number of set bits:
+ *
+ * <ul>
+ * <li>a sparse word (at most 7 set bits) is written as the positions of its
+ * set bits, one byte each;</li>
+ * <li>a dense word (at most 7 clear bits) is written as the positions of its
+ * clear bits;</li>
+ * <li>other words are written as is.</li>
+ * </ul>
+ *
+ * Each literal word starts with a tag byte, so that a literal word takes
+ * between 1 and 9 bytes instead of 8: bitmaps whose literal words are
+ * random may grow by up to 1/8, while bitmaps whose literal words are
+ * sparse or dense typically shrink by half or more. The size can be checked
+ * beforehand with serializedSizeInBytes.
+ *
+ * Here is a code sample:
+ *
+ * <pre>
+ * LiteralCoding.serialize(bitmap, out);
+ * EWAHCompressedBitmap copy = LiteralCoding.deserialize(in);
+ * // or, without materializing the bitmap:
+ * int count = IteratorUtil.cardinality(LiteralCoding.iterator(in));
+ * </pre>
+ *
+ * @author Daniel Lemire
+ * @see EWAHCompressedBitmap#serialize(DataOutput)
+ * @since 0.8.12
+ */
+public final class LiteralCoding {
+
+    private LiteralCoding() {
+    }
+
+    /**
+     * Write a bitmap in the coded form.
+     *
+     * @param bitmap the bitmap
+     * @param out    the output
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    public static void serialize(final EWAHCompressedBitmap bitmap, final DataOutput out) throws IOException {
+        writeVarLong(out, bitmap.sizeInBits());
+        writeVarLong(out, numberOfMarkers(bitmap));
+        final EWAHIterator i = bitmap.getEWAHIterator();
+        while (i.hasNext()) {
+            final RunningLengthWord rlw = i.next();
+            writeVarLong(out, (rlw.getRunningLength() << 1) | (rlw.getRunningBit() ? 1 : 0));
+            final int numberOfLiteralWords = rlw.getNumberOfLiteralWords();
+            writeVarLong(out, numberOfLiteralWords);
+            final long[] buffer = i.buffer();
+            final int start = i.literalWords();
+            for (int k = 0; k < numberOfLiteralWords; ++k)
+                writeLiteralWord(out, buffer[start + k]);
+        }
+    }
+
+    /**
+     * Compute the number of bytes written by serialize(bitmap, out).
+     *
+     * @param bitmap the bitmap
+     * @return the size in bytes of the coded form
+     */
+    public static long serializedSizeInBytes(final EWAHCompressedBitmap bitmap) {
+        long answer = varLongSizeInBytes(bitmap.sizeInBits()) + varLongSizeInBytes(numberOfMarkers(bitmap));
+        final EWAHIterator i = bitmap.getEWAHIterator();
+        while (i.hasNext()) {
+            final RunningLengthWord rlw = i.next();
+            answer += varLongSizeInBytes((rlw.getRunningLength() << 1) | (rlw.getRunningBit() ? 1 : 0));
+            final int numberOfLiteralWords = rlw.getNumberOfLiteralWords();
+            answer += varLongSizeInBytes(numberOfLiteralWords);
+            final long[] buffer = i.buffer();
+            final int start = i.literalWords();
+            for (int k = 0; k < numberOfLiteralWords; ++k)
+                answer += literalWordSizeInBytes(buffer[start + k]);
+        }
+        return answer;
+    }
+
+    /**
+     * Read a bitmap written by serialize.
+     *
+     * @param in the input
+     * @return the bitmap
+     * @throws IOException Signals that an I/O exception has occurred, or that
+     *                     the data is not valid.
+     */
+    public static EWAHCompressedBitmap deserialize(final DataInput in) throws IOException {
+        final CodedIteratingRLW i = new CodedIteratingRLW(in);
+        final EWAHCompressedBitmap bitmap = new EWAHCompressedBitmap();
+        do {
+            i.readLiteralWords();
+            bitmap.addStreamOfEmptyWords(i.getRunningBit(), i.getRunningLength());
+            bitmap.addStreamOfLiteralWords(i.literalWords, 0, i.getNumberOfLiteralWords());
+        } while (i.nextMarker());
+        if ((bitmap.sizeInBits + EWAHCompressedBitmap.WORD_IN_BITS - 1) / EWAHCompressedBitmap.WORD_IN_BITS
+                != (i.sizeInBits + EWAHCompressedBitmap.WORD_IN_BITS - 1) / EWAHCompressedBitmap.WORD_IN_BITS)
+            throw new IOException("Invalid size in bits: " + i.sizeInBits);
+        bitmap.sizeInBits = i.sizeInBits;
+        return bitmap;
+    }
+
+    /**
+     * Iterate over a bitmap written by serialize, reading the input as the
+     * iterator advances. Only a block of literal words is held in memory.
+     * Once all words are consumed, the input is positioned right after the
+     * bitmap.
+     *
+     * Since the methods of IteratingRLW cannot throw an IOException, errors
+     * while reading the words are reported as IllegalStateException. The
+     * iterator cannot be cloned.
+     *
+     * @param in the input
+     * @return the iterator
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    public static IteratingRLW iterator(final DataInput in) throws IOException {
+        final CodedIteratingRLW answer = new CodedIteratingRLW(in);
+        answer.next();
+        return answer;
+    }
+
+    private static int numberOfMarkers(final EWAHCompressedBitmap bitmap) {
+        int answer = 0;
+        final EWAHIterator i = bitmap.getEWAHIterator();
+        while (i.hasNext()) {
+            i.next();
+            ++answer;
+        }
+        return answer;
+    }
+
+    private static void writeLiteralWord(final DataOutput out, final long word) throws IOException {
+        final int bitCount = Long.bitCount(word);
+        if (bitCount <= MAX_POSITIONS) {
+            out.writeByte(bitCount);
+            writePositions(out, word);
+        } else if (WORD_IN_BITS - bitCount <= MAX_POSITIONS) {
+            out.writeByte(DENSE + WORD_IN_BITS - bitCount);
+            writePositions(out, ~word);
+        } else {
+            out.writeByte(VERBATIM);
+            out.writeLong(word);
+        }
+    }
+
+    private static void writePositions(final DataOutput out, long word) throws IOException {
+        while (word != 0) {
+            out.writeByte(Long.numberOfTrailingZeros(word));
+            word &= word - 1;
+        }
+    }
+
+    private static long readLiteralWord(final DataInput in) throws IOException {
+        final int tag = in.readUnsignedByte();
+        if (tag < DENSE)
+            return readPositions(in, tag);
+        if (tag < VERBATIM)
+            return ~readPositions(in, tag - DENSE);
+        if (tag == VERBATIM)
+            return in.readLong();
+        throw new IOException("Invalid literal word tag: " + tag);
+    }
+
+    private static long readPositions(final DataInput in, final int number) throws IOException {
+        long word = 0;
+        for (int k = 0; k < number; ++k) {
+            final int position = in.readUnsignedByte();
+            if (position >= WORD_IN_BITS)
+                throw new IOException("Invalid bit position: " + position);
+            word |= 1l << position;
+        }
+        return word;
+    }
+
+    private static int literalWordSizeInBytes(final long word) {
+        final int bitCount = Long.bitCount(word);
+        if (bitCount <= MAX_POSITIONS)
+            return 1 + bitCount;
+        if (WORD_IN_BITS - bitCount <= MAX_POSITIONS)
+            return 1 + WORD_IN_BITS - bitCount;
+        return 1 + WORD_IN_BITS / 8;
+    }
+
+    private static void writeVarLong(final DataOutput out, long value) throws IOException {
+        while ((value & ~0x7Fl) != 0) {
+            out.writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    private static long readVarLong(final DataInput in) throws IOException {
+        long answer = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            final int b = in.readUnsignedByte();
+            answer |= ((long) (b & 0x7F)) << shift;
+            if ((b & 0x80) == 0)
+                return answer;
+        }
+        throw new IOException("Invalid variable-length integer");
+    }
+
+    private static int varLongSizeInBytes(long value) {
+        int answer = 1;
+        while ((value & ~0x7Fl) != 0) {
+            value >>>= 7;
+            ++answer;
+        }
+        return answer;
+    }
+
+    /**
+     * Reads the marker words one at a time. A marker word followed by more
+     * literal words than fit in the block is presented as several running
+     * length words.
+     */
+    private static final class CodedIteratingRLW implements IteratingRLW {
+
+        /**
+         * Read the header and the first marker word, but not its literal
+         * words.
+         */
+        CodedIteratingRLW(final DataInput in) throws IOException {
+            this.in = in;
+            final long sizeInBits = readVarLong(in);
+            final long numberOfMarkers = readVarLong(in);
+            if ((sizeInBits > Integer.MAX_VALUE) || (numberOfMarkers < 1) || (numberOfMarkers > Integer.MAX_VALUE))
+                throw new IOException("Invalid header");
+            this.sizeInBits = (int) sizeInBits;
+            this.markersLeft = (int) numberOfMarkers;
+            readMarker();
+        }
+
+        /**
+         * Read the marker word, but not its literal words.
+         */
+        void readMarker() throws IOException {
+            final long marker = readVarLong(this.in);
+            final long runningLength = marker >>> 1;
+            final long numberOfLiteralWords = readVarLong(this.in);
+            if ((runningLength > RunningLengthWord.LARGEST_RUNNING_LENGTH_COUNT)
+                    || (numberOfLiteralWords > RunningLengthWord.LARGEST_LITERAL_COUNT))
+                throw new IOException("Invalid marker word");
+            this.brlw.runningBit = (marker & 1) != 0;
+            this.brlw.runningLength = runningLength;
+            this.brlw.numberOfLiteralWords = 0;
+            this.pendingLiteralWords = (int) numberOfLiteralWords;
+            --this.markersLeft;
+        }
+
+        /**
+         * Read the next block of literal words of the marker word.
+         */
+        void readLiteralWords() throws IOException {
+            final int n = Math.min(this.pendingLiteralWords, this.literalWords.length);
+            for (int k = 0; k < n; ++k)
+                this.literalWords[k] = readLiteralWord(this.in);
+            this.pendingLiteralWords -= n;
+            this.brlw.numberOfLiteralWords = n;
+            this.literalWordStartPosition = 0;
+        }
+
+        /**
+         * Move to the next block of literal words, or to the next marker
+         * word (whose literal words are not read).
+         *
+         * @return whether there was a block or a marker word left
+         */
+        boolean nextMarker() throws IOException {
+            if (this.pendingLiteralWords > 0) {
+                this.brlw.runningLength = 0;
+                return true;
+            }
+            if (this.markersLeft > 0) {
+                readMarker();
+                return true;
+            }
+            this.brlw.runningLength = 0;
+            this.brlw.numberOfLiteralWords = 0;
+            return false;
+        }
+
+        @Override
+        public boolean next() {
+            try {
+                if (this.started && !nextMarker())
+                    return false;
+                this.started = true;
+                readLiteralWords();
+                return true;
+            } catch (IOException e) {
+                throw new IllegalStateException("Could not read the bitmap", e);
+            }
+        }
+
+        @Override
+        public void discardFirstWords(long x) {
+            while (x > 0) {
+                if (this.brlw.runningLength > x) {
+                    this.brlw.runningLength -= x;
+                    return;
+                }
+                x -= this.brlw.runningLength;
+                this.brlw.runningLength = 0;
+                final long toDiscard = x > this.brlw.numberOfLiteralWords ? this.brlw.numberOfLiteralWords : x;
+                this.literalWordStartPosition += toDiscard;
+                this.brlw.numberOfLiteralWords -= toDiscard;
+                x -= toDiscard;
+                if ((x > 0) || (this.brlw.size() == 0)) {
+                    if (!next())
+                        break;
+                }
+            }
+        }
+
+        @Override
+        public void discardRunningWords() {
+            this.brlw.runningLength = 0;
+            if (this.brlw.getNumberOfLiteralWords() == 0)
+                this.next();
+        }
+
+        @Override
+        public long getLiteralWordAt(final int index) {
+            return this.literalWords[this.literalWordStartPosition + index];
+        }
+
+        @Override
+        public int getNumberOfLiteralWords() {
+            return this.brlw.numberOfLiteralWords;
+        }
+
+        @Override
+        public boolean getRunningBit() {
+            return this.brlw.runningBit;
+        }
+
+        @Override
+        public long getRunningLength() {
+            return this.brlw.runningLength;
+        }
+
+        @Override
+        public long size() {
+            return this.brlw.size();
+        }
+
+        @Override
+        public IteratingRLW clone() throws CloneNotSupportedException {
+            throw new CloneNotSupportedException("A serialized bitmap can only be read once");
+        }
+
+        private final DataInput in;
+        private final int sizeInBits;
+        private final BufferedRunningLengthWord brlw = new BufferedRunningLengthWord(0);
+        private final long[] literalWords = new long[BLOCK_IN_WORDS];
+        private int literalWordStartPosition;
+        private int pendingLiteralWords;
+        private int markersLeft;
+        private boolean started = false;
+    }
+
+    /**
+     * Largest number of positions written for a sparse or dense literal word.
+     */
+    private static final int MAX_POSITIONS = 7;
+
+    private static final int DENSE = MAX_POSITIONS + 1;
+
+    private static final int VERBATIM = DENSE + MAX_POSITIONS + 1;
+
+    /**
+     * Number of literal words held in memory.
+     */
+    private static final int BLOCK_IN_WORDS = 1024;
+
+    private static final int WORD_IN_BITS = EWAHCompressedBitmap.WORD_IN_BITS;
+}
@@ -0,0 +1,530 @@
+package com.googlecode.javaewah;
+
+import java.io.*;
+import java.util.Arrays;
+
+/*
+ * Copyright 2009-2014, Daniel Lemire, Cliff Moon, David McIntosh, Robert Becho, Google Inc., Veronika Zenz, Owen Kaser, Gregory Ssi-Yan-Kai, Rory Graves
+ * Licensed under the Apache License, Version 2.0.
+ */
+
+/**
+ * A compressed bitmap addressed by long positions. The positions are split
+ * in chunks of 2^30 bits (see CHUNK_BITS): the high bits of a position
+ * select a chunk and the low bits are stored in an EWAHCompressedBitmap.
+ * Only the chunks having set bits are stored, so that sparse bits spread
+ * over a large range do not use more memory than with a single bitmap.
+ *
+ * The logical operations are computed chunk by chunk: chunks present in
+ * only one of the bitmaps are copied or skipped without being read.
+ *
+ * As with EWAHCompressedBitmap, the bits must be set in increasing order.
+ *
+ * <pre>
+ * LongEWAHCompressedBitmap events = new LongEWAHCompressedBitmap();
+ * events.set(3000000000L);
+ * events.set(1L &lt;&lt; 40);
+ * LongIterator i = events.longIterator();
+ * </pre>
+ *
+ * @author Daniel Lemire
+ * @since 0.8.12
+ */
+public final class LongEWAHCompressedBitmap implements Cloneable, Externalizable {
+
+    /**
+     * Creates an empty bitmap.
+     */
+    public LongEWAHCompressedBitmap() {
+        this(DEFAULT_CHUNK_CAPACITY);
+    }
+
+    private LongEWAHCompressedBitmap(final int capacity) {
+        this.keys = new long[capacity];
+        this.chunks = new EWAHCompressedBitmap[capacity];
+    }
+
+    /**
+     * Return a bitmap with the bit set to true at the given positions. The
+     * positions should be given in sorted order.
+     *
+     * @param setBits list of set bit positions
+     * @return the bitmap
+     */
+    public static LongEWAHCompressedBitmap bitmapOf(long... setBits) {
+        LongEWAHCompressedBitmap a = new LongEWAHCompressedBitmap();
+        for (long k : setBits)
+            a.set(k);
+        return a;
+    }
+
+    /**
+     * Set the bit at position i to true, the bits must be set in (strictly)
+     * increasing order. For example, set(15) and then set(7) will fail. You
+     * must do set(7) and then set(15).
+     *
+     * @param i the index
+     * @return true if the value was set (always true when i greater or
+     * equal to sizeInBits()).
+     * @throws IndexOutOfBoundsException if i is negative
+     */
+    public boolean set(final long i) {
+        if (i < 0)
+            throw new IndexOutOfBoundsException("Set values should be non-negative, got " + i);
+        if (i < this.sizeInBits)
+            return false;
+        final long key = i >>> CHUNK_BITS;
+        if ((this.size == 0) || (this.keys[this.size - 1] != key))
+            append(key, new EWAHCompressedBitmap());
+        this.chunks[this.size - 1].set((int) (i & CHUNK_MASK));
+        this.sizeInBits = i + 1;
+        return true;
+    }
+
+    /**
+     * Query the value of a single bit. The complexity is logarithmic with
+     * the number of chunks and linear with the size of the chunk.
+     *
+     * @param i the bit we are interested in
+     * @return whether the bit is set to true
+     */
+    public boolean get(final long i) {
+        if (i < 0)
+            return false;
+        final int index = Arrays.binarySearch(this.keys, 0, this.size, i >>> CHUNK_BITS);
+        return index >= 0 && this.chunks[index].get((int) (i & CHUNK_MASK));
+    }
+
+    /**
+     * @return the number of bits set to true
+     */
+    public long cardinality() {
+        long answer = 0;
+        for (int k = 0; k < this.size; ++k)
+            answer += this.chunks[k].cardinality();
+        return answer;
+    }
+
+    /**
+     * @return true if no bit is set
+     */
+    public boolean isEmpty() {
+        for (int k = 0; k < this.size; ++k)
+            if (!this.chunks[k].isEmpty())
+                return false;
+        return true;
+    }
+
+    /**
+     * Returns the size in bits of the *uncompressed* bitmap: initially
+     * zero, it is extended automatically when you set bits to true.
+     *
+     * @return the size in bits
+     */
+    public long sizeInBits() {
+        return this.sizeInBits;
+    }
+
+    /**
+     * Report the number of bytes used by the chunks, including their keys.
+     *
+     * @return the size in bytes
+     */
+    public long sizeInBytes() {
+        long answer = 0;
+        for (int k = 0; k < this.size; ++k)
+            answer += 8 + this.chunks[k].sizeInBytes();
+        return answer;
+    }
+
+    /**
+     * @return the number of chunks stored
+     */
+    public int numberOfChunks() {
+        return this.size;
+    }
+
+    /**
+     * Returns a new compressed bitmap containing the bitwise AND values of
+     * the current bitmap with some other bitmap.
+     *
+     * The current bitmap is not modified.
+     *
+     * @param a the other bitmap (it will not be modified)
+     * @return the result
+     */
+    public LongEWAHCompressedBitmap and(final LongEWAHCompressedBitmap a) {
+        final LongEWAHCompressedBitmap answer = new LongEWAHCompressedBitmap(Math.min(this.size, a.size));
+        int k = 0, j = 0;
+        while ((k < this.size) && (j < a.size)) {
+            if (this.keys[k] < a.keys[j])
+                ++k;
+            else if (this.keys[k] > a.keys[j])
+                ++j;
+            else {
+                answer.appendIfNotEmpty(this.keys[k], this.chunks[k].and(a.chunks[j]));
+                ++k;
+                ++j;
+            }
+        }
+        answer.sizeInBits = Math.max(this.sizeInBits, a.sizeInBits);
+        return answer;
+    }
+
+    /**
+     * Returns the cardinality of the result of a bitwise AND of the values
+     * of the current bitmap with some other bitmap.
+     *
+     * @param a the other bitmap (it will not be modified)
+     * @return the cardinality
+     */
+    public long andCardinality(final LongEWAHCompressedBitmap a) {
+        long answer = 0;
+        int k = 0, j = 0;
+        while ((k < this.size) && (j < a.size)) {
+            if (this.keys[k] < a.keys[j])
+                ++k;
+            else if (this.keys[k] > a.keys[j])
+                ++j;
+            else
+                answer += this.chunks[k++].andCardinality(a.chunks[j++]);
+        }
+        return answer;
+    }
+
+    /**
+     * Returns a new compressed bitmap containing the bitwise AND NOT values
+     * of the current bitmap with some other bitmap.
+     *
+     * The current bitmap is not modified.
+     *
+     * @param a the other bitmap (it will not be modified)
+     * @return the result
+     */
+    public LongEWAHCompressedBitmap andNot(final LongEWAHCompressedBitmap a) {
+        final LongEWAHCompressedBitmap answer = new LongEWAHCompressedBitmap(this.size);
+        int j = 0;
+        for (int k = 0; k < this.size; ++k) {
+            while ((j < a.size) && (a.keys[j] < this.keys[k]))
+                ++j;
+            if ((j < a.size) && (a.keys[j] == this.keys[k]))
+                answer.appendIfNotEmpty(this.keys[k], this.chunks[k].andNot(a.chunks[j]));
+            else
+                answer.append(this.keys[k], this.chunks[k].clone());
+        }
+        answer.sizeInBits = Math.max(this.sizeInBits, a.sizeInBits);
+        return answer;
+    }
+
+    /**
+     * Returns a new compressed bitmap containing the bitwise OR values of
+     * the current bitmap with some other bitmap.
+     *
+     * The current bitmap is not modified.
+     *
+     * @param a the other bitmap (it will not be modified)
+     * @return the result
+     */
+    public LongEWAHCompressedBitmap or(final LongEWAHCompressedBitmap a) {
+        return merge(a, false);
+    }
+
+    /**
+     * Returns a new compressed bitmap containing the bitwise XOR values of
+     * the current bitmap with some other bitmap.
+     *
+     * The current bitmap is not modified.
+     *
+     * @param a the other bitmap (it will not be modified)
+     * @return the result
+     */
+    public LongEWAHCompressedBitmap xor(final LongEWAHCompressedBitmap a) {
+        return merge(a, true);
+    }
+
+    private LongEWAHCompressedBitmap merge(final LongEWAHCompressedBitmap a, final boolean xor) {
+        final LongEWAHCompressedBitmap answer = new LongEWAHCompressedBitmap(this.size + a.size);
+        int k = 0, j = 0;
+        while ((k < this.size) || (j < a.size)) {
+            if ((j == a.size) || ((k < this.size) && (this.keys[k] < a.keys[j]))) {
+                answer.append(this.keys[k], this.chunks[k].clone());
+                ++k;
+            } else if ((k == this.size) || (this.keys[k] > a.keys[j])) {
+                answer.append(a.keys[j], a.chunks[j].clone());
+                ++j;
+            } else {
+                answer.appendIfNotEmpty(this.keys[k], xor ? this.chunks[k].xor(a.chunks[j])
+                        : this.chunks[k].or(a.chunks[j]));
+                ++k;
+                ++j;
+            }
+        }
+        answer.sizeInBits = Math.max(this.sizeInBits, a.sizeInBits);
+        return answer;
+    }
+
+    /**
+     * Negate (bitwise) the current bitmap within sizeInBits() bits.
+     *
+     * Every chunk up to sizeInBits() is stored after the negation: unlike
+     * the other operations, the memory usage depends on sizeInBits() and
+     * not only on the set bits. Prefer andNot over large ranges.
+     *
+     * @throws UnsupportedOperationException if sizeInBits() spans too many
+     *                                       chunks
+     */
+    public void not() {
+        if (this.sizeInBits == 0)
+            return;
+        final long lastKey = (this.sizeInBits - 1) >>> CHUNK_BITS;
+        if (lastKey >= Integer.MAX_VALUE - 8)
+            throw new UnsupportedOperationException("Too many chunks to negate: " + (lastKey + 1));
+        final long[] newKeys = new long[(int) lastKey + 1];
+        final EWAHCompressedBitmap[] newChunks = new EWAHCompressedBitmap[(int) lastKey + 1];
+        int n = 0;
+        int k = 0;
+        for (long key = 0; key <= lastKey; ++key) {
+            final int chunkSize = key < lastKey ? CHUNK_SIZE : (int) ((this.sizeInBits - 1) & CHUNK_MASK) + 1;
+            final EWAHCompressedBitmap chunk;
+            if ((k < this.size) && (this.keys[k] == key)) {
+                chunk = this.chunks[k++];
+                chunk.setSizeInBits(chunkSize, false);
+                chunk.not();
+            } else {
+                chunk = new EWAHCompressedBitmap();
+                chunk.setSizeInBits(chunkSize, true);
+            }
+            if (!chunk.isEmpty()) {
+                newKeys[n] = key;
+                newChunks[n++] = chunk;
+            }
+        }
+        this.keys = newKeys;
+        this.chunks = newChunks;
+        this.size = n;
+    }
+
+    /**
+     * Iterator over the set bits, in increasing order.
+     *
+     * @return the long iterator
+     */
+    public LongIterator longIterator() {
+        return new LongIterator() {
+
+            @Override
+            public boolean hasNext() {
+                while (!this.under.hasNext()) {
+                    if (this.index + 1 >= LongEWAHCompressedBitmap.this.size)
+                        return false;
+                    ++this.index;
+                    this.under = LongEWAHCompressedBitmap.this.chunks[this.index].intIterator();
+                }
+                return true;
+            }
+
+            @Override
+            public long next() {
+                hasNext();
+                return (LongEWAHCompressedBitmap.this.keys[this.index] << CHUNK_BITS) | this.under.next();
+            }
+
+            private int index = -1;
+            private IntIterator under = EMPTY;
+        };
+    }
+
+    /**
+     * Returns the positions of the set bits in increasing order.
+     *
+     * @return the positions
+     */
+    public long[] toArray() {
+        final long card = cardinality();
+        if (card > Integer.MAX_VALUE - 8)
+            throw new UnsupportedOperationException("Too many set bits: " + card);
+        final long[] answer = new long[(int) card];
+        int pos = 0;
+        for (int k = 0; k < this.size; ++k) {
+            final long base = this.keys[k] << CHUNK_BITS;
+            final IntIterator i = this.chunks[k].intIterator();
+            while (i.hasNext())
+                answer[pos++] = base | i.next();
+        }
+        return answer;
+    }
+
+    /**
+     * Reduce the memory allocated to the bitmap.
+     */
+    public void trim() {
+        this.keys = Arrays.copyOf(this.keys, this.size);
+        this.chunks = Arrays.copyOf(this.chunks, this.size);
+        for (int k = 0; k < this.size; ++k)
+            this.chunks[k].trim();
+    }
+
+    @Override
+    public LongEWAHCompressedBitmap clone() {
+        LongEWAHCompressedBitmap clone = null;
+        try {
+            clone = (LongEWAHCompressedBitmap) super.clone();
+            clone.keys = this.keys.clone();
+            clone.chunks = new EWAHCompressedBitmap[this.chunks.length];
+            for (int k = 0; k < this.size; ++k)
+                clone.chunks[k] = this.chunks[k].clone();
+        } catch (CloneNotSupportedException e) {
+            e.printStackTrace();
+        }
+        return clone;
+    }
+
+    /**
+     * Check to see whether the two bitmaps contain the same set bits.
+     *
+     * @see java.lang.Object#equals(java.lang.Object)
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof LongEWAHCompressedBitmap))
+            return false;
+        final LongEWAHCompressedBitmap a = (LongEWAHCompressedBitmap) o;
+        if (this.size != a.size)
+            return false;
+        for (int k = 0; k < this.size; ++k)
+            if ((this.keys[k] != a.keys[k]) || !this.chunks[k].equals(a.chunks[k]))
+                return false;
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int answer = 0;
+        for (int k = 0; k < this.size; ++k)
+            answer = 31 * answer + (int) (this.keys[k] ^ (this.keys[k] >>> 32)) + this.chunks[k].hashCode();
+        return answer;
+    }
+
+    /**
+     * A string describing the bitmap.
+     *
+     * @return the string
+     */
+    @Override
+    public String toString() {
+        StringBuilder answer = new StringBuilder();
+        LongIterator i = this.longIterator();
+        answer.append("{");
+        if (i.hasNext())
+            answer.append(i.next());
+        while (i.hasNext()) {
+            answer.append(",");
+            answer.append(i.next());
+        }
+        answer.append("}");
+        return answer.toString();
+    }
+
+    /**
+     * Serialize.
+     *
+     * The current bitmap is not modified.
+     *
+     * @param out the DataOutput stream
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    public void serialize(DataOutput out) throws IOException {
+        out.writeLong(this.sizeInBits);
+        out.writeInt(this.size);
+        for (int k = 0; k < this.size; ++k) {
+            out.writeLong(this.keys[k]);
+            this.chunks[k].serialize(out);
+        }
+    }
+
+    /**
+     * Deserialize.
+     *
+     * @param in the DataInput stream
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    public void deserialize(DataInput in) throws IOException {
+        this.sizeInBits = in.readLong();
+        this.size = in.readInt();
+        this.keys = new long[Math.max(this.size, DEFAULT_CHUNK_CAPACITY)];
+        this.chunks = new EWAHCompressedBitmap[this.keys.length];
+        for (int k = 0; k < this.size; ++k) {
+            this.keys[k] = in.readLong();
+            this.chunks[k] = new EWAHCompressedBitmap();
+            this.chunks[k].deserialize(in);
+        }
+    }
+
+    /**
+     * Report the number of bytes required to serialize this bitmap
+     *
+     * @return the size in bytes
+     */
+    public long serializedSizeInBytes() {
+        long answer = 8 + 4;
+        for (int k = 0; k < this.size; ++k)
+            answer += 8 + this.chunks[k].serializedSizeInBytes();
+        return answer;
+    }
+
+    @Override
+    public void readExternal(ObjectInput in) throws IOException {
+        deserialize(in);
+    }
+
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+        serialize(out);
+    }
+
+    private void append(final long key, final EWAHCompressedBitmap chunk) {
+        if (this.size == this.keys.length) {
+            final int capacity = Math.max(DEFAULT_CHUNK_CAPACITY, 2 * this.size);
+            this.keys = Arrays.copyOf(this.keys, capacity);
+            this.chunks = Arrays.copyOf(this.chunks, capacity);
+        }
+        this.keys[this.size] = key;
+        this.chunks[this.size++] = chunk;
+    }
+
+    private void appendIfNotEmpty(final long key, final EWAHCompressedBitmap chunk) {
+        if (!chunk.isEmpty())
+            append(key, chunk);
+    }
+
+    private static final IntIterator EMPTY = new IntIterator() {
+
+        @Override
+        public boolean hasNext() {
+            return false;
+        }
+
+        @Override
+        public int next() {
+            throw new java.util.NoSuchElementException();
+        }
+    };
+
+    /**
+     * Each chunk covers 2^CHUNK_BITS positions.
+     */
+    public static final int CHUNK_BITS = 30;
+
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+
+    private static final long CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private static final int DEFAULT_CHUNK_CAPACITY = 4;
+
+    private long[] keys;
+    private EWAHCompressedBitmap[] chunks;
+    private int size = 0;
+    private long sizeInBits = 0;
+
+    static final long serialVersionUID = 1L;
+}
@@ -29,13 +29,13 @@ public class NonEmptyVirtualStorage implements BitmapStorage {
     }
 
     /**
-     * throws a NonEmptyException exception when number is greater than 0
+     * throws a NonEmptyException exception when one of the words is not zero
      */
     @Override
     public void addStreamOfLiteralWords(long[] data, int start, int number) {
-        if (number > 0) {
-            throw nonEmptyException;
-        }
+        for (int k = start; k < start + number; ++k)
+            if (data[k] != 0)
+                throw nonEmptyException;
     }
 
     /**
@@ -52,14 +52,15 @@ public class NonEmptyVirtualStorage implements BitmapStorage {
     }
 
     /**
-     * throws a NonEmptyException exception when number is greater than 0
+     * throws a NonEmptyException exception when one of the negated words is
+     * not zero
      */
     @Override
     public void addStreamOfNegatedLiteralWords(long[] data, int start,
                                                int number) {
-        if (number > 0) {
-            throw nonEmptyException;
-        }
+        for (int k = start; k < start + number; ++k)
+            if (~data[k] != 0)
+                throw nonEmptyException;
     }
 
     @Override
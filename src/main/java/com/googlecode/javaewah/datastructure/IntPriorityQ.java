@@ -0,0 +1,119 @@
+package com.googlecode.javaewah.datastructure;
+
+/**
+ * Special-purpose priority queue over non-negative integer keys, each
+ * associated with a non-negative integer value (e.g., an index in an
+ * array). Key-value pairs are packed in a single array of longs so that
+ * comparisons are primitive and no object is dereferenced while the heap is
+ * maintained. Ties are broken by the values. Like PriorityQ, it does
+ * limited error checking and supports toss, buildHeap, poll, peek and
+ * updates of the top key.
+ *
+ * @author Daniel Lemire
+ * @since 0.8.12
+ */
+public final class IntPriorityQ {
+    final long[] a;
+    int lastIndex;
+
+    /**
+     * Construct a priority queue with a given capacity
+     *
+     * @param maxSize capacity
+     */
+    public IntPriorityQ(final int maxSize) {
+        this.a = new long[maxSize + 1];
+        this.lastIndex = 0;
+    }
+
+    /**
+     * @return the size of the queue
+     */
+    public int size() {
+        return this.lastIndex;
+    }
+
+    /**
+     * Add an element at the end of the queue (see buildHeap)
+     *
+     * @param key   the key (non-negative)
+     * @param value the value (non-negative)
+     */
+    public void toss(final int key, final int value) {
+        this.a[++this.lastIndex] = ((long) key << 32) | value;
+    }
+
+    /**
+     * @return the smallest key
+     */
+    public int peekKey() {
+        return (int) (this.a[1] >>> 32);
+    }
+
+    /**
+     * @return the value associated with the smallest key
+     */
+    public int peekValue() {
+        return (int) this.a[1];
+    }
+
+    /**
+     * build the heap...
+     */
+    public void buildHeap() {
+        for (int i = this.lastIndex / 2; i > 0; --i) {
+            percolateDown(i);
+        }
+    }
+
+    /**
+     * Change the key on top of the heap, keeping the same value.
+     *
+     * @param key the new key (non-negative)
+     */
+    public void updateTopKey(final int key) {
+        this.a[1] = ((long) key << 32) | (this.a[1] & 0xFFFFFFFFL);
+        percolateDown(1);
+    }
+
+    private void percolateDown(int i) {
+        final long[] heap = this.a;
+        final long ai = heap[i];
+        final int last = this.lastIndex;
+        while (true) {
+            int l = 2 * i;
+            if (l > last)
+                break;
+            // pick the smallest child
+            if ((l < last) && (heap[l + 1] < heap[l]))
+                ++l;
+            if (heap[l] >= ai)
+                break;
+            heap[i] = heap[l];
+            i = l;
+        }
+        heap[i] = ai;
+    }
+
+    /**
+     * Remove the element on top of the heap
+     *
+     * @return the value of the element being removed
+     */
+    public int poll() {
+        final int ans = peekValue();
+        this.a[1] = this.a[this.lastIndex--];
+        if (this.lastIndex > 0)
+            percolateDown(1);
+        return ans;
+    }
+
+    /**
+     * Check whether the heap is empty.
+     *
+     * @return true if empty
+     */
+    public boolean isEmpty() {
+        return this.lastIndex == 0;
+    }
+}
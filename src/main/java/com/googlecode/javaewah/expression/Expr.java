@@ -0,0 +1,632 @@
+package com.googlecode.javaewah.expression;
+
+import com.googlecode.javaewah.EWAHCompressedBitmap;
+import com.googlecode.javaewah.IteratingRLW;
+import com.googlecode.javaewah.IteratorAggregation;
+import com.googlecode.javaewah.IteratorUtil;
+import com.googlecode.javaewah.symmetric.RunningBitmapMerge;
+import com.googlecode.javaewah.symmetric.ThresholdFuncBitmap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/*
+ * Copyright 2009-2014, Daniel Lemire, Cliff Moon, David McIntosh, Robert Becho, Google Inc., Veronika Zenz, Owen Kaser, Gregory Ssi-Yan-Kai, Rory Graves
+ * Licensed under the Apache License, Version 2.0.
+ */
+
+/**
+ * A Boolean expression over compressed bitmaps. The expression is evaluated
+ * lazily: it is compiled into a pipeline of streamed iterators (see
+ * IteratorAggregation) and no intermediate bitmap is generated, except for
+ * the inputs of threshold functions which are not plain bitmaps.
+ *
+ * Here is a code sample computing (A | B | C) &amp; ~D &amp; (E ^ F):
+ *
+ * <pre>
+ * Expr e = Expr.and(Expr.or(Expr.of(A), Expr.of(B), Expr.of(C)),
+ *                   Expr.not(Expr.of(D)),
+ *                   Expr.xor(Expr.of(E), Expr.of(F)));
+ * EWAHCompressedBitmap answer = e.materialize();
+ * int count = e.cardinality(); // does not materialize the answer
+ * </pre>
+ *
+ * All bitmaps of an expression are considered to span the same universe: the
+ * largest sizeInBits() among the bitmaps of the expression (missing bits are
+ * false). The negation is computed within this universe.
+ *
+ * The children of an intersection are evaluated by increasing estimated
+ * compressed size, and negated children of an intersection are computed
+ * together as a difference. The bitmaps should not be modified while an
+ * expression over them is evaluated.
+ *
+ * @author Daniel Lemire
+ * @since 0.8.12
+ */
+public abstract class Expr {
+
+    Expr(final int sizeInBits) {
+        this.sizeInBits = sizeInBits;
+    }
+
+    /**
+     * Expression made of a single bitmap.
+     *
+     * @param bitmap the bitmap
+     * @return the expression
+     */
+    public static Expr of(final EWAHCompressedBitmap bitmap) {
+        return new Leaf(bitmap, null, 0);
+    }
+
+    /**
+     * Expression made of a single bitmap identified by a name and a version.
+     * The version should change whenever the bitmap is modified. Only
+     * expressions made of identified bitmaps can be cached (see ExprCache).
+     *
+     * @param name    the identity of the bitmap
+     * @param version the version of the bitmap
+     * @param bitmap  the bitmap
+     * @return the expression
+     */
+    public static Expr of(final String name, final long version, final EWAHCompressedBitmap bitmap) {
+        if (name == null)
+            throw new IllegalArgumentException("The name should not be null");
+        return new Leaf(bitmap, name, version);
+    }
+
+    /**
+     * Intersection of several expressions.
+     *
+     * @param children the expressions
+     * @return the expression
+     */
+    public static Expr and(final Expr... children) {
+        final List<Expr> list = flatten(And.class, children);
+        if (list.size() == 1)
+            return list.get(0);
+        return new And(list);
+    }
+
+    /**
+     * Union of several expressions.
+     *
+     * @param children the expressions
+     * @return the expression
+     */
+    public static Expr or(final Expr... children) {
+        final List<Expr> list = flatten(Or.class, children);
+        if (list.size() == 1)
+            return list.get(0);
+        return new Or(list);
+    }
+
+    /**
+     * Symmetric difference (parity) of several expressions.
+     *
+     * @param children the expressions
+     * @return the expression
+     */
+    public static Expr xor(final Expr... children) {
+        final List<Expr> list = flatten(Xor.class, children);
+        if (list.size() == 1)
+            return list.get(0);
+        return new Xor(list);
+    }
+
+    /**
+     * Negation of an expression.
+     *
+     * @param child the expression
+     * @return the expression
+     */
+    public static Expr not(final Expr child) {
+        if (child instanceof Not)
+            return ((Not) child).child;
+        return new Not(child);
+    }
+
+    /**
+     * Difference of two expressions: x &amp; ~y.
+     *
+     * @param x the first expression
+     * @param y the expression to remove
+     * @return the expression
+     */
+    public static Expr andNot(final Expr x, final Expr y) {
+        return and(x, not(y));
+    }
+
+    /**
+     * Threshold function: bits are true where at least t of the expressions
+     * are true.
+     *
+     * @param t        the threshold (at least 1)
+     * @param children the expressions
+     * @return the expression
+     */
+    public static Expr threshold(final int t, final Expr... children) {
+        if (t < 1)
+            throw new IllegalArgumentException("The threshold should be at least 1, got " + t);
+        if (children.length == 0)
+            throw new IllegalArgumentException("Need at least one expression");
+        if (t == 1)
+            return or(children);
+        if (t == children.length)
+            return and(children);
+        if (t > children.length) {
+            final EWAHCompressedBitmap empty = new EWAHCompressedBitmap();
+            empty.setSizeInBits(maxSizeInBits(children), false);
+            return of(empty);
+        }
+        return new Threshold(t, new ArrayList<Expr>(Arrays.asList(children)));
+    }
+
+    /**
+     * @return the size of the universe of the expression in bits
+     */
+    public int sizeInBits() {
+        return this.sizeInBits;
+    }
+
+    /**
+     * Compile the expression into a streamed iterator. Each call returns a
+     * new iterator. The last word may contain set bits beyond sizeInBits().
+     *
+     * @return the iterator
+     */
+    public IteratingRLW iterator() {
+        return iterator(wordsFor(this.sizeInBits));
+    }
+
+    /**
+     * Evaluate the expression.
+     *
+     * @return a new bitmap with sizeInBits() bits
+     */
+    public EWAHCompressedBitmap materialize() {
+        return materialize(this.sizeInBits);
+    }
+
+    /**
+     * Count the true bits of the expression without materializing it.
+     *
+     * @return the number of true bits
+     */
+    public int cardinality() {
+        final long lastWordIndex = wordsFor(this.sizeInBits) - 1;
+        final IteratingRLW i = iterator();
+        int answer = 0;
+        long position = 0;
+        long lastWord = 0;
+        while (true) {
+            final long rl = i.getRunningLength();
+            if (i.getRunningBit()) {
+                answer += rl * EWAHCompressedBitmap.WORD_IN_BITS;
+                if ((position <= lastWordIndex) && (lastWordIndex < position + rl))
+                    lastWord = ~0l;
+            }
+            position += rl;
+            for (int k = 0; k < i.getNumberOfLiteralWords(); ++k) {
+                final long w = i.getLiteralWordAt(k);
+                answer += Long.bitCount(w);
+                if (position == lastWordIndex)
+                    lastWord = w;
+                ++position;
+            }
+            if (!i.next())
+                break;
+        }
+        final int usedBitsInLast = this.sizeInBits % EWAHCompressedBitmap.WORD_IN_BITS;
+        if (usedBitsInLast != 0)
+            answer -= Long.bitCount(lastWord >>> usedBitsInLast);
+        return answer;
+    }
+
+    /**
+     * Evaluate the expression within a universe of the given size.
+     */
+    EWAHCompressedBitmap materialize(final int universeSizeInBits) {
+        final EWAHCompressedBitmap answer = IteratorUtil.materialize(iterator(wordsFor(universeSizeInBits)));
+        if (answer.sizeInBits() > universeSizeInBits)
+            answer.setSizeInBitsWithinLastWord(universeSizeInBits);
+        else
+            answer.setSizeInBits(universeSizeInBits, false);
+        return answer;
+    }
+
+    /**
+     * A canonical description of the expression: equivalent expressions up
+     * to the order of the operands, repeated operands of intersections and
+     * unions, and operands cancelling out in parities, share the same key.
+     *
+     * @return the key, or null if some bitmap has no name
+     */
+    String canonicalKey() {
+        // a single read of the field: the key may be computed by several
+        // threads, which all get the same (immutable) string
+        String answer = this.key;
+        if (answer == null) {
+            answer = computeKey();
+            if (answer == null)
+                answer = NO_KEY;
+            this.key = answer;
+        }
+        return answer == NO_KEY ? null : answer;
+    }
+
+    abstract String computeKey();
+
+    /**
+     * Compile the expression, given the size of the universe in words.
+     */
+    abstract IteratingRLW iterator(long universeSizeInWords);
+
+    /**
+     * Estimate the compressed size of the result, in words.
+     */
+    abstract long estimatedSizeInWords();
+
+    static long wordsFor(final int sizeInBits) {
+        return ((long) sizeInBits + EWAHCompressedBitmap.WORD_IN_BITS - 1) / EWAHCompressedBitmap.WORD_IN_BITS;
+    }
+
+    static IteratingRLW negate(final IteratingRLW i, final long universeSizeInWords) {
+        return IteratorAggregation.not(new PaddedIteratingRLW(i, universeSizeInWords));
+    }
+
+    private static int maxSizeInBits(final Expr[] children) {
+        return maxSizeInBits(Arrays.asList(children));
+    }
+
+    private static int maxSizeInBits(final List<Expr> children) {
+        int answer = 0;
+        for (Expr e : children)
+            answer = Math.max(answer, e.sizeInBits);
+        return answer;
+    }
+
+    private static List<Expr> flatten(final Class<? extends Nary> type, final Expr[] children) {
+        if (children.length == 0)
+            throw new IllegalArgumentException("Need at least one expression");
+        final List<Expr> answer = new ArrayList<Expr>(children.length);
+        for (Expr e : children) {
+            if (e.getClass() == type)
+                answer.addAll(((Nary) e).children);
+            else
+                answer.add(e);
+        }
+        return answer;
+    }
+
+    private static long sumOfEstimates(final List<Expr> children, final int sizeInBits) {
+        long answer = 0;
+        for (Expr e : children)
+            answer += e.estimatedSizeInWords();
+        return Math.min(answer, wordsFor(sizeInBits) + 1);
+    }
+
+    private static IteratingRLW[] iterators(final List<Expr> children, final long universeSizeInWords) {
+        final IteratingRLW[] answer = new IteratingRLW[children.size()];
+        for (int k = 0; k < answer.length; ++k)
+            answer[k] = children.get(k).iterator(universeSizeInWords);
+        return answer;
+    }
+
+    private static final Comparator<Expr> BY_ESTIMATED_SIZE = new Comparator<Expr>() {
+        @Override
+        public int compare(Expr a, Expr b) {
+            final long x = a.estimatedSizeInWords();
+            final long y = b.estimatedSizeInWords();
+            return x < y ? -1 : (x == y ? 0 : 1);
+        }
+    };
+
+    private static String join(final String operation, final List<String> keys) {
+        final StringBuilder sb = new StringBuilder(operation);
+        sb.append('(');
+        for (int k = 0; k < keys.size(); ++k) {
+            if (k > 0)
+                sb.append(',');
+            sb.append(keys.get(k));
+        }
+        return sb.append(')').toString();
+    }
+
+    /**
+     * Marks the expressions having no key (compared by reference).
+     */
+    private static final String NO_KEY = new String("");
+
+    final int sizeInBits;
+    // null until computed
+    private String key;
+
+    static final class Leaf extends Expr {
+        Leaf(final EWAHCompressedBitmap bitmap, final String name, final long version) {
+            super(bitmap.sizeInBits());
+            this.bitmap = bitmap;
+            this.name = name;
+            this.version = version;
+        }
+
+        @Override
+        String computeKey() {
+            if (this.name == null)
+                return null;
+            // the length prefix makes the key unambiguous whatever the name
+            return this.name.length() + ":" + this.name + "@" + this.version;
+        }
+
+        @Override
+        IteratingRLW iterator(final long universeSizeInWords) {
+            return this.bitmap.getIteratingRLW();
+        }
+
+        @Override
+        long estimatedSizeInWords() {
+            return this.bitmap.sizeInBytes() / (EWAHCompressedBitmap.WORD_IN_BITS / 8);
+        }
+
+        final EWAHCompressedBitmap bitmap;
+        final String name;
+        final long version;
+    }
+
+    static final class Not extends Expr {
+        Not(final Expr child) {
+            super(child.sizeInBits);
+            this.child = child;
+        }
+
+        @Override
+        IteratingRLW iterator(final long universeSizeInWords) {
+            return negate(this.child.iterator(universeSizeInWords), universeSizeInWords);
+        }
+
+        @Override
+        long estimatedSizeInWords() {
+            return this.child.estimatedSizeInWords();
+        }
+
+        @Override
+        String computeKey() {
+            final String childKey = this.child.canonicalKey();
+            return childKey == null ? null : "not(" + childKey + ")";
+        }
+
+        final Expr child;
+    }
+
+    abstract static class Nary extends Expr {
+        Nary(final List<Expr> children) {
+            super(maxSizeInBits(children));
+            this.children = children;
+        }
+
+        /**
+         * @return the sorted keys of the children, or null if one of them
+         * has no key
+         */
+        List<String> sortedChildKeys() {
+            final List<String> keys = new ArrayList<String>(this.children.size());
+            for (Expr e : this.children) {
+                final String k = e.canonicalKey();
+                if (k == null)
+                    return null;
+                keys.add(k);
+            }
+            Collections.sort(keys);
+            return keys;
+        }
+
+        /**
+         * @return the sorted keys of the children without duplicates, or
+         * null if one of them has no key
+         */
+        List<String> uniqueChildKeys() {
+            final List<String> keys = sortedChildKeys();
+            if (keys == null)
+                return null;
+            final List<String> answer = new ArrayList<String>(keys.size());
+            for (String k : keys)
+                if (answer.isEmpty() || !answer.get(answer.size() - 1).equals(k))
+                    answer.add(k);
+            return answer;
+        }
+
+        /**
+         * @param newChildren the new operands
+         * @return an expression of the same type over other operands
+         */
+        abstract Nary withChildren(List<Expr> newChildren);
+
+        final List<Expr> children;
+    }
+
+    static final class And extends Nary {
+        And(final List<Expr> children) {
+            super(children);
+        }
+
+        @Override
+        IteratingRLW iterator(final long universeSizeInWords) {
+            final List<Expr> positive = new ArrayList<Expr>();
+            final List<Expr> negative = new ArrayList<Expr>();
+            for (Expr e : this.children) {
+                if (e instanceof Not)
+                    negative.add(((Not) e).child);
+                else
+                    positive.add(e);
+            }
+            // by De Morgan's law, the negated children are removed with a
+            // single difference
+            final IteratingRLW removed = negative.isEmpty() ? null
+                    : negate(union(negative).iterator(universeSizeInWords), universeSizeInWords);
+            if (positive.isEmpty())
+                return removed;
+            Collections.sort(positive, BY_ESTIMATED_SIZE);
+            final IteratingRLW[] its = new IteratingRLW[positive.size() + (removed == null ? 0 : 1)];
+            for (int k = 0; k < positive.size(); ++k)
+                its[k] = positive.get(k).iterator(universeSizeInWords);
+            if (removed != null)
+                its[its.length - 1] = removed;
+            return IteratorAggregation.bufferedand(its);
+        }
+
+        @Override
+        long estimatedSizeInWords() {
+            long answer = Long.MAX_VALUE;
+            for (Expr e : this.children)
+                if (!(e instanceof Not))
+                    answer = Math.min(answer, e.estimatedSizeInWords());
+            return answer == Long.MAX_VALUE ? sumOfEstimates(this.children, this.sizeInBits) : answer;
+        }
+
+        @Override
+        String computeKey() {
+            final List<String> keys = uniqueChildKeys();
+            if (keys == null)
+                return null;
+            return keys.size() == 1 ? keys.get(0) : join("and", keys);
+        }
+
+        @Override
+        Nary withChildren(final List<Expr> newChildren) {
+            return new And(newChildren);
+        }
+
+        private static Expr union(final List<Expr> list) {
+            return list.size() == 1 ? list.get(0) : new Or(list);
+        }
+    }
+
+    static final class Or extends Nary {
+        Or(final List<Expr> children) {
+            super(children);
+        }
+
+        @Override
+        IteratingRLW iterator(final long universeSizeInWords) {
+            return IteratorAggregation.bufferedor(iterators(this.children, universeSizeInWords));
+        }
+
+        @Override
+        long estimatedSizeInWords() {
+            return sumOfEstimates(this.children, this.sizeInBits);
+        }
+
+        @Override
+        String computeKey() {
+            final List<String> keys = uniqueChildKeys();
+            if (keys == null)
+                return null;
+            return keys.size() == 1 ? keys.get(0) : join("or", keys);
+        }
+
+        @Override
+        Nary withChildren(final List<Expr> newChildren) {
+            return new Or(newChildren);
+        }
+    }
+
+    static final class Xor extends Nary {
+        Xor(final List<Expr> children) {
+            super(children);
+        }
+
+        @Override
+        IteratingRLW iterator(final long universeSizeInWords) {
+            // negations are factored out: ~a ^ b == ~(a ^ b)
+            final List<Expr> plain = new ArrayList<Expr>(this.children.size());
+            boolean negated = false;
+            for (Expr e : this.children) {
+                if (e instanceof Not) {
+                    plain.add(((Not) e).child);
+                    negated = !negated;
+                } else
+                    plain.add(e);
+            }
+            final IteratingRLW answer = IteratorAggregation.bufferedxor(iterators(plain, universeSizeInWords));
+            return negated ? negate(answer, universeSizeInWords) : answer;
+        }
+
+        @Override
+        long estimatedSizeInWords() {
+            return sumOfEstimates(this.children, this.sizeInBits);
+        }
+
+        @Override
+        String computeKey() {
+            final List<String> keys = new ArrayList<String>(this.children.size());
+            boolean negated = false;
+            for (Expr e : this.children) {
+                Expr operand = e;
+                if (e instanceof Not) {
+                    operand = ((Not) e).child;
+                    negated = !negated;
+                }
+                final String k = operand.canonicalKey();
+                if (k == null)
+                    return null;
+                keys.add(k);
+            }
+            Collections.sort(keys);
+            // x ^ x == 0: equal operands cancel out in pairs
+            final List<String> remaining = new ArrayList<String>(keys.size());
+            for (String k : keys) {
+                if (!remaining.isEmpty() && remaining.get(remaining.size() - 1).equals(k))
+                    remaining.remove(remaining.size() - 1);
+                else
+                    remaining.add(k);
+            }
+            final String answer = remaining.size() == 1 ? remaining.get(0) : join("xor", remaining);
+            return negated ? "not(" + answer + ")" : answer;
+        }
+
+        @Override
+        Nary withChildren(final List<Expr> newChildren) {
+            return new Xor(newChildren);
+        }
+    }
+
+    static final class Threshold extends Nary {
+        Threshold(final int t, final List<Expr> children) {
+            super(children);
+            this.t = t;
+        }
+
+        @Override
+        IteratingRLW iterator(final long universeSizeInWords) {
+            final int universeSizeInBits = (int) Math.min(Integer.MAX_VALUE,
+                    universeSizeInWords * EWAHCompressedBitmap.WORD_IN_BITS);
+            final EWAHCompressedBitmap[] bitmaps = new EWAHCompressedBitmap[this.children.size()];
+            for (int k = 0; k < bitmaps.length; ++k) {
+                final Expr e = this.children.get(k);
+                bitmaps[k] = e instanceof Leaf ? ((Leaf) e).bitmap : e.materialize(universeSizeInBits);
+            }
+            return new RunningBitmapMerge().iterator(new ThresholdFuncBitmap(this.t), bitmaps);
+        }
+
+        @Override
+        long estimatedSizeInWords() {
+            return sumOfEstimates(this.children, this.sizeInBits);
+        }
+
+        @Override
+        String computeKey() {
+            final List<String> keys = sortedChildKeys();
+            return keys == null ? null : join("threshold" + this.t, keys);
+        }
+
+        @Override
+        Nary withChildren(final List<Expr> newChildren) {
+            return new Threshold(this.t, newChildren);
+        }
+
+        final int t;
+    }
+}
@@ -0,0 +1,225 @@
+package com.googlecode.javaewah.expression;
+
+import com.googlecode.javaewah.EWAHCompressedBitmap;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Copyright 2009-2014, Daniel Lemire, Cliff Moon, David McIntosh, Robert Becho, Google Inc., Veronika Zenz, Owen Kaser, Gregory Ssi-Yan-Kai, Rory Graves
+ * Licensed under the Apache License, Version 2.0.
+ */
+
+/**
+ * A cache of evaluated expressions. Results are keyed by a canonical form of
+ * the expression over the names and versions of the bitmaps (see
+ * Expr.of(String, long, EWAHCompressedBitmap)): for example, and(b, a, a)
+ * and and(a, b) share the same entry, whereas a new version of a bitmap
+ * misses the entries computed from the former version.
+ *
+ * When an expression is evaluated, the cached results of its sub-expressions
+ * are reused in place of the sub-expressions. Only the result of the whole
+ * expression is added to the cache: sub-expressions are never materialized
+ * for the sole purpose of caching them.
+ *
+ * The least recently used entries are evicted once the total compressed
+ * size (sizeInBytes()) of the cached bitmaps exceeds the given budget.
+ * Expressions involving bitmaps without a name are evaluated but not cached.
+ *
+ * <pre>
+ * ExprCache cache = new ExprCache(64 * 1024 * 1024);
+ * Expr e = Expr.and(Expr.of("country=ca", 3, ca), Expr.of("year=2014", 1, y));
+ * EWAHCompressedBitmap answer = cache.evaluate(e);
+ * </pre>
+ *
+ * This class is thread-safe. Evaluations take place outside of the lock so
+ * that concurrent queries are not serialized.
+ *
+ * @author Daniel Lemire
+ * @since 0.8.12
+ */
+public final class ExprCache {
+
+    /**
+     * Construct a cache.
+     *
+     * @param maxSizeInBytes the budget for the total size of the cached
+     *                       bitmaps
+     */
+    public ExprCache(final long maxSizeInBytes) {
+        if (maxSizeInBytes < 0)
+            throw new IllegalArgumentException("The budget should be non-negative, got " + maxSizeInBytes);
+        this.maxSizeInBytes = maxSizeInBytes;
+    }
+
+    /**
+     * Evaluate an expression, reusing the cached results of the expression
+     * and its sub-expressions. The returned bitmap may be shared with the
+     * cache and it should not be modified.
+     *
+     * @param e the expression
+     * @return the result (with e.sizeInBits() bits)
+     */
+    public EWAHCompressedBitmap evaluate(final Expr e) {
+        final int universe = e.sizeInBits();
+        // single bitmaps are not worth caching
+        final String key = e instanceof Expr.Leaf ? null : e.canonicalKey();
+        if (key != null) {
+            final EWAHCompressedBitmap cached = get(e, key, universe, true);
+            if (cached != null)
+                return cached;
+        }
+        final EWAHCompressedBitmap answer = rewriteChildren(e, universe).materialize(universe);
+        if (key != null) {
+            synchronized (this) {
+                ++this.misses;
+            }
+            put(e, key, universe, answer);
+        }
+        return answer;
+    }
+
+    /**
+     * Replace the sub-expressions having a cached result by this result.
+     */
+    private Expr rewrite(final Expr e, final int universe) {
+        final String key = e.canonicalKey();
+        if ((key != null) && !(e instanceof Expr.Leaf)) {
+            final EWAHCompressedBitmap cached = get(e, key, universe, false);
+            if (cached != null)
+                return new Expr.Leaf(cached, null, 0);
+        }
+        return rewriteChildren(e, universe);
+    }
+
+    private Expr rewriteChildren(final Expr e, final int universe) {
+        if (e instanceof Expr.Not) {
+            final Expr child = ((Expr.Not) e).child;
+            final Expr newChild = rewrite(child, universe);
+            return newChild == child ? e : new Expr.Not(newChild);
+        }
+        if (e instanceof Expr.Nary) {
+            final Expr.Nary n = (Expr.Nary) e;
+            final List<Expr> newChildren = new ArrayList<Expr>(n.children.size());
+            boolean changed = false;
+            for (Expr child : n.children) {
+                final Expr newChild = rewrite(child, universe);
+                changed |= newChild != child;
+                newChildren.add(newChild);
+            }
+            return changed ? n.withChildren(newChildren) : e;
+        }
+        return e;
+    }
+
+    /**
+     * Look up a result, counting a hit only if it is used.
+     *
+     * @param fullSize whether the result must have exactly universe bits
+     *                 (cancelled operands of a parity may leave a smaller
+     *                 bitmap)
+     */
+    private synchronized EWAHCompressedBitmap get(final Expr e, final String key, final int universe,
+                                                  final boolean fullSize) {
+        final EWAHCompressedBitmap answer = this.entries.get(entryKey(e, key, universe));
+        if ((answer == null) || (fullSize && (answer.sizeInBits() != universe)))
+            return null;
+        ++this.hits;
+        return answer;
+    }
+
+    private synchronized void put(final Expr e, final String key, final int universe,
+                                  final EWAHCompressedBitmap bitmap) {
+        final long size = bitmap.sizeInBytes();
+        if (size > this.maxSizeInBytes)
+            return;
+        final EWAHCompressedBitmap previous = this.entries.put(entryKey(e, key, universe), bitmap);
+        if (previous != null)
+            this.sizeInBytes -= previous.sizeInBytes();
+        this.sizeInBytes += size;
+        final Iterator<EWAHCompressedBitmap> i = this.entries.values().iterator();
+        while (this.sizeInBytes > this.maxSizeInBytes) {
+            this.sizeInBytes -= i.next().sizeInBytes();
+            i.remove();
+            ++this.evictions;
+        }
+    }
+
+    /**
+     * The negation depends on the universe, so results of expressions with
+     * negations computed within different universes are kept apart.
+     */
+    private static String entryKey(final Expr e, final String key, final int universe) {
+        return hasNegation(e) ? universe + "/" + key : key;
+    }
+
+    private static boolean hasNegation(final Expr e) {
+        if (e instanceof Expr.Not)
+            return true;
+        if (e instanceof Expr.Nary)
+            for (Expr child : ((Expr.Nary) e).children)
+                if (hasNegation(child))
+                    return true;
+        return false;
+    }
+
+    /**
+     * Remove all entries. The statistics are not reset.
+     */
+    public synchronized void clear() {
+        this.entries.clear();
+        this.sizeInBytes = 0;
+    }
+
+    /**
+     * @return the number of times a cached result was reused
+     */
+    public synchronized long getHits() {
+        return this.hits;
+    }
+
+    /**
+     * @return the number of cacheable expressions which had to be computed
+     */
+    public synchronized long getMisses() {
+        return this.misses;
+    }
+
+    /**
+     * @return the number of entries evicted to honor the budget
+     */
+    public synchronized long getEvictions() {
+        return this.evictions;
+    }
+
+    /**
+     * @return the number of cached results
+     */
+    public synchronized int size() {
+        return this.entries.size();
+    }
+
+    /**
+     * @return the total size of the cached bitmaps in bytes
+     */
+    public synchronized long sizeInBytes() {
+        return this.sizeInBytes;
+    }
+
+    /**
+     * @return the budget for the total size of the cached bitmaps in bytes
+     */
+    public long getMaxSizeInBytes() {
+        return this.maxSizeInBytes;
+    }
+
+    private final Map<String, EWAHCompressedBitmap> entries = new LinkedHashMap<String, EWAHCompressedBitmap>(16, 0.75f, true);
+    private final long maxSizeInBytes;
+    private long sizeInBytes = 0;
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+}
@@ -0,0 +1,129 @@
+package com.googlecode.javaewah.expression;
+
+import com.googlecode.javaewah.IteratingRLW;
+
+/*
+ * Copyright 2009-2014, Daniel Lemire, Cliff Moon, David McIntosh, Robert Becho, Google Inc., Veronika Zenz, Owen Kaser, Gregory Ssi-Yan-Kai, Rory Graves
+ * Licensed under the Apache License, Version 2.0.
+ */
+
+/**
+ * Wraps an iterator so that it covers (at least) a given number of words: once
+ * the underlying iterator is exhausted, a run of clean empty words is
+ * generated. This is needed before negating an iterator, since the negation
+ * of the missing words is a run of ones.
+ *
+ * @author Daniel Lemire
+ * @since 0.8.12
+ */
+final class PaddedIteratingRLW implements IteratingRLW, Cloneable {
+
+    PaddedIteratingRLW(final IteratingRLW iterator, final long sizeInWords) {
+        this.iterator = iterator;
+        this.sizeInWords = sizeInWords;
+        skipEmptyWords();
+    }
+
+    /**
+     * Move past the running length words of size zero. The padding only
+     * starts once next() returns false: an iterator can have a size of zero
+     * before its end, e.g., after discardRunningWords.
+     */
+    private void skipEmptyWords() {
+        while (this.iterator.size() == 0) {
+            if (!this.iterator.next()) {
+                startPadding();
+                return;
+            }
+        }
+    }
+
+    private void startPadding() {
+        this.padding = true;
+        this.paddingLength = Math.max(0, this.sizeInWords - this.consumed);
+    }
+
+    @Override
+    public boolean next() {
+        if (this.padding) {
+            this.paddingLength = 0;
+            return false;
+        }
+        this.consumed += this.iterator.size();
+        boolean hasNext;
+        do {
+            hasNext = this.iterator.next();
+        } while (hasNext && (this.iterator.size() == 0));
+        if (hasNext)
+            return true;
+        startPadding();
+        return this.paddingLength > 0;
+    }
+
+    @Override
+    public long getLiteralWordAt(int index) {
+        return this.iterator.getLiteralWordAt(index);
+    }
+
+    @Override
+    public int getNumberOfLiteralWords() {
+        return this.padding ? 0 : this.iterator.getNumberOfLiteralWords();
+    }
+
+    @Override
+    public boolean getRunningBit() {
+        return !this.padding && this.iterator.getRunningBit();
+    }
+
+    @Override
+    public long size() {
+        return this.padding ? this.paddingLength : this.iterator.size();
+    }
+
+    @Override
+    public long getRunningLength() {
+        return this.padding ? this.paddingLength : this.iterator.getRunningLength();
+    }
+
+    @Override
+    public void discardFirstWords(long x) {
+        while ((x > 0) && !this.padding) {
+            final long s = this.iterator.size();
+            if (x < s) {
+                this.iterator.discardFirstWords(x);
+                this.consumed += x;
+                return;
+            }
+            this.iterator.discardFirstWords(s);
+            this.consumed += s;
+            x -= s;
+            skipEmptyWords();
+        }
+        if (this.padding)
+            this.paddingLength -= Math.min(x, this.paddingLength);
+    }
+
+    @Override
+    public void discardRunningWords() {
+        if (this.padding) {
+            this.paddingLength = 0;
+            return;
+        }
+        this.consumed += this.iterator.getRunningLength();
+        this.iterator.discardRunningWords();
+        skipEmptyWords();
+    }
+
+    @Override
+    public PaddedIteratingRLW clone() throws CloneNotSupportedException {
+        PaddedIteratingRLW answer = (PaddedIteratingRLW) super.clone();
+        answer.iterator = this.iterator.clone();
+        return answer;
+    }
+
+    private IteratingRLW iterator;
+    private final long sizeInWords;
+    private long consumed = 0;
+    private boolean padding = false;
+    private long paddingLength = 0;
+}
@@ -0,0 +1,90 @@
+package com.googlecode.javaewah.index;
+
+import com.googlecode.javaewah.EWAHCompressedBitmap;
+
+/*
+ * Copyright 2009-2014, Daniel Lemire, Cliff Moon, David McIntosh, Robert Becho, Google Inc., Veronika Zenz, Owen Kaser, Gregory Ssi-Yan-Kai, Rory Graves
+ * Licensed under the Apache License, Version 2.0.
+ */
+
+/**
+ * A bitmap index as generated by BitmapIndexBuilder: one compressed bitmap per
+ * (column, value) pair, together with the permutation that was applied to the
+ * rows.
+ *
+ * @author Daniel Lemire
+ * @see BitmapIndexBuilder
+ * @since 0.8.12
+ */
+public final class BitmapIndex {
+
+    BitmapIndex(final EWAHCompressedBitmap[][] bitmaps, final int[] permutation) {
+        this.bitmaps = bitmaps;
+        this.permutation = permutation;
+    }
+
+    /**
+     * Get the bitmap of the rows having the given value in the given
+     * column. The bitmap should not be modified.
+     *
+     * @param column the column
+     * @param value  the value
+     * @return the bitmap (empty if the value does not occur)
+     */
+    public EWAHCompressedBitmap getBitmap(final int column, final int value) {
+        if ((value < 0) || (value >= this.bitmaps[column].length)) {
+            final EWAHCompressedBitmap empty = new EWAHCompressedBitmap();
+            empty.setSizeInBits(getNumberOfRows(), false);
+            return empty;
+        }
+        return this.bitmaps[column][value];
+    }
+
+    /**
+     * @return the number of indexed columns
+     */
+    public int getNumberOfColumns() {
+        return this.bitmaps.length;
+    }
+
+    /**
+     * @param column the column
+     * @return the number of bitmaps for this column (largest value plus one)
+     */
+    public int getCardinality(final int column) {
+        return this.bitmaps[column].length;
+    }
+
+    /**
+     * @return the number of indexed rows
+     */
+    public int getNumberOfRows() {
+        return this.permutation.length;
+    }
+
+    /**
+     * The row permutation: bit r in the bitmaps corresponds to row
+     * getRowPermutation()[r] in the original table.
+     *
+     * @return the permutation (should not be modified)
+     */
+    public int[] getRowPermutation() {
+        return this.permutation;
+    }
+
+    /**
+     * Report the total compressed size of the bitmaps.
+     *
+     * @return the size in bytes
+     */
+    public long sizeInBytes() {
+        long answer = 0;
+        for (EWAHCompressedBitmap[] column : this.bitmaps)
+            for (EWAHCompressedBitmap bitmap : column)
+                answer += bitmap.sizeInBytes();
+        return answer;
+    }
+
+    private final EWAHCompressedBitmap[][] bitmaps;
+    private final int[] permutation;
+}
@@ -0,0 +1,260 @@
+package com.googlecode.javaewah.index;
+
+import com.googlecode.javaewah.EWAHCompressedBitmap;
+
+/*
+ * Copyright 2009-2014, Daniel Lemire, Cliff Moon, David McIntosh, Robert Becho, Google Inc., Veronika Zenz, Owen Kaser, Gregory Ssi-Yan-Kai, Rory Graves
+ * Licensed under the Apache License, Version 2.0.
+ */
+
+/**
+ * Builds a bitmap index over a table of categorical columns: one compressed
+ * bitmap is generated for each (column, value) pair.
+ *
+ * The rows can be reordered before the bitmaps are generated. Word-aligned
+ * compression benefits greatly from sorted tables, as described in the
+ * following reference:
+ * <ul><li>
+ * Daniel Lemire, Owen Kaser, Kamel Aouiche, Sorting improves word-aligned
+ * bitmap indexes. Data &amp; Knowledge Engineering 69 (1), pages 3-28, 2010.
+ * <a href="http://arxiv.org/abs/0901.3751">http://arxiv.org/abs/0901.3751</a>
+ * </li></ul>
+ *
+ * Here is a code sample:
+ *
+ * <pre>
+ * BitmapIndexBuilder builder = new BitmapIndexBuilder(column1, column2);
+ * builder.setRowOrder(BitmapIndexBuilder.GRAY_CODE);
+ * builder.setSortColumnsByCardinality(true);
+ * BitmapIndex index = builder.build();
+ * EWAHCompressedBitmap b = index.getBitmap(0, 3); // rows where column1 == 3
+ * </pre>
+ *
+ * Values are expected to be small non-negative integers (e.g., dictionary
+ * codes). The row identifiers in the bitmaps refer to the reordered table; use
+ * BitmapIndex.getRowPermutation() to map them back to the original rows.
+ *
+ * This class is not thread-safe.
+ *
+ * @author Daniel Lemire
+ * @since 0.8.12
+ */
+public final class BitmapIndexBuilder {
+
+    /**
+     * The rows are indexed in their original order.
+     */
+    public static final int NO_REORDERING = 0;
+
+    /**
+     * The rows are sorted lexicographically: by the values of the first
+     * column, then by the values of the second column and so on.
+     */
+    public static final int LEXICOGRAPHIC = 1;
+
+    /**
+     * The rows are sorted in the reflected Gray-code order of their bitmap
+     * representation. With one bitmap per (column, value) pair, this amounts
+     * to a lexicographic sort where successive columns alternate between
+     * ascending and descending order.
+     */
+    public static final int GRAY_CODE = 2;
+
+    /**
+     * Construct a builder over a table given as columns.
+     *
+     * @param columns the columns: columns[c][r] is the value of row r in
+     *                column c
+     */
+    public BitmapIndexBuilder(final int[]... columns) {
+        this.columns = new int[columns.length][];
+        for (int c = 0; c < columns.length; ++c)
+            addColumn(columns[c], c);
+    }
+
+    /**
+     * Add a column to the table.
+     *
+     * @param column the values of the column, one per row
+     * @return the index of the new column
+     */
+    public int addColumn(final int[] column) {
+        final int[][] newColumns = new int[this.columns.length + 1][];
+        System.arraycopy(this.columns, 0, newColumns, 0, this.columns.length);
+        this.columns = newColumns;
+        addColumn(column, this.columns.length - 1);
+        return this.columns.length - 1;
+    }
+
+    private void addColumn(final int[] column, final int c) {
+        if ((c > 0) && (column.length != this.columns[0].length))
+            throw new IllegalArgumentException("All columns should have the same number of rows: expected "
+                    + this.columns[0].length + ", got " + column.length);
+        for (int value : column)
+            if (value < 0)
+                throw new IllegalArgumentException("Values should be non-negative, got " + value);
+        this.columns[c] = column;
+    }
+
+    /**
+     * Choose how rows are reordered before indexing: NO_REORDERING (the
+     * default), LEXICOGRAPHIC or GRAY_CODE.
+     *
+     * @param rowOrder the row order
+     */
+    public void setRowOrder(final int rowOrder) {
+        if ((rowOrder != NO_REORDERING) && (rowOrder != LEXICOGRAPHIC) && (rowOrder != GRAY_CODE))
+            throw new IllegalArgumentException("Unknown row order: " + rowOrder);
+        this.rowOrder = rowOrder;
+    }
+
+    /**
+     * @return the row order
+     */
+    public int getRowOrder() {
+        return this.rowOrder;
+    }
+
+    /**
+     * When sorting the rows, use the columns with the most distinct values
+     * as the primary sort keys. Such columns have the most bitmaps, and each
+     * bitmap of the primary sort key is made of a single run of set bits. By
+     * default, the columns are used in the order they were provided. This has
+     * no effect when the rows are not reordered.
+     *
+     * @param sortColumnsByCardinality whether the sort keys are ordered by
+     *                                 decreasing column cardinality
+     */
+    public void setSortColumnsByCardinality(final boolean sortColumnsByCardinality) {
+        this.sortColumnsByCardinality = sortColumnsByCardinality;
+    }
+
+    /**
+     * Reorders the rows (if requested) and generates the bitmaps. The input
+     * columns are not modified.
+     *
+     * @return the bitmap index
+     */
+    public BitmapIndex build() {
+        final int numberOfRows = this.columns.length == 0 ? 0 : this.columns[0].length;
+        final int[] cardinalities = new int[this.columns.length];
+        for (int c = 0; c < this.columns.length; ++c) {
+            int max = -1;
+            for (int value : this.columns[c])
+                if (value > max)
+                    max = value;
+            cardinalities[c] = max + 1;
+        }
+        final int[] permutation = computePermutation(numberOfRows, cardinalities);
+        final EWAHCompressedBitmap[][] bitmaps = new EWAHCompressedBitmap[this.columns.length][];
+        for (int c = 0; c < this.columns.length; ++c)
+            bitmaps[c] = buildColumn(this.columns[c], cardinalities[c], permutation);
+        return new BitmapIndex(bitmaps, permutation);
+    }
+
+    /**
+     * Sorts the rows using a least-significant-key radix sort: each column
+     * is a key and it is sorted (stably) using a counting sort.
+     */
+    private int[] computePermutation(final int numberOfRows, final int[] cardinalities) {
+        int[] permutation = new int[numberOfRows];
+        for (int r = 0; r < numberOfRows; ++r)
+            permutation[r] = r;
+        if (this.rowOrder == NO_REORDERING)
+            return permutation;
+        final int[] keys = sortKeys(cardinalities);
+        int[] tmp = new int[numberOfRows];
+        for (int rank = keys.length - 1; rank >= 0; --rank) {
+            final int c = keys[rank];
+            final boolean descending = (this.rowOrder == GRAY_CODE) && ((rank & 1) == 1);
+            countingSort(this.columns[c], cardinalities[c], descending, permutation, tmp);
+            final int[] t = permutation;
+            permutation = tmp;
+            tmp = t;
+        }
+        return permutation;
+    }
+
+    private int[] sortKeys(final int[] cardinalities) {
+        final int[] keys = new int[cardinalities.length];
+        for (int c = 0; c < keys.length; ++c)
+            keys[c] = c;
+        if (this.sortColumnsByCardinality) {
+            // insertion sort: stable and the number of columns is small
+            for (int i = 1; i < keys.length; ++i) {
+                final int key = keys[i];
+                int j = i - 1;
+                while ((j >= 0) && (cardinalities[keys[j]] < cardinalities[key])) {
+                    keys[j + 1] = keys[j];
+                    --j;
+                }
+                keys[j + 1] = key;
+            }
+        }
+        return keys;
+    }
+
+    private static void countingSort(final int[] column, final int cardinality, final boolean descending,
+                                     final int[] in, final int[] out) {
+        final int[] counts = new int[cardinality + 1];
+        for (int row : in)
+            counts[bucket(column[row], cardinality, descending) + 1]++;
+        for (int v = 0; v < cardinality; ++v)
+            counts[v + 1] += counts[v];
+        for (int row : in)
+            out[counts[bucket(column[row], cardinality, descending)]++] = row;
+    }
+
+    private static int bucket(final int value, final int cardinality, final boolean descending) {
+        return descending ? cardinality - 1 - value : value;
+    }
+
+    /**
+     * Generates the bitmaps of one column. Bits are accumulated into a
+     * pending word per value which is appended (along with the preceding
+     * run of empty words) only once a later row falls in another word.
+     */
+    private static EWAHCompressedBitmap[] buildColumn(final int[] column, final int cardinality,
+                                                      final int[] permutation) {
+        final EWAHCompressedBitmap[] answer = new EWAHCompressedBitmap[cardinality];
+        final long[] pendingWord = new long[cardinality];
+        final int[] pendingWordIndex = new int[cardinality];
+        final int[] wordsWritten = new int[cardinality];
+        for (int v = 0; v < cardinality; ++v) {
+            answer[v] = new EWAHCompressedBitmap();
+            pendingWordIndex[v] = -1;
+        }
+        for (int r = 0; r < permutation.length; ++r) {
+            final int v = column[permutation[r]];
+            final int wordIndex = r / EWAHCompressedBitmap.WORD_IN_BITS;
+            if (pendingWordIndex[v] != wordIndex) {
+                if (pendingWordIndex[v] >= 0)
+                    wordsWritten[v] = flush(answer[v], wordsWritten[v], pendingWordIndex[v], pendingWord[v]);
+                pendingWordIndex[v] = wordIndex;
+                pendingWord[v] = 0;
+            }
+            pendingWord[v] |= 1l << (r % EWAHCompressedBitmap.WORD_IN_BITS);
+        }
+        for (int v = 0; v < cardinality; ++v) {
+            if (pendingWordIndex[v] >= 0)
+                flush(answer[v], wordsWritten[v], pendingWordIndex[v], pendingWord[v]);
+            final int size = answer[v].sizeInBits();
+            if (size > permutation.length)
+                answer[v].setSizeInBitsWithinLastWord(permutation.length);
+            else
+                answer[v].setSizeInBits(permutation.length, false);
+        }
+        return answer;
+    }
+
+    private static int flush(final EWAHCompressedBitmap bitmap, final int wordsWritten, final int wordIndex,
+                             final long word) {
+        bitmap.addStreamOfEmptyWords(false, wordIndex - wordsWritten);
+        bitmap.addWord(word);
+        return wordIndex + 1;
+    }
+
+    private int[][] columns;
+    private int rowOrder = NO_REORDERING;
+    private boolean sortColumnsByCardinality = false;
+}
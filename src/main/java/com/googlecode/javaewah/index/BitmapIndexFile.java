@@ -0,0 +1,300 @@
+package com.googlecode.javaewah.index;
+
+import com.googlecode.javaewah.EWAHCompressedBitmap;
+import com.googlecode.javaewah.IteratingRLW;
+import com.googlecode.javaewah.SerializedIteratingRLW;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.zip.CRC32;
+
+/*
+ * Copyright 2009-2014, Daniel Lemire, Cliff Moon, David McIntosh, Robert Becho, Google Inc., Veronika Zenz, Owen Kaser, Gregory Ssi-Yan-Kai, Rory Graves
+ * Licensed under the Apache License, Version 2.0.
+ */
+
+/**
+ * Read access to a file holding many compressed bitmaps, as written by
+ * BitmapIndexFileWriter. The file is mapped in memory once, and only the
+ * footer and the directory are read when it is opened: each bitmap is
+ * materialized the first time it is requested. The cardinality and the size
+ * of each bitmap are available from the directory without touching the
+ * bitmap itself.
+ *
+ * The file format is little-endian throughout:
+ * <ul>
+ * <li>a 16-byte header: magic number, version, word size (64) and a
+ * reserved int;</li>
+ * <li>the bitmaps, each in the format of
+ * EWAHCompressedBitmap.serialize(ByteBuffer), padded to a multiple of 8
+ * bytes so that all words are aligned;</li>
+ * <li>the directory: for each bitmap, its offset (long), its length in
+ * bytes, its size in bits, its cardinality and its size in words (ints);</li>
+ * <li>a 24-byte footer: the offset of the directory (long), the number of
+ * bitmaps, the CRC32 checksum of the directory, the CRC32 checksum of the
+ * bitmaps and the magic number again.</li>
+ * </ul>
+ *
+ * The checksum of the directory is verified when the file is opened, the
+ * checksum of the bitmaps only when verify() is called.
+ *
+ * Here is a code sample:
+ *
+ * <pre>
+ * BitmapIndexFile.write(file, bitmaps);
+ * BitmapIndexFile f = BitmapIndexFile.open(file);
+ * EWAHCompressedBitmap b = f.getBitmap(12); // only bitmap 12 is loaded
+ * IteratingRLW i = IteratorAggregation.bufferedor(f.getIteratingRLW(3), f.getIteratingRLW(4));
+ * </pre>
+ *
+ * Files are limited to 2GB (the size of a single mapping). This class is
+ * thread-safe.
+ *
+ * @author Daniel Lemire
+ * @see BitmapIndexFileWriter
+ * @since 0.8.12
+ */
+public final class BitmapIndexFile {
+
+    private BitmapIndexFile(final ByteBuffer data, final int count, final long directoryOffset,
+                            final int payloadChecksum) {
+        this.data = data;
+        this.payloadChecksum = payloadChecksum;
+        this.offsets = new long[count];
+        this.lengths = new int[count];
+        this.sizesInBits = new int[count];
+        this.cardinalities = new int[count];
+        this.sizesInWords = new int[count];
+        this.bitmaps = new AtomicReferenceArray<EWAHCompressedBitmap>(count);
+        final ByteBuffer directory = data.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        directory.position((int) directoryOffset);
+        for (int k = 0; k < count; ++k) {
+            this.offsets[k] = directory.getLong();
+            this.lengths[k] = directory.getInt();
+            this.sizesInBits[k] = directory.getInt();
+            this.cardinalities[k] = directory.getInt();
+            this.sizesInWords[k] = directory.getInt();
+        }
+        this.payloadEnd = directoryOffset;
+    }
+
+    /**
+     * Open a file written by BitmapIndexFileWriter. The file is mapped and
+     * its directory is read; the bitmaps are only read when requested.
+     *
+     * @param file the file
+     * @return the opened file
+     * @throws IOException if the file cannot be read, or is not a valid
+     *                     bitmap file (bad magic number, version or
+     *                     directory checksum)
+     */
+    public static BitmapIndexFile open(final File file) throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(file, "r");
+        final MappedByteBuffer map;
+        try {
+            final FileChannel channel = raf.getChannel();
+            final long length = channel.size();
+            if (length > Integer.MAX_VALUE)
+                throw new IOException("Bitmap files are limited to 2GB: " + file);
+            if (length < HEADER_SIZE + FOOTER_SIZE)
+                throw new IOException("Not a bitmap file (too short): " + file);
+            // the mapping remains valid once the channel is closed
+            map = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+        } finally {
+            raf.close();
+        }
+        final ByteBuffer data = map.order(ByteOrder.LITTLE_ENDIAN);
+        if ((data.getInt(0) != MAGIC) || (data.getInt(data.limit() - 4) != MAGIC))
+            throw new IOException("Not a bitmap file (bad magic number): " + file);
+        if (data.getInt(4) != VERSION)
+            throw new IOException("Unsupported bitmap file version " + data.getInt(4) + ": " + file);
+        if (data.getInt(8) != WORD_IN_BITS)
+            throw new IOException("Unsupported word size " + data.getInt(8) + ": " + file);
+        final int footer = data.limit() - FOOTER_SIZE;
+        final long directoryOffset = data.getLong(footer);
+        final int count = data.getInt(footer + 8);
+        if ((count < 0) || (directoryOffset < HEADER_SIZE)
+                || (directoryOffset + (long) count * DIRECTORY_ENTRY_SIZE != footer))
+            throw new IOException("Corrupted bitmap file (bad directory): " + file);
+        final byte[] directory = new byte[count * DIRECTORY_ENTRY_SIZE];
+        final ByteBuffer d = data.duplicate();
+        d.position((int) directoryOffset);
+        d.get(directory);
+        final CRC32 crc = new CRC32();
+        crc.update(directory);
+        if ((int) crc.getValue() != data.getInt(footer + 12))
+            throw new IOException("Corrupted bitmap file (bad directory checksum): " + file);
+        final BitmapIndexFile answer = new BitmapIndexFile(data, count, directoryOffset, data.getInt(footer + 16));
+        for (int k = 0; k < count; ++k)
+            if ((answer.offsets[k] < HEADER_SIZE) || (answer.lengths[k] < 12)
+                    || (answer.offsets[k] + answer.lengths[k] > directoryOffset))
+                throw new IOException("Corrupted bitmap file (bad offset for bitmap " + k + "): " + file);
+        return answer;
+    }
+
+    /**
+     * Write the bitmaps to a file, in the order given.
+     *
+     * @param file    the file (overwritten)
+     * @param bitmaps the bitmaps
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    public static void write(final File file, final EWAHCompressedBitmap... bitmaps) throws IOException {
+        final BitmapIndexFileWriter writer = new BitmapIndexFileWriter(file);
+        try {
+            for (EWAHCompressedBitmap bitmap : bitmaps)
+                writer.add(bitmap);
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * @return the number of bitmaps in the file
+     */
+    public int size() {
+        return this.offsets.length;
+    }
+
+    /**
+     * Get a bitmap, reading it from the file on first access. Later calls
+     * return the same instance, which should not be modified.
+     *
+     * @param index the rank of the bitmap in the file
+     * @return the bitmap
+     * @throws IllegalStateException if the bitmap is corrupted
+     */
+    public EWAHCompressedBitmap getBitmap(final int index) {
+        final EWAHCompressedBitmap cached = this.bitmaps.get(index);
+        if (cached != null)
+            return cached;
+        this.bitmaps.compareAndSet(index, null, readBitmap(index));
+        return this.bitmaps.get(index);
+    }
+
+    /**
+     * Read a new copy of a bitmap from the file. Unlike getBitmap, the bitmap
+     * is not kept by this object: this is useful when scanning many bitmaps
+     * once, e.g., to merge files.
+     *
+     * @param index the rank of the bitmap in the file
+     * @return the bitmap
+     * @throws IllegalStateException if the bitmap is corrupted
+     */
+    public EWAHCompressedBitmap readBitmap(final int index) {
+        final EWAHCompressedBitmap bitmap = new EWAHCompressedBitmap(Math.max(1, this.sizesInWords[index]));
+        final ByteBuffer slice = this.data.duplicate();
+        slice.limit((int) (this.offsets[index] + this.lengths[index]));
+        slice.position((int) this.offsets[index]);
+        try {
+            bitmap.deserialize(slice);
+        } catch (BufferUnderflowException e) {
+            throw new IllegalStateException("Corrupted bitmap " + index);
+        }
+        if ((bitmap.sizeInBits() != this.sizesInBits[index])
+                || (bitmap.sizeInBytes() != this.sizesInWords[index] * (WORD_IN_BITS / 8)))
+            throw new IllegalStateException("Corrupted bitmap " + index);
+        return bitmap;
+    }
+
+    /**
+     * Iterate over a bitmap directly from the mapped file, without
+     * materializing it: only a block of words is copied at a time. The
+     * iterator can be used with IteratorAggregation and IteratorUtil.
+     *
+     * @param index the rank of the bitmap in the file
+     * @return an iterator over the running length words of the bitmap
+     * @throws IllegalStateException if the bitmap is corrupted
+     */
+    public IteratingRLW getIteratingRLW(final int index) {
+        final EWAHCompressedBitmap cached = this.bitmaps.get(index);
+        if (cached != null)
+            return cached.getIteratingRLW();
+        final ByteBuffer slice = this.data.duplicate();
+        slice.limit((int) (this.offsets[index] + this.lengths[index]));
+        slice.position((int) this.offsets[index]);
+        try {
+            return new SerializedIteratingRLW(slice);
+        } catch (IOException e) {
+            throw new IllegalStateException("Corrupted bitmap " + index);
+        }
+    }
+
+    /**
+     * Get the cardinality of a bitmap from the directory, without reading
+     * the bitmap.
+     *
+     * @param index the rank of the bitmap in the file
+     * @return the number of set bits
+     */
+    public int cardinality(final int index) {
+        return this.cardinalities[index];
+    }
+
+    /**
+     * Get the size in bits of a bitmap from the directory, without reading
+     * the bitmap.
+     *
+     * @param index the rank of the bitmap in the file
+     * @return the size in bits
+     */
+    public int sizeInBits(final int index) {
+        return this.sizesInBits[index];
+    }
+
+    /**
+     * Get the compressed size of a bitmap from the directory, without
+     * reading the bitmap.
+     *
+     * @param index the rank of the bitmap in the file
+     * @return the size in bytes of its words
+     */
+    public int sizeInBytes(final int index) {
+        return this.sizesInWords[index] * (WORD_IN_BITS / 8);
+    }
+
+    /**
+     * Check the bitmaps against the checksum stored in the file. This reads
+     * the whole file.
+     *
+     * @return whether the checksum matches
+     */
+    public boolean verify() {
+        final CRC32 crc = new CRC32();
+        final byte[] block = new byte[VERIFY_BLOCK_SIZE];
+        final ByteBuffer payload = this.data.duplicate();
+        payload.limit((int) this.payloadEnd);
+        payload.position(HEADER_SIZE);
+        while (payload.hasRemaining()) {
+            final int n = Math.min(block.length, payload.remaining());
+            payload.get(block, 0, n);
+            crc.update(block, 0, n);
+        }
+        return (int) crc.getValue() == this.payloadChecksum;
+    }
+
+    static final int MAGIC = 0x48415745; // "EWAH"
+    static final int VERSION = 1;
+    static final int WORD_IN_BITS = EWAHCompressedBitmap.WORD_IN_BITS;
+    static final int HEADER_SIZE = 16;
+    static final int DIRECTORY_ENTRY_SIZE = 24;
+    static final int FOOTER_SIZE = 24;
+    private static final int VERIFY_BLOCK_SIZE = 65536;
+
+    private final ByteBuffer data;
+    private final long payloadEnd;
+    private final int payloadChecksum;
+    private final long[] offsets;
+    private final int[] lengths;
+    private final int[] sizesInBits;
+    private final int[] cardinalities;
+    private final int[] sizesInWords;
+    private final AtomicReferenceArray<EWAHCompressedBitmap> bitmaps;
+}
@@ -0,0 +1,155 @@
+package com.googlecode.javaewah.index;
+
+import com.googlecode.javaewah.EWAHCompressedBitmap;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/*
+ * Copyright 2009-2014, Daniel Lemire, Cliff Moon, David McIntosh, Robert Becho, Google Inc., Veronika Zenz, Owen Kaser, Gregory Ssi-Yan-Kai, Rory Graves
+ * Licensed under the Apache License, Version 2.0.
+ */
+
+/**
+ * Writes many compressed bitmaps to a single file, in the format read by
+ * BitmapIndexFile. The bitmaps are appended as they are added; the directory
+ * and the checksums are written when the writer is closed.
+ *
+ * This class is not thread-safe.
+ *
+ * @author Daniel Lemire
+ * @see BitmapIndexFile
+ * @since 0.8.12
+ */
+public final class BitmapIndexFileWriter implements Closeable {
+
+    /**
+     * Create a file, overwriting any existing file.
+     *
+     * @param file the file
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    public BitmapIndexFileWriter(final File file) throws IOException {
+        this.out = new FileOutputStream(file);
+        this.channel = this.out.getChannel();
+        final ByteBuffer header = ByteBuffer.allocate(BitmapIndexFile.HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(BitmapIndexFile.MAGIC);
+        header.putInt(BitmapIndexFile.VERSION);
+        header.putInt(BitmapIndexFile.WORD_IN_BITS);
+        header.putInt(0);
+        header.flip();
+        write(header);
+    }
+
+    /**
+     * Append a bitmap to the file.
+     *
+     * @param bitmap the bitmap
+     * @return the rank of the bitmap in the file
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    public int add(final EWAHCompressedBitmap bitmap) throws IOException {
+        if (this.closed)
+            throw new IllegalStateException("The writer is closed");
+        if (this.size == this.offsets.length) {
+            final int newCapacity = 2 * this.offsets.length;
+            this.offsets = Arrays.copyOf(this.offsets, newCapacity);
+            this.lengths = Arrays.copyOf(this.lengths, newCapacity);
+            this.sizesInBits = Arrays.copyOf(this.sizesInBits, newCapacity);
+            this.cardinalities = Arrays.copyOf(this.cardinalities, newCapacity);
+            this.sizesInWords = Arrays.copyOf(this.sizesInWords, newCapacity);
+        }
+        final int length = bitmap.serializedSizeInBytes();
+        // padding keeps the words of the next bitmap aligned
+        final int paddedLength = (length + 7) & ~7;
+        if (this.buffer.capacity() < paddedLength)
+            this.buffer = ByteBuffer.allocate(Math.max(paddedLength, 2 * this.buffer.capacity()));
+        this.buffer.clear();
+        bitmap.serialize(this.buffer);
+        while (this.buffer.position() < paddedLength)
+            this.buffer.put((byte) 0);
+        this.buffer.flip();
+        this.checksum.update(this.buffer.array(), 0, paddedLength);
+        this.offsets[this.size] = this.position;
+        this.lengths[this.size] = length;
+        this.sizesInBits[this.size] = bitmap.sizeInBits();
+        this.cardinalities[this.size] = bitmap.cardinality();
+        this.sizesInWords[this.size] = bitmap.sizeInBytes() / (BitmapIndexFile.WORD_IN_BITS / 8);
+        write(this.buffer);
+        return this.size++;
+    }
+
+    /**
+     * @return the number of bitmaps added so far
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Write the directory and the footer, and close the file. Closing an
+     * already closed writer has no effect.
+     *
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    @Override
+    public void close() throws IOException {
+        if (this.closed)
+            return;
+        this.closed = true;
+        try {
+            final long directoryOffset = this.position;
+            final ByteBuffer directory = ByteBuffer.allocate(this.size * BitmapIndexFile.DIRECTORY_ENTRY_SIZE)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            for (int k = 0; k < this.size; ++k) {
+                directory.putLong(this.offsets[k]);
+                directory.putInt(this.lengths[k]);
+                directory.putInt(this.sizesInBits[k]);
+                directory.putInt(this.cardinalities[k]);
+                directory.putInt(this.sizesInWords[k]);
+            }
+            final CRC32 directoryChecksum = new CRC32();
+            directoryChecksum.update(directory.array());
+            directory.flip();
+            write(directory);
+            final ByteBuffer footer = ByteBuffer.allocate(BitmapIndexFile.FOOTER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            footer.putLong(directoryOffset);
+            footer.putInt(this.size);
+            footer.putInt((int) directoryChecksum.getValue());
+            footer.putInt((int) this.checksum.getValue());
+            footer.putInt(BitmapIndexFile.MAGIC);
+            footer.flip();
+            write(footer);
+        } finally {
+            this.out.close();
+        }
+    }
+
+    private void write(final ByteBuffer b) throws IOException {
+        this.position += b.remaining();
+        while (b.hasRemaining())
+            this.channel.write(b);
+    }
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final FileOutputStream out;
+    private final FileChannel channel;
+    private final CRC32 checksum = new CRC32();
+    private ByteBuffer buffer = ByteBuffer.allocate(4096);
+    private long position = 0;
+    private int size = 0;
+    private boolean closed = false;
+    private long[] offsets = new long[INITIAL_CAPACITY];
+    private int[] lengths = new int[INITIAL_CAPACITY];
+    private int[] sizesInBits = new int[INITIAL_CAPACITY];
+    private int[] cardinalities = new int[INITIAL_CAPACITY];
+    private int[] sizesInWords = new int[INITIAL_CAPACITY];
+}
@@ -0,0 +1,540 @@
+package com.googlecode.javaewah.index;
+
+import com.googlecode.javaewah.EWAHCompressedBitmap;
+import com.googlecode.javaewah.IntIterator;
+import com.googlecode.javaewah.expression.Expr;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/*
+ * Copyright 2009-2014, Daniel Lemire, Cliff Moon, David McIntosh, Robert Becho, Google Inc., Veronika Zenz, Owen Kaser, Gregory Ssi-Yan-Kai, Rory Graves
+ * Licensed under the Apache License, Version 2.0.
+ */
+
+/**
+ * A persistent map from keys (non-negative integers) to compressed bitmaps
+ * which can be updated without rewriting the stored bitmaps, in the manner of
+ * a log-structured merge tree.
+ *
+ * Updates are kept in memory until flush() writes them to a new segment
+ * file. For each key it contains, a segment holds two disjoint bitmaps: the
+ * bits added and the bits removed by the segment. The bitmap of a key is
+ * obtained by applying the segments from the oldest to the newest:
+ *
+ * <pre>
+ * value = (((base - removed1) | added1) - removed2) | added2 ...
+ * </pre>
+ *
+ * This expression is evaluated lazily with streamed iterators (see Expr and
+ * IteratorAggregation), so no intermediate bitmap is generated. As segments
+ * accumulate, reads become slower: compact() merges all segments into a
+ * single base segment, one key at a time, so that the memory it uses is
+ * bounded by the largest bitmap rather than by the size of the store. The
+ * compaction can run in the background (see compactInBackground and
+ * setAutomaticCompaction) while the store is read and updated.
+ *
+ * The list of segments is kept in a MANIFEST file which is replaced
+ * atomically, after the segment files have been synced to disk. Updates that
+ * have not been flushed are lost if the process stops.
+ *
+ * Here is a code sample:
+ *
+ * <pre>
+ * SegmentedBitmapStore store = SegmentedBitmapStore.open(directory);
+ * store.set(7, 1, 2, 1000);
+ * store.clear(7, 2);
+ * store.flush();
+ * EWAHCompressedBitmap bitmap = store.get(7); // {1, 1000}
+ * store.close();
+ * </pre>
+ *
+ * This class is thread-safe.
+ *
+ * @author Daniel Lemire
+ * @see BitmapIndexFile
+ * @since 0.8.12
+ */
+public final class SegmentedBitmapStore implements Closeable {
+
+    private SegmentedBitmapStore(final File directory, final List<Segment> segments, final long nextSegment) {
+        this.directory = directory;
+        this.segments = segments;
+        this.nextSegment = nextSegment;
+    }
+
+    /**
+     * Open a store, creating the directory if needed. Segment files which
+     * are not listed in the manifest (e.g., left by an interrupted
+     * compaction) are deleted.
+     *
+     * @param directory the directory holding the files of the store
+     * @return the store
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    public static SegmentedBitmapStore open(final File directory) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("Could not create " + directory);
+        final List<String> names = new ArrayList<String>();
+        final File manifest = new File(directory, MANIFEST);
+        if (manifest.exists()) {
+            final BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(manifest), "UTF-8"));
+            try {
+                for (String line = in.readLine(); line != null; line = in.readLine())
+                    if (line.length() > 0)
+                        names.add(line);
+            } finally {
+                in.close();
+            }
+        }
+        final List<Segment> segments = new ArrayList<Segment>();
+        long nextSegment = 0;
+        for (String name : names) {
+            segments.add(new Segment(new File(directory, name)));
+            nextSegment = Math.max(nextSegment, segmentNumber(name) + 1);
+        }
+        final Set<String> listed = new HashSet<String>(names);
+        final File[] files = directory.listFiles();
+        if (files != null)
+            for (File file : files) {
+                final String name = file.getName();
+                if ((segmentNumber(name) >= 0) && !listed.contains(name)) {
+                    nextSegment = Math.max(nextSegment, segmentNumber(name) + 1);
+                    file.delete();
+                }
+            }
+        new File(directory, MANIFEST + ".tmp").delete();
+        return new SegmentedBitmapStore(directory, Collections.unmodifiableList(segments), nextSegment);
+    }
+
+    /**
+     * Add the set bits of a bitmap to the bitmap of a key.
+     *
+     * @param key    the key (non-negative)
+     * @param bitmap the bits to set
+     */
+    public synchronized void add(final int key, final EWAHCompressedBitmap bitmap) {
+        final Delta delta = delta(key);
+        delta.added = delta.added.or(bitmap);
+        delta.removed = delta.removed.andNot(bitmap);
+    }
+
+    /**
+     * Remove the set bits of a bitmap from the bitmap of a key.
+     *
+     * @param key    the key (non-negative)
+     * @param bitmap the bits to clear
+     */
+    public synchronized void remove(final int key, final EWAHCompressedBitmap bitmap) {
+        final Delta delta = delta(key);
+        delta.removed = delta.removed.or(bitmap);
+        delta.added = delta.added.andNot(bitmap);
+    }
+
+    /**
+     * Set bits in the bitmap of a key.
+     *
+     * @param key       the key (non-negative)
+     * @param positions the positions of the bits, in any order
+     */
+    public void set(final int key, final int... positions) {
+        add(key, sortedBitmapOf(positions));
+    }
+
+    /**
+     * Clear bits in the bitmap of a key.
+     *
+     * @param key       the key (non-negative)
+     * @param positions the positions of the bits, in any order
+     */
+    public void clear(final int key, final int... positions) {
+        remove(key, sortedBitmapOf(positions));
+    }
+
+    /**
+     * Clear all bits in the bitmap of a key.
+     *
+     * @param key the key (non-negative)
+     */
+    public synchronized void clear(final int key) {
+        remove(key, get(key));
+    }
+
+    /**
+     * The bitmap of a key as a lazily evaluated expression over the segments
+     * and the updates which have not been flushed. The expression is not
+     * affected by later updates.
+     *
+     * @param key the key (non-negative)
+     * @return the expression
+     */
+    public Expr expression(final int key) {
+        checkKey(key);
+        final List<Segment> snapshot;
+        EWAHCompressedBitmap added = null;
+        EWAHCompressedBitmap removed = null;
+        synchronized (this) {
+            snapshot = this.segments;
+            final Delta delta = this.memtable.get(key);
+            if (delta != null) {
+                added = delta.added;
+                removed = delta.removed;
+            }
+        }
+        Expr answer = merge(snapshot, key);
+        if (added != null)
+            answer = apply(answer, added, removed);
+        return answer == null ? Expr.of(new EWAHCompressedBitmap()) : answer;
+    }
+
+    /**
+     * The bitmap of a key.
+     *
+     * @param key the key (non-negative)
+     * @return a new bitmap (empty if the key is absent)
+     */
+    public EWAHCompressedBitmap get(final int key) {
+        return expression(key).materialize();
+    }
+
+    /**
+     * Write the updates kept in memory to a new segment. It has no effect if
+     * there are no such updates. If automatic compaction is enabled and there
+     * are too many segments, a compaction is started in the background.
+     *
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    public synchronized void flush() throws IOException {
+        checkOpen();
+        if (this.memtable.isEmpty())
+            return;
+        final File file = newSegmentFile();
+        final EWAHCompressedBitmap keys = new EWAHCompressedBitmap();
+        final BitmapIndexFileWriter writer = new BitmapIndexFileWriter(file);
+        try {
+            for (Map.Entry<Integer, Delta> entry : this.memtable.entrySet()) {
+                writer.add(entry.getValue().added);
+                writer.add(entry.getValue().removed);
+                keys.set(entry.getKey());
+            }
+            writer.add(keys);
+        } finally {
+            writer.close();
+        }
+        final List<Segment> list = new ArrayList<Segment>(this.segments);
+        list.add(new Segment(file));
+        install(list);
+        this.memtable.clear();
+        if ((this.executor != null) && (list.size() > this.maxSegments)
+                && this.compactionPending.compareAndSet(false, true)) {
+            this.executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws IOException {
+                    try {
+                        compact();
+                    } finally {
+                        SegmentedBitmapStore.this.compactionPending.set(false);
+                    }
+                    return null;
+                }
+            });
+        }
+    }
+
+    /**
+     * Merge the current segments into a single segment. The bitmaps are
+     * merged one key at a time, and keys whose bitmap is empty are dropped.
+     * The store can be read, updated and flushed meanwhile: the segments
+     * flushed during the compaction are kept after the merged segment.
+     *
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    public void compact() throws IOException {
+        synchronized (this.compactionLock) {
+            final List<Segment> inputs;
+            final File file;
+            synchronized (this) {
+                checkOpen();
+                inputs = this.segments;
+                if (inputs.size() < 2)
+                    return;
+                file = newSegmentFile();
+            }
+            final EWAHCompressedBitmap[] keysOfInputs = new EWAHCompressedBitmap[inputs.size()];
+            for (int k = 0; k < keysOfInputs.length; ++k)
+                keysOfInputs[k] = inputs.get(k).keys();
+            final EWAHCompressedBitmap keys = new EWAHCompressedBitmap();
+            final EWAHCompressedBitmap empty = new EWAHCompressedBitmap();
+            boolean success = false;
+            try {
+                final BitmapIndexFileWriter writer = new BitmapIndexFileWriter(file);
+                try {
+                    final IntIterator i = EWAHCompressedBitmap.or(keysOfInputs).intIterator();
+                    while (i.hasNext()) {
+                        final int key = i.next();
+                        // the bitmaps are read without caching them
+                        final EWAHCompressedBitmap bitmap = merge(inputs, key).materialize();
+                        if (bitmap.isEmpty())
+                            continue;
+                        writer.add(bitmap);
+                        writer.add(empty);
+                        keys.set(key);
+                    }
+                    writer.add(keys);
+                } finally {
+                    writer.close();
+                }
+                final Segment merged = new Segment(file);
+                synchronized (this) {
+                    checkOpen();
+                    // only flush() modifies the list meanwhile, by appending
+                    final List<Segment> list = new ArrayList<Segment>();
+                    list.add(merged);
+                    list.addAll(this.segments.subList(inputs.size(), this.segments.size()));
+                    install(list);
+                }
+                success = true;
+            } finally {
+                if (!success)
+                    file.delete();
+            }
+            // readers holding a previous list keep the files mapped
+            for (Segment segment : inputs)
+                segment.file.delete();
+        }
+    }
+
+    /**
+     * Run compact() with an executor.
+     *
+     * @param executor the executor
+     * @return the future reporting the end of the compaction or its error
+     */
+    public Future<Void> compactInBackground(final ExecutorService executor) {
+        return executor.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws IOException {
+                compact();
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Start a compaction in the background whenever flush() leaves more than
+     * a given number of segments. If a compaction fails, the segments are
+     * left unchanged.
+     *
+     * @param executor    the executor running the compactions, or null to
+     *                    disable automatic compaction
+     * @param maxSegments the number of segments triggering a compaction
+     */
+    public synchronized void setAutomaticCompaction(final ExecutorService executor, final int maxSegments) {
+        if (maxSegments < 1)
+            throw new IllegalArgumentException("There should be at least one segment");
+        this.executor = executor;
+        this.maxSegments = maxSegments;
+    }
+
+    /**
+     * @return the number of segment files
+     */
+    public int numberOfSegments() {
+        return this.segments.size();
+    }
+
+    /**
+     * Flush the updates kept in memory, waiting for a running compaction to
+     * end. Closing an already closed store has no effect.
+     *
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this.compactionLock) {
+            synchronized (this) {
+                if (this.closed)
+                    return;
+                flush();
+                this.closed = true;
+            }
+        }
+    }
+
+    /**
+     * Apply the segments to the bitmap of a key, from the oldest. The bitmaps
+     * are read without being cached by the segments, so that the memory used
+     * does not grow with the number of keys queried.
+     *
+     * @return the expression, or null if the key is in no segment
+     */
+    private static Expr merge(final List<Segment> segments, final int key) {
+        Expr answer = null;
+        for (Segment segment : segments) {
+            final int i = Arrays.binarySearch(segment.keys, key);
+            if (i < 0)
+                continue;
+            final BitmapIndexFile index = segment.index;
+            answer = apply(answer, index.readBitmap(2 * i), index.readBitmap(2 * i + 1));
+        }
+        return answer;
+    }
+
+    private static Expr apply(final Expr x, final EWAHCompressedBitmap added, final EWAHCompressedBitmap removed) {
+        if (x == null)
+            return Expr.of(added);
+        if (removed.isEmpty())
+            return Expr.or(x, Expr.of(added));
+        return Expr.or(Expr.andNot(x, Expr.of(removed)), Expr.of(added));
+    }
+
+    private Delta delta(final int key) {
+        checkKey(key);
+        checkOpen();
+        Delta delta = this.memtable.get(key);
+        if (delta == null) {
+            delta = new Delta();
+            this.memtable.put(key, delta);
+        }
+        return delta;
+    }
+
+    private File newSegmentFile() {
+        return new File(this.directory, SEGMENT_PREFIX + (this.nextSegment++) + SEGMENT_SUFFIX);
+    }
+
+    /**
+     * Replace the manifest, then the list of segments.
+     */
+    private void install(final List<Segment> list) throws IOException {
+        for (Segment segment : list)
+            if (!this.segments.contains(segment))
+                sync(segment.file);
+        final File tmp = new File(this.directory, MANIFEST + ".tmp");
+        final FileOutputStream out = new FileOutputStream(tmp);
+        try {
+            final StringBuilder sb = new StringBuilder();
+            for (Segment segment : list)
+                sb.append(segment.file.getName()).append('\n');
+            out.write(sb.toString().getBytes("UTF-8"));
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        final File manifest = new File(this.directory, MANIFEST);
+        if (!tmp.renameTo(manifest) && !(manifest.delete() && tmp.renameTo(manifest)))
+            throw new IOException("Could not replace " + manifest);
+        this.segments = Collections.unmodifiableList(list);
+    }
+
+    private static void sync(final File file) throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.getChannel().force(true);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * @return the number of a segment file, or -1 if the name is not the
+     * name of a segment file
+     */
+    private static long segmentNumber(final String name) {
+        if (!name.startsWith(SEGMENT_PREFIX) || !name.endsWith(SEGMENT_SUFFIX))
+            return -1;
+        try {
+            return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static EWAHCompressedBitmap sortedBitmapOf(final int[] positions) {
+        final int[] sorted = positions.clone();
+        Arrays.sort(sorted);
+        final EWAHCompressedBitmap bitmap = new EWAHCompressedBitmap();
+        for (int position : sorted)
+            bitmap.set(position);
+        return bitmap;
+    }
+
+    private static void checkKey(final int key) {
+        if (key < 0)
+            throw new IllegalArgumentException("Negative key " + key);
+    }
+
+    private void checkOpen() {
+        if (this.closed)
+            throw new IllegalStateException("The store is closed");
+    }
+
+    /**
+     * The updates of a key which have not been flushed. The two bitmaps are
+     * disjoint and they are replaced, never modified, so that expressions
+     * over them are not affected by later updates.
+     */
+    private static final class Delta {
+        EWAHCompressedBitmap added = new EWAHCompressedBitmap();
+        EWAHCompressedBitmap removed = new EWAHCompressedBitmap();
+    }
+
+    /**
+     * A segment file: the bitmaps added and removed for each key, by
+     * increasing key, followed by the bitmap of the keys.
+     */
+    private static final class Segment {
+        Segment(final File file) throws IOException {
+            if (!file.exists())
+                throw new FileNotFoundException(file.toString());
+            this.file = file;
+            this.index = BitmapIndexFile.open(file);
+            if (this.index.size() % 2 != 1)
+                throw new IOException("Not a segment file: " + file);
+            this.keys = keys().toArray();
+            if (this.keys.length * 2 + 1 != this.index.size())
+                throw new IOException("Not a segment file: " + file);
+        }
+
+        EWAHCompressedBitmap keys() {
+            return this.index.readBitmap(this.index.size() - 1);
+        }
+
+        final File file;
+        final BitmapIndexFile index;
+        final int[] keys;
+    }
+
+    private static final String MANIFEST = "MANIFEST";
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".bitmaps";
+
+    private final File directory;
+    private final Object compactionLock = new Object();
+    private final AtomicBoolean compactionPending = new AtomicBoolean(false);
+    private final TreeMap<Integer, Delta> memtable = new TreeMap<Integer, Delta>();
+    private volatile List<Segment> segments;
+    private long nextSegment;
+    private ExecutorService executor = null;
+    private int maxSegments = Integer.MAX_VALUE;
+    private boolean closed = false;
+}
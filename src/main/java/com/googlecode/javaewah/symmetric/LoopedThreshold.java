@@ -0,0 +1,76 @@
+package com.googlecode.javaewah.symmetric;
+
+import com.googlecode.javaewah.BitmapStorage;
+import com.googlecode.javaewah.EWAHCompressedBitmap;
+import com.googlecode.javaewah.IteratingRLW;
+
+/**
+ * This is an implementation of the Looped algorithm for threshold functions:
+ * after processing k inputs, the bitmap v[j] has the positions where at
+ * least j+1 of the k inputs are true. Each new input c updates the bitmaps
+ * with v[j] = v[j] OR (c AND v[j-1]). Only compressed bitmaps are used, so it
+ * is efficient when the threshold is small and the inputs compress well.
+ *
+ * It is described in the following paper:
+ *
+ * Owen Kaser and Daniel Lemire, Compressed bitmap indexes: beyond unions and intersections
+ * <a href="http://arxiv.org/abs/1402.4466">http://arxiv.org/abs/1402.4466</a>
+ *
+ * Only ThresholdFuncBitmap functions are supported.
+ *
+ * @author Daniel Lemire
+ * @since 0.8.12
+ */
+public class LoopedThreshold implements BitmapSymmetricAlgorithm {
+
+    @Override
+    public void symmetric(UpdateableBitmapFunction f, BitmapStorage out,
+                          EWAHCompressedBitmap... set) {
+        if (!(f instanceof ThresholdFuncBitmap))
+            throw new IllegalArgumentException("The Looped algorithm only supports threshold functions");
+        final int t = ((ThresholdFuncBitmap) f).getThreshold();
+        out.clear();
+        long sizeInWords = 0;
+        for (EWAHCompressedBitmap b : set)
+            sizeInWords = Math.max(sizeInWords,
+                    ((long) b.sizeInBits() + EWAHCompressedBitmap.WORD_IN_BITS - 1) / EWAHCompressedBitmap.WORD_IN_BITS);
+        if (t <= 0) {
+            out.addStreamOfEmptyWords(true, sizeInWords);
+            return;
+        }
+        long written = 0;
+        if (t <= set.length) {
+            final EWAHCompressedBitmap[] v = new EWAHCompressedBitmap[t];
+            v[0] = set[0];
+            for (int k = 1; k < set.length; ++k) {
+                final EWAHCompressedBitmap c = set[k];
+                for (int j = Math.min(t - 1, k); j >= 1; --j) {
+                    if (v[j - 1] == null)
+                        continue;
+                    final EWAHCompressedBitmap x = c.and(v[j - 1]);
+                    v[j] = v[j] == null ? x : v[j].or(x);
+                }
+                v[0] = v[0].or(c);
+            }
+            if (v[t - 1] != null)
+                written = copy(v[t - 1].getIteratingRLW(), out);
+        }
+        // the result covers as many words as the largest input
+        if (written < sizeInWords)
+            out.addStreamOfEmptyWords(false, sizeInWords - written);
+    }
+
+    private static long copy(final IteratingRLW i, final BitmapStorage out) {
+        long written = 0;
+        while (true) {
+            if (i.getRunningLength() > 0)
+                out.addStreamOfEmptyWords(i.getRunningBit(), i.getRunningLength());
+            for (int k = 0; k < i.getNumberOfLiteralWords(); ++k)
+                out.addWord(i.getLiteralWordAt(k));
+            written += i.size();
+            if (!i.next())
+                break;
+        }
+        return written;
+    }
+}
@@ -0,0 +1,131 @@
+package com.googlecode.javaewah.symmetric;
+
+import com.googlecode.javaewah.BitmapStorage;
+import com.googlecode.javaewah.EWAHCompressedBitmap;
+import com.googlecode.javaewah.IteratorUtil;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * A parallel version of the RunningBitmapMerge algorithm. The uncompressed
+ * words are split into consecutive ranges and each range is merged by its
+ * own task, with its own function instance. The results of the ranges are
+ * then concatenated. The result is the same as with RunningBitmapMerge.
+ *
+ * Each task skips the compressed words preceding its range, so this is
+ * worth it when there are many inputs or when the function is expensive
+ * to evaluate (e.g., threshold queries over thousands of bitmaps).
+ *
+ * The functions should only depend on the words within a run (as do
+ * ThresholdFuncBitmap, ExactlyKFuncBitmap, AtMostKFuncBitmap and
+ * WeightedThresholdFuncBitmap). CoverageCountFuncBitmap is not supported.
+ *
+ * <pre>
+ * ExecutorService pool = Executors.newFixedThreadPool(4);
+ * ParallelRunningBitmapMerge merge = new ParallelRunningBitmapMerge(pool, 16);
+ * EWAHCompressedBitmap answer = new EWAHCompressedBitmap();
+ * merge.symmetric(new UpdateableBitmapFunctionFactory() {
+ *     public UpdateableBitmapFunction newFunction() {
+ *         return new ThresholdFuncBitmap(3);
+ *     }
+ * }, answer, bitmaps);
+ * </pre>
+ *
+ * @author Daniel Lemire
+ * @since 0.8.12
+ */
+public class ParallelRunningBitmapMerge {
+
+    /**
+     * Construct the algorithm.
+     *
+     * @param executor       the executor running the tasks (it is not shut
+     *                       down by this class)
+     * @param numberOfRanges in how many ranges the words are split (at
+     *                       most): typically a small multiple of the
+     *                       number of threads
+     */
+    public ParallelRunningBitmapMerge(final ExecutorService executor, final int numberOfRanges) {
+        if (numberOfRanges < 1)
+            throw new IllegalArgumentException("Need at least one range, got " + numberOfRanges);
+        this.executor = executor;
+        this.numberOfRanges = numberOfRanges;
+    }
+
+    /**
+     * Compute a Boolean symmetric query.
+     *
+     * @param factory creates a function instance for each range
+     * @param out     the result of the query
+     * @param set     the inputs
+     */
+    public void symmetric(final UpdateableBitmapFunctionFactory factory, final BitmapStorage out,
+                          final EWAHCompressedBitmap... set) {
+        out.clear();
+        int sizeInWords = 0;
+        for (EWAHCompressedBitmap b : set)
+            sizeInWords = Math.max(sizeInWords, (int) (((long) b.sizeInBits()
+                    + EWAHCompressedBitmap.WORD_IN_BITS - 1) / EWAHCompressedBitmap.WORD_IN_BITS));
+        final int ranges = Math.max(1, Math.min(this.numberOfRanges,
+                (sizeInWords + MIN_RANGE_IN_WORDS - 1) / MIN_RANGE_IN_WORDS));
+        if (ranges == 1) {
+            new RunningBitmapMerge().symmetric(factory.newFunction(), out, set);
+            return;
+        }
+        final List<Future<EWAHCompressedBitmap>> results = new ArrayList<Future<EWAHCompressedBitmap>>(ranges);
+        for (int r = 0; r < ranges; ++r) {
+            final int begin = (int) ((long) sizeInWords * r / ranges);
+            // the last range also covers the words beyond the declared sizes
+            final int end = r == ranges - 1 ? Integer.MAX_VALUE : (int) ((long) sizeInWords * (r + 1) / ranges);
+            final UpdateableBitmapFunction f = factory.newFunction();
+            results.add(this.executor.submit(new Callable<EWAHCompressedBitmap>() {
+                @Override
+                public EWAHCompressedBitmap call() {
+                    final EWAHCompressedBitmap range = new EWAHCompressedBitmap();
+                    final RunningBitmapMergeIterator merge = new RunningBitmapMergeIterator(f, 0, begin, end, set);
+                    while (merge.step(range)) {
+                    }
+                    return range;
+                }
+            }));
+        }
+        try {
+            long written = 0;
+            for (int r = 0; r < ranges; ++r) {
+                final EWAHCompressedBitmap range = results.get(r).get();
+                if (range.sizeInBits() == 0)
+                    continue;
+                // the inputs may have no words toward the end of a range
+                final long begin = (long) sizeInWords * r / ranges;
+                if (written < begin)
+                    out.addStreamOfEmptyWords(false, begin - written);
+                IteratorUtil.materialize(range.getIteratingRLW(), out);
+                written = begin + range.sizeInBits() / EWAHCompressedBitmap.WORD_IN_BITS;
+            }
+        } catch (InterruptedException e) {
+            for (Future<EWAHCompressedBitmap> result : results)
+                result.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while merging", e);
+        } catch (ExecutionException e) {
+            for (Future<EWAHCompressedBitmap> result : results)
+                result.cancel(true);
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * Ranges are not made smaller than this number of words.
+     */
+    static final int MIN_RANGE_IN_WORDS = 1024;
+
+    private final ExecutorService executor;
+    private final int numberOfRanges;
+}
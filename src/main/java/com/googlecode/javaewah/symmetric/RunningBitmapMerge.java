@@ -1,11 +1,10 @@
 package com.googlecode.javaewah.symmetric;
 
 import com.googlecode.javaewah.BitmapStorage;
+import com.googlecode.javaewah.BufferedIterator;
 import com.googlecode.javaewah.EWAHCompressedBitmap;
-import com.googlecode.javaewah.IteratingBufferedRunningLengthWord;
-import com.googlecode.javaewah.datastructure.PriorityQ;
-
-import java.util.Comparator;
+import com.googlecode.javaewah.IteratingRLW;
+import com.googlecode.javaewah.IteratorAggregation;
 
 /**
  * This is an implementation of the RunningBitmapMerge algorithm running on top
@@ -26,51 +25,26 @@ public class RunningBitmapMerge implements BitmapSymmetricAlgorithm {
     public void symmetric(UpdateableBitmapFunction f, BitmapStorage out,
                           EWAHCompressedBitmap... set) {
         out.clear();
-        final PriorityQ<EWAHPointer> h = new PriorityQ<EWAHPointer>(
-                set.length, new Comparator<EWAHPointer>() {
-            @Override
-            public int compare(EWAHPointer arg0,
-                               EWAHPointer arg1) {
-                return arg0.compareTo(arg1);
-            }
-        }
-        );
-        f.resize(set.length);
-
-        for (int k = 0; k < set.length; ++k) {
-            final EWAHPointer x = new EWAHPointer(0, new IteratingBufferedRunningLengthWord(set[k]), k);
-            if (x.hasNoData())
-                continue;
-            f.rw[k] = x;
-            x.callbackUpdate(f);
-            h.toss(x);
+        final RunningBitmapMergeIterator merge = new RunningBitmapMergeIterator(f, 0, set);
+        while (merge.step(out)) {
         }
-        h.buildHeap(); // just in case we use an insane number of inputs
-
-        int lasta = 0;
-        if (h.isEmpty())
-            return;
-        mainloop:
-        while (true) { // goes until no more active inputs
-            final int a = h.peek().endOfRun();
-            // I suppose we have a run of length a - lasta here.
-            f.dispatch(out, lasta, a);
-            lasta = a;
+    }
 
-            while (h.peek().endOfRun() == a) {
-                final EWAHPointer p = h.peek();
-                p.parseNextRun();
-                p.callbackUpdate(f);
-                if (p.hasNoData()) {
-                    h.poll(); // we just remove it
-                    if (h.isEmpty())
-                        break mainloop;
-                } else {
-                    h.percolateDown(); // since we have
-                    // increased the key
-                }
-            }
-        }
+    /**
+     * Compute a Boolean symmetric query lazily: the result is generated
+     * block by block as the iterator is consumed, so that it can be fed to
+     * further aggregations (e.g., IteratorAggregation) without being
+     * materialized. The function and the inputs should not be used
+     * elsewhere while the iterator is in use. The iterator cannot be cloned.
+     *
+     * @param f   symmetric boolean function to be processed
+     * @param set the inputs
+     * @return an iterator over the result
+     * @since 0.8.12
+     */
+    public IteratingRLW iterator(UpdateableBitmapFunction f, EWAHCompressedBitmap... set) {
+        return new BufferedIterator(new RunningBitmapMergeIterator(f,
+                IteratorAggregation.DEFAULT_MAX_BUF_SIZE, set));
     }
 
 }
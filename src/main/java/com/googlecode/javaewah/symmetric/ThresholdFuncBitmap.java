@@ -39,6 +39,36 @@ public final class ThresholdFuncBitmap extends UpdateableBitmapFunction {
         this.bufferUsed = 0;
     }
 
+    /**
+     * Construct the majority function: it is true when more than half of
+     * the inputs are true.
+     *
+     * @param numberOfInputs how many inputs the function receives
+     * @return the majority function
+     * @since 0.8.12
+     */
+    public static ThresholdFuncBitmap majority(final int numberOfInputs) {
+        return new ThresholdFuncBitmap(numberOfInputs / 2 + 1);
+    }
+
+    /**
+     * @return the threshold
+     * @since 0.8.12
+     */
+    public int getThreshold() {
+        return this.min;
+    }
+
+    @Override
+    public boolean evaluate(final int numberOfTrueInputs) {
+        return numberOfTrueInputs >= this.min;
+    }
+
+    @Override
+    public boolean supportsCounts() {
+        return true;
+    }
+
     @Override
     public void dispatch(BitmapStorage out, int runBegin, int runEnd) {
         final int runLength = runEnd - runBegin;
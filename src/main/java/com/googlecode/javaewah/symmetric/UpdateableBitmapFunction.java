@@ -89,6 +89,13 @@ public abstract class UpdateableBitmapFunction {
         this.b = java.util.Arrays.copyOf(this.b, newsize);
     }
 
+    /**
+     * A new computation begins, over the inputs given to the last call to
+     * resize. The default implementation does nothing.
+     */
+    void start() {
+    }
+
     /**
      * @param pos position of a literal
      */
@@ -117,7 +124,7 @@ public abstract class UpdateableBitmapFunction {
     /**
      * @param pos position where a zero word was added
      */
-    public final void setZero(final int pos) {
+    public void setZero(final int pos) {
         if (this.b[pos]) {
             this.b[pos] = false;
             --this.hammingWeight;
@@ -129,7 +136,7 @@ public abstract class UpdateableBitmapFunction {
     /**
      * @param pos position were a 11...1 word was added
      */
-    public final void setOne(final int pos) {
+    public void setOne(final int pos) {
         if (!this.b[pos]) {
             clearLiteral(pos);
             this.b[pos] = true;
@@ -137,6 +144,29 @@ public abstract class UpdateableBitmapFunction {
         }
     }
 
+    /**
+     * Evaluates the function given the number of true inputs. This is used
+     * by the algorithms which do not process the inputs run by run (e.g.,
+     * ScanCount).
+     *
+     * @param numberOfTrueInputs how many inputs are true
+     * @return the value of the function
+     * @throws UnsupportedOperationException if supportsCounts() is false
+     * @since 0.8.12
+     */
+    public boolean evaluate(final int numberOfTrueInputs) {
+        throw new UnsupportedOperationException("This function cannot be evaluated from a count");
+    }
+
+    /**
+     * @return whether the function can be evaluated from the number of true
+     * inputs (see evaluate(int))
+     * @since 0.8.12
+     */
+    public boolean supportsCounts() {
+        return false;
+    }
+
     /**
      * Writes out the answer.
      *
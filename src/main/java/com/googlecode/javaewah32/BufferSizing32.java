@@ -0,0 +1,110 @@
+package com.googlecode.javaewah32;
+
+/*
+ * Copyright 2009-2014, Daniel Lemire, Cliff Moon, David McIntosh, Robert Becho, Google Inc., Veronika Zenz, Owen Kaser, Gregory Ssi-Yan-Kai, Rory Graves
+ * Licensed under the Apache License, Version 2.0.
+ */
+
+/**
+ * Picks the size of the uncompressed buffer used by the buffered
+ * aggregations (see FastAggregation32.bufferedor and
+ * IteratorAggregation32.bufferedor) when the caller does not provide one.
+ *
+ * The buffer is updated by every input overlapping a block: it should stay
+ * in the L2 cache when many inputs touch each word, whereas the L3 cache is
+ * good enough when each word is touched by few inputs. The cache sizes can
+ * be set with the system properties javaewah.l2cachesize and
+ * javaewah.l3cachesize (in bytes).
+ *
+ * The block size is then adapted based on the density of literal words in
+ * the output: blocks made of literal words are shrunk so that the buffer
+ * remains in the cache, whereas blocks made of runs are grown to amortize
+ * the per-block overhead.
+ *
+ * @author Daniel Lemire
+ * @since 0.8.12
+ */
+final class BufferSizing32 {
+
+    /** Private constructor to prevent instantiation */
+    private BufferSizing32() {}
+
+    /**
+     * Choose the capacity of the buffer for bitmaps.
+     *
+     * @param bitmaps the inputs
+     * @return the buffer size in words
+     */
+    static int bufferSize(final EWAHCompressedBitmap32... bitmaps) {
+        long sizeInWords = 0;
+        long universeInWords = 0;
+        for (EWAHCompressedBitmap32 b : bitmaps) {
+            sizeInWords += b.sizeInBytes() / WORD_IN_BYTES;
+            universeInWords = Math.max(universeInWords,
+                    ((long) b.sizeInBits() + EWAHCompressedBitmap32.WORD_IN_BITS - 1) / EWAHCompressedBitmap32.WORD_IN_BITS);
+        }
+        return bufferSize(bitmaps.length, universeInWords, sizeInWords);
+    }
+
+    /**
+     * Choose the capacity of the buffer.
+     *
+     * @param numberOfInputs  the number of inputs
+     * @param universeInWords the number of words covered by the largest
+     *                        input, or a negative value if it is unknown
+     * @param sizeInWords     the total compressed size of the inputs in
+     *                        words (ignored if the universe is unknown)
+     * @return the buffer size in words
+     */
+    static int bufferSize(final int numberOfInputs, final long universeInWords, final long sizeInWords) {
+        // how many inputs update each word of the buffer, on average
+        final double touches = universeInWords < 0 ? numberOfInputs
+                : (double) sizeInWords / Math.max(1, universeInWords);
+        final long cacheSize = touches > 2 ? L2_CACHE_SIZE : L3_CACHE_SIZE;
+        long answer = Math.max(MIN_BUF_SIZE, cacheSize / WORD_IN_BYTES);
+        if (universeInWords >= 0)
+            answer = Math.min(answer, Math.max(1, universeInWords));
+        return (int) Math.min(answer, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Choose the size of the next block.
+     *
+     * @param blockSize the size of the current block
+     * @param effective the number of words produced by the current block
+     * @param literals  the number of literal words (neither 0 nor ~0) among
+     *                  the words produced
+     * @param capacity  the capacity of the buffer
+     * @return the size of the next block
+     */
+    static int adapt(final int blockSize, final int effective, final int literals, final int capacity) {
+        // a partial block ends the aggregation: nothing to learn from it
+        if (effective < blockSize)
+            return blockSize;
+        if (literals > effective / 2)
+            return Math.max(Math.min(MIN_BUF_SIZE, capacity), blockSize / 2);
+        if (literals < effective / 8)
+            return (int) Math.min(capacity, 2L * blockSize);
+        return blockSize;
+    }
+
+    private static long cacheSize(final String property, final long defaultValue) {
+        try {
+            final Long answer = Long.getLong(property);
+            return answer == null || answer <= 0 ? defaultValue : answer;
+        } catch (SecurityException e) {
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Smallest buffer chosen (unless the bitmaps are smaller), in words.
+     */
+    static final int MIN_BUF_SIZE = 1024;
+
+    static final long L2_CACHE_SIZE = cacheSize("javaewah.l2cachesize", 256 * 1024);
+
+    static final long L3_CACHE_SIZE = cacheSize("javaewah.l3cachesize", 4 * 1024 * 1024);
+
+    private static final int WORD_IN_BYTES = EWAHCompressedBitmap32.WORD_IN_BITS / 8;
+}
@@ -0,0 +1,859 @@
+package com.googlecode.javaewah32;
+
+import com.googlecode.javaewah.IntIterator;
+import com.googlecode.javaewah.LogicalElement;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.Iterator;
+
+/*
+ * Copyright 2009-2014, Daniel Lemire, Cliff Moon, David McIntosh, Robert Becho, Google Inc., Veronika Zenz, Owen Kaser, Gregory Ssi-Yan-Kai, Rory Graves
+ * Licensed under the Apache License, Version 2.0.
+ */
+
+/**
+ * A bitmap which stores very sparse sets as a sorted array of integers and
+ * other sets as an EWAHCompressedBitmap32. With EWAH, an isolated set bit
+ * costs a marker word and a literal word: when few bits are scattered over
+ * a large range, the sorted array uses half the memory (or less when the
+ * gaps exceed the largest running length).
+ *
+ * The representation using the least memory is chosen: a bitmap starts as
+ * a sorted array and it switches to EWAH as soon as it would use less
+ * memory. The result of an operation is represented as an array whenever
+ * the array is smaller than the EWAH bitmap. The binary operations are
+ * specialized for each pair of representations: for example, the
+ * intersection between an array and an EWAH bitmap skips over the EWAH
+ * bitmap instead of decompressing it.
+ *
+ * As with EWAHCompressedBitmap32, the bits must be set in increasing order.
+ *
+ * <pre>
+ * CompressedBitmap32 rare = CompressedBitmap32.bitmapOf(12, 1000000, 900000000);
+ * CompressedBitmap32 common = CompressedBitmap32.valueOf(bitmap);
+ * int[] hits = rare.and(common).toArray();
+ * </pre>
+ *
+ * @author Daniel Lemire
+ * @since 0.8.12
+ */
+public final class CompressedBitmap32 implements Cloneable, Externalizable, Iterable<Integer>,
+        LogicalElement<CompressedBitmap32> {
+
+    /**
+     * Creates an empty bitmap.
+     */
+    public CompressedBitmap32() {
+        this.array = new int[DEFAULT_ARRAY_SIZE];
+    }
+
+    private CompressedBitmap32(final int[] array, final int cardinality, final int sizeInBits) {
+        this.array = array;
+        this.cardinality = cardinality;
+        this.sizeInBits = sizeInBits;
+        if (cardinality > 0) {
+            this.lastWord = array[cardinality - 1] / WORD_IN_BITS;
+            this.estimatedSizeInWords = estimatedSizeInWords(array, cardinality);
+        }
+    }
+
+    private CompressedBitmap32(final EWAHCompressedBitmap32 ewah) {
+        this.ewah = ewah;
+    }
+
+    /**
+     * Return a bitmap with the bit set to true at the given positions. The
+     * positions should be given in sorted order.
+     *
+     * @param setBits list of set bit positions
+     * @return the bitmap
+     */
+    public static CompressedBitmap32 bitmapOf(int... setBits) {
+        CompressedBitmap32 a = new CompressedBitmap32();
+        for (int k : setBits)
+            a.set(k);
+        return a;
+    }
+
+    /**
+     * Return a bitmap with the same content as an EWAH bitmap, using the
+     * representation which takes the least memory.
+     *
+     * @param bitmap the source (it will not be modified)
+     * @return the bitmap
+     */
+    public static CompressedBitmap32 valueOf(final EWAHCompressedBitmap32 bitmap) {
+        final CompressedBitmap32 answer = fromEWAH(bitmap, bitmap.sizeInBits());
+        if (answer.ewah == bitmap)
+            answer.ewah = bitmap.clone();
+        return answer;
+    }
+
+    /**
+     * Set the bit at position i to true, the bits must be set in (strictly)
+     * increasing order. For example, set(15) and then set(7) will fail. You
+     * must do set(7) and then set(15).
+     *
+     * @param i the index
+     * @return true if the value was set (always true when i greater or
+     * equal to sizeInBits()).
+     * @throws IndexOutOfBoundsException if i is negative or greater than Integer.MAX_VALUE -
+     *                                   32
+     */
+    public boolean set(final int i) {
+        if (this.ewah != null)
+            return this.ewah.set(i);
+        if ((i > Integer.MAX_VALUE - WORD_IN_BITS) || (i < 0))
+            throw new IndexOutOfBoundsException("Set values should be between 0 and " + (Integer.MAX_VALUE - WORD_IN_BITS));
+        if (i < this.sizeInBits)
+            return false;
+        final int w = i / WORD_IN_BITS;
+        if (w != this.lastWord) {
+            this.estimatedSizeInWords += wordsFor(this.lastWord, w);
+            this.lastWord = w;
+        }
+        if (this.cardinality == this.array.length)
+            this.array = Arrays.copyOf(this.array, Math.max(DEFAULT_ARRAY_SIZE, 2 * this.cardinality));
+        this.array[this.cardinality++] = i;
+        this.sizeInBits = i + 1;
+        if ((long) this.cardinality * 4 > this.estimatedSizeInWords * (WORD_IN_BITS / 8)) {
+            this.ewah = toEWAH(this.array, this.cardinality, this.sizeInBits);
+            this.array = null;
+            this.cardinality = 0;
+        }
+        return true;
+    }
+
+    /**
+     * Query the value of a single bit. With the array representation, a
+     * binary search is used; otherwise, the complexity is linear with the
+     * size of the bitmap.
+     *
+     * @param i the bit we are interested in
+     * @return whether the bit is set to true
+     */
+    public boolean get(final int i) {
+        if (this.ewah != null)
+            return this.ewah.get(i);
+        return Arrays.binarySearch(this.array, 0, this.cardinality, i) >= 0;
+    }
+
+    /**
+     * @return true if the bitmap is stored as a sorted array
+     */
+    public boolean isSparse() {
+        return this.ewah == null;
+    }
+
+    /**
+     * @return the number of bits set to true
+     */
+    public int cardinality() {
+        return this.ewah != null ? this.ewah.cardinality() : this.cardinality;
+    }
+
+    /**
+     * @return true if no bit is set
+     */
+    public boolean isEmpty() {
+        return this.ewah != null ? this.ewah.isEmpty() : this.cardinality == 0;
+    }
+
+    @Override
+    public int sizeInBits() {
+        return this.ewah != null ? this.ewah.sizeInBits() : this.sizeInBits;
+    }
+
+    /**
+     * Report the memory usage of the bitmap: the number of bytes used by
+     * the set bits of the array, or the compressed size of the EWAH bitmap.
+     *
+     * @return the size in bytes
+     */
+    @Override
+    public int sizeInBytes() {
+        return this.ewah != null ? this.ewah.sizeInBytes() : this.cardinality * 4;
+    }
+
+    /**
+     * Returns a new bitmap containing the bitwise AND values of the current
+     * bitmap with some other bitmap. When one of the bitmaps is an array,
+     * the running time is proportional to the size of the array (plus the
+     * number of marker words of the other bitmap).
+     *
+     * The current bitmap is not modified.
+     *
+     * @param a the other bitmap (it will not be modified)
+     * @return the result
+     */
+    @Override
+    public CompressedBitmap32 and(final CompressedBitmap32 a) {
+        final int size = Math.max(sizeInBits(), a.sizeInBits());
+        if ((this.ewah != null) && (a.ewah != null))
+            return fromEWAH(this.ewah.and(a.ewah), size);
+        if (this.ewah == null && a.ewah == null) {
+            final int[] answer = new int[Math.min(this.cardinality, a.cardinality)];
+            final int n = intersect(this.array, this.cardinality, a.array, a.cardinality, answer);
+            return fromArray(answer, n, size);
+        }
+        final CompressedBitmap32 sparse = this.ewah == null ? this : a;
+        final CompressedBitmap32 dense = this.ewah == null ? a : this;
+        return fromArray(filter(sparse.array, sparse.cardinality, dense.ewah, true), size);
+    }
+
+    /**
+     * Returns the cardinality of the result of a bitwise AND of the values
+     * of the current bitmap with some other bitmap. Avoids allocating an
+     * intermediate bitmap to hold the result of the AND.
+     *
+     * @param a the other bitmap (it will not be modified)
+     * @return the cardinality
+     */
+    public int andCardinality(final CompressedBitmap32 a) {
+        if ((this.ewah != null) && (a.ewah != null))
+            return this.ewah.andCardinality(a.ewah);
+        if (this.ewah == null && a.ewah == null)
+            return intersect(this.array, this.cardinality, a.array, a.cardinality, null);
+        final CompressedBitmap32 sparse = this.ewah == null ? this : a;
+        final CompressedBitmap32 dense = this.ewah == null ? a : this;
+        final Prober p = new Prober(dense.ewah);
+        int answer = 0;
+        for (int k = 0; k < sparse.cardinality; ++k)
+            if (p.contains(sparse.array[k]))
+                ++answer;
+        return answer;
+    }
+
+    /**
+     * Return true if the two bitmaps have both at least one true bit in the
+     * same position.
+     *
+     * @param a the other bitmap (it will not be modified)
+     * @return whether they intersect
+     */
+    public boolean intersects(final CompressedBitmap32 a) {
+        if ((this.ewah != null) && (a.ewah != null))
+            return this.ewah.intersects(a.ewah);
+        if (this.ewah == null && a.ewah == null)
+            return intersect(this.array, this.cardinality, a.array, a.cardinality, null) > 0;
+        final CompressedBitmap32 sparse = this.ewah == null ? this : a;
+        final CompressedBitmap32 dense = this.ewah == null ? a : this;
+        final Prober p = new Prober(dense.ewah);
+        for (int k = 0; k < sparse.cardinality; ++k)
+            if (p.contains(sparse.array[k]))
+                return true;
+        return false;
+    }
+
+    /**
+     * Returns a new bitmap containing the bitwise AND NOT values of the
+     * current bitmap with some other bitmap.
+     *
+     * The current bitmap is not modified.
+     *
+     * @param a the other bitmap (it will not be modified)
+     * @return the result
+     */
+    @Override
+    public CompressedBitmap32 andNot(final CompressedBitmap32 a) {
+        final int size = Math.max(sizeInBits(), a.sizeInBits());
+        if (this.ewah == null && a.ewah == null) {
+            final int[] answer = new int[this.cardinality];
+            final int n = difference(this.array, this.cardinality, a.array, a.cardinality, answer);
+            return fromArray(answer, n, size);
+        }
+        if (this.ewah == null)
+            return fromArray(filter(this.array, this.cardinality, a.ewah, false), size);
+        return fromEWAH(this.ewah.andNot(a.toEWAH()), size);
+    }
+
+    /**
+     * Returns a new bitmap containing the bitwise OR values of the current
+     * bitmap with some other bitmap.
+     *
+     * The current bitmap is not modified.
+     *
+     * @param a the other bitmap (it will not be modified)
+     * @return the result
+     */
+    @Override
+    public CompressedBitmap32 or(final CompressedBitmap32 a) {
+        final int size = Math.max(sizeInBits(), a.sizeInBits());
+        if (this.ewah == null && a.ewah == null) {
+            final int[] answer = new int[this.cardinality + a.cardinality];
+            final int n = union(this.array, this.cardinality, a.array, a.cardinality, answer);
+            return fromArray(answer, n, size);
+        }
+        return fromEWAH(toEWAH().or(a.toEWAH()), size);
+    }
+
+    /**
+     * Returns a new bitmap containing the bitwise XOR values of the current
+     * bitmap with some other bitmap.
+     *
+     * The current bitmap is not modified.
+     *
+     * @param a the other bitmap (it will not be modified)
+     * @return the result
+     */
+    @Override
+    public CompressedBitmap32 xor(final CompressedBitmap32 a) {
+        final int size = Math.max(sizeInBits(), a.sizeInBits());
+        if (this.ewah == null && a.ewah == null) {
+            final int[] answer = new int[this.cardinality + a.cardinality];
+            final int n = symmetricDifference(this.array, this.cardinality, a.array, a.cardinality, answer);
+            return fromArray(answer, n, size);
+        }
+        return fromEWAH(toEWAH().xor(a.toEWAH()), size);
+    }
+
+    /**
+     * Returns a new bitmap containing the composition of the current bitmap
+     * with some other bitmap (see EWAHCompressedBitmap32.compose).
+     *
+     * The current bitmap is not modified.
+     *
+     * @param a the other bitmap (it will not be modified)
+     * @return the result
+     */
+    @Override
+    public CompressedBitmap32 compose(final CompressedBitmap32 a) {
+        final EWAHCompressedBitmap32 answer = toEWAH().compose(a.toEWAH());
+        return fromEWAH(answer, answer.sizeInBits());
+    }
+
+    /**
+     * Negate (bitwise) the current bitmap within sizeInBits() bits.
+     */
+    @Override
+    public void not() {
+        final EWAHCompressedBitmap32 negated = this.ewah != null ? this.ewah
+                : toEWAH(this.array, this.cardinality, this.sizeInBits);
+        negated.not();
+        become(fromEWAH(negated, negated.sizeInBits()));
+    }
+
+    /**
+     * Switch to the representation which uses the least memory (if needed)
+     * and reduce the memory allocated to the bitmap.
+     */
+    public void trim() {
+        if (this.ewah != null) {
+            become(fromEWAH(this.ewah, this.ewah.sizeInBits()));
+            if (this.ewah != null)
+                this.ewah.trim();
+        } else {
+            become(fromArray(this.array, this.cardinality, this.sizeInBits));
+            if ((this.ewah == null) && (this.array.length > this.cardinality))
+                this.array = Arrays.copyOf(this.array, this.cardinality);
+        }
+    }
+
+    /**
+     * Returns the positions of the set bits in increasing order.
+     *
+     * @return the array containing the location of the set bits
+     */
+    public int[] toArray() {
+        return this.ewah != null ? this.ewah.toArray() : Arrays.copyOf(this.array, this.cardinality);
+    }
+
+    /**
+     * Returns a new EWAH bitmap with the same content.
+     *
+     * @return the EWAH bitmap
+     */
+    public EWAHCompressedBitmap32 toEWAHCompressedBitmap32() {
+        return this.ewah != null ? this.ewah.clone() : toEWAH(this.array, this.cardinality, this.sizeInBits);
+    }
+
+    /**
+     * Iterator over the set bits (this is what most people will want to use
+     * to browse the content).
+     *
+     * @return the int iterator
+     */
+    public IntIterator intIterator() {
+        if (this.ewah != null)
+            return this.ewah.intIterator();
+        return new IntIterator() {
+
+            @Override
+            public boolean hasNext() {
+                return this.pos < CompressedBitmap32.this.cardinality;
+            }
+
+            @Override
+            public int next() {
+                return CompressedBitmap32.this.array[this.pos++];
+            }
+
+            private int pos = 0;
+        };
+    }
+
+    @Override
+    public Iterator<Integer> iterator() {
+        return new Iterator<Integer>() {
+
+            @Override
+            public boolean hasNext() {
+                return this.under.hasNext();
+            }
+
+            @Override
+            public Integer next() {
+                return this.under.next();
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException("bitsets do not support remove");
+            }
+
+            private final IntIterator under = intIterator();
+        };
+    }
+
+    @Override
+    public CompressedBitmap32 clone() {
+        CompressedBitmap32 clone = null;
+        try {
+            clone = (CompressedBitmap32) super.clone();
+            if (this.ewah != null)
+                clone.ewah = this.ewah.clone();
+            else
+                clone.array = this.array.clone();
+        } catch (CloneNotSupportedException e) {
+            e.printStackTrace();
+        }
+        return clone;
+    }
+
+    /**
+     * Check to see whether the two bitmaps contain the same set bits,
+     * whatever their representations.
+     *
+     * @see java.lang.Object#equals(java.lang.Object)
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof CompressedBitmap32))
+            return false;
+        final CompressedBitmap32 a = (CompressedBitmap32) o;
+        if ((this.ewah != null) && (a.ewah != null))
+            return this.ewah.equals(a.ewah);
+        if (this.ewah == null && a.ewah == null) {
+            if (this.cardinality != a.cardinality)
+                return false;
+            for (int k = 0; k < this.cardinality; ++k)
+                if (this.array[k] != a.array[k])
+                    return false;
+            return true;
+        }
+        final CompressedBitmap32 sparse = this.ewah == null ? this : a;
+        final CompressedBitmap32 dense = this.ewah == null ? a : this;
+        return andCardinality(a) == sparse.cardinality && dense.ewah.cardinality() == sparse.cardinality;
+    }
+
+    /**
+     * Returns a hash code which only depends on the set bits, so that
+     * equal bitmaps have the same hash code whatever their representations.
+     */
+    @Override
+    public int hashCode() {
+        int answer = 0;
+        if (this.ewah == null) {
+            int k = 0;
+            while (k < this.cardinality) {
+                final int w = this.array[k] / WORD_IN_BITS;
+                int word = 0;
+                for (; (k < this.cardinality) && (this.array[k] / WORD_IN_BITS == w); ++k)
+                    word |= 1 << (this.array[k] % WORD_IN_BITS);
+                answer += wordHash(word) * (HASH_MULTIPLIER * w + 1);
+            }
+            return answer;
+        }
+        final IteratingRLW32 i = this.ewah.getIteratingRLW();
+        long w = 0;
+        while (i.size() > 0) {
+            final long rl = i.getRunningLength();
+            if (i.getRunningBit()) {
+                // sum over the words w, w + 1, ..., w + rl - 1
+                final long sum = rl * w + rl * (rl - 1) / 2;
+                answer += wordHash(~0) * (int) (HASH_MULTIPLIER * sum + rl);
+            }
+            w += rl;
+            for (int k = 0; k < i.getNumberOfLiteralWords(); ++k, ++w)
+                answer += wordHash(i.getLiteralWordAt(k)) * (int) (HASH_MULTIPLIER * w + 1);
+            if (!i.next())
+                break;
+        }
+        return answer;
+    }
+
+    private static int wordHash(final int word) {
+        return word;
+    }
+
+    /**
+     * A string describing the bitmap.
+     *
+     * @return the string
+     */
+    @Override
+    public String toString() {
+        StringBuilder answer = new StringBuilder();
+        IntIterator i = this.intIterator();
+        answer.append("{");
+        if (i.hasNext())
+            answer.append(i.next());
+        while (i.hasNext()) {
+            answer.append(",");
+            answer.append(i.next());
+        }
+        answer.append("}");
+        return answer.toString();
+    }
+
+    /**
+     * Serialize. The representation is preserved.
+     *
+     * @param out the DataOutput stream
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    public void serialize(DataOutput out) throws IOException {
+        if (this.ewah != null) {
+            out.writeInt(-1);
+            this.ewah.serialize(out);
+        } else {
+            out.writeInt(this.cardinality);
+            out.writeInt(this.sizeInBits);
+            for (int k = 0; k < this.cardinality; ++k)
+                out.writeInt(this.array[k]);
+        }
+    }
+
+    /**
+     * Deserialize.
+     *
+     * @param in the DataInput stream
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    public void deserialize(DataInput in) throws IOException {
+        final int n = in.readInt();
+        if (n < 0) {
+            final EWAHCompressedBitmap32 bitmap = new EWAHCompressedBitmap32();
+            bitmap.deserialize(in);
+            become(new CompressedBitmap32(bitmap));
+        } else {
+            final int size = in.readInt();
+            final int[] values = new int[Math.max(n, DEFAULT_ARRAY_SIZE)];
+            for (int k = 0; k < n; ++k)
+                values[k] = in.readInt();
+            become(new CompressedBitmap32(values, n, size));
+        }
+    }
+
+    /**
+     * Report the number of bytes required to serialize this bitmap
+     *
+     * @return the size in bytes
+     */
+    public int serializedSizeInBytes() {
+        return this.ewah != null ? 4 + this.ewah.serializedSizeInBytes() : 8 + 4 * this.cardinality;
+    }
+
+    @Override
+    public void readExternal(ObjectInput in) throws IOException {
+        deserialize(in);
+    }
+
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+        serialize(out);
+    }
+
+    private void become(final CompressedBitmap32 other) {
+        this.array = other.array;
+        this.cardinality = other.cardinality;
+        this.sizeInBits = other.sizeInBits;
+        this.lastWord = other.lastWord;
+        this.estimatedSizeInWords = other.estimatedSizeInWords;
+        this.ewah = other.ewah;
+    }
+
+    private EWAHCompressedBitmap32 toEWAH() {
+        return this.ewah != null ? this.ewah : toEWAH(this.array, this.cardinality, this.sizeInBits);
+    }
+
+    private static EWAHCompressedBitmap32 toEWAH(final int[] array, final int cardinality, final int sizeInBits) {
+        final EWAHCompressedBitmap32 answer = new EWAHCompressedBitmap32();
+        for (int k = 0; k < cardinality; ++k)
+            answer.set(array[k]);
+        answer.setSizeInBits(sizeInBits, false);
+        return answer;
+    }
+
+    private static CompressedBitmap32 fromArray(final int[] array, final int cardinality, final int sizeInBits) {
+        final CompressedBitmap32 answer = new CompressedBitmap32(array, cardinality, sizeInBits);
+        if ((long) cardinality * 4 > answer.estimatedSizeInWords * (WORD_IN_BITS / 8))
+            return new CompressedBitmap32(toEWAH(array, cardinality, sizeInBits));
+        return answer;
+    }
+
+    private static CompressedBitmap32 fromArray(final IntArray values, final int sizeInBits) {
+        return fromArray(values.array, values.size, sizeInBits);
+    }
+
+    /**
+     * Pick the representation for the result of an operation: the set bits
+     * are extracted as long as the array would be smaller than the bitmap.
+     */
+    private static CompressedBitmap32 fromEWAH(final EWAHCompressedBitmap32 bitmap, final int sizeInBits) {
+        if (bitmap.sizeInBits() < sizeInBits)
+            bitmap.setSizeInBits(sizeInBits, false);
+        final int limit = bitmap.sizeInBytes() / 4;
+        final IntArray values = new IntArray(Math.min(limit, DEFAULT_ARRAY_SIZE));
+        final IntIterator i = bitmap.intIterator();
+        while (i.hasNext()) {
+            if (values.size == limit)
+                return new CompressedBitmap32(bitmap);
+            values.add(i.next());
+        }
+        return new CompressedBitmap32(values.array, values.size, bitmap.sizeInBits());
+    }
+
+    /**
+     * @return the values of the array which are (or are not) in the bitmap
+     */
+    private static IntArray filter(final int[] array, final int cardinality, final EWAHCompressedBitmap32 bitmap,
+                                   final boolean in) {
+        final IntArray answer = new IntArray(Math.min(cardinality, DEFAULT_ARRAY_SIZE));
+        final Prober p = new Prober(bitmap);
+        for (int k = 0; k < cardinality; ++k)
+            if (p.contains(array[k]) == in)
+                answer.add(array[k]);
+        return answer;
+    }
+
+    /**
+     * Estimate the size in words of an EWAH bitmap having the given set
+     * bits: a literal word per distinct word, plus the marker words.
+     */
+    private static long estimatedSizeInWords(final int[] array, final int cardinality) {
+        long answer = 0;
+        int lastWord = -1;
+        for (int k = 0; k < cardinality; ++k) {
+            final int w = array[k] / WORD_IN_BITS;
+            if (w != lastWord) {
+                answer += wordsFor(lastWord, w);
+                lastWord = w;
+            }
+        }
+        return answer;
+    }
+
+    /**
+     * @return the number of words (the literal word and the marker words)
+     * added to an EWAH bitmap when a bit is set in word w after a bit in
+     * word lastWord (-1 if there is none)
+     */
+    private static long wordsFor(final int lastWord, final int w) {
+        final long gap = w - lastWord - 1;
+        long markers = (gap + RunningLengthWord32.LARGEST_RUNNING_LENGTH_COUNT - 1)
+                / RunningLengthWord32.LARGEST_RUNNING_LENGTH_COUNT;
+        // a bitmap always starts with a marker word
+        if (lastWord < 0)
+            markers = Math.max(1, markers);
+        return 1 + markers;
+    }
+
+    /**
+     * Compute the intersection of two sorted arrays. Galloping is used when
+     * one array is much smaller than the other.
+     *
+     * @param out where the intersection is written (if null, the values
+     *            are only counted)
+     * @return the size of the intersection
+     */
+    static int intersect(final int[] a, final int na, final int[] b, final int nb, final int[] out) {
+        if (na > nb)
+            return intersect(b, nb, a, na, out);
+        int n = 0;
+        if (na * GALLOP_RATIO < nb) {
+            int j = 0;
+            for (int k = 0; (k < na) && (j < nb); ++k) {
+                j = advance(b, j, nb, a[k]);
+                if ((j < nb) && (b[j] == a[k])) {
+                    if (out != null)
+                        out[n] = a[k];
+                    ++n;
+                }
+            }
+            return n;
+        }
+        int k = 0, j = 0;
+        while ((k < na) && (j < nb)) {
+            if (a[k] < b[j])
+                ++k;
+            else if (a[k] > b[j])
+                ++j;
+            else {
+                if (out != null)
+                    out[n] = a[k];
+                ++n;
+                ++k;
+                ++j;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * @return the smallest index at least equal to pos where the value is
+     * at least equal to min, or length
+     */
+    private static int advance(final int[] array, final int pos, final int length, final int min) {
+        int lower = pos;
+        int span = 1;
+        while ((lower + span < length) && (array[lower + span] < min)) {
+            lower += span;
+            span *= 2;
+        }
+        if ((lower < length) && (array[lower] >= min))
+            return lower;
+        final int upper = Math.min(lower + span, length);
+        final int index = Arrays.binarySearch(array, lower + 1, upper, min);
+        return index >= 0 ? index : -index - 1;
+    }
+
+    static int union(final int[] a, final int na, final int[] b, final int nb, final int[] out) {
+        int n = 0, k = 0, j = 0;
+        while ((k < na) && (j < nb)) {
+            if (a[k] < b[j])
+                out[n++] = a[k++];
+            else if (a[k] > b[j])
+                out[n++] = b[j++];
+            else {
+                out[n++] = a[k++];
+                ++j;
+            }
+        }
+        while (k < na)
+            out[n++] = a[k++];
+        while (j < nb)
+            out[n++] = b[j++];
+        return n;
+    }
+
+    static int difference(final int[] a, final int na, final int[] b, final int nb, final int[] out) {
+        int n = 0, k = 0, j = 0;
+        while ((k < na) && (j < nb)) {
+            if (a[k] < b[j])
+                out[n++] = a[k++];
+            else if (a[k] > b[j])
+                ++j;
+            else {
+                ++k;
+                ++j;
+            }
+        }
+        while (k < na)
+            out[n++] = a[k++];
+        return n;
+    }
+
+    static int symmetricDifference(final int[] a, final int na, final int[] b, final int nb, final int[] out) {
+        int n = 0, k = 0, j = 0;
+        while ((k < na) && (j < nb)) {
+            if (a[k] < b[j])
+                out[n++] = a[k++];
+            else if (a[k] > b[j])
+                out[n++] = b[j++];
+            else {
+                ++k;
+                ++j;
+            }
+        }
+        while (k < na)
+            out[n++] = a[k++];
+        while (j < nb)
+            out[n++] = b[j++];
+        return n;
+    }
+
+    /**
+     * Tests positions in non-decreasing order against an EWAH bitmap,
+     * skipping over the marker words.
+     */
+    private static final class Prober {
+
+        Prober(final EWAHCompressedBitmap32 bitmap) {
+            this.i = bitmap.getIteratingRLW();
+        }
+
+        boolean contains(final int position) {
+            final long w = position / WORD_IN_BITS;
+            while (this.offset + this.i.size() <= w) {
+                if (this.done)
+                    return false;
+                this.offset += this.i.size();
+                this.done = !this.i.next();
+            }
+            final long d = w - this.offset;
+            final long rl = this.i.getRunningLength();
+            if (d < rl)
+                return this.i.getRunningBit();
+            return (this.i.getLiteralWordAt((int) (d - rl)) & (1 << (position % WORD_IN_BITS))) != 0;
+        }
+
+        private final IteratingRLW32 i;
+        private long offset = 0;
+        private boolean done = false;
+    }
+
+    /**
+     * A growable array of integers.
+     */
+    private static final class IntArray {
+
+        IntArray(final int capacity) {
+            this.array = new int[Math.max(1, capacity)];
+        }
+
+        void add(final int value) {
+            if (this.size == this.array.length)
+                this.array = Arrays.copyOf(this.array, 2 * this.size);
+            this.array[this.size++] = value;
+        }
+
+        int[] array;
+        int size = 0;
+    }
+
+    /**
+     * The initial capacity of the array.
+     */
+    private static final int DEFAULT_ARRAY_SIZE = 4;
+
+    /**
+     * Galloping is used to intersect arrays when one array is at least this
+     * many times larger than the other one.
+     */
+    private static final int GALLOP_RATIO = 32;
+
+    private static final int HASH_MULTIPLIER = 0x9E3779B1;
+
+    private static final int WORD_IN_BITS = EWAHCompressedBitmap32.WORD_IN_BITS;
+
+    private int[] array;
+    private int cardinality = 0;
+    private int sizeInBits = 0;
+    private int lastWord = -1;
+    private long estimatedSizeInWords = 0;
+    private EWAHCompressedBitmap32 ewah = null;
+
+    static final long serialVersionUID = 1L;
+}
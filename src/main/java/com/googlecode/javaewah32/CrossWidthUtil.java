@@ -0,0 +1,868 @@
+package com.googlecode.javaewah32;
+
+import com.googlecode.javaewah.BitmapStorage;
+import com.googlecode.javaewah.EWAHCompressedBitmap;
+import com.googlecode.javaewah.IteratingRLW;
+import com.googlecode.javaewah.IteratorUtil;
+
+/*
+ * Copyright 2009-2014, Daniel Lemire, Cliff Moon, David McIntosh, Robert Becho, Google Inc., Veronika Zenz, Owen Kaser, Gregory Ssi-Yan-Kai, Rory Graves
+ * Licensed under the Apache License, Version 2.0.
+ */
+
+/**
+ * Conversions and logical operations between 32-bit and 64-bit bitmaps.
+ *
+ * The conversions work at the word level: an iterator over 32-bit words is
+ * viewed as an iterator over 64-bit words (two 32-bit words per 64-bit word)
+ * and vice versa, so that runs are converted without being expanded. The
+ * logical operations stream both bitmaps through such a view: no converted
+ * copy of either bitmap is materialized. The result has the width of the
+ * first operand.
+ *
+ * <pre>
+ * EWAHCompressedBitmap hot = ...;
+ * EWAHCompressedBitmap32 cold = ...;
+ * EWAHCompressedBitmap both = CrossWidthUtil.and(hot, cold);
+ * </pre>
+ *
+ * @author Daniel Lemire
+ * @since 0.8.12
+ */
+public final class CrossWidthUtil {
+
+    /** Private constructor to prevent instantiation */
+    private CrossWidthUtil() {}
+
+    /**
+     * View an iterator over 32-bit words as an iterator over 64-bit words.
+     *
+     * @param i the iterator over 32-bit words
+     * @return an iterator over 64-bit words
+     */
+    public static IteratingRLW toIteratingRLW(final IteratingRLW32 i) {
+        return new Widening(i);
+    }
+
+    /**
+     * View an iterator over 64-bit words as an iterator over 32-bit words.
+     *
+     * @param i the iterator over 64-bit words
+     * @return an iterator over 32-bit words
+     */
+    public static IteratingRLW32 toIteratingRLW32(final IteratingRLW i) {
+        return new Narrowing(i, Long.MAX_VALUE);
+    }
+
+    /**
+     * Convert a 32-bit bitmap to a 64-bit bitmap.
+     *
+     * @param bitmap the bitmap (it will not be modified)
+     * @return the converted bitmap
+     */
+    public static EWAHCompressedBitmap toEWAHCompressedBitmap(final EWAHCompressedBitmap32 bitmap) {
+        final EWAHCompressedBitmap answer = new EWAHCompressedBitmap(bitmap.sizeInBytes() / 8 + 4);
+        IteratorUtil.materialize(toIteratingRLW(bitmap.getIteratingRLW()), answer);
+        setSizeInBits(answer, bitmap.sizeInBits());
+        return answer;
+    }
+
+    /**
+     * Convert a 64-bit bitmap to a 32-bit bitmap.
+     *
+     * @param bitmap the bitmap (it will not be modified)
+     * @return the converted bitmap
+     */
+    public static EWAHCompressedBitmap32 toEWAHCompressedBitmap32(final EWAHCompressedBitmap bitmap) {
+        final EWAHCompressedBitmap32 answer = new EWAHCompressedBitmap32(bitmap.sizeInBytes() / 4 + 4);
+        IteratorUtil32.materialize(narrow(bitmap), answer);
+        setSizeInBits(answer, bitmap.sizeInBits());
+        return answer;
+    }
+
+    /**
+     * Returns a new 64-bit bitmap containing the bitwise AND values of the
+     * two bitmaps.
+     *
+     * @param a the 64-bit bitmap (it will not be modified)
+     * @param b the 32-bit bitmap (it will not be modified)
+     * @return the result
+     */
+    public static EWAHCompressedBitmap and(final EWAHCompressedBitmap a, final EWAHCompressedBitmap32 b) {
+        final EWAHCompressedBitmap answer = new EWAHCompressedBitmap();
+        andToContainer(a, b, answer);
+        return answer;
+    }
+
+    /**
+     * Returns a new 32-bit bitmap containing the bitwise AND values of the
+     * two bitmaps.
+     *
+     * @param a the 32-bit bitmap (it will not be modified)
+     * @param b the 64-bit bitmap (it will not be modified)
+     * @return the result
+     */
+    public static EWAHCompressedBitmap32 and(final EWAHCompressedBitmap32 a, final EWAHCompressedBitmap b) {
+        final EWAHCompressedBitmap32 answer = new EWAHCompressedBitmap32();
+        andToContainer(a, b, answer);
+        return answer;
+    }
+
+    /**
+     * Computes the bitwise AND values of the two bitmaps. The content of
+     * the container is overwritten.
+     *
+     * @param a         the 64-bit bitmap (it will not be modified)
+     * @param b         the 32-bit bitmap (it will not be modified)
+     * @param container where we store the result
+     */
+    public static void andToContainer(final EWAHCompressedBitmap a, final EWAHCompressedBitmap32 b,
+                                      final BitmapStorage container) {
+        merge(container, AND, a, b);
+    }
+
+    /**
+     * Computes the bitwise AND values of the two bitmaps. The content of
+     * the container is overwritten.
+     *
+     * @param a         the 32-bit bitmap (it will not be modified)
+     * @param b         the 64-bit bitmap (it will not be modified)
+     * @param container where we store the result
+     */
+    public static void andToContainer(final EWAHCompressedBitmap32 a, final EWAHCompressedBitmap b,
+                                      final BitmapStorage32 container) {
+        merge(container, AND, a, b);
+    }
+
+    /**
+     * Returns a new 64-bit bitmap containing the bitwise AND NOT values of
+     * the two bitmaps.
+     *
+     * @param a the 64-bit bitmap (it will not be modified)
+     * @param b the 32-bit bitmap (it will not be modified)
+     * @return the result
+     */
+    public static EWAHCompressedBitmap andNot(final EWAHCompressedBitmap a, final EWAHCompressedBitmap32 b) {
+        final EWAHCompressedBitmap answer = new EWAHCompressedBitmap();
+        andNotToContainer(a, b, answer);
+        return answer;
+    }
+
+    /**
+     * Returns a new 32-bit bitmap containing the bitwise AND NOT values of
+     * the two bitmaps.
+     *
+     * @param a the 32-bit bitmap (it will not be modified)
+     * @param b the 64-bit bitmap (it will not be modified)
+     * @return the result
+     */
+    public static EWAHCompressedBitmap32 andNot(final EWAHCompressedBitmap32 a, final EWAHCompressedBitmap b) {
+        final EWAHCompressedBitmap32 answer = new EWAHCompressedBitmap32();
+        andNotToContainer(a, b, answer);
+        return answer;
+    }
+
+    /**
+     * Computes the bitwise AND NOT values of the two bitmaps. The content of
+     * the container is overwritten.
+     *
+     * @param a         the 64-bit bitmap (it will not be modified)
+     * @param b         the 32-bit bitmap (it will not be modified)
+     * @param container where we store the result
+     */
+    public static void andNotToContainer(final EWAHCompressedBitmap a, final EWAHCompressedBitmap32 b,
+                                         final BitmapStorage container) {
+        merge(container, ANDNOT, a, b);
+    }
+
+    /**
+     * Computes the bitwise AND NOT values of the two bitmaps. The content of
+     * the container is overwritten.
+     *
+     * @param a         the 32-bit bitmap (it will not be modified)
+     * @param b         the 64-bit bitmap (it will not be modified)
+     * @param container where we store the result
+     */
+    public static void andNotToContainer(final EWAHCompressedBitmap32 a, final EWAHCompressedBitmap b,
+                                         final BitmapStorage32 container) {
+        merge(container, ANDNOT, a, b);
+    }
+
+    /**
+     * Returns a new 64-bit bitmap containing the bitwise OR values of the
+     * two bitmaps.
+     *
+     * @param a the 64-bit bitmap (it will not be modified)
+     * @param b the 32-bit bitmap (it will not be modified)
+     * @return the result
+     */
+    public static EWAHCompressedBitmap or(final EWAHCompressedBitmap a, final EWAHCompressedBitmap32 b) {
+        final EWAHCompressedBitmap answer = new EWAHCompressedBitmap();
+        orToContainer(a, b, answer);
+        return answer;
+    }
+
+    /**
+     * Returns a new 32-bit bitmap containing the bitwise OR values of the
+     * two bitmaps.
+     *
+     * @param a the 32-bit bitmap (it will not be modified)
+     * @param b the 64-bit bitmap (it will not be modified)
+     * @return the result
+     */
+    public static EWAHCompressedBitmap32 or(final EWAHCompressedBitmap32 a, final EWAHCompressedBitmap b) {
+        final EWAHCompressedBitmap32 answer = new EWAHCompressedBitmap32();
+        orToContainer(a, b, answer);
+        return answer;
+    }
+
+    /**
+     * Computes the bitwise OR values of the two bitmaps. The content of the
+     * container is overwritten.
+     *
+     * @param a         the 64-bit bitmap (it will not be modified)
+     * @param b         the 32-bit bitmap (it will not be modified)
+     * @param container where we store the result
+     */
+    public static void orToContainer(final EWAHCompressedBitmap a, final EWAHCompressedBitmap32 b,
+                                     final BitmapStorage container) {
+        merge(container, OR, a, b);
+    }
+
+    /**
+     * Computes the bitwise OR values of the two bitmaps. The content of the
+     * container is overwritten.
+     *
+     * @param a         the 32-bit bitmap (it will not be modified)
+     * @param b         the 64-bit bitmap (it will not be modified)
+     * @param container where we store the result
+     */
+    public static void orToContainer(final EWAHCompressedBitmap32 a, final EWAHCompressedBitmap b,
+                                     final BitmapStorage32 container) {
+        merge(container, OR, a, b);
+    }
+
+    /**
+     * Returns a new 64-bit bitmap containing the bitwise XOR values of the
+     * two bitmaps.
+     *
+     * @param a the 64-bit bitmap (it will not be modified)
+     * @param b the 32-bit bitmap (it will not be modified)
+     * @return the result
+     */
+    public static EWAHCompressedBitmap xor(final EWAHCompressedBitmap a, final EWAHCompressedBitmap32 b) {
+        final EWAHCompressedBitmap answer = new EWAHCompressedBitmap();
+        xorToContainer(a, b, answer);
+        return answer;
+    }
+
+    /**
+     * Returns a new 32-bit bitmap containing the bitwise XOR values of the
+     * two bitmaps.
+     *
+     * @param a the 32-bit bitmap (it will not be modified)
+     * @param b the 64-bit bitmap (it will not be modified)
+     * @return the result
+     */
+    public static EWAHCompressedBitmap32 xor(final EWAHCompressedBitmap32 a, final EWAHCompressedBitmap b) {
+        final EWAHCompressedBitmap32 answer = new EWAHCompressedBitmap32();
+        xorToContainer(a, b, answer);
+        return answer;
+    }
+
+    /**
+     * Computes the bitwise XOR values of the two bitmaps. The content of
+     * the container is overwritten.
+     *
+     * @param a         the 64-bit bitmap (it will not be modified)
+     * @param b         the 32-bit bitmap (it will not be modified)
+     * @param container where we store the result
+     */
+    public static void xorToContainer(final EWAHCompressedBitmap a, final EWAHCompressedBitmap32 b,
+                                      final BitmapStorage container) {
+        merge(container, XOR, a, b);
+    }
+
+    /**
+     * Computes the bitwise XOR values of the two bitmaps. The content of
+     * the container is overwritten.
+     *
+     * @param a         the 32-bit bitmap (it will not be modified)
+     * @param b         the 64-bit bitmap (it will not be modified)
+     * @param container where we store the result
+     */
+    public static void xorToContainer(final EWAHCompressedBitmap32 a, final EWAHCompressedBitmap b,
+                                      final BitmapStorage32 container) {
+        merge(container, XOR, a, b);
+    }
+
+    private static void merge(final BitmapStorage container, final int op,
+                              final EWAHCompressedBitmap a, final EWAHCompressedBitmap32 b) {
+        container.clear();
+        final IteratingRLW rlwi = a.getIteratingRLW();
+        final IteratingRLW rlwj = toIteratingRLW(b.getIteratingRLW());
+        while ((rlwi.size() > 0) && (rlwj.size() > 0)) {
+            while ((rlwi.getRunningLength() > 0) || (rlwj.getRunningLength() > 0)) {
+                final boolean i_is_prey = rlwi.getRunningLength() < rlwj.getRunningLength();
+                final IteratingRLW prey = i_is_prey ? rlwi : rlwj;
+                final IteratingRLW predator = i_is_prey ? rlwj : rlwi;
+                final long length = predator.getRunningLength();
+                final int effect = runEffect(op, predator.getRunningBit(), !i_is_prey);
+                if (effect == COPY) {
+                    container.addStreamOfEmptyWords(false, length - discharge(container, prey, length, false));
+                } else if (effect == NEGATE) {
+                    container.addStreamOfEmptyWords(true, length - discharge(container, prey, length, true));
+                } else {
+                    container.addStreamOfEmptyWords(effect == SET, length);
+                    prey.discardFirstWords(length);
+                }
+                predator.discardRunningWords();
+            }
+            final int nbre_literal = Math.min(rlwi.getNumberOfLiteralWords(), rlwj.getNumberOfLiteralWords());
+            if (nbre_literal > 0) {
+                for (int k = 0; k < nbre_literal; ++k)
+                    container.addWord(combine(op, rlwi.getLiteralWordAt(k), rlwj.getLiteralWordAt(k)));
+                rlwi.discardFirstWords(nbre_literal);
+                rlwj.discardFirstWords(nbre_literal);
+            }
+        }
+        final boolean i_remains = rlwi.size() > 0;
+        final IteratingRLW remaining = i_remains ? rlwi : rlwj;
+        if ((op == OR) || (op == XOR) || ((op == ANDNOT) && i_remains))
+            discharge(container, remaining, Long.MAX_VALUE, false);
+        else
+            while (remaining.size() > 0) {
+                container.addStreamOfEmptyWords(false, remaining.size());
+                remaining.discardFirstWords(remaining.size());
+            }
+        container.setSizeInBitsWithinLastWord(Math.max(a.sizeInBits(), b.sizeInBits()));
+    }
+
+    private static void merge(final BitmapStorage32 container, final int op,
+                              final EWAHCompressedBitmap32 a, final EWAHCompressedBitmap b) {
+        container.clear();
+        final IteratingRLW32 rlwi = a.getIteratingRLW();
+        final IteratingRLW32 rlwj = narrow(b);
+        while ((rlwi.size() > 0) && (rlwj.size() > 0)) {
+            while ((rlwi.getRunningLength() > 0) || (rlwj.getRunningLength() > 0)) {
+                final boolean i_is_prey = rlwi.getRunningLength() < rlwj.getRunningLength();
+                final IteratingRLW32 prey = i_is_prey ? rlwi : rlwj;
+                final IteratingRLW32 predator = i_is_prey ? rlwj : rlwi;
+                final int length = predator.getRunningLength();
+                final int effect = runEffect(op, predator.getRunningBit(), !i_is_prey);
+                if (effect == COPY) {
+                    container.addStreamOfEmptyWords(false, length - discharge(container, prey, length, false));
+                } else if (effect == NEGATE) {
+                    container.addStreamOfEmptyWords(true, length - discharge(container, prey, length, true));
+                } else {
+                    container.addStreamOfEmptyWords(effect == SET, length);
+                    prey.discardFirstWords(length);
+                }
+                predator.discardRunningWords();
+            }
+            final int nbre_literal = Math.min(rlwi.getNumberOfLiteralWords(), rlwj.getNumberOfLiteralWords());
+            if (nbre_literal > 0) {
+                for (int k = 0; k < nbre_literal; ++k)
+                    container.addWord(combine(op, rlwi.getLiteralWordAt(k), rlwj.getLiteralWordAt(k)));
+                rlwi.discardFirstWords(nbre_literal);
+                rlwj.discardFirstWords(nbre_literal);
+            }
+        }
+        final boolean i_remains = rlwi.size() > 0;
+        final IteratingRLW32 remaining = i_remains ? rlwi : rlwj;
+        if ((op == OR) || (op == XOR) || ((op == ANDNOT) && i_remains))
+            discharge(container, remaining, Integer.MAX_VALUE, false);
+        else
+            while (remaining.size() > 0) {
+                container.addStreamOfEmptyWords(false, remaining.size());
+                remaining.discardFirstWords(remaining.size());
+            }
+        container.setSizeInBitsWithinLastWord(Math.max(a.sizeInBits(), b.sizeInBits()));
+    }
+
+    /**
+     * What a run of the predator does to the words of the prey.
+     *
+     * @param op              the operation
+     * @param bit             the running bit of the predator
+     * @param predatorIsFirst whether the predator is the first operand
+     * @return CLEAR, SET, COPY or NEGATE
+     */
+    private static int runEffect(final int op, final boolean bit, final boolean predatorIsFirst) {
+        switch (op) {
+            case AND:
+                return bit ? COPY : CLEAR;
+            case OR:
+                return bit ? SET : COPY;
+            case XOR:
+                return bit ? NEGATE : COPY;
+            default:
+                if (predatorIsFirst)
+                    return bit ? NEGATE : CLEAR;
+                return bit ? CLEAR : COPY;
+        }
+    }
+
+    private static long combine(final int op, final long x, final long y) {
+        switch (op) {
+            case AND:
+                return x & y;
+            case OR:
+                return x | y;
+            case XOR:
+                return x ^ y;
+            default:
+                return x & ~y;
+        }
+    }
+
+    private static int combine(final int op, final int x, final int y) {
+        switch (op) {
+            case AND:
+                return x & y;
+            case OR:
+                return x | y;
+            case XOR:
+                return x ^ y;
+            default:
+                return x & ~y;
+        }
+    }
+
+    /**
+     * Write out up to max words, possibly negated, returns how many were
+     * written.
+     */
+    private static long discharge(final BitmapStorage container, final IteratingRLW i, final long max,
+                                  final boolean negate) {
+        long counter = 0;
+        while (i.size() > 0 && counter < max) {
+            long l1 = i.getRunningLength();
+            if (l1 > 0) {
+                if (l1 + counter > max)
+                    l1 = max - counter;
+                container.addStreamOfEmptyWords(i.getRunningBit() != negate, l1);
+                counter += l1;
+            }
+            long l = i.getNumberOfLiteralWords();
+            if (l + counter > max)
+                l = max - counter;
+            for (int k = 0; k < l; ++k)
+                container.addWord(negate ? ~i.getLiteralWordAt(k) : i.getLiteralWordAt(k));
+            counter += l;
+            i.discardFirstWords(l + l1);
+        }
+        return counter;
+    }
+
+    /**
+     * Write out up to max words, possibly negated, returns how many were
+     * written.
+     */
+    private static int discharge(final BitmapStorage32 container, final IteratingRLW32 i, final int max,
+                                 final boolean negate) {
+        int counter = 0;
+        while (i.size() > 0 && counter < max) {
+            int l1 = i.getRunningLength();
+            if (l1 > 0) {
+                if (l1 + counter > max)
+                    l1 = max - counter;
+                container.addStreamOfEmptyWords(i.getRunningBit() != negate, l1);
+                counter += l1;
+            }
+            int l = i.getNumberOfLiteralWords();
+            if (l + counter > max)
+                l = max - counter;
+            for (int k = 0; k < l; ++k)
+                container.addWord(negate ? ~i.getLiteralWordAt(k) : i.getLiteralWordAt(k));
+            counter += l;
+            i.discardFirstWords(l + l1);
+        }
+        return counter;
+    }
+
+    /**
+     * The 32-bit words of a 64-bit bitmap, without the word past its end.
+     */
+    private static IteratingRLW32 narrow(final EWAHCompressedBitmap bitmap) {
+        return new Narrowing(bitmap.getIteratingRLW(),
+                ((long) bitmap.sizeInBits() + EWAHCompressedBitmap32.WORD_IN_BITS - 1) / EWAHCompressedBitmap32.WORD_IN_BITS);
+    }
+
+    private static void setSizeInBits(final EWAHCompressedBitmap bitmap, final int sizeInBits) {
+        if (bitmap.sizeInBits() < sizeInBits)
+            bitmap.setSizeInBits(sizeInBits, false);
+        else
+            bitmap.setSizeInBitsWithinLastWord(sizeInBits);
+    }
+
+    private static void setSizeInBits(final EWAHCompressedBitmap32 bitmap, final int sizeInBits) {
+        if (bitmap.sizeInBits() < sizeInBits)
+            bitmap.setSizeInBits(sizeInBits, false);
+        else
+            bitmap.setSizeInBitsWithinLastWord(sizeInBits);
+    }
+
+    /**
+     * Pairs of 32-bit words seen as 64-bit words. The first word of a pair
+     * holds the least significant bits. Runs covering whole pairs are
+     * carried over without being expanded.
+     */
+    private static final class Widening implements IteratingRLW, Cloneable {
+
+        Widening(final IteratingRLW32 under) {
+            this.under = under;
+            load();
+        }
+
+        @Override
+        public boolean next() {
+            load();
+            return size() > 0;
+        }
+
+        @Override
+        public long getLiteralWordAt(final int index) {
+            return this.literals[this.literalStart + index];
+        }
+
+        @Override
+        public int getNumberOfLiteralWords() {
+            return this.numberOfLiterals;
+        }
+
+        @Override
+        public boolean getRunningBit() {
+            return this.runningBit;
+        }
+
+        @Override
+        public long size() {
+            return this.runningLength + this.numberOfLiterals;
+        }
+
+        @Override
+        public long getRunningLength() {
+            return this.runningLength;
+        }
+
+        @Override
+        public void discardFirstWords(long x) {
+            while (x > 0) {
+                if (this.runningLength > x) {
+                    this.runningLength -= x;
+                    return;
+                }
+                x -= this.runningLength;
+                this.runningLength = 0;
+                final int toDiscard = (int) Math.min(x, this.numberOfLiterals);
+                this.literalStart += toDiscard;
+                this.numberOfLiterals -= toDiscard;
+                x -= toDiscard;
+                if (size() == 0) {
+                    load();
+                    if (size() == 0)
+                        return;
+                }
+            }
+        }
+
+        @Override
+        public void discardRunningWords() {
+            this.runningLength = 0;
+            if (this.numberOfLiterals == 0)
+                load();
+        }
+
+        @Override
+        public Widening clone() throws CloneNotSupportedException {
+            final Widening answer = (Widening) super.clone();
+            answer.under = this.under.clone();
+            answer.literals = this.literals.clone();
+            return answer;
+        }
+
+        /**
+         * Gather the next run and the literal words following it.
+         */
+        private void load() {
+            this.runningBit = false;
+            this.runningLength = 0;
+            this.literalStart = 0;
+            this.numberOfLiterals = 0;
+            while (fetch() && this.pendingClean) {
+                if ((this.runningLength > 0) && (this.pendingBit != this.runningBit))
+                    return;
+                this.runningBit = this.pendingBit;
+                this.runningLength += this.pendingCount;
+                this.pending = false;
+            }
+            while (this.numberOfLiterals < MAX_LITERALS) {
+                if (!this.pending && (this.under.getRunningLength() == 0)
+                        && (this.under.getNumberOfLiteralWords() >= 2)) {
+                    // fast path: pairs of literal words
+                    final int pairs = Math.min(this.under.getNumberOfLiteralWords() / 2,
+                            MAX_LITERALS - this.numberOfLiterals);
+                    if (this.numberOfLiterals + pairs > this.literals.length)
+                        this.literals = java.util.Arrays.copyOf(this.literals,
+                                Math.max(this.numberOfLiterals + pairs, 2 * this.literals.length));
+                    int k = 0;
+                    for (; k < pairs; ++k) {
+                        final long word = (this.under.getLiteralWordAt(2 * k) & 0xFFFFFFFFL)
+                                | ((long) this.under.getLiteralWordAt(2 * k + 1) << 32);
+                        if ((word == 0) || (word == ~0L))
+                            break;
+                        this.literals[this.numberOfLiterals++] = word;
+                    }
+                    this.under.discardFirstWords(2 * k);
+                    if (k < pairs)
+                        return;
+                    continue;
+                }
+                if (!fetch() || this.pendingClean)
+                    return;
+                if (this.numberOfLiterals == this.literals.length)
+                    this.literals = java.util.Arrays.copyOf(this.literals, 2 * this.literals.length);
+                this.literals[this.numberOfLiterals++] = this.pendingWord;
+                this.pending = false;
+            }
+        }
+
+        /**
+         * Make sure that the next 64-bit words are pending.
+         *
+         * @return false if there are no more words
+         */
+        private boolean fetch() {
+            if (this.pending)
+                return true;
+            if (!skipEmpty())
+                return false;
+            if (this.under.getRunningLength() >= 2) {
+                this.pendingClean = true;
+                this.pendingBit = this.under.getRunningBit();
+                this.pendingCount = this.under.getRunningLength() / 2;
+                this.under.discardFirstWords(this.under.getRunningLength() & ~1);
+            } else {
+                final long low = takeWord() & 0xFFFFFFFFL;
+                final long word = skipEmpty() ? low | ((long) takeWord() << 32) : low;
+                this.pendingClean = (word == 0) || (word == ~0L);
+                this.pendingBit = word != 0;
+                this.pendingCount = 1;
+                this.pendingWord = word;
+            }
+            this.pending = true;
+            return true;
+        }
+
+        private boolean skipEmpty() {
+            while (this.under.size() == 0)
+                if (!this.under.next())
+                    return false;
+            return true;
+        }
+
+        private int takeWord() {
+            final int answer;
+            if (this.under.getRunningLength() > 0)
+                answer = this.under.getRunningBit() ? ~0 : 0;
+            else
+                answer = this.under.getLiteralWordAt(0);
+            this.under.discardFirstWords(1);
+            return answer;
+        }
+
+        private IteratingRLW32 under;
+        private boolean runningBit;
+        private long runningLength;
+        private long[] literals = new long[16];
+        private int literalStart;
+        private int numberOfLiterals;
+        private boolean pending;
+        private boolean pendingClean;
+        private boolean pendingBit;
+        private long pendingCount;
+        private long pendingWord;
+    }
+
+    /**
+     * 64-bit words seen as pairs of 32-bit words, the least significant
+     * bits first. Runs are carried over without being expanded.
+     */
+    private static final class Narrowing implements IteratingRLW32, Cloneable {
+
+        Narrowing(final IteratingRLW under, final long maxWords) {
+            this.under = under;
+            this.remaining = maxWords;
+            load();
+        }
+
+        @Override
+        public boolean next() {
+            load();
+            return size() > 0;
+        }
+
+        @Override
+        public int getLiteralWordAt(final int index) {
+            return this.literals[this.literalStart + index];
+        }
+
+        @Override
+        public int getNumberOfLiteralWords() {
+            return this.numberOfLiterals;
+        }
+
+        @Override
+        public boolean getRunningBit() {
+            return this.runningBit;
+        }
+
+        @Override
+        public int size() {
+            return this.runningLength + this.numberOfLiterals;
+        }
+
+        @Override
+        public int getRunningLength() {
+            return this.runningLength;
+        }
+
+        @Override
+        public void discardFirstWords(int x) {
+            while (x > 0) {
+                if (this.runningLength > x) {
+                    this.runningLength -= x;
+                    return;
+                }
+                x -= this.runningLength;
+                this.runningLength = 0;
+                final int toDiscard = Math.min(x, this.numberOfLiterals);
+                this.literalStart += toDiscard;
+                this.numberOfLiterals -= toDiscard;
+                x -= toDiscard;
+                if (size() == 0) {
+                    load();
+                    if (size() == 0)
+                        return;
+                }
+            }
+        }
+
+        @Override
+        public void discardRunningWords() {
+            this.runningLength = 0;
+            if (this.numberOfLiterals == 0)
+                load();
+        }
+
+        @Override
+        public Narrowing clone() throws CloneNotSupportedException {
+            final Narrowing answer = (Narrowing) super.clone();
+            answer.under = this.under.clone();
+            answer.literals = this.literals.clone();
+            return answer;
+        }
+
+        /**
+         * Gather the next run and the literal words following it.
+         */
+        private void load() {
+            this.runningBit = false;
+            this.runningLength = 0;
+            this.literalStart = 0;
+            this.numberOfLiterals = 0;
+            while (fetch() && this.pendingClean) {
+                if ((this.runningLength > 0) && (this.pendingBit != this.runningBit))
+                    return;
+                this.runningBit = this.pendingBit;
+                final int howmany = (int) Math.min(this.pendingCount, MAX_RUNNING_LENGTH - this.runningLength);
+                this.runningLength += howmany;
+                this.pendingCount -= howmany;
+                if (this.pendingCount > 0)
+                    return;
+                this.pending = false;
+            }
+            while ((this.numberOfLiterals < MAX_LITERALS) && fetch() && !this.pendingClean) {
+                if (this.numberOfLiterals == this.literals.length)
+                    this.literals = java.util.Arrays.copyOf(this.literals, 2 * this.literals.length);
+                this.literals[this.numberOfLiterals++] = this.pendingWord;
+                this.pending = false;
+            }
+        }
+
+        /**
+         * Make sure that the next 32-bit words are pending.
+         *
+         * @return false if there are no more words
+         */
+        private boolean fetch() {
+            if (this.pending)
+                return true;
+            if (this.remaining == 0)
+                return false;
+            final int word;
+            if (this.highPending) {
+                word = this.high;
+                this.highPending = false;
+            } else {
+                while (this.under.size() == 0)
+                    if (!this.under.next())
+                        return false;
+                if (this.under.getRunningLength() > 0) {
+                    this.pendingClean = true;
+                    this.pendingBit = this.under.getRunningBit();
+                    this.pendingCount = Math.min(2 * this.under.getRunningLength(), this.remaining);
+                    this.remaining -= this.pendingCount;
+                    this.under.discardFirstWords(this.under.getRunningLength());
+                    this.pending = true;
+                    return true;
+                }
+                final long w = this.under.getLiteralWordAt(0);
+                this.under.discardFirstWords(1);
+                word = (int) w;
+                this.high = (int) (w >>> 32);
+                this.highPending = true;
+            }
+            this.pendingClean = (word == 0) || (word == ~0);
+            this.pendingBit = word != 0;
+            this.pendingCount = 1;
+            this.pendingWord = word;
+            this.remaining -= 1;
+            this.pending = true;
+            return true;
+        }
+
+        private IteratingRLW under;
+        private long remaining;
+        private boolean runningBit;
+        private int runningLength;
+        private int[] literals = new int[16];
+        private int literalStart;
+        private int numberOfLiterals;
+        private boolean pending;
+        private boolean pendingClean;
+        private boolean pendingBit;
+        private long pendingCount;
+        private int pendingWord;
+        private boolean highPending;
+        private int high;
+    }
+
+    /**
+     * Markers built by the views carry at most this many literal words.
+     */
+    private static final int MAX_LITERALS = 1024;
+
+    private static final int MAX_RUNNING_LENGTH = Integer.MAX_VALUE / 2;
+
+    private static final int AND = 0;
+    private static final int OR = 1;
+    private static final int XOR = 2;
+    private static final int ANDNOT = 3;
+
+    private static final int CLEAR = 0;
+    private static final int SET = 1;
+    private static final int COPY = 2;
+    private static final int NEGATE = 3;
+}
@@ -3,9 +3,15 @@ package com.googlecode.javaewah32;
 import com.googlecode.javaewah.ChunkIterator;
 import com.googlecode.javaewah.IntIterator;
 import com.googlecode.javaewah.LogicalElement;
-import com.googlecode.javaewah32.symmetric.RunningBitmapMerge32;
+import com.googlecode.javaewah32.symmetric.SymmetricAlgorithmSelector32;
 import com.googlecode.javaewah32.symmetric.ThresholdFuncBitmap32;
 import java.io.*;
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
@@ -519,6 +525,77 @@ public final class EWAHCompressedBitmap32 implements Cloneable, Externalizable,
         this.rlw = new RunningLengthWord32(this, in.readInt());
     }
 
+    /**
+     * Deserialize from a ByteBuffer, starting at its position, which is
+     * then advanced. The data should have been written by
+     * serialize(ByteBuffer) or writeTo(WritableByteChannel): the fields are
+     * the same as with serialize(DataOutput), in little-endian byte order.
+     * The byte order of the ByteBuffer is ignored and left unchanged.
+     *
+     * @param buffer the ByteBuffer
+     * @throws BufferUnderflowException if the buffer is too short (the
+     *                                  bitmap is then left unchanged)
+     * @since 0.8.12
+     */
+    public void deserialize(ByteBuffer buffer) {
+        final ByteBuffer b = buffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+        final int sizeInBits = b.getInt();
+        final int sizeInWords = b.getInt();
+        if ((sizeInWords < 0) || (b.remaining() < (long) sizeInWords * 4 + 4))
+            throw new BufferUnderflowException();
+        if (this.buffer.length < sizeInWords)
+            this.buffer = new int[sizeInWords];
+        b.asIntBuffer().get(this.buffer, 0, sizeInWords);
+        b.position(b.position() + sizeInWords * 4);
+        this.sizeInBits = sizeInBits;
+        this.actualSizeInWords = sizeInWords;
+        this.rlw = new RunningLengthWord32(this, b.getInt());
+        buffer.position(buffer.position() + b.position());
+    }
+
+    /**
+     * Deserialize from a channel. The data should have been written by
+     * writeTo(WritableByteChannel) or serialize(ByteBuffer). The words are
+     * read in blocks and copied in bulk. The channel should be blocking.
+     *
+     * @param channel the channel
+     * @throws IOException Signals that an I/O exception has occurred (an
+     *                     EOFException if the channel ends too soon, the
+     *                     bitmap is then left unchanged).
+     * @since 0.8.12
+     */
+    public void readFrom(ReadableByteChannel channel) throws IOException {
+        final ByteBuffer header = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(channel, header);
+        header.flip();
+        final int sizeInBits = header.getInt();
+        final int sizeInWords = header.getInt();
+        if (sizeInWords < 0)
+            throw new IOException("Invalid number of words: " + sizeInWords);
+        // the fields are only changed once everything was read
+        final int[] words = new int[Math.max(1, sizeInWords)];
+        final ByteBuffer block = ByteBuffer.allocate(4 * Math.max(1, Math.min(sizeInWords,
+                CHANNEL_BLOCK_IN_WORDS))).order(ByteOrder.LITTLE_ENDIAN);
+        for (int k = 0; k < sizeInWords; ) {
+            final int n = Math.min(sizeInWords - k, block.capacity() / 4);
+            block.clear();
+            block.limit(n * 4);
+            readFully(channel, block);
+            block.flip();
+            block.asIntBuffer().get(words, k, n);
+            k += n;
+        }
+        header.clear();
+        header.limit(4);
+        readFully(channel, header);
+        header.flip();
+        final int rlwPosition = header.getInt();
+        this.buffer = words;
+        this.sizeInBits = sizeInBits;
+        this.actualSizeInWords = sizeInWords;
+        this.rlw = new RunningLengthWord32(this, rlwPosition);
+    }
+
     /**
      * Check to see whether the two compressed bitmaps contain the same set
      * bits.
@@ -528,6 +605,8 @@ public final class EWAHCompressedBitmap32 implements Cloneable, Externalizable,
     @Override
     public boolean equals(Object o) {
         if (o instanceof EWAHCompressedBitmap32) {
+            if (sameWords((EWAHCompressedBitmap32) o))
+                return true;
             try {
                 this.xorToContainer((EWAHCompressedBitmap32) o, new NonEmptyVirtualStorage32());
                 return true;
@@ -538,6 +617,22 @@ public final class EWAHCompressedBitmap32 implements Cloneable, Externalizable,
         return false;
     }
 
+    /**
+     * Compare the words of two bitmaps: this is cheaper than comparing their
+     * bits, e.g., when both are canonical (see canonicalize).
+     *
+     * @param other the other bitmap
+     * @return whether the bitmaps have the same words
+     */
+    private boolean sameWords(final EWAHCompressedBitmap32 other) {
+        if (this.actualSizeInWords != other.actualSizeInWords)
+            return false;
+        for (int k = 0; k < this.actualSizeInWords; ++k)
+            if (this.buffer[k] != other.buffer[k])
+                return false;
+        return true;
+    }
+
     /**
      * For experts: You want to add many zeroes or ones faster?
      * 
@@ -1053,6 +1148,66 @@ public final class EWAHCompressedBitmap32 implements Cloneable, Externalizable,
         out.writeInt(this.rlw.position);
     }
 
+    /**
+     * Serialize to a ByteBuffer, starting at its position, which is then
+     * advanced. The fields are the same as with serialize(DataOutput), in
+     * little-endian byte order whatever the order of the ByteBuffer (which
+     * is left unchanged), and the words are copied in bulk. The buffer
+     * needs serializedSizeInBytes() bytes.
+     *
+     * The current bitmap is not modified.
+     *
+     * @param buffer the ByteBuffer
+     * @throws BufferOverflowException if the buffer is too short (nothing
+     *                                 is then written)
+     * @since 0.8.12
+     */
+    public void serialize(ByteBuffer buffer) {
+        if (buffer.remaining() < serializedSizeInBytes())
+            throw new BufferOverflowException();
+        final ByteBuffer b = buffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+        b.putInt(this.sizeInBits);
+        b.putInt(this.actualSizeInWords);
+        b.asIntBuffer().put(this.buffer, 0, this.actualSizeInWords);
+        b.position(b.position() + this.actualSizeInWords * 4);
+        b.putInt(this.rlw.position);
+        buffer.position(buffer.position() + b.position());
+    }
+
+    /**
+     * Serialize to a channel, in the format of serialize(ByteBuffer). The
+     * words are copied in bulk to blocks which are then written. The
+     * channel should be blocking.
+     *
+     * The current bitmap is not modified.
+     *
+     * @param channel the channel
+     * @throws IOException Signals that an I/O exception has occurred.
+     * @since 0.8.12
+     */
+    public void writeTo(WritableByteChannel channel) throws IOException {
+        final ByteBuffer block = ByteBuffer.allocate(12 + 4 * Math.min(this.actualSizeInWords,
+                CHANNEL_BLOCK_IN_WORDS)).order(ByteOrder.LITTLE_ENDIAN);
+        block.putInt(this.sizeInBits);
+        block.putInt(this.actualSizeInWords);
+        int k = 0;
+        boolean done = false;
+        while (!done) {
+            final int n = Math.min(this.actualSizeInWords - k, block.remaining() / 4);
+            block.asIntBuffer().put(this.buffer, k, n);
+            block.position(block.position() + n * 4);
+            k += n;
+            if ((k == this.actualSizeInWords) && (block.remaining() >= 4)) {
+                block.putInt(this.rlw.position);
+                done = true;
+            }
+            block.flip();
+            while (block.hasRemaining())
+                channel.write(block);
+            block.clear();
+        }
+    }
+
     /**
      * Report the number of bytes required to serialize this bitmap.
      * 
@@ -1305,7 +1460,9 @@ public final class EWAHCompressedBitmap32 implements Cloneable, Externalizable,
      * Compute a Boolean threshold function: bits are true where at least T
      * bitmaps have a true bit.
      * 
-     * The content of the container is overwritten.
+     * The content of the container is overwritten. The algorithm is chosen
+     * by SymmetricAlgorithmSelector32 given the number and the sizes of the
+     * bitmaps.
      *
      * @param t         the threshold
      * @param bitmaps   input data
@@ -1313,7 +1470,23 @@ public final class EWAHCompressedBitmap32 implements Cloneable, Externalizable,
      * @since 0.8.2
      */
     public static void thresholdWithContainer(final BitmapStorage32 container, final int t, final EWAHCompressedBitmap32... bitmaps) {
-        (new RunningBitmapMerge32()).symmetric(new ThresholdFuncBitmap32(t), container, bitmaps);
+        (new SymmetricAlgorithmSelector32()).symmetric(new ThresholdFuncBitmap32(t), container, bitmaps);
+    }
+
+    /**
+     * Compute the cardinality of a Boolean threshold function: the number of
+     * positions where at least t bitmaps have a true bit. The result is
+     * counted as it is computed: it is never materialized.
+     *
+     * @param t       the threshold
+     * @param bitmaps input data
+     * @return the number of true bits of the threshold function
+     * @since 0.8.12
+     */
+    public static int thresholdCardinality(final int t, final EWAHCompressedBitmap32... bitmaps) {
+        final BitCounter32 counter = new BitCounter32();
+        thresholdWithContainer(counter, t, bitmaps);
+        return counter.getCount();
     }
 
     /**
@@ -1425,6 +1598,103 @@ public final class EWAHCompressedBitmap32 implements Cloneable, Externalizable,
         this.buffer = Arrays.copyOf(this.buffer, this.actualSizeInWords);
     }
 
+    /**
+     * Turn the content of this bitmap into an immutable bitmap, which can be
+     * shared across threads without cloning it. The words are handed over
+     * without being copied: this bitmap is left empty, and it can be reused.
+     * To keep this bitmap unchanged, use
+     * ImmutableEWAHCompressedBitmap32.copyOf instead.
+     *
+     * Since this modifies the bitmap, this method is not thread-safe.
+     *
+     * @return the immutable bitmap
+     * @since 0.8.12
+     */
+    public ImmutableEWAHCompressedBitmap32 freeze() {
+        final EWAHCompressedBitmap32 frozen = new EWAHCompressedBitmap32(1);
+        frozen.swap(this);
+        return new ImmutableEWAHCompressedBitmap32(frozen);
+    }
+
+    /**
+     * Re-encode the bitmap in its canonical form, in one pass: literal words
+     * made of zeros or ones are turned into runs, and adjacent marker words
+     * which can be merged are merged. This is the form obtained by adding
+     * the words one at a time with addWord. Bitmaps built with
+     * addStreamOfLiteralWords, setSizeInBits or some of the logical
+     * operations may not be canonical: canonicalizing them can save memory
+     * and speed up later operations. The internal buffer is trimmed.
+     *
+     * The size in bits and the set bits are unchanged.
+     *
+     * Since this modifies the bitmap, this method is not thread-safe.
+     *
+     * @since 0.8.12
+     */
+    public void canonicalize() {
+        if (isCanonical()) {
+            trim();
+            return;
+        }
+        final EWAHCompressedBitmap32 answer = new EWAHCompressedBitmap32(this.actualSizeInWords);
+        final EWAHIterator32 i = this.getEWAHIterator();
+        while (i.hasNext()) {
+            final RunningLengthWord32 localrlw = i.next();
+            answer.addStreamOfEmptyWords(localrlw.getRunningBit(), localrlw.getRunningLength());
+            final int start = i.literalWords();
+            for (int k = 0; k < localrlw.getNumberOfLiteralWords(); ++k)
+                answer.addWord(this.buffer[start + k]);
+        }
+        this.buffer = Arrays.copyOf(answer.buffer, answer.actualSizeInWords);
+        this.actualSizeInWords = answer.actualSizeInWords;
+        this.rlw = new RunningLengthWord32(this, answer.rlw.position);
+    }
+
+    /**
+     * Check whether the bitmap is in its canonical form (see canonicalize).
+     * A sequence of words has a single canonical encoding: canonical bitmaps
+     * holding the same words can be compared word by word.
+     *
+     * The current bitmap is not modified.
+     *
+     * @return whether the bitmap is canonical
+     * @since 0.8.12
+     */
+    public boolean isCanonical() {
+        final EWAHIterator32 i = this.getEWAHIterator();
+        boolean first = true;
+        boolean previousRunningBit = false;
+        int previousRunningLength = 0;
+        int previousNumberOfLiteralWords = 0;
+        while (i.hasNext()) {
+            final RunningLengthWord32 localrlw = i.next();
+            final boolean runningBit = localrlw.getRunningBit();
+            final int runningLength = localrlw.getRunningLength();
+            final int numberOfLiteralWords = localrlw.getNumberOfLiteralWords();
+            if ((runningLength == 0) && runningBit)
+                return false;
+            if (!first) {
+                // the words of this marker should have been added to the previous one
+                if ((runningLength == 0) && ((numberOfLiteralWords == 0)
+                        || (previousNumberOfLiteralWords < RunningLengthWord32.LARGEST_LITERAL_COUNT)))
+                    return false;
+                if ((previousNumberOfLiteralWords == 0) && ((previousRunningLength == 0)
+                        || ((previousRunningBit == runningBit)
+                        && (previousRunningLength < RunningLengthWord32.LARGEST_RUNNING_LENGTH_COUNT))))
+                    return false;
+            }
+            final int start = i.literalWords();
+            for (int k = 0; k < numberOfLiteralWords; ++k)
+                if ((this.buffer[start + k] == 0) || (this.buffer[start + k] == ~0))
+                    return false;
+            first = false;
+            previousRunningBit = runningBit;
+            previousRunningLength = runningLength;
+            previousNumberOfLiteralWords = numberOfLiteralWords;
+        }
+        return true;
+    }
+
     /*
      * @see java.io.Externalizable#writeExternal(java.io.ObjectOutput)
      */
@@ -1671,6 +1941,15 @@ public final class EWAHCompressedBitmap32 implements Cloneable, Externalizable,
         return a;
     }
 
+    /**
+     * Read from the channel until the buffer is full.
+     */
+    private static void readFully(final ReadableByteChannel channel, final ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining())
+            if (channel.read(buffer) < 0)
+                throw new EOFException();
+    }
+
     /**
      * For internal use. This simply adds a stream of words made of zeroes
      * so that we pad to the desired size.
@@ -1847,5 +2126,10 @@ public final class EWAHCompressedBitmap32 implements Cloneable, Externalizable,
      */
     public static final int WORD_IN_BITS = 32;
 
+    /**
+     * Number of words copied at a time by writeTo and readFrom.
+     */
+    private static final int CHANNEL_BLOCK_IN_WORDS = 16384;
+
     static final long serialVersionUID = 1L;
 }
@@ -22,6 +22,35 @@ public final class FastAggregation32 {
     /** Private constructor to prevent instantiation */
     private FastAggregation32() {}
 
+    /**
+     * Compute the and aggregate using a temporary uncompressed bitmap. The
+     * size of the buffer is chosen automatically from the number of inputs,
+     * their sizes and the cache sizes, and it is adapted as the computation
+     * goes.
+     *
+     * @param bitmaps the source bitmaps
+     * @return the and aggregate.
+     * @since 0.8.12
+     */
+    public static EWAHCompressedBitmap32 adaptivebufferedand(final EWAHCompressedBitmap32... bitmaps) {
+        EWAHCompressedBitmap32 answer = new EWAHCompressedBitmap32();
+        adaptivebufferedandWithContainer(answer, bitmaps);
+        return answer;
+    }
+
+    /**
+     * Compute the and aggregate using a temporary uncompressed bitmap. The
+     * size of the buffer is chosen automatically.
+     *
+     * @param container where the aggregate is written
+     * @param bitmaps   the source bitmaps
+     * @since 0.8.12
+     */
+    public static void adaptivebufferedandWithContainer(final BitmapStorage32 container,
+                                                        final EWAHCompressedBitmap32... bitmaps) {
+        andWithBuffer(container, BufferSizing32.bufferSize(bitmaps), true, bitmaps);
+    }
+
     /**
      * Compute the and aggregate using a temporary uncompressed bitmap.
      *
@@ -48,38 +77,82 @@ public final class FastAggregation32 {
     public static void bufferedandWithContainer(
             final BitmapStorage32 container, final int bufSize,
             final EWAHCompressedBitmap32... bitmaps) {
+        andWithBuffer(container, bufSize * bitmaps.length, false, bitmaps);
+    }
 
-        java.util.LinkedList<IteratingBufferedRunningLengthWord32> al = new java.util.LinkedList<IteratingBufferedRunningLengthWord32>();
-        for (EWAHCompressedBitmap32 bitmap : bitmaps) {
-            al.add(new IteratingBufferedRunningLengthWord32(bitmap));
-        }
-        int[] hardbitmap = new int[bufSize * bitmaps.length];
-
-        for (IteratingRLW32 i : al)
-            if (i.size() == 0) {
-                al.clear();
-                break;
-            }
-
-        while (!al.isEmpty()) {
-            Arrays.fill(hardbitmap, ~0);
+    private static void andWithBuffer(final BitmapStorage32 container, final int capacity,
+                                      final boolean adaptive, final EWAHCompressedBitmap32... bitmaps) {
+        final IteratingBufferedRunningLengthWord32[] al = new IteratingBufferedRunningLengthWord32[bitmaps.length];
+        for (int k = 0; k < bitmaps.length; ++k)
+            al[k] = new IteratingBufferedRunningLengthWord32(bitmaps[k]);
+        final int[] hardbitmap = new int[capacity];
+        int blockSize = capacity;
+        while ((al.length > 0) && !anyEmpty(al)) {
+            Arrays.fill(hardbitmap, 0, blockSize, ~0);
             int effective = Integer.MAX_VALUE;
-            for (IteratingRLW32 i : al) {
-                int eff = IteratorAggregation32.inplaceand(
-                        hardbitmap, i);
+            for (IteratingBufferedRunningLengthWord32 i : al) {
+                final int eff = IteratorAggregation32.inplaceand(hardbitmap, blockSize, i);
                 if (eff < effective)
                     effective = eff;
             }
-            for (int k = 0; k < effective; ++k)
-                container.addWord(hardbitmap[k]);
-            for (IteratingRLW32 i : al)
-                if (i.size() == 0) {
-                    al.clear();
-                    break;
-                }
+            final int literals = addWords(container, hardbitmap, effective);
+            if (adaptive)
+                blockSize = BufferSizing32.adapt(blockSize, effective, literals, capacity);
         }
     }
 
+    /**
+     * Write the first words of the buffer to the container.
+     *
+     * @return the number of literal words (neither 0 nor ~0) written
+     */
+    private static int addWords(final BitmapStorage32 container, final int[] hardbitmap, final int effective) {
+        int literals = 0;
+        for (int k = 0; k < effective; ++k) {
+            final int w = hardbitmap[k];
+            if ((w != 0) && (w != ~0))
+                ++literals;
+            container.addWord(w);
+        }
+        return literals;
+    }
+
+    private static boolean anyEmpty(final IteratingBufferedRunningLengthWord32[] al) {
+        for (IteratingBufferedRunningLengthWord32 i : al)
+            if (i.size() == 0)
+                return true;
+        return false;
+    }
+
+    /**
+     * Compute the or aggregate using a temporary uncompressed bitmap. The
+     * size of the buffer is chosen automatically from the number of inputs,
+     * their sizes and the cache sizes, and it is adapted as the computation
+     * goes.
+     *
+     * @param bitmaps the source bitmaps
+     * @return the or aggregate.
+     * @since 0.8.12
+     */
+    public static EWAHCompressedBitmap32 adaptivebufferedor(final EWAHCompressedBitmap32... bitmaps) {
+        EWAHCompressedBitmap32 answer = new EWAHCompressedBitmap32();
+        adaptivebufferedorWithContainer(answer, bitmaps);
+        return answer;
+    }
+
+    /**
+     * Compute the or aggregate using a temporary uncompressed bitmap. The
+     * size of the buffer is chosen automatically.
+     *
+     * @param container where the aggregate is written
+     * @param bitmaps   the source bitmaps
+     * @since 0.8.12
+     */
+    public static void adaptivebufferedorWithContainer(final BitmapStorage32 container,
+                                                       final EWAHCompressedBitmap32... bitmaps) {
+        orWithBuffer(container, BufferSizing32.bufferSize(bitmaps), true, bitmaps);
+    }
+
     /**
      * Compute the or aggregate using a temporary uncompressed bitmap.
      *
@@ -106,6 +179,11 @@ public final class FastAggregation32 {
     public static void bufferedorWithContainer(
             final BitmapStorage32 container, final int bufSize,
             final EWAHCompressedBitmap32... bitmaps) {
+        orWithBuffer(container, bufSize, false, bitmaps);
+    }
+
+    private static void orWithBuffer(final BitmapStorage32 container, final int capacity,
+                                     final boolean adaptive, final EWAHCompressedBitmap32... bitmaps) {
         int range = 0;
         EWAHCompressedBitmap32[] sbitmaps = bitmaps.clone();
         Arrays.sort(sbitmaps, new Comparator<EWAHCompressedBitmap32>() {
@@ -116,34 +194,62 @@ public final class FastAggregation32 {
             }
         });
 
-        java.util.ArrayList<IteratingBufferedRunningLengthWord32> al = new java.util.ArrayList<IteratingBufferedRunningLengthWord32>();
-        for (EWAHCompressedBitmap32 bitmap : sbitmaps) {
-            if (bitmap.sizeInBits > range)
-                range = bitmap.sizeInBits;
-            al.add(new IteratingBufferedRunningLengthWord32(bitmap));
+        final IteratingBufferedRunningLengthWord32[] al = new IteratingBufferedRunningLengthWord32[sbitmaps.length];
+        for (int k = 0; k < sbitmaps.length; ++k) {
+            if (sbitmaps[k].sizeInBits > range)
+                range = sbitmaps[k].sizeInBits;
+            al[k] = new IteratingBufferedRunningLengthWord32(sbitmaps[k]);
         }
-        int[] hardbitmap = new int[bufSize];
-        int maxr = al.size();
+        int[] hardbitmap = new int[capacity];
+        int blockSize = capacity;
+        int maxr = al.length;
         while (maxr > 0) {
             int effective = 0;
             for (int k = 0; k < maxr; ++k) {
-                if (al.get(k).size() > 0) {
-                    int eff = IteratorAggregation32
-                            .inplaceor(hardbitmap,
-                                    al.get(k));
+                if (al[k].size() > 0) {
+                    final int eff = IteratorAggregation32.inplaceor(hardbitmap, blockSize, al[k]);
                     if (eff > effective)
                         effective = eff;
                 } else
                     maxr = k;
             }
-            for (int k = 0; k < effective; ++k)
-                container.addWord(hardbitmap[k]);
-            Arrays.fill(hardbitmap, 0);
-
+            final int literals = addWords(container, hardbitmap, effective);
+            Arrays.fill(hardbitmap, 0, effective, 0);
+            if (adaptive)
+                blockSize = BufferSizing32.adapt(blockSize, effective, literals, capacity);
         }
         container.setSizeInBitsWithinLastWord(range);
     }
 
+    /**
+     * Compute the xor aggregate using a temporary uncompressed bitmap. The
+     * size of the buffer is chosen automatically from the number of inputs,
+     * their sizes and the cache sizes, and it is adapted as the computation
+     * goes.
+     *
+     * @param bitmaps the source bitmaps
+     * @return the xor aggregate.
+     * @since 0.8.12
+     */
+    public static EWAHCompressedBitmap32 adaptivebufferedxor(final EWAHCompressedBitmap32... bitmaps) {
+        EWAHCompressedBitmap32 answer = new EWAHCompressedBitmap32();
+        adaptivebufferedxorWithContainer(answer, bitmaps);
+        return answer;
+    }
+
+    /**
+     * Compute the xor aggregate using a temporary uncompressed bitmap. The
+     * size of the buffer is chosen automatically.
+     *
+     * @param container where the aggregate is written
+     * @param bitmaps   the source bitmaps
+     * @since 0.8.12
+     */
+    public static void adaptivebufferedxorWithContainer(final BitmapStorage32 container,
+                                                        final EWAHCompressedBitmap32... bitmaps) {
+        xorWithBuffer(container, BufferSizing32.bufferSize(bitmaps), true, bitmaps);
+    }
+
     /**
      * Compute the xor aggregate using a temporary uncompressed bitmap.
      *
@@ -170,6 +276,11 @@ public final class FastAggregation32 {
     public static void bufferedxorWithContainer(
             final BitmapStorage32 container, final int bufSize,
             final EWAHCompressedBitmap32... bitmaps) {
+        xorWithBuffer(container, bufSize, false, bitmaps);
+    }
+
+    private static void xorWithBuffer(final BitmapStorage32 container, final int capacity,
+                                      final boolean adaptive, final EWAHCompressedBitmap32... bitmaps) {
         int range = 0;
         EWAHCompressedBitmap32[] sbitmaps = bitmaps.clone();
         Arrays.sort(sbitmaps, new Comparator<EWAHCompressedBitmap32>() {
@@ -180,29 +291,29 @@ public final class FastAggregation32 {
             }
         });
 
-        java.util.ArrayList<IteratingBufferedRunningLengthWord32> al = new java.util.ArrayList<IteratingBufferedRunningLengthWord32>();
-        for (EWAHCompressedBitmap32 bitmap : sbitmaps) {
-            if (bitmap.sizeInBits > range)
-                range = bitmap.sizeInBits;
-            al.add(new IteratingBufferedRunningLengthWord32(bitmap));
+        final IteratingBufferedRunningLengthWord32[] al = new IteratingBufferedRunningLengthWord32[sbitmaps.length];
+        for (int k = 0; k < sbitmaps.length; ++k) {
+            if (sbitmaps[k].sizeInBits > range)
+                range = sbitmaps[k].sizeInBits;
+            al[k] = new IteratingBufferedRunningLengthWord32(sbitmaps[k]);
         }
-        int[] hardbitmap = new int[bufSize];
-        int maxr = al.size();
+        int[] hardbitmap = new int[capacity];
+        int blockSize = capacity;
+        int maxr = al.length;
         while (maxr > 0) {
             int effective = 0;
             for (int k = 0; k < maxr; ++k) {
-                if (al.get(k).size() > 0) {
-                    int eff = IteratorAggregation32
-                            .inplacexor(hardbitmap,
-                                    al.get(k));
+                if (al[k].size() > 0) {
+                    final int eff = IteratorAggregation32.inplacexor(hardbitmap, blockSize, al[k]);
                     if (eff > effective)
                         effective = eff;
                 } else
                     maxr = k;
             }
-            for (int k = 0; k < effective; ++k)
-                container.addWord(hardbitmap[k]);
-            Arrays.fill(hardbitmap, 0);
+            final int literals = addWords(container, hardbitmap, effective);
+            Arrays.fill(hardbitmap, 0, effective, 0);
+            if (adaptive)
+                blockSize = BufferSizing32.adapt(blockSize, effective, literals, capacity);
         }
         container.setSizeInBitsWithinLastWord(range);
     }
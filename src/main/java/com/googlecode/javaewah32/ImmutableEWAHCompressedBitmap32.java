@@ -0,0 +1,448 @@
+package com.googlecode.javaewah32;
+
+import com.googlecode.javaewah.ChunkIterator;
+import com.googlecode.javaewah.IntIterator;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Iterator;
+import java.util.List;
+
+/*
+ * Copyright 2009-2014, Daniel Lemire, Cliff Moon, David McIntosh, Robert Becho, Google Inc., Veronika Zenz, Owen Kaser, Gregory Ssi-Yan-Kai, Rory Graves
+ * Licensed under the Apache License, Version 2.0.
+ */
+
+/**
+ * An immutable compressed bitmap, which can be shared freely across threads
+ * without cloning it. It offers the operations of EWAHCompressedBitmap32 which
+ * do not modify the bitmap; the results of logical operations are new
+ * (mutable) EWAHCompressedBitmap32 instances.
+ *
+ * An instance is obtained with EWAHCompressedBitmap32.freeze(), which hands
+ * the words over without copying them (the mutable bitmap is left empty),
+ * or with copyOf, which copies them. The words are held through a final
+ * field and never modified, so that an instance is safely published to
+ * other threads even through a data race. The cardinality and the hash code
+ * are computed once.
+ *
+ * Here is a code sample:
+ *
+ * <pre>
+ * EWAHCompressedBitmap32 bitmap = EWAHCompressedBitmap32.bitmapOf(1, 10, 100);
+ * ImmutableEWAHCompressedBitmap32 frozen = bitmap.freeze(); // bitmap is now empty
+ * EWAHCompressedBitmap32 answer = frozen.and(other);
+ * </pre>
+ *
+ * This class is thread-safe.
+ *
+ * @author Daniel Lemire
+ * @see EWAHCompressedBitmap32#freeze()
+ * @since 0.8.12
+ */
+public final class ImmutableEWAHCompressedBitmap32 implements Iterable<Integer> {
+
+    /**
+     * Wrap a bitmap which is not referenced anywhere else.
+     *
+     * @param bitmap the bitmap
+     */
+    ImmutableEWAHCompressedBitmap32(final EWAHCompressedBitmap32 bitmap) {
+        this.bitmap = bitmap;
+    }
+
+    /**
+     * Copy a bitmap. The bitmap is not modified.
+     *
+     * @param bitmap the bitmap
+     * @return the immutable copy
+     */
+    public static ImmutableEWAHCompressedBitmap32 copyOf(final EWAHCompressedBitmap32 bitmap) {
+        final EWAHCompressedBitmap32 copy = bitmap.clone();
+        copy.trim();
+        return new ImmutableEWAHCompressedBitmap32(copy);
+    }
+
+    /**
+     * Return an immutable bitmap with the specified bits set.
+     *
+     * @param setBits list of set bit positions, in increasing order
+     * @return the bitmap
+     */
+    public static ImmutableEWAHCompressedBitmap32 bitmapOf(final int... setBits) {
+        return EWAHCompressedBitmap32.bitmapOf(setBits).freeze();
+    }
+
+    /**
+     * Read a bitmap written by EWAHCompressedBitmap32.serialize(DataOutput).
+     *
+     * @param in the input
+     * @return the bitmap
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    public static ImmutableEWAHCompressedBitmap32 deserialize(final DataInput in) throws IOException {
+        final EWAHCompressedBitmap32 bitmap = new EWAHCompressedBitmap32();
+        bitmap.deserialize(in);
+        return new ImmutableEWAHCompressedBitmap32(bitmap);
+    }
+
+    /**
+     * Read a bitmap written by EWAHCompressedBitmap32.serialize(ByteBuffer).
+     * The position of the buffer is advanced.
+     *
+     * @param buffer the buffer
+     * @return the bitmap
+     */
+    public static ImmutableEWAHCompressedBitmap32 deserialize(final ByteBuffer buffer) {
+        final EWAHCompressedBitmap32 bitmap = new EWAHCompressedBitmap32();
+        bitmap.deserialize(buffer);
+        return new ImmutableEWAHCompressedBitmap32(bitmap);
+    }
+
+    /**
+     * @return a new mutable copy of this bitmap
+     */
+    public EWAHCompressedBitmap32 toMutable() {
+        return this.bitmap.clone();
+    }
+
+    /**
+     * @param a the other bitmap
+     * @return a new bitmap holding the intersection
+     * @see EWAHCompressedBitmap32#and(EWAHCompressedBitmap32)
+     */
+    public EWAHCompressedBitmap32 and(final ImmutableEWAHCompressedBitmap32 a) {
+        return this.bitmap.and(a.bitmap);
+    }
+
+    /**
+     * @param a the other bitmap (it is not modified)
+     * @return a new bitmap holding the intersection
+     * @see EWAHCompressedBitmap32#and(EWAHCompressedBitmap32)
+     */
+    public EWAHCompressedBitmap32 and(final EWAHCompressedBitmap32 a) {
+        return this.bitmap.and(a);
+    }
+
+    /**
+     * @param a the other bitmap
+     * @return a new bitmap holding the difference
+     * @see EWAHCompressedBitmap32#andNot(EWAHCompressedBitmap32)
+     */
+    public EWAHCompressedBitmap32 andNot(final ImmutableEWAHCompressedBitmap32 a) {
+        return this.bitmap.andNot(a.bitmap);
+    }
+
+    /**
+     * @param a the other bitmap (it is not modified)
+     * @return a new bitmap holding the difference
+     * @see EWAHCompressedBitmap32#andNot(EWAHCompressedBitmap32)
+     */
+    public EWAHCompressedBitmap32 andNot(final EWAHCompressedBitmap32 a) {
+        return this.bitmap.andNot(a);
+    }
+
+    /**
+     * @param a the other bitmap
+     * @return a new bitmap holding the union
+     * @see EWAHCompressedBitmap32#or(EWAHCompressedBitmap32)
+     */
+    public EWAHCompressedBitmap32 or(final ImmutableEWAHCompressedBitmap32 a) {
+        return this.bitmap.or(a.bitmap);
+    }
+
+    /**
+     * @param a the other bitmap (it is not modified)
+     * @return a new bitmap holding the union
+     * @see EWAHCompressedBitmap32#or(EWAHCompressedBitmap32)
+     */
+    public EWAHCompressedBitmap32 or(final EWAHCompressedBitmap32 a) {
+        return this.bitmap.or(a);
+    }
+
+    /**
+     * @param a the other bitmap
+     * @return a new bitmap holding the symmetric difference
+     * @see EWAHCompressedBitmap32#xor(EWAHCompressedBitmap32)
+     */
+    public EWAHCompressedBitmap32 xor(final ImmutableEWAHCompressedBitmap32 a) {
+        return this.bitmap.xor(a.bitmap);
+    }
+
+    /**
+     * @param a the other bitmap (it is not modified)
+     * @return a new bitmap holding the symmetric difference
+     * @see EWAHCompressedBitmap32#xor(EWAHCompressedBitmap32)
+     */
+    public EWAHCompressedBitmap32 xor(final EWAHCompressedBitmap32 a) {
+        return this.bitmap.xor(a);
+    }
+
+    /**
+     * @return a new bitmap holding the negation, within sizeInBits()
+     * @see EWAHCompressedBitmap32#not()
+     */
+    public EWAHCompressedBitmap32 not() {
+        final EWAHCompressedBitmap32 answer = this.bitmap.clone();
+        answer.not();
+        return answer;
+    }
+
+    /**
+     * @param a the other bitmap
+     * @return the cardinality of the intersection
+     */
+    public int andCardinality(final ImmutableEWAHCompressedBitmap32 a) {
+        return this.bitmap.andCardinality(a.bitmap);
+    }
+
+    /**
+     * @param a the other bitmap (it is not modified)
+     * @return the cardinality of the intersection
+     */
+    public int andCardinality(final EWAHCompressedBitmap32 a) {
+        return this.bitmap.andCardinality(a);
+    }
+
+    /**
+     * @param a the other bitmap
+     * @return the cardinality of the difference
+     */
+    public int andNotCardinality(final ImmutableEWAHCompressedBitmap32 a) {
+        return this.bitmap.andNotCardinality(a.bitmap);
+    }
+
+    /**
+     * @param a the other bitmap (it is not modified)
+     * @return the cardinality of the difference
+     */
+    public int andNotCardinality(final EWAHCompressedBitmap32 a) {
+        return this.bitmap.andNotCardinality(a);
+    }
+
+    /**
+     * @param a the other bitmap
+     * @return the cardinality of the union
+     */
+    public int orCardinality(final ImmutableEWAHCompressedBitmap32 a) {
+        return this.bitmap.orCardinality(a.bitmap);
+    }
+
+    /**
+     * @param a the other bitmap (it is not modified)
+     * @return the cardinality of the union
+     */
+    public int orCardinality(final EWAHCompressedBitmap32 a) {
+        return this.bitmap.orCardinality(a);
+    }
+
+    /**
+     * @param a the other bitmap
+     * @return the cardinality of the symmetric difference
+     */
+    public int xorCardinality(final ImmutableEWAHCompressedBitmap32 a) {
+        return this.bitmap.xorCardinality(a.bitmap);
+    }
+
+    /**
+     * @param a the other bitmap (it is not modified)
+     * @return the cardinality of the symmetric difference
+     */
+    public int xorCardinality(final EWAHCompressedBitmap32 a) {
+        return this.bitmap.xorCardinality(a);
+    }
+
+    /**
+     * @param a the other bitmap
+     * @return whether the bitmaps have a set bit in common
+     */
+    public boolean intersects(final ImmutableEWAHCompressedBitmap32 a) {
+        return this.bitmap.intersects(a.bitmap);
+    }
+
+    /**
+     * @param a the other bitmap (it is not modified)
+     * @return whether the bitmaps have a set bit in common
+     */
+    public boolean intersects(final EWAHCompressedBitmap32 a) {
+        return this.bitmap.intersects(a);
+    }
+
+    /**
+     * The number of set bits, computed on the first call.
+     *
+     * @return the cardinality
+     */
+    public int cardinality() {
+        // 0 means not computed: a thread may compute it again, harmlessly
+        int c = this.cardinalityPlusOne;
+        if (c == 0) {
+            c = this.bitmap.cardinality() + 1;
+            this.cardinalityPlusOne = c;
+        }
+        return c - 1;
+    }
+
+    /**
+     * @return whether no bit is set
+     */
+    public boolean isEmpty() {
+        return cardinality() == 0;
+    }
+
+    /**
+     * @param i the position of the bit
+     * @return whether the bit is set
+     * @see EWAHCompressedBitmap32#get(int)
+     */
+    public boolean get(final int i) {
+        return this.bitmap.get(i);
+    }
+
+    /**
+     * @return the size in bits of the bitmap
+     */
+    public int sizeInBits() {
+        return this.bitmap.sizeInBits();
+    }
+
+    /**
+     * @return the size in bytes of the compressed words
+     */
+    public int sizeInBytes() {
+        return this.bitmap.sizeInBytes();
+    }
+
+    /**
+     * @return the positions of the set bits
+     */
+    public int[] toArray() {
+        return this.bitmap.toArray();
+    }
+
+    /**
+     * @return the positions of the set bits
+     */
+    public List<Integer> toList() {
+        return this.bitmap.toList();
+    }
+
+    /**
+     * @return an iterator over the positions of the set bits
+     */
+    public IntIterator intIterator() {
+        return this.bitmap.intIterator();
+    }
+
+    /**
+     * @return an iterator over the positions of the set bits, in decreasing
+     * order
+     */
+    public IntIterator reverseIntIterator() {
+        return this.bitmap.reverseIntIterator();
+    }
+
+    /**
+     * @return an iterator over the positions of the clear bits
+     */
+    public IntIterator clearIntIterator() {
+        return this.bitmap.clearIntIterator();
+    }
+
+    /**
+     * @return an iterator over the chunks of set and clear bits
+     */
+    public ChunkIterator chunkIterator() {
+        return this.bitmap.chunkIterator();
+    }
+
+    @Override
+    public Iterator<Integer> iterator() {
+        return this.bitmap.iterator();
+    }
+
+    /**
+     * The iterator can be used with IteratorAggregation32 and IteratorUtil32.
+     *
+     * @return an iterator over the words of the bitmap
+     */
+    public IteratingRLW32 getIteratingRLW() {
+        return this.bitmap.getIteratingRLW();
+    }
+
+    /**
+     * @param out the output
+     * @throws IOException Signals that an I/O exception has occurred.
+     * @see EWAHCompressedBitmap32#serialize(DataOutput)
+     */
+    public void serialize(final DataOutput out) throws IOException {
+        this.bitmap.serialize(out);
+    }
+
+    /**
+     * @param buffer the buffer
+     * @see EWAHCompressedBitmap32#serialize(ByteBuffer)
+     */
+    public void serialize(final ByteBuffer buffer) {
+        this.bitmap.serialize(buffer);
+    }
+
+    /**
+     * @param channel the channel
+     * @throws IOException Signals that an I/O exception has occurred.
+     * @see EWAHCompressedBitmap32#writeTo(WritableByteChannel)
+     */
+    public void writeTo(final WritableByteChannel channel) throws IOException {
+        this.bitmap.writeTo(channel);
+    }
+
+    /**
+     * @return the size in bytes of the serialized bitmap
+     */
+    public int serializedSizeInBytes() {
+        return this.bitmap.serializedSizeInBytes();
+    }
+
+    /**
+     * Two immutable bitmaps are equal if they have the same set bits (see
+     * EWAHCompressedBitmap32.equals).
+     */
+    @Override
+    public boolean equals(final Object o) {
+        if (o == this)
+            return true;
+        if (!(o instanceof ImmutableEWAHCompressedBitmap32))
+            return false;
+        final ImmutableEWAHCompressedBitmap32 other = (ImmutableEWAHCompressedBitmap32) o;
+        if (((this.cardinalityPlusOne != 0) && (other.cardinalityPlusOne != 0)
+                && (this.cardinalityPlusOne != other.cardinalityPlusOne)))
+            return false;
+        return this.bitmap.equals(other.bitmap);
+    }
+
+    /**
+     * The hash code, computed on the first call.
+     */
+    @Override
+    public int hashCode() {
+        // 0 means not computed, as with String.hashCode
+        int h = this.hashCode;
+        if (h == 0) {
+            h = this.bitmap.hashCode();
+            this.hashCode = h;
+        }
+        return h;
+    }
+
+    @Override
+    public String toString() {
+        return this.bitmap.toString();
+    }
+
+    private final EWAHCompressedBitmap32 bitmap;
+    private int cardinalityPlusOne = 0;
+    private int hashCode = 0;
+}
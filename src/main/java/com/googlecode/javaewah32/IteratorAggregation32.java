@@ -3,9 +3,6 @@ package com.googlecode.javaewah32;
 import com.googlecode.javaewah.CloneableIterator;
 
 import java.util.Arrays;
-import java.util.Collections;
-import java.util.Iterator;
-import java.util.LinkedList;
 
 /*
  * Copyright 2009-2014, Daniel Lemire, Cliff Moon, David McIntosh, Robert Becho, Google Inc., Veronika Zenz, Owen Kaser, Gregory Ssi-Yan-Kai, Rory Graves
@@ -99,10 +96,7 @@ public final class IteratorAggregation32 {
             throw new IllegalArgumentException(
                     "Need at least one iterator");
         if (al.length == 1)
-            return al[0];
-        final LinkedList<IteratingRLW32> basell = new LinkedList<IteratingRLW32>();
-        Collections.addAll(basell, al);
-        return new BufferedIterator32(new AndIt(basell, bufSize));
+            return al[0];        return new BufferedIterator32(new AndIt(al, bufSize));
     }
 
     /**
@@ -115,6 +109,25 @@ public final class IteratorAggregation32 {
         return bufferedor(DEFAULT_MAX_BUF_SIZE, al);
     }
 
+    /**
+     * Aggregate the iterators using a bitmap buffer. The size of the buffer
+     * depends on the number of iterators (up to DEFAULT_MAX_BUF_SIZE words)
+     * and the size of the blocks is adapted to the density of the literal
+     * words in the aggregate.
+     *
+     * @param al iterators to aggregate
+     * @return or aggregate
+     * @since 0.8.12
+     */
+    public static IteratingRLW32 adaptivebufferedor(final IteratingRLW32... al) {
+        if (al.length == 0)
+            throw new IllegalArgumentException("Need at least one iterator");
+        if (al.length == 1)
+            return al[0];
+        final int bufSize = Math.min(DEFAULT_MAX_BUF_SIZE, BufferSizing32.bufferSize(al.length, -1, 0));
+        return new BufferedIterator32(new ORIt(al, bufSize, true));
+    }
+
     /**
      * Aggregate the iterators using a bitmap buffer.
      *
@@ -130,10 +143,7 @@ public final class IteratorAggregation32 {
                     "Need at least one iterator");
         if (al.length == 1)
             return al[0];
-
-        final LinkedList<IteratingRLW32> basell = new LinkedList<IteratingRLW32>();
-        Collections.addAll(basell, al);
-        return new BufferedIterator32(new ORIt(basell, bufSize));
+        return new BufferedIterator32(new ORIt(al, bufSize, false));
     }
 
     /**
@@ -146,6 +156,25 @@ public final class IteratorAggregation32 {
         return bufferedxor(DEFAULT_MAX_BUF_SIZE, al);
     }
 
+    /**
+     * Aggregate the iterators using a bitmap buffer. The size of the buffer
+     * depends on the number of iterators (up to DEFAULT_MAX_BUF_SIZE words)
+     * and the size of the blocks is adapted to the density of the literal
+     * words in the aggregate.
+     *
+     * @param al iterators to aggregate
+     * @return xor aggregate
+     * @since 0.8.12
+     */
+    public static IteratingRLW32 adaptivebufferedxor(final IteratingRLW32... al) {
+        if (al.length == 0)
+            throw new IllegalArgumentException("Need at least one iterator");
+        if (al.length == 1)
+            return al[0];
+        final int bufSize = Math.min(DEFAULT_MAX_BUF_SIZE, BufferSizing32.bufferSize(al.length, -1, 0));
+        return new BufferedIterator32(new XORIt(al, bufSize, true));
+    }
+
     /**
      * Aggregate the iterators using a bitmap buffer.
      *
@@ -161,10 +190,7 @@ public final class IteratorAggregation32 {
                     "Need at least one iterator");
         if (al.length == 1)
             return al[0];
-
-        final LinkedList<IteratingRLW32> basell = new LinkedList<IteratingRLW32>();
-        Collections.addAll(basell, al);
-        return new BufferedIterator32(new XORIt(basell, bufSize));
+        return new BufferedIterator32(new XORIt(al, bufSize, false));
     }
 
     /**
@@ -395,10 +421,79 @@ public final class IteratorAggregation32 {
     }
 
     protected static int inplaceor(int[] bitmap, IteratingRLW32 i) {
+        return inplaceor(bitmap, bitmap.length, i);
+    }
+
+    /**
+     * Same as inplaceor(bitmap, i), but only the first words of the bitmap
+     * are used.
+     *
+     * @param bitmap the buffer
+     * @param length how many words of the buffer should be used
+     * @param i      the iterator
+     * @return how many words were written
+     */
+    protected static int inplaceor(int[] bitmap, int length, IteratingRLW32 i) {
+        int pos = 0;
+        int s;
+        while ((s = i.size()) > 0) {
+            if (pos + s < length) {
+                final int L = i.getRunningLength();
+                if (i.getRunningBit())
+                    java.util.Arrays.fill(bitmap, pos, pos
+                            + L, ~0);
+                pos += L;
+                final int LR = i.getNumberOfLiteralWords();
+                for (int k = 0; k < LR; ++k)
+                    bitmap[pos++] |= i.getLiteralWordAt(k);
+                if (!i.next()) {
+                    return pos;
+                }
+            } else {
+                int howmany = length - pos;
+                int l = i.getRunningLength();
+                if (pos + l > length) {
+                    if (i.getRunningBit()) {
+                        java.util.Arrays.fill(bitmap, pos, length, ~0);
+                    }
+                    i.discardFirstWords(howmany);
+                    return length;
+                }
+                if (i.getRunningBit())
+                    java.util.Arrays.fill(bitmap, pos, pos + l, ~0);
+                pos += l;
+                for (int k = 0; pos < length; ++k)
+                    bitmap[pos++] |= i.getLiteralWordAt(k);
+                i.discardFirstWords(howmany);
+                return pos;
+            }
+        }
+        return pos;
+    }
+
+    /**
+     * Specialized version of inplaceor for the common case: the calls on
+     * the final class IteratingBufferedRunningLengthWord32 do not depend on the other iterator types
+     * seen by the virtual machine.
+     */
+    static int inplaceor(int[] bitmap, IteratingBufferedRunningLengthWord32 i) {
+        return inplaceor(bitmap, bitmap.length, i);
+    }
+
+    /**
+     * Same as inplaceor(bitmap, i), but only the first words of the bitmap
+     * are used.
+     *
+     * @param bitmap the buffer
+     * @param length how many words of the buffer should be used
+     * @param i      the iterator
+     * @return how many words were written
+     */
+    static int inplaceor(int[] bitmap, int length, IteratingBufferedRunningLengthWord32 i) {
         int pos = 0;
         int s;
         while ((s = i.size()) > 0) {
-            if (pos + s < bitmap.length) {
+            if (pos + s < length) {
                 final int L = i.getRunningLength();
                 if (i.getRunningBit())
                     java.util.Arrays.fill(bitmap, pos, pos
@@ -411,19 +506,19 @@ public final class IteratorAggregation32 {
                     return pos;
                 }
             } else {
-                int howmany = bitmap.length - pos;
+                int howmany = length - pos;
                 int l = i.getRunningLength();
-                if (pos + l > bitmap.length) {
+                if (pos + l > length) {
                     if (i.getRunningBit()) {
-                        java.util.Arrays.fill(bitmap, pos, bitmap.length, ~0);
+                        java.util.Arrays.fill(bitmap, pos, length, ~0);
                     }
                     i.discardFirstWords(howmany);
-                    return bitmap.length;
+                    return length;
                 }
                 if (i.getRunningBit())
                     java.util.Arrays.fill(bitmap, pos, pos + l, ~0);
                 pos += l;
-                for (int k = 0; pos < bitmap.length; ++k)
+                for (int k = 0; pos < length; ++k)
                     bitmap[pos++] |= i.getLiteralWordAt(k);
                 i.discardFirstWords(howmany);
                 return pos;
@@ -433,10 +528,82 @@ public final class IteratorAggregation32 {
     }
 
     protected static int inplacexor(int[] bitmap, IteratingRLW32 i) {
+        return inplacexor(bitmap, bitmap.length, i);
+    }
+
+    /**
+     * Same as inplacexor(bitmap, i), but only the first words of the bitmap
+     * are used.
+     *
+     * @param bitmap the buffer
+     * @param length how many words of the buffer should be used
+     * @param i      the iterator
+     * @return how many words were written
+     */
+    protected static int inplacexor(int[] bitmap, int length, IteratingRLW32 i) {
+        int pos = 0;
+        int s;
+        while ((s = i.size()) > 0) {
+            if (pos + s < length) {
+                final int L = i.getRunningLength();
+                if (i.getRunningBit()) {
+                    for (int k = pos; k < pos + L; ++k)
+                        bitmap[k] = ~bitmap[k];
+                }
+                pos += L;
+                final int LR = i.getNumberOfLiteralWords();
+                for (int k = 0; k < LR; ++k)
+                    bitmap[pos++] ^= i.getLiteralWordAt(k);
+                if (!i.next()) {
+                    return pos;
+                }
+            } else {
+                int howMany = length - pos;
+                int l = i.getRunningLength();
+                if (pos + l > length) {
+                    if (i.getRunningBit()) {
+                        for (int k = pos; k < length; ++k)
+                            bitmap[k] = ~bitmap[k];
+                    }
+                    i.discardFirstWords(howMany);
+                    return length;
+                }
+                if (i.getRunningBit())
+                    for (int k = pos; k < pos + l; ++k)
+                        bitmap[k] = ~bitmap[k];
+                pos += l;
+                for (int k = 0; pos < length; ++k)
+                    bitmap[pos++] ^= i.getLiteralWordAt(k);
+                i.discardFirstWords(howMany);
+                return pos;
+            }
+        }
+        return pos;
+    }
+
+    /**
+     * Specialized version of inplacexor for the common case: the calls on
+     * the final class IteratingBufferedRunningLengthWord32 do not depend on the other iterator types
+     * seen by the virtual machine.
+     */
+    static int inplacexor(int[] bitmap, IteratingBufferedRunningLengthWord32 i) {
+        return inplacexor(bitmap, bitmap.length, i);
+    }
+
+    /**
+     * Same as inplacexor(bitmap, i), but only the first words of the bitmap
+     * are used.
+     *
+     * @param bitmap the buffer
+     * @param length how many words of the buffer should be used
+     * @param i      the iterator
+     * @return how many words were written
+     */
+    static int inplacexor(int[] bitmap, int length, IteratingBufferedRunningLengthWord32 i) {
         int pos = 0;
         int s;
         while ((s = i.size()) > 0) {
-            if (pos + s < bitmap.length) {
+            if (pos + s < length) {
                 final int L = i.getRunningLength();
                 if (i.getRunningBit()) {
                     for (int k = pos; k < pos + L; ++k)
@@ -450,21 +617,21 @@ public final class IteratorAggregation32 {
                     return pos;
                 }
             } else {
-                int howMany = bitmap.length - pos;
+                int howMany = length - pos;
                 int l = i.getRunningLength();
-                if (pos + l > bitmap.length) {
+                if (pos + l > length) {
                     if (i.getRunningBit()) {
-                        for (int k = pos; k < bitmap.length; ++k)
+                        for (int k = pos; k < length; ++k)
                             bitmap[k] = ~bitmap[k];
                     }
                     i.discardFirstWords(howMany);
-                    return bitmap.length;
+                    return length;
                 }
                 if (i.getRunningBit())
                     for (int k = pos; k < pos + l; ++k)
                         bitmap[k] = ~bitmap[k];
                 pos += l;
-                for (int k = 0; pos < bitmap.length; ++k)
+                for (int k = 0; pos < length; ++k)
                     bitmap[pos++] ^= i.getLiteralWordAt(k);
                 i.discardFirstWords(howMany);
                 return pos;
@@ -474,10 +641,82 @@ public final class IteratorAggregation32 {
     }
 
     protected static int inplaceand(int[] bitmap, IteratingRLW32 i) {
+        return inplaceand(bitmap, bitmap.length, i);
+    }
+
+    /**
+     * Same as inplaceand(bitmap, i), but only the first words of the bitmap
+     * are used.
+     *
+     * @param bitmap the buffer
+     * @param length how many words of the buffer should be used
+     * @param i      the iterator
+     * @return how many words were written
+     */
+    protected static int inplaceand(int[] bitmap, int length, IteratingRLW32 i) {
+        int pos = 0;
+        int s;
+        while ((s = i.size()) > 0) {
+            if (pos + s < length) {
+                final int L = i.getRunningLength();
+                if (!i.getRunningBit()) {
+                    for (int k = pos; k < pos + L; ++k)
+                        bitmap[k] = 0;
+                }
+                pos += L;
+                final int LR = i.getNumberOfLiteralWords();
+                for (int k = 0; k < LR; ++k)
+                    bitmap[pos++] &= i.getLiteralWordAt(k);
+                if (!i.next()) {
+                    return pos;
+                }
+            } else {
+                int howMany = length - pos;
+                int l = i.getRunningLength();
+                if (pos + l > length) {
+                    if (!i.getRunningBit()) {
+                        for (int k = pos; k < length; ++k)
+                            bitmap[k] = 0;
+                    }
+                    i.discardFirstWords(howMany);
+                    return length;
+                }
+                if (!i.getRunningBit())
+                    for (int k = pos; k < pos + l; ++k)
+                        bitmap[k] = 0;
+                pos += l;
+                for (int k = 0; pos < length; ++k)
+                    bitmap[pos++] &= i.getLiteralWordAt(k);
+                i.discardFirstWords(howMany);
+                return pos;
+            }
+        }
+        return pos;
+    }
+
+    /**
+     * Specialized version of inplaceand for the common case: the calls on
+     * the final class IteratingBufferedRunningLengthWord32 do not depend on the other iterator types
+     * seen by the virtual machine.
+     */
+    static int inplaceand(int[] bitmap, IteratingBufferedRunningLengthWord32 i) {
+        return inplaceand(bitmap, bitmap.length, i);
+    }
+
+    /**
+     * Same as inplaceand(bitmap, i), but only the first words of the bitmap
+     * are used.
+     *
+     * @param bitmap the buffer
+     * @param length how many words of the buffer should be used
+     * @param i      the iterator
+     * @return how many words were written
+     */
+    static int inplaceand(int[] bitmap, int length, IteratingBufferedRunningLengthWord32 i) {
         int pos = 0;
         int s;
         while ((s = i.size()) > 0) {
-            if (pos + s < bitmap.length) {
+            if (pos + s < length) {
                 final int L = i.getRunningLength();
                 if (!i.getRunningBit()) {
                     for (int k = pos; k < pos + L; ++k)
@@ -491,21 +730,21 @@ public final class IteratorAggregation32 {
                     return pos;
                 }
             } else {
-                int howMany = bitmap.length - pos;
+                int howMany = length - pos;
                 int l = i.getRunningLength();
-                if (pos + l > bitmap.length) {
+                if (pos + l > length) {
                     if (!i.getRunningBit()) {
-                        for (int k = pos; k < bitmap.length; ++k)
+                        for (int k = pos; k < length; ++k)
                             bitmap[k] = 0;
                     }
                     i.discardFirstWords(howMany);
-                    return bitmap.length;
+                    return length;
                 }
                 if (!i.getRunningBit())
                     for (int k = pos; k < pos + l; ++k)
                         bitmap[k] = 0;
                 pos += l;
-                for (int k = 0; pos < bitmap.length; ++k)
+                for (int k = 0; pos < length; ++k)
                     bitmap[pos++] &= i.getLiteralWordAt(k);
                 i.discardFirstWords(howMany);
                 return pos;
@@ -514,6 +753,32 @@ public final class IteratorAggregation32 {
         return pos;
     }
 
+    /**
+     * @param al iterators
+     * @return true if all iterators are IteratingBufferedRunningLengthWord32
+     * instances, so that the specialized in-place methods can be used
+     */
+    static boolean allBuffered(final IteratingRLW32[] al) {
+        for (IteratingRLW32 i : al)
+            if (!(i instanceof IteratingBufferedRunningLengthWord32))
+                return false;
+        return true;
+    }
+
+    /**
+     * @param al     iterators
+     * @param length how many iterators should be copied
+     * @return copies of the first iterators
+     * @throws CloneNotSupportedException if an iterator cannot be cloned
+     */
+    static IteratingRLW32[] cloneAll(final IteratingRLW32[] al, final int length)
+            throws CloneNotSupportedException {
+        final IteratingRLW32[] answer = new IteratingRLW32[al.length];
+        for (int k = 0; k < length; ++k)
+            answer[k] = al[k].clone();
+        return answer;
+    }
+
     /**
      * An optimization option. Larger values may improve speed, but at the
      * expense of memory.
@@ -523,47 +788,67 @@ public final class IteratorAggregation32 {
 }
 
 class ORIt implements CloneableIterator<EWAHIterator32> {
-    final EWAHCompressedBitmap32 buffer = new EWAHCompressedBitmap32();
-    final int[] hardBitmap;
-    final LinkedList<IteratingRLW32> ll;
-
-    ORIt(LinkedList<IteratingRLW32> basell, final int bufSize) {
-        this.ll = basell;
+    EWAHCompressedBitmap32 buffer = new EWAHCompressedBitmap32();
+    int[] hardBitmap;
+    IteratingRLW32[] rlws;
+    int size;
+    final boolean buffered;
+    final boolean adaptive;
+    int blockSize;
+
+    ORIt(IteratingRLW32[] al, int bufSize, boolean adaptive) {
+        this.rlws = al.clone();
+        this.size = al.length;
+        this.buffered = IteratorAggregation32.allBuffered(al);
         this.hardBitmap = new int[bufSize];
+        this.adaptive = adaptive;
+        this.blockSize = bufSize;
     }
 
     @Override
-    public XORIt clone() throws CloneNotSupportedException {
-        XORIt answer = (XORIt) super.clone();
+    public ORIt clone() throws CloneNotSupportedException {
+        ORIt answer = (ORIt) super.clone();
         answer.buffer = this.buffer.clone();
-        answer.hardbitmap = this.hardBitmap.clone();
-        answer.ll = (LinkedList<IteratingRLW32>) this.ll.clone();
+        answer.hardBitmap = this.hardBitmap.clone();
+        answer.rlws = IteratorAggregation32.cloneAll(this.rlws, this.size);
         return answer;
     }
 
     @Override
     public boolean hasNext() {
-        return !this.ll.isEmpty();
+        return this.size > 0;
     }
 
     @Override
     public EWAHIterator32 next() {
         this.buffer.clear();
         int effective = 0;
-        Iterator<IteratingRLW32> i = this.ll.iterator();
-        while (i.hasNext()) {
-            IteratingRLW32 rlw = i.next();
+        int k = 0;
+        while (k < this.size) {
+            final IteratingRLW32 rlw = this.rlws[k];
             if (rlw.size() > 0) {
-                int eff = IteratorAggregation32.inplaceor(
-                        this.hardBitmap, rlw);
+                final int eff = this.buffered
+                        ? IteratorAggregation32.inplaceor(this.hardBitmap, this.blockSize, (IteratingBufferedRunningLengthWord32) rlw)
+                        : IteratorAggregation32.inplaceor(this.hardBitmap, this.blockSize, rlw);
                 if (eff > effective)
                     effective = eff;
-            } else
-                i.remove();
+                ++k;
+            } else {
+                // exhausted: the order of the inputs does not matter
+                this.rlws[k] = this.rlws[--this.size];
+                this.rlws[this.size] = null;
+            }
         }
-        for (int k = 0; k < effective; ++k)
-            this.buffer.addWord(this.hardBitmap[k]);
-        Arrays.fill(this.hardBitmap, 0);
+        int literals = 0;
+        for (int j = 0; j < effective; ++j) {
+            final int w = this.hardBitmap[j];
+            if ((w != 0) && (w != ~0))
+                ++literals;
+            this.buffer.addWord(w);
+        }
+        Arrays.fill(this.hardBitmap, 0, effective, 0);
+        if (this.adaptive)
+            this.blockSize = BufferSizing32.adapt(this.blockSize, effective, literals, this.hardBitmap.length);
         return this.buffer.getEWAHIterator();
     }
 }
@@ -571,12 +856,19 @@ class ORIt implements CloneableIterator<EWAHIterator32> {
 class XORIt implements CloneableIterator<EWAHIterator32> {
     EWAHCompressedBitmap32 buffer = new EWAHCompressedBitmap32();
     int[] hardbitmap;
-    LinkedList<IteratingRLW32> ll;
-
-    XORIt(LinkedList<IteratingRLW32> basell, final int bufSize) {
-        this.ll = basell;
+    IteratingRLW32[] rlws;
+    int size;
+    final boolean buffered;
+    final boolean adaptive;
+    int blockSize;
+
+    XORIt(IteratingRLW32[] al, int bufSize, boolean adaptive) {
+        this.rlws = al.clone();
+        this.size = al.length;
+        this.buffered = IteratorAggregation32.allBuffered(al);
         this.hardbitmap = new int[bufSize];
-
+        this.adaptive = adaptive;
+        this.blockSize = bufSize;
     }
 
     @Override
@@ -584,87 +876,94 @@ class XORIt implements CloneableIterator<EWAHIterator32> {
         XORIt answer = (XORIt) super.clone();
         answer.buffer = this.buffer.clone();
         answer.hardbitmap = this.hardbitmap.clone();
-        answer.ll = (LinkedList<IteratingRLW32>) this.ll.clone();
+        answer.rlws = IteratorAggregation32.cloneAll(this.rlws, this.size);
         return answer;
     }
 
     @Override
     public boolean hasNext() {
-        return !this.ll.isEmpty();
+        return this.size > 0;
     }
 
     @Override
     public EWAHIterator32 next() {
         this.buffer.clear();
         int effective = 0;
-        Iterator<IteratingRLW32> i = this.ll.iterator();
-        while (i.hasNext()) {
-            IteratingRLW32 rlw = i.next();
+        int k = 0;
+        while (k < this.size) {
+            final IteratingRLW32 rlw = this.rlws[k];
             if (rlw.size() > 0) {
-                int eff = IteratorAggregation32.inplacexor(
-                        this.hardbitmap, rlw);
+                final int eff = this.buffered
+                        ? IteratorAggregation32.inplacexor(this.hardbitmap, this.blockSize, (IteratingBufferedRunningLengthWord32) rlw)
+                        : IteratorAggregation32.inplacexor(this.hardbitmap, this.blockSize, rlw);
                 if (eff > effective)
                     effective = eff;
-            } else
-                i.remove();
+                ++k;
+            } else {
+                // exhausted: the order of the inputs does not matter
+                this.rlws[k] = this.rlws[--this.size];
+                this.rlws[this.size] = null;
+            }
+        }
+        int literals = 0;
+        for (int j = 0; j < effective; ++j) {
+            final int w = this.hardbitmap[j];
+            if ((w != 0) && (w != ~0))
+                ++literals;
+            this.buffer.addWord(w);
         }
-        for (int k = 0; k < effective; ++k)
-            this.buffer.addWord(this.hardbitmap[k]);
-        Arrays.fill(this.hardbitmap, 0);
+        Arrays.fill(this.hardbitmap, 0, effective, 0);
+        if (this.adaptive)
+            this.blockSize = BufferSizing32.adapt(this.blockSize, effective, literals, this.hardbitmap.length);
         return this.buffer.getEWAHIterator();
     }
 }
 
 class AndIt implements CloneableIterator<EWAHIterator32> {
     EWAHCompressedBitmap32 buffer = new EWAHCompressedBitmap32();
-    LinkedList<IteratingRLW32> ll;
+    EWAHCompressedBitmap32 tmpbuffer = new EWAHCompressedBitmap32();
+    IteratingRLW32[] rlws;
+    int size;
     final int bufferSize;
 
-    public AndIt(LinkedList<IteratingRLW32> basell, final int bufSize) {
-        this.ll = basell;
+    public AndIt(IteratingRLW32[] al, int bufSize) {
+        this.rlws = al.clone();
+        this.size = al.length;
         this.bufferSize = bufSize;
     }
 
     @Override
     public boolean hasNext() {
-        return !this.ll.isEmpty();
+        return this.size > 0;
     }
 
     @Override
     public AndIt clone() throws CloneNotSupportedException {
         AndIt answer = (AndIt) super.clone();
         answer.buffer = this.buffer.clone();
-        answer.ll = (LinkedList<IteratingRLW32>) this.ll.clone();
+        answer.tmpbuffer = new EWAHCompressedBitmap32();
+        answer.rlws = IteratorAggregation32.cloneAll(this.rlws, this.size);
         return answer;
     }
 
     @Override
     public EWAHIterator32 next() {
         this.buffer.clear();
-        IteratorAggregation32.andToContainer(this.buffer,
-                this.bufferSize * this.ll.size(), this.ll.get(0),
-                this.ll.get(1));
-        if (this.ll.size() > 2) {
-            Iterator<IteratingRLW32> i = this.ll.iterator();
-            i.next();
-            i.next();
-            EWAHCompressedBitmap32 tmpbuffer = new EWAHCompressedBitmap32();
-            while (i.hasNext() && this.buffer.sizeInBytes() > 0) {
-                IteratorAggregation32
-                        .andToContainer(tmpbuffer,
-                                this.buffer.getIteratingRLW(),
-                                i.next());
-                this.buffer.swap(tmpbuffer);
-                tmpbuffer.clear();
-            }
+        IteratorAggregation32.andToContainer(this.buffer, this.bufferSize * this.size,
+                this.rlws[0], this.rlws[1]);
+        for (int k = 2; (k < this.size) && (this.buffer.sizeInBytes() > 0); ++k) {
+            IteratorAggregation32.andToContainer(this.tmpbuffer, this.buffer.getIteratingRLW(), this.rlws[k]);
+            this.buffer.swap(this.tmpbuffer);
+            this.tmpbuffer.clear();
         }
-        for (IteratingRLW32 aLl : this.ll) {
-            if (aLl.size() == 0) {
-                this.ll.clear();
+        for (int k = 0; k < this.size; ++k) {
+            if (this.rlws[k].size() == 0) {
+                // the intersection is over as soon as one input is exhausted
+                Arrays.fill(this.rlws, null);
+                this.size = 0;
                 break;
             }
         }
         return this.buffer.getEWAHIterator();
     }
-
-}
\ No newline at end of file
+}
@@ -27,13 +27,13 @@ public class NonEmptyVirtualStorage32 implements BitmapStorage32 {
     }
 
     /**
-     * throws a NonEmptyException exception when number is greater than 0
+     * throws a NonEmptyException exception when one of the words is not zero
      */
     @Override
     public void addStreamOfLiteralWords(int[] data, int start, int number) {
-        if (number > 0) {
-            throw nonEmptyException;
-        }
+        for (int k = start; k < start + number; ++k)
+            if (data[k] != 0)
+                throw nonEmptyException;
     }
 
     /**
@@ -47,14 +47,15 @@ public class NonEmptyVirtualStorage32 implements BitmapStorage32 {
     }
 
     /**
-     * throws a NonEmptyException exception when number is greater than 0
+     * throws a NonEmptyException exception when one of the negated words is
+     * not zero
      */
     @Override
     public void addStreamOfNegatedLiteralWords(int[] data, int start,
                                                int number) {
-        if (number > 0) {
-            throw nonEmptyException;
-        }
+        for (int k = start; k < start + number; ++k)
+            if (~data[k] != 0)
+                throw nonEmptyException;
     }
 
     @Override
@@ -0,0 +1,810 @@
+package com.googlecode.javaewah32;
+
+import com.googlecode.javaewah.IntIterator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/*
+ * Copyright 2009-2014, Daniel Lemire, Cliff Moon, David McIntosh, Robert Becho, Google Inc., Veronika Zenz, Owen Kaser, Gregory Ssi-Yan-Kai, Rory Graves
+ * Licensed under the Apache License, Version 2.0.
+ */
+
+/**
+ * A bitmap split in consecutive chunks of 2^chunkBits bits, each chunk
+ * being stored in its own EWAHCompressedBitmap32. Chunks made only of zeroes
+ * or only of ones are flagged as such and take no memory: the logical
+ * operations skip them without reading the other operand (e.g., an AND
+ * with an empty chunk, or an OR with a full chunk) and only combine the
+ * chunks that are mixed on both sides.
+ *
+ * Because the chunks are independent, the logical operations and the
+ * cardinality can also be computed in parallel, chunk by chunk, on an
+ * ExecutorService (e.g., a ForkJoinPool).
+ *
+ * As with EWAHCompressedBitmap32, the bits must be set in increasing order.
+ * The chunk flags are exact for bitmaps built with valueOf or with the
+ * logical operations; with set, a chunk is checked for fullness when the
+ * next chunk is started.
+ *
+ * <pre>
+ * PartitionedEWAHBitmap32 a = PartitionedEWAHBitmap32.valueOf(bitmap1);
+ * PartitionedEWAHBitmap32 b = PartitionedEWAHBitmap32.valueOf(bitmap2);
+ * PartitionedEWAHBitmap32 c = a.and(b, executor);
+ * </pre>
+ *
+ * @author Daniel Lemire
+ * @since 0.8.12
+ */
+public final class PartitionedEWAHBitmap32 implements Cloneable {
+
+    /**
+     * Creates an empty bitmap with chunks of 2^DEFAULT_CHUNK_BITS bits.
+     */
+    public PartitionedEWAHBitmap32() {
+        this(DEFAULT_CHUNK_BITS);
+    }
+
+    /**
+     * Creates an empty bitmap.
+     *
+     * @param chunkBits each chunk covers 2^chunkBits bits (at least 5, at
+     *                  most 30)
+     */
+    public PartitionedEWAHBitmap32(final int chunkBits) {
+        this(chunkBits, DEFAULT_CHUNK_CAPACITY);
+    }
+
+    private PartitionedEWAHBitmap32(final int chunkBits, final int capacity) {
+        if ((chunkBits < MIN_CHUNK_BITS) || (chunkBits > MAX_CHUNK_BITS))
+            throw new IllegalArgumentException("The chunk bits should be between " + MIN_CHUNK_BITS
+                    + " and " + MAX_CHUNK_BITS + ", got " + chunkBits);
+        this.chunkBits = chunkBits;
+        this.states = new byte[capacity];
+        this.chunks = new EWAHCompressedBitmap32[capacity];
+    }
+
+    /**
+     * Split a bitmap in chunks of 2^DEFAULT_CHUNK_BITS bits.
+     *
+     * @param bitmap the bitmap (it will not be modified)
+     * @return the partitioned bitmap
+     */
+    public static PartitionedEWAHBitmap32 valueOf(final EWAHCompressedBitmap32 bitmap) {
+        return valueOf(bitmap, DEFAULT_CHUNK_BITS);
+    }
+
+    /**
+     * Split a bitmap in chunks. Runs covering whole chunks are not copied.
+     *
+     * @param bitmap    the bitmap (it will not be modified)
+     * @param chunkBits each chunk covers 2^chunkBits bits
+     * @return the partitioned bitmap
+     */
+    public static PartitionedEWAHBitmap32 valueOf(final EWAHCompressedBitmap32 bitmap, final int chunkBits) {
+        final int n = numberOfChunks(bitmap.sizeInBits(), chunkBits);
+        final PartitionedEWAHBitmap32 answer = new PartitionedEWAHBitmap32(chunkBits, n);
+        answer.sizeInBits = bitmap.sizeInBits();
+        final int chunkWords = (1 << chunkBits) / EWAHCompressedBitmap32.WORD_IN_BITS;
+        final IteratingRLW32 i = bitmap.getIteratingRLW();
+        EWAHCompressedBitmap32 current = new EWAHCompressedBitmap32();
+        int k = 0;
+        int written = 0;
+        while (k < n) {
+            long run = i.getRunningLength();
+            final boolean bit = i.getRunningBit();
+            while ((run > 0) && (k < n)) {
+                if ((written == 0) && (run >= chunkWords)) {
+                    final int whole = (int) Math.min(run / chunkWords, n - k);
+                    Arrays.fill(answer.states, k, k + whole, bit ? FULL : EMPTY);
+                    k += whole;
+                    run -= (long) whole * chunkWords;
+                    continue;
+                }
+                final int m = (int) Math.min(run, chunkWords - written);
+                current.addStreamOfEmptyWords(bit, m);
+                written += m;
+                run -= m;
+                if (written == chunkWords) {
+                    answer.seal(k++, current);
+                    current = new EWAHCompressedBitmap32();
+                    written = 0;
+                }
+            }
+            for (int j = 0; (j < i.getNumberOfLiteralWords()) && (k < n); ++j) {
+                current.addWord(i.getLiteralWordAt(j));
+                if (++written == chunkWords) {
+                    answer.seal(k++, current);
+                    current = new EWAHCompressedBitmap32();
+                    written = 0;
+                }
+            }
+            if (!i.next())
+                break;
+        }
+        if ((written > 0) && (k < n))
+            answer.seal(k, current);
+        return answer;
+    }
+
+    /**
+     * Set the bit at position i to true, the bits must be set in (strictly)
+     * increasing order. For example, set(15) and then set(7) will fail. You
+     * must do set(7) and then set(15).
+     *
+     * @param i the index
+     * @return true if the value was set (always true when i greater or
+     * equal to sizeInBits()).
+     * @throws IndexOutOfBoundsException if i is negative or greater than
+     *                                   Integer.MAX_VALUE - 32
+     */
+    public boolean set(final int i) {
+        if (i > Integer.MAX_VALUE - EWAHCompressedBitmap32.WORD_IN_BITS || i < 0)
+            throw new IndexOutOfBoundsException("Position should be between 0 and "
+                    + (Integer.MAX_VALUE - EWAHCompressedBitmap32.WORD_IN_BITS));
+        if (i < this.sizeInBits)
+            return false;
+        final int k = i >>> this.chunkBits;
+        final int last = numberOfChunks() - 1;
+        EWAHCompressedBitmap32 previous = null;
+        if ((last >= 0) && (last < k) && ((this.states[last] == MIXED)
+                || ((this.states[last] == FULL) && (chunkLength(last) < chunkSize())))) {
+            // the previous chunk is complete
+            previous = materialize(last);
+            previous.setSizeInBits(chunkSize(), false);
+        }
+        if (k >= this.states.length) {
+            final int capacity = Math.max(k + 1, 2 * this.states.length);
+            this.states = Arrays.copyOf(this.states, capacity);
+            this.chunks = Arrays.copyOf(this.chunks, capacity);
+        }
+        if (this.states[k] != MIXED) {
+            this.chunks[k] = materialize(k);
+            this.states[k] = MIXED;
+        }
+        this.chunks[k].set(i & (chunkSize() - 1));
+        this.sizeInBits = i + 1;
+        if (previous != null)
+            seal(last, previous);
+        return true;
+    }
+
+    /**
+     * Query the value of a single bit. Only the chunk containing the bit is
+     * read.
+     *
+     * @param i the bit we are interested in
+     * @return whether the bit is set to true
+     */
+    public boolean get(final int i) {
+        if ((i < 0) || (i >= this.sizeInBits))
+            return false;
+        final int k = i >>> this.chunkBits;
+        if (this.states[k] == MIXED)
+            return this.chunks[k].get(i & (chunkSize() - 1));
+        return this.states[k] == FULL;
+    }
+
+    /**
+     * @return the number of bits set to true
+     */
+    public int cardinality() {
+        int answer = 0;
+        for (int k = 0; k < numberOfChunks(); ++k)
+            answer += chunkCardinality(k);
+        return answer;
+    }
+
+    /**
+     * Count the bits set to true, chunk by chunk in parallel.
+     *
+     * @param executor the executor running the tasks (it is not shut down
+     *                 by this method)
+     * @return the number of bits set to true
+     */
+    public int cardinality(final ExecutorService executor) {
+        final int n = numberOfChunks();
+        final int tasks = numberOfTasks(n);
+        final List<Future<Integer>> results = new ArrayList<Future<Integer>>(tasks);
+        for (int t = 0; t < tasks; ++t) {
+            final int begin = (int) ((long) n * t / tasks);
+            final int end = (int) ((long) n * (t + 1) / tasks);
+            results.add(executor.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() {
+                    int answer = 0;
+                    for (int k = begin; k < end; ++k)
+                        answer += chunkCardinality(k);
+                    return answer;
+                }
+            }));
+        }
+        int answer = 0;
+        for (Integer c : await(results))
+            answer += c;
+        return answer;
+    }
+
+    /**
+     * @return true if no bit is set
+     */
+    public boolean isEmpty() {
+        for (int k = 0; k < numberOfChunks(); ++k)
+            if ((this.states[k] == FULL) || ((this.states[k] == MIXED) && !this.chunks[k].isEmpty()))
+                return false;
+        return true;
+    }
+
+    /**
+     * Returns the size in bits of the *uncompressed* bitmap: initially
+     * zero, it is extended automatically when you set bits to true.
+     *
+     * @return the size in bits
+     */
+    public int sizeInBits() {
+        return this.sizeInBits;
+    }
+
+    /**
+     * Report the number of bytes used by the chunks, including one byte per
+     * chunk for its flag.
+     *
+     * @return the size in bytes
+     */
+    public int sizeInBytes() {
+        int answer = 0;
+        for (int k = 0; k < numberOfChunks(); ++k)
+            answer += 1 + (this.states[k] == MIXED ? this.chunks[k].sizeInBytes() : 0);
+        return answer;
+    }
+
+    /**
+     * @return each chunk covers 2^getChunkBits() bits
+     */
+    public int getChunkBits() {
+        return this.chunkBits;
+    }
+
+    /**
+     * @return the number of chunks covering sizeInBits() bits
+     */
+    public int numberOfChunks() {
+        return numberOfChunks(this.sizeInBits, this.chunkBits);
+    }
+
+    /**
+     * @param k the index of a chunk
+     * @return whether the chunk is known to have no bit set
+     */
+    public boolean isChunkEmpty(final int k) {
+        return this.states[k] == EMPTY;
+    }
+
+    /**
+     * @param k the index of a chunk
+     * @return whether the chunk is known to have all its bits set
+     */
+    public boolean isChunkFull(final int k) {
+        return this.states[k] == FULL;
+    }
+
+    /**
+     * Returns a new bitmap containing the bitwise AND values of the current
+     * bitmap with some other bitmap having the same chunk size.
+     *
+     * The current bitmap is not modified.
+     *
+     * @param a the other bitmap (it will not be modified)
+     * @return the result
+     */
+    public PartitionedEWAHBitmap32 and(final PartitionedEWAHBitmap32 a) {
+        return apply(AND, a, null);
+    }
+
+    /**
+     * Returns a new bitmap containing the bitwise AND values of the current
+     * bitmap with some other bitmap having the same chunk size. The chunks
+     * are computed in parallel.
+     *
+     * The current bitmap is not modified.
+     *
+     * @param a        the other bitmap (it will not be modified)
+     * @param executor the executor running the tasks (it is not shut down
+     *                 by this method)
+     * @return the result
+     */
+    public PartitionedEWAHBitmap32 and(final PartitionedEWAHBitmap32 a, final ExecutorService executor) {
+        return apply(AND, a, executor);
+    }
+
+    /**
+     * Returns the cardinality of the result of a bitwise AND of the values
+     * of the current bitmap with some other bitmap having the same chunk
+     * size.
+     *
+     * @param a the other bitmap (it will not be modified)
+     * @return the cardinality
+     */
+    public int andCardinality(final PartitionedEWAHBitmap32 a) {
+        checkChunkBits(a);
+        int answer = 0;
+        final int n = Math.min(numberOfChunks(), a.numberOfChunks());
+        for (int k = 0; k < n; ++k) {
+            final int length = Math.max(chunkLength(k), a.chunkLength(k));
+            final byte sx = state(k, length);
+            final byte sy = a.state(k, length);
+            if ((sx == EMPTY) || (sy == EMPTY))
+                continue;
+            if (sx == FULL)
+                answer += a.chunkCardinality(k);
+            else if (sy == FULL)
+                answer += chunkCardinality(k);
+            else
+                answer += materialize(k).andCardinality(a.materialize(k));
+        }
+        return answer;
+    }
+
+    /**
+     * Returns a new bitmap containing the bitwise AND NOT values of the
+     * current bitmap with some other bitmap having the same chunk size.
+     *
+     * The current bitmap is not modified.
+     *
+     * @param a the other bitmap (it will not be modified)
+     * @return the result
+     */
+    public PartitionedEWAHBitmap32 andNot(final PartitionedEWAHBitmap32 a) {
+        return apply(ANDNOT, a, null);
+    }
+
+    /**
+     * Returns a new bitmap containing the bitwise AND NOT values of the
+     * current bitmap with some other bitmap having the same chunk size. The
+     * chunks are computed in parallel.
+     *
+     * The current bitmap is not modified.
+     *
+     * @param a        the other bitmap (it will not be modified)
+     * @param executor the executor running the tasks (it is not shut down
+     *                 by this method)
+     * @return the result
+     */
+    public PartitionedEWAHBitmap32 andNot(final PartitionedEWAHBitmap32 a, final ExecutorService executor) {
+        return apply(ANDNOT, a, executor);
+    }
+
+    /**
+     * Returns a new bitmap containing the bitwise OR values of the current
+     * bitmap with some other bitmap having the same chunk size.
+     *
+     * The current bitmap is not modified.
+     *
+     * @param a the other bitmap (it will not be modified)
+     * @return the result
+     */
+    public PartitionedEWAHBitmap32 or(final PartitionedEWAHBitmap32 a) {
+        return apply(OR, a, null);
+    }
+
+    /**
+     * Returns a new bitmap containing the bitwise OR values of the current
+     * bitmap with some other bitmap having the same chunk size. The chunks
+     * are computed in parallel.
+     *
+     * The current bitmap is not modified.
+     *
+     * @param a        the other bitmap (it will not be modified)
+     * @param executor the executor running the tasks (it is not shut down
+     *                 by this method)
+     * @return the result
+     */
+    public PartitionedEWAHBitmap32 or(final PartitionedEWAHBitmap32 a, final ExecutorService executor) {
+        return apply(OR, a, executor);
+    }
+
+    /**
+     * Returns a new bitmap containing the bitwise XOR values of the current
+     * bitmap with some other bitmap having the same chunk size.
+     *
+     * The current bitmap is not modified.
+     *
+     * @param a the other bitmap (it will not be modified)
+     * @return the result
+     */
+    public PartitionedEWAHBitmap32 xor(final PartitionedEWAHBitmap32 a) {
+        return apply(XOR, a, null);
+    }
+
+    /**
+     * Returns a new bitmap containing the bitwise XOR values of the current
+     * bitmap with some other bitmap having the same chunk size. The chunks
+     * are computed in parallel.
+     *
+     * The current bitmap is not modified.
+     *
+     * @param a        the other bitmap (it will not be modified)
+     * @param executor the executor running the tasks (it is not shut down
+     *                 by this method)
+     * @return the result
+     */
+    public PartitionedEWAHBitmap32 xor(final PartitionedEWAHBitmap32 a, final ExecutorService executor) {
+        return apply(XOR, a, executor);
+    }
+
+    /**
+     * Negate (bitwise) the current bitmap up to sizeInBits(). Empty and
+     * full chunks are swapped without any work.
+     */
+    public void not() {
+        for (int k = 0; k < numberOfChunks(); ++k) {
+            if (this.states[k] == EMPTY)
+                this.states[k] = FULL;
+            else if (this.states[k] == FULL)
+                this.states[k] = EMPTY;
+            else {
+                this.chunks[k].not();
+                seal(k, this.chunks[k]);
+            }
+        }
+    }
+
+    /**
+     * Concatenate the chunks in a single bitmap.
+     *
+     * @return the bitmap
+     */
+    public EWAHCompressedBitmap32 toEWAHCompressedBitmap() {
+        final EWAHCompressedBitmap32 answer = new EWAHCompressedBitmap32();
+        for (int k = 0; k < numberOfChunks(); ++k) {
+            final int length = chunkLength(k);
+            if ((this.states[k] != MIXED) && (length % EWAHCompressedBitmap32.WORD_IN_BITS == 0))
+                answer.addStreamOfEmptyWords(this.states[k] == FULL, length / EWAHCompressedBitmap32.WORD_IN_BITS);
+            else {
+                IteratorUtil32.materialize(materialize(k).getIteratingRLW(), answer);
+                // a chunk may have fewer words than its length
+                final int end = (k << this.chunkBits) + length;
+                if (answer.sizeInBits() < end)
+                    answer.setSizeInBits(end, false);
+            }
+        }
+        if (answer.sizeInBits() != this.sizeInBits)
+            answer.setSizeInBitsWithinLastWord(this.sizeInBits);
+        return answer;
+    }
+
+    /**
+     * Iterator over the set bits, in increasing order. Empty chunks are
+     * skipped.
+     *
+     * @return the int iterator
+     */
+    public IntIterator intIterator() {
+        return new IntIterator() {
+
+            @Override
+            public boolean hasNext() {
+                while ((this.under == null) || !this.under.hasNext()) {
+                    do {
+                        if (++this.index >= numberOfChunks())
+                            return false;
+                    } while (PartitionedEWAHBitmap32.this.states[this.index] == EMPTY);
+                    this.under = materialize(this.index).intIterator();
+                }
+                return true;
+            }
+
+            @Override
+            public int next() {
+                hasNext();
+                return (this.index << PartitionedEWAHBitmap32.this.chunkBits) + this.under.next();
+            }
+
+            private int index = -1;
+            private IntIterator under = null;
+        };
+    }
+
+    /**
+     * Returns the positions of the set bits in increasing order.
+     *
+     * @return the positions
+     */
+    public int[] toArray() {
+        final int[] answer = new int[cardinality()];
+        final IntIterator i = intIterator();
+        for (int pos = 0; pos < answer.length; ++pos)
+            answer[pos] = i.next();
+        return answer;
+    }
+
+    @Override
+    public PartitionedEWAHBitmap32 clone() {
+        PartitionedEWAHBitmap32 clone = null;
+        try {
+            clone = (PartitionedEWAHBitmap32) super.clone();
+            clone.states = this.states.clone();
+            clone.chunks = new EWAHCompressedBitmap32[this.chunks.length];
+            for (int k = 0; k < numberOfChunks(); ++k)
+                if (this.states[k] == MIXED)
+                    clone.chunks[k] = this.chunks[k].clone();
+        } catch (CloneNotSupportedException e) {
+            e.printStackTrace();
+        }
+        return clone;
+    }
+
+    /**
+     * Check to see whether the two bitmaps contain the same set bits.
+     *
+     * @see java.lang.Object#equals(java.lang.Object)
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof PartitionedEWAHBitmap32))
+            return false;
+        final PartitionedEWAHBitmap32 a = (PartitionedEWAHBitmap32) o;
+        if (this.chunkBits != a.chunkBits)
+            return toEWAHCompressedBitmap().equals(a.toEWAHCompressedBitmap());
+        final int n = Math.max(numberOfChunks(), a.numberOfChunks());
+        for (int k = 0; k < n; ++k) {
+            final byte x = k < numberOfChunks() ? this.states[k] : EMPTY;
+            final byte y = k < a.numberOfChunks() ? a.states[k] : EMPTY;
+            if ((x == EMPTY) && (y == EMPTY))
+                continue;
+            if (x == EMPTY ? a.chunkCardinality(k) != 0 : y == EMPTY ? chunkCardinality(k) != 0
+                    : !materialize(k).equals(a.materialize(k)))
+                return false;
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        return toEWAHCompressedBitmap().hashCode();
+    }
+
+    /**
+     * A string describing the bitmap.
+     *
+     * @return the string
+     */
+    @Override
+    public String toString() {
+        StringBuilder answer = new StringBuilder();
+        IntIterator i = this.intIterator();
+        answer.append("{");
+        if (i.hasNext())
+            answer.append(i.next());
+        while (i.hasNext()) {
+            answer.append(",");
+            answer.append(i.next());
+        }
+        answer.append("}");
+        return answer.toString();
+    }
+
+    private PartitionedEWAHBitmap32 apply(final int op, final PartitionedEWAHBitmap32 a, final ExecutorService executor) {
+        checkChunkBits(a);
+        final int sizeInBits = Math.max(this.sizeInBits, a.sizeInBits);
+        final int n = numberOfChunks(sizeInBits, this.chunkBits);
+        final PartitionedEWAHBitmap32 answer = new PartitionedEWAHBitmap32(this.chunkBits, n);
+        answer.sizeInBits = sizeInBits;
+        if (executor == null) {
+            for (int k = 0; k < n; ++k)
+                answer.compute(op, k, this, a);
+            return answer;
+        }
+        // each task writes its own chunks; Future.get publishes them
+        final int tasks = numberOfTasks(n);
+        final List<Future<Object>> results = new ArrayList<Future<Object>>(tasks);
+        for (int t = 0; t < tasks; ++t) {
+            final int begin = (int) ((long) n * t / tasks);
+            final int end = (int) ((long) n * (t + 1) / tasks);
+            results.add(executor.submit(new Callable<Object>() {
+                @Override
+                public Object call() {
+                    for (int k = begin; k < end; ++k)
+                        answer.compute(op, k, PartitionedEWAHBitmap32.this, a);
+                    return null;
+                }
+            }));
+        }
+        await(results);
+        return answer;
+    }
+
+    /**
+     * Compute the chunk k of this bitmap from the chunks of x and y.
+     */
+    private void compute(final int op, final int k, final PartitionedEWAHBitmap32 x, final PartitionedEWAHBitmap32 y) {
+        final int length = chunkLength(k);
+        final byte sx = x.state(k, length);
+        final byte sy = y.state(k, length);
+        switch (op) {
+            case AND:
+                if ((sx == EMPTY) || (sy == EMPTY))
+                    this.states[k] = EMPTY;
+                else if (sx == FULL)
+                    copy(k, y, sy);
+                else if (sy == FULL)
+                    copy(k, x, sx);
+                else
+                    seal(k, x.materialize(k).and(y.materialize(k)));
+                break;
+            case OR:
+                if ((sx == FULL) || (sy == FULL))
+                    this.states[k] = FULL;
+                else if (sx == EMPTY)
+                    copy(k, y, sy);
+                else if (sy == EMPTY)
+                    copy(k, x, sx);
+                else
+                    seal(k, x.materialize(k).or(y.materialize(k)));
+                break;
+            case XOR:
+                if (sx == EMPTY)
+                    copy(k, y, sy);
+                else if (sy == EMPTY)
+                    copy(k, x, sx);
+                else if (sx == FULL)
+                    negate(k, y, sy);
+                else if (sy == FULL)
+                    negate(k, x, sx);
+                else
+                    seal(k, x.materialize(k).xor(y.materialize(k)));
+                break;
+            default:
+                if ((sx == EMPTY) || (sy == FULL))
+                    this.states[k] = EMPTY;
+                else if (sy == EMPTY)
+                    copy(k, x, sx);
+                else if (sx == FULL)
+                    negate(k, y, sy);
+                else
+                    seal(k, x.materialize(k).andNot(y.materialize(k)));
+        }
+    }
+
+    /**
+     * The state of chunk k, as seen from a bitmap whose chunk k has the
+     * given length: a full chunk that is shorter is only partially full.
+     */
+    private byte state(final int k, final int length) {
+        if (k >= numberOfChunks())
+            return EMPTY;
+        if ((this.states[k] == FULL) && (chunkLength(k) < length))
+            return MIXED;
+        return this.states[k];
+    }
+
+    private void copy(final int k, final PartitionedEWAHBitmap32 source, final byte state) {
+        if (state == MIXED)
+            seal(k, source.materialize(k).clone());
+        else
+            this.states[k] = state;
+    }
+
+    private void negate(final int k, final PartitionedEWAHBitmap32 source, final byte state) {
+        if (state == MIXED) {
+            final EWAHCompressedBitmap32 chunk = source.materialize(k).clone();
+            chunk.setSizeInBits(chunkLength(k), false);
+            chunk.not();
+            seal(k, chunk);
+        } else
+            this.states[k] = state == FULL ? EMPTY : FULL;
+    }
+
+    /**
+     * Store the chunk k, padded to its length, and flag it.
+     */
+    private void seal(final int k, final EWAHCompressedBitmap32 chunk) {
+        final int length = chunkLength(k);
+        if (chunk.sizeInBits() < length)
+            chunk.setSizeInBits(length, false);
+        else if (chunk.sizeInBits() > length)
+            chunk.setSizeInBitsWithinLastWord(length);
+        if (chunk.isEmpty()) {
+            this.states[k] = EMPTY;
+            this.chunks[k] = null;
+        } else if (chunk.cardinality() == length) {
+            this.states[k] = FULL;
+            this.chunks[k] = null;
+        } else {
+            this.states[k] = MIXED;
+            this.chunks[k] = chunk;
+        }
+    }
+
+    /**
+     * The chunk k as a bitmap (not to be modified for mixed chunks).
+     */
+    private EWAHCompressedBitmap32 materialize(final int k) {
+        if ((k < numberOfChunks()) && (this.states[k] == MIXED))
+            return this.chunks[k];
+        final EWAHCompressedBitmap32 answer = new EWAHCompressedBitmap32();
+        if (k < numberOfChunks())
+            answer.setSizeInBits(chunkLength(k), this.states[k] == FULL);
+        return answer;
+    }
+
+    private int chunkCardinality(final int k) {
+        if (this.states[k] == MIXED)
+            return this.chunks[k].cardinality();
+        return this.states[k] == FULL ? chunkLength(k) : 0;
+    }
+
+    private int chunkLength(final int k) {
+        return (int) Math.min(chunkSize(), this.sizeInBits - ((long) k << this.chunkBits));
+    }
+
+    private int chunkSize() {
+        return 1 << this.chunkBits;
+    }
+
+    private void checkChunkBits(final PartitionedEWAHBitmap32 a) {
+        if (this.chunkBits != a.chunkBits)
+            throw new IllegalArgumentException("The bitmaps should have the same chunk size: "
+                    + this.chunkBits + " versus " + a.chunkBits + " chunk bits");
+    }
+
+    private static int numberOfChunks(final int sizeInBits, final int chunkBits) {
+        return (int) (((long) sizeInBits + (1 << chunkBits) - 1) >>> chunkBits);
+    }
+
+    private static int numberOfTasks(final int numberOfChunks) {
+        return Math.max(1, Math.min(numberOfChunks, TASKS_PER_PROCESSOR * Runtime.getRuntime().availableProcessors()));
+    }
+
+    private static <T> List<T> await(final List<Future<T>> results) {
+        final List<T> answer = new ArrayList<T>(results.size());
+        try {
+            for (Future<T> result : results)
+                answer.add(result.get());
+        } catch (InterruptedException e) {
+            for (Future<T> result : results)
+                result.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while computing the chunks", e);
+        } catch (ExecutionException e) {
+            for (Future<T> result : results)
+                result.cancel(true);
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw new IllegalStateException(e.getCause());
+        }
+        return answer;
+    }
+
+    /**
+     * By default, each chunk covers 2^DEFAULT_CHUNK_BITS bits.
+     */
+    public static final int DEFAULT_CHUNK_BITS = 20;
+
+    private static final int MIN_CHUNK_BITS = 5;
+
+    private static final int MAX_CHUNK_BITS = 30;
+
+    private static final int DEFAULT_CHUNK_CAPACITY = 4;
+
+    private static final int TASKS_PER_PROCESSOR = 4;
+
+    private static final byte EMPTY = 0;
+    private static final byte FULL = 1;
+    private static final byte MIXED = 2;
+
+    private static final int AND = 0;
+    private static final int OR = 1;
+    private static final int XOR = 2;
+    private static final int ANDNOT = 3;
+
+    private final int chunkBits;
+    private byte[] states;
+    private EWAHCompressedBitmap32[] chunks;
+    private int sizeInBits = 0;
+}
@@ -0,0 +1,329 @@
+package com.googlecode.javaewah32;
+
+import java.io.DataInput;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ReadableByteChannel;
+
+/*
+ * Copyright 2009-2014, Daniel Lemire, Cliff Moon, David McIntosh, Robert Becho, Google Inc., Veronika Zenz, Owen Kaser, Gregory Ssi-Yan-Kai, Rory Graves
+ * Licensed under the Apache License, Version 2.0.
+ */
+
+/**
+ * An IteratingRLW32 reading a serialized bitmap incrementally, without
+ * deserializing it. Only a block of literal words is held in memory at any
+ * time, so that aggregations over bitmaps stored on disk (with
+ * IteratorAggregation32 or IteratorUtil32) run with bounded memory. A marker
+ * word followed by more literal words than fit in the block is presented as
+ * several running length words.
+ *
+ * The input is read as the iterator advances. It should hold a bitmap
+ * written by EWAHCompressedBitmap32.serialize(DataOutput) when read from a
+ * DataInput, or by serialize(ByteBuffer) or writeTo(WritableByteChannel)
+ * when read from a ByteBuffer or a channel. Once all words are consumed, the
+ * input is positioned right after the bitmap, so that several bitmaps can be
+ * read in sequence.
+ *
+ * Since the methods of IteratingRLW32 cannot throw an IOException, errors
+ * while reading the words are reported as IllegalStateException. The
+ * iterator cannot be cloned.
+ *
+ * @author Daniel Lemire
+ * @since 0.8.12
+ */
+public final class SerializedIteratingRLW32 implements IteratingRLW32 {
+
+    /**
+     * Read a bitmap written by EWAHCompressedBitmap32.serialize(DataOutput).
+     *
+     * @param in the input
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    public SerializedIteratingRLW32(final DataInput in) throws IOException {
+        this(new DataWordInput(in));
+    }
+
+    /**
+     * Read a bitmap written by EWAHCompressedBitmap32.serialize(ByteBuffer),
+     * starting at the position of the buffer, which is advanced as the words
+     * are consumed. The byte order of the buffer is ignored and left
+     * unchanged.
+     *
+     * @param buffer the buffer
+     * @throws IOException if the buffer is too short
+     */
+    public SerializedIteratingRLW32(final ByteBuffer buffer) throws IOException {
+        this(new ByteBufferWordInput(buffer));
+    }
+
+    /**
+     * Read a bitmap written by
+     * EWAHCompressedBitmap32.writeTo(WritableByteChannel). The channel should
+     * be blocking, and it is never read past the end of the bitmap.
+     *
+     * @param channel the channel
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    public SerializedIteratingRLW32(final ReadableByteChannel channel) throws IOException {
+        this(new ChannelWordInput(channel));
+    }
+
+    private SerializedIteratingRLW32(final WordInput input) throws IOException {
+        this.input = input;
+        this.sizeInBits = input.readInt();
+        this.wordsLeft = input.readInt();
+        if (this.wordsLeft < 0)
+            throw new IOException("Invalid number of words: " + this.wordsLeft);
+        input.setWordsLeft(this.wordsLeft);
+        this.brlw = new BufferedRunningLengthWord32(0);
+        next();
+    }
+
+    /**
+     * @return the size in bits of the serialized bitmap
+     */
+    public int sizeInBits() {
+        return this.sizeInBits;
+    }
+
+    @Override
+    public boolean next() {
+        try {
+            if (this.pendingLiteralWords > 0) {
+                this.brlw.RunningLength = 0;
+            } else if (this.wordsLeft > 0) {
+                this.brlw.reset(this.input.readWord());
+                --this.wordsLeft;
+                this.pendingLiteralWords = Math.min(this.brlw.NumberOfLiteralWords, this.wordsLeft);
+            } else {
+                this.brlw.RunningLength = 0;
+                this.brlw.NumberOfLiteralWords = 0;
+                if (!this.finished) {
+                    this.finished = true;
+                    this.input.readInt(); // the position of the last marker
+                }
+                return false;
+            }
+            final int n = Math.min(this.pendingLiteralWords, this.literalWords.length);
+            this.input.readWords(this.literalWords, n);
+            this.wordsLeft -= n;
+            this.pendingLiteralWords -= n;
+            this.brlw.NumberOfLiteralWords = n;
+            this.literalWordStartPosition = 0;
+            return true;
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not read the bitmap", e);
+        }
+    }
+
+    @Override
+    public void discardFirstWords(int x) {
+        while (x > 0) {
+            if (this.brlw.RunningLength > x) {
+                this.brlw.RunningLength -= x;
+                return;
+            }
+            x -= this.brlw.RunningLength;
+            this.brlw.RunningLength = 0;
+            final int toDiscard = x > this.brlw.NumberOfLiteralWords ? this.brlw.NumberOfLiteralWords : x;
+            this.literalWordStartPosition += toDiscard;
+            this.brlw.NumberOfLiteralWords -= toDiscard;
+            x -= toDiscard;
+            if ((x > 0) || (this.brlw.size() == 0)) {
+                if (!next())
+                    break;
+            }
+        }
+    }
+
+    @Override
+    public void discardRunningWords() {
+        this.brlw.RunningLength = 0;
+        if (this.brlw.getNumberOfLiteralWords() == 0)
+            this.next();
+    }
+
+    @Override
+    public int getLiteralWordAt(final int index) {
+        return this.literalWords[this.literalWordStartPosition + index];
+    }
+
+    @Override
+    public int getNumberOfLiteralWords() {
+        return this.brlw.NumberOfLiteralWords;
+    }
+
+    @Override
+    public boolean getRunningBit() {
+        return this.brlw.RunningBit;
+    }
+
+    @Override
+    public int getRunningLength() {
+        return this.brlw.RunningLength;
+    }
+
+    @Override
+    public int size() {
+        return this.brlw.size();
+    }
+
+    /**
+     * A serialized bitmap is read only once: this always throws.
+     *
+     * @throws CloneNotSupportedException always
+     */
+    @Override
+    public IteratingRLW32 clone() throws CloneNotSupportedException {
+        throw new CloneNotSupportedException("A serialized bitmap can only be read once");
+    }
+
+    private abstract static class WordInput {
+        abstract int readInt() throws IOException;
+
+        abstract int readWord() throws IOException;
+
+        abstract void readWords(int[] words, int length) throws IOException;
+
+        void setWordsLeft(int wordsLeft) {
+        }
+    }
+
+    private static final class DataWordInput extends WordInput {
+        DataWordInput(final DataInput in) {
+            this.in = in;
+        }
+
+        @Override
+        int readInt() throws IOException {
+            return this.in.readInt();
+        }
+
+        @Override
+        int readWord() throws IOException {
+            return this.in.readInt();
+        }
+
+        @Override
+        void readWords(final int[] words, final int length) throws IOException {
+            for (int k = 0; k < length; ++k)
+                words[k] = this.in.readInt();
+        }
+
+        private final DataInput in;
+    }
+
+    private static final class ByteBufferWordInput extends WordInput {
+        ByteBufferWordInput(final ByteBuffer buffer) {
+            this.buffer = buffer;
+            this.data = buffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        @Override
+        int readInt() throws IOException {
+            require(4);
+            final int answer = this.data.getInt();
+            this.buffer.position(this.buffer.position() + 4);
+            return answer;
+        }
+
+        @Override
+        int readWord() throws IOException {
+            return readInt();
+        }
+
+        @Override
+        void readWords(final int[] words, final int length) throws IOException {
+            require(4 * length);
+            this.data.asIntBuffer().get(words, 0, length);
+            this.data.position(this.data.position() + 4 * length);
+            this.buffer.position(this.buffer.position() + 4 * length);
+        }
+
+        private void require(final int bytes) throws EOFException {
+            if (this.data.remaining() < bytes)
+                throw new EOFException();
+        }
+
+        private final ByteBuffer buffer;
+        private final ByteBuffer data;
+    }
+
+    private static final class ChannelWordInput extends WordInput {
+        ChannelWordInput(final ReadableByteChannel channel) {
+            this.channel = channel;
+            this.block.limit(0);
+        }
+
+        @Override
+        void setWordsLeft(final int wordsLeft) {
+            // the words and the position of the last marker
+            this.bytesLeft = 4L * wordsLeft + 4;
+        }
+
+        @Override
+        int readInt() throws IOException {
+            fill(4);
+            return this.block.getInt();
+        }
+
+        @Override
+        int readWord() throws IOException {
+            return readInt();
+        }
+
+        @Override
+        void readWords(final int[] words, final int length) throws IOException {
+            int k = 0;
+            while (k < length) {
+                fill(4);
+                final int n = Math.min(length - k, this.block.remaining() / 4);
+                this.block.asIntBuffer().get(words, k, n);
+                this.block.position(this.block.position() + 4 * n);
+                k += n;
+            }
+        }
+
+        /**
+         * Make sure that at least the given number of bytes are available
+         * in the block, without reading past the end of the bitmap.
+         */
+        private void fill(final int bytes) throws IOException {
+            if (this.block.remaining() >= bytes)
+                return;
+            this.block.compact();
+            this.block.limit((int) Math.min(this.block.capacity(), this.block.position() + this.bytesLeft));
+            while (this.block.position() < bytes) {
+                final int n = this.channel.read(this.block);
+                if (n < 0)
+                    throw new EOFException();
+                this.bytesLeft -= n;
+                if ((n == 0) && !this.block.hasRemaining())
+                    throw new EOFException();
+            }
+            this.block.flip();
+        }
+
+        private final ReadableByteChannel channel;
+        private final ByteBuffer block = ByteBuffer.allocate(4 * BLOCK_IN_WORDS).order(ByteOrder.LITTLE_ENDIAN);
+        // the header is read before the number of words is known
+        private long bytesLeft = 8;
+    }
+
+    /**
+     * Number of literal words held in memory.
+     */
+    private static final int BLOCK_IN_WORDS = 1024;
+
+    private final WordInput input;
+    private final int sizeInBits;
+    private final BufferedRunningLengthWord32 brlw;
+    private final int[] literalWords = new int[BLOCK_IN_WORDS];
+    private int literalWordStartPosition;
+    private int pendingLiteralWords;
+    private int wordsLeft;
+    private boolean finished = false;
+}
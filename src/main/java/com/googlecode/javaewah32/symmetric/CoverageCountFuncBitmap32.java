@@ -0,0 +1,82 @@
+package com.googlecode.javaewah32.symmetric;
+
+import com.googlecode.javaewah32.BitmapStorage32;
+import com.googlecode.javaewah32.EWAHCompressedBitmap32;
+
+/**
+ * Counts, for each position, how many inputs are true. The counts are
+ * written as bit-sliced bitmaps (see getSlices()): the count at a given
+ * position is the sum of 2^j over the slices j having this position. The
+ * main output receives the union of the inputs (positions with a non-zero
+ * count).
+ *
+ * Within runs where no input has a literal word, the count is constant and
+ * each slice receives a run. Literal words are added to the slices with a
+ * ripple-carry adder, one word at a time.
+ *
+ * It is not thread safe: you should use one object per thread and per
+ * computation.
+ *
+ * @author Daniel Lemire
+ * @since 0.8.12
+ */
+public final class CoverageCountFuncBitmap32 extends UpdateableBitmapFunction32 {
+    private EWAHCompressedBitmap32[] slices = new EWAHCompressedBitmap32[0];
+    private int[] sums = new int[0];
+
+    /**
+     * Construct a function counting the true inputs.
+     */
+    public CoverageCountFuncBitmap32() {
+        super();
+    }
+
+    /**
+     * The slices computed by the last computation: slice j has the positions
+     * where the count has its j-th bit set. There are as many slices as
+     * needed to represent the number of inputs.
+     *
+     * @return the bit-sliced counts
+     */
+    public EWAHCompressedBitmap32[] getSlices() {
+        return this.slices.clone();
+    }
+
+    @Override
+    public void dispatch(BitmapStorage32 out, int runBegin, int runEnd) {
+        final int runLength = runEnd - runBegin;
+        if (this.litWeight == 0) {
+            for (int j = 0; j < this.slices.length; ++j)
+                this.slices[j].addStreamOfEmptyWords(((this.hammingWeight >>> j) & 1) != 0, runLength);
+            out.addStreamOfEmptyWords(this.hammingWeight > 0, runLength);
+            return;
+        }
+        final int[] s = this.sums;
+        for (int i = 0; i < runLength; ++i) {
+            for (int j = 0; j < s.length; ++j)
+                s[j] = ((this.hammingWeight >>> j) & 1) != 0 ? ~0 : 0;
+            int union = 0;
+            for (EWAHPointer32 R : this.getLiterals()) {
+                int carry = R.iterator.getLiteralWordAt(i + runBegin - R.beginOfRun());
+                union |= carry;
+                for (int j = 0; carry != 0; ++j) {
+                    final int c = s[j] & carry;
+                    s[j] ^= carry;
+                    carry = c;
+                }
+            }
+            for (int j = 0; j < s.length; ++j)
+                this.slices[j].addWord(s[j]);
+            out.addWord(this.hammingWeight > 0 ? ~0 : union);
+        }
+    }
+
+    @Override
+    void start() {
+        final int numberOfSlices = 32 - Integer.numberOfLeadingZeros(this.rw.length);
+        this.slices = new EWAHCompressedBitmap32[numberOfSlices];
+        for (int j = 0; j < numberOfSlices; ++j)
+            this.slices[j] = new EWAHCompressedBitmap32();
+        this.sums = new int[numberOfSlices];
+    }
+}
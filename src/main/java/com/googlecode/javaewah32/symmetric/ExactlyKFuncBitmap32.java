@@ -0,0 +1,82 @@
+package com.googlecode.javaewah32.symmetric;
+
+import com.googlecode.javaewah32.BitmapStorage32;
+
+/**
+ * A symmetric Boolean function which is true when exactly k of its inputs
+ * are true.
+ *
+ * It is not thread safe: you should use one object per thread.
+ *
+ * @author Daniel Lemire
+ * @see <a
+ * href="http://en.wikipedia.org/wiki/Symmetric_Boolean_function">http://en.wikipedia.org/wiki/Symmetric_Boolean_function</a>
+ * @since 0.8.12
+ */
+public final class ExactlyKFuncBitmap32 extends UpdateableBitmapFunction32 {
+    private final int k;
+    private int[] buffers = new int[16];
+    private int[] levels = new int[2];
+
+    /**
+     * Construct a function which is true when exactly k inputs are true.
+     *
+     * @param k the number of true inputs
+     */
+    public ExactlyKFuncBitmap32(final int k) {
+        super();
+        this.k = k;
+    }
+
+    @Override
+    public boolean evaluate(final int numberOfTrueInputs) {
+        return numberOfTrueInputs == this.k;
+    }
+
+    @Override
+    public boolean supportsCounts() {
+        return true;
+    }
+
+    @Override
+    public void dispatch(BitmapStorage32 out, int runBegin, int runEnd) {
+        final int runLength = runEnd - runBegin;
+        if ((this.hammingWeight > this.k) || (this.hammingWeight + this.litWeight < this.k)) {
+            out.addStreamOfEmptyWords(false, runLength);
+        } else if (this.litWeight == 0) {
+            out.addStreamOfEmptyWords(true, runLength);
+        } else {
+            final int deficit = this.k - this.hammingWeight;
+            if (deficit == this.litWeight) {
+                andLiterals(out, runBegin, runLength);
+                return;
+            }
+            final int bufferUsed = this.getNumberOfLiterals();
+            if (bufferUsed > this.buffers.length)
+                this.buffers = new int[2 * bufferUsed];
+            if (deficit + 1 > this.levels.length)
+                this.levels = new int[2 * (deficit + 1)];
+            for (int i = 0; i < runLength; ++i) {
+                int p = 0;
+                for (EWAHPointer32 R : this.getLiterals()) {
+                    this.buffers[p++] = R.iterator.getLiteralWordAt(i + runBegin - R.beginOfRun());
+                }
+                WordCounters32.atLeast(this.levels, deficit + 1, this.buffers, bufferUsed);
+                if (deficit == 0)
+                    out.addWord(~this.levels[0]);
+                else
+                    out.addWord(this.levels[deficit - 1] & ~this.levels[deficit]);
+            }
+        }
+    }
+
+    private void andLiterals(final BitmapStorage32 out, final int runBegin, final int runLength) {
+        for (int i = 0; i < runLength; ++i) {
+            int w = ~0;
+            for (EWAHPointer32 R : this.getLiterals()) {
+                w &= R.iterator.getLiteralWordAt(i + runBegin - R.beginOfRun());
+            }
+            out.addWord(w);
+        }
+    }
+}
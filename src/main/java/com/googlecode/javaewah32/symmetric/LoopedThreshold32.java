@@ -0,0 +1,76 @@
+package com.googlecode.javaewah32.symmetric;
+
+import com.googlecode.javaewah32.BitmapStorage32;
+import com.googlecode.javaewah32.EWAHCompressedBitmap32;
+import com.googlecode.javaewah32.IteratingRLW32;
+
+/**
+ * This is an implementation of the Looped algorithm for threshold functions:
+ * after processing k inputs, the bitmap v[j] has the positions where at
+ * least j+1 of the k inputs are true. Each new input c updates the bitmaps
+ * with v[j] = v[j] OR (c AND v[j-1]). Only compressed bitmaps are used, so it
+ * is efficient when the threshold is small and the inputs compress well.
+ *
+ * It is described in the following paper:
+ *
+ * Owen Kaser and Daniel Lemire, Compressed bitmap indexes: beyond unions and intersections
+ * <a href="http://arxiv.org/abs/1402.4466">http://arxiv.org/abs/1402.4466</a>
+ *
+ * Only ThresholdFuncBitmap32 functions are supported.
+ *
+ * @author Daniel Lemire
+ * @since 0.8.12
+ */
+public class LoopedThreshold32 implements BitmapSymmetricAlgorithm32 {
+
+    @Override
+    public void symmetric(UpdateableBitmapFunction32 f, BitmapStorage32 out,
+                          EWAHCompressedBitmap32... set) {
+        if (!(f instanceof ThresholdFuncBitmap32))
+            throw new IllegalArgumentException("The Looped algorithm only supports threshold functions");
+        final int t = ((ThresholdFuncBitmap32) f).getThreshold();
+        out.clear();
+        int sizeInWords = 0;
+        for (EWAHCompressedBitmap32 b : set)
+            sizeInWords = Math.max(sizeInWords, b.sizeInBits() / EWAHCompressedBitmap32.WORD_IN_BITS
+                    + (b.sizeInBits() % EWAHCompressedBitmap32.WORD_IN_BITS != 0 ? 1 : 0));
+        if (t <= 0) {
+            out.addStreamOfEmptyWords(true, sizeInWords);
+            return;
+        }
+        int written = 0;
+        if (t <= set.length) {
+            final EWAHCompressedBitmap32[] v = new EWAHCompressedBitmap32[t];
+            v[0] = set[0];
+            for (int k = 1; k < set.length; ++k) {
+                final EWAHCompressedBitmap32 c = set[k];
+                for (int j = Math.min(t - 1, k); j >= 1; --j) {
+                    if (v[j - 1] == null)
+                        continue;
+                    final EWAHCompressedBitmap32 x = c.and(v[j - 1]);
+                    v[j] = v[j] == null ? x : v[j].or(x);
+                }
+                v[0] = v[0].or(c);
+            }
+            if (v[t - 1] != null)
+                written = copy(v[t - 1].getIteratingRLW(), out);
+        }
+        // the result covers as many words as the largest input
+        if (written < sizeInWords)
+            out.addStreamOfEmptyWords(false, sizeInWords - written);
+    }
+
+    private static int copy(final IteratingRLW32 i, final BitmapStorage32 out) {
+        int written = 0;
+        while (true) {
+            if (i.getRunningLength() > 0)
+                out.addStreamOfEmptyWords(i.getRunningBit(), i.getRunningLength());
+            for (int k = 0; k < i.getNumberOfLiteralWords(); ++k)
+                out.addWord(i.getLiteralWordAt(k));
+            written += i.size();
+            if (!i.next())
+                break;
+        }
+        return written;
+    }
+}
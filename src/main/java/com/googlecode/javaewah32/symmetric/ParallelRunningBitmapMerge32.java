@@ -0,0 +1,131 @@
+package com.googlecode.javaewah32.symmetric;
+
+import com.googlecode.javaewah32.BitmapStorage32;
+import com.googlecode.javaewah32.EWAHCompressedBitmap32;
+import com.googlecode.javaewah32.IteratorUtil32;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * A parallel version of the RunningBitmapMerge32 algorithm. The uncompressed
+ * words are split into consecutive ranges and each range is merged by its
+ * own task, with its own function instance. The results of the ranges are
+ * then concatenated. The result is the same as with RunningBitmapMerge32.
+ *
+ * Each task skips the compressed words preceding its range, so this is
+ * worth it when there are many inputs or when the function is expensive
+ * to evaluate (e.g., threshold queries over thousands of bitmaps).
+ *
+ * The functions should only depend on the words within a run (as do
+ * ThresholdFuncBitmap32, ExactlyKFuncBitmap32, AtMostKFuncBitmap32 and
+ * WeightedThresholdFuncBitmap32). CoverageCountFuncBitmap32 is not supported.
+ *
+ * <pre>
+ * ExecutorService pool = Executors.newFixedThreadPool(4);
+ * ParallelRunningBitmapMerge32 merge = new ParallelRunningBitmapMerge32(pool, 16);
+ * EWAHCompressedBitmap32 answer = new EWAHCompressedBitmap32();
+ * merge.symmetric(new UpdateableBitmapFunctionFactory32() {
+ *     public UpdateableBitmapFunction32 newFunction() {
+ *         return new ThresholdFuncBitmap32(3);
+ *     }
+ * }, answer, bitmaps);
+ * </pre>
+ *
+ * @author Daniel Lemire
+ * @since 0.8.12
+ */
+public class ParallelRunningBitmapMerge32 {
+
+    /**
+     * Construct the algorithm.
+     *
+     * @param executor       the executor running the tasks (it is not shut
+     *                       down by this class)
+     * @param numberOfRanges in how many ranges the words are split (at
+     *                       most): typically a small multiple of the
+     *                       number of threads
+     */
+    public ParallelRunningBitmapMerge32(final ExecutorService executor, final int numberOfRanges) {
+        if (numberOfRanges < 1)
+            throw new IllegalArgumentException("Need at least one range, got " + numberOfRanges);
+        this.executor = executor;
+        this.numberOfRanges = numberOfRanges;
+    }
+
+    /**
+     * Compute a Boolean symmetric query.
+     *
+     * @param factory creates a function instance for each range
+     * @param out     the result of the query
+     * @param set     the inputs
+     */
+    public void symmetric(final UpdateableBitmapFunctionFactory32 factory, final BitmapStorage32 out,
+                          final EWAHCompressedBitmap32... set) {
+        out.clear();
+        int sizeInWords = 0;
+        for (EWAHCompressedBitmap32 b : set)
+            sizeInWords = Math.max(sizeInWords, (int) (((long) b.sizeInBits()
+                    + EWAHCompressedBitmap32.WORD_IN_BITS - 1) / EWAHCompressedBitmap32.WORD_IN_BITS));
+        final int ranges = Math.max(1, Math.min(this.numberOfRanges,
+                (sizeInWords + MIN_RANGE_IN_WORDS - 1) / MIN_RANGE_IN_WORDS));
+        if (ranges == 1) {
+            new RunningBitmapMerge32().symmetric(factory.newFunction(), out, set);
+            return;
+        }
+        final List<Future<EWAHCompressedBitmap32>> results = new ArrayList<Future<EWAHCompressedBitmap32>>(ranges);
+        for (int r = 0; r < ranges; ++r) {
+            final int begin = (int) ((long) sizeInWords * r / ranges);
+            // the last range also covers the words beyond the declared sizes
+            final int end = r == ranges - 1 ? Integer.MAX_VALUE : (int) ((long) sizeInWords * (r + 1) / ranges);
+            final UpdateableBitmapFunction32 f = factory.newFunction();
+            results.add(this.executor.submit(new Callable<EWAHCompressedBitmap32>() {
+                @Override
+                public EWAHCompressedBitmap32 call() {
+                    final EWAHCompressedBitmap32 range = new EWAHCompressedBitmap32();
+                    final RunningBitmapMergeIterator32 merge = new RunningBitmapMergeIterator32(f, 0, begin, end, set);
+                    while (merge.step(range)) {
+                    }
+                    return range;
+                }
+            }));
+        }
+        try {
+            int written = 0;
+            for (int r = 0; r < ranges; ++r) {
+                final EWAHCompressedBitmap32 range = results.get(r).get();
+                if (range.sizeInBits() == 0)
+                    continue;
+                // the inputs may have no words toward the end of a range
+                final int begin = (int) ((long) sizeInWords * r / ranges);
+                if (written < begin)
+                    out.addStreamOfEmptyWords(false, begin - written);
+                IteratorUtil32.materialize(range.getIteratingRLW(), out);
+                written = begin + range.sizeInBits() / EWAHCompressedBitmap32.WORD_IN_BITS;
+            }
+        } catch (InterruptedException e) {
+            for (Future<EWAHCompressedBitmap32> result : results)
+                result.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while merging", e);
+        } catch (ExecutionException e) {
+            for (Future<EWAHCompressedBitmap32> result : results)
+                result.cancel(true);
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * Ranges are not made smaller than this number of words.
+     */
+    static final int MIN_RANGE_IN_WORDS = 1024;
+
+    private final ExecutorService executor;
+    private final int numberOfRanges;
+}
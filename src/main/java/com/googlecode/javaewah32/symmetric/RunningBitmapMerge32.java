@@ -1,11 +1,10 @@
 package com.googlecode.javaewah32.symmetric;
 
-import com.googlecode.javaewah.datastructure.PriorityQ;
 import com.googlecode.javaewah32.BitmapStorage32;
+import com.googlecode.javaewah32.BufferedIterator32;
 import com.googlecode.javaewah32.EWAHCompressedBitmap32;
-import com.googlecode.javaewah32.IteratingBufferedRunningLengthWord32;
-
-import java.util.Comparator;
+import com.googlecode.javaewah32.IteratingRLW32;
+import com.googlecode.javaewah32.IteratorAggregation32;
 
 /**
  * This is an implementation of the RunningBitmapMerge algorithm running on top
@@ -26,53 +25,26 @@ public class RunningBitmapMerge32 implements BitmapSymmetricAlgorithm32 {
     public void symmetric(UpdateableBitmapFunction32 f, BitmapStorage32 out,
                           EWAHCompressedBitmap32... set) {
         out.clear();
-        final PriorityQ<EWAHPointer32> h = new PriorityQ<EWAHPointer32>(
-                set.length, new Comparator<EWAHPointer32>() {
-            @Override
-            public int compare(EWAHPointer32 arg0,
-                               EWAHPointer32 arg1) {
-                return arg0.compareTo(arg1);
-            }
-        }
-        );
-        f.resize(set.length);
-
-        for (int k = 0; k < set.length; ++k) {
-            final EWAHPointer32 x = new EWAHPointer32(0,
-                    new IteratingBufferedRunningLengthWord32(set[k]),
-                    k);
-            if (x.hasNoData())
-                continue;
-            f.rw[k] = x;
-            x.callbackUpdate(f);
-            h.toss(x);
+        final RunningBitmapMergeIterator32 merge = new RunningBitmapMergeIterator32(f, 0, set);
+        while (merge.step(out)) {
         }
-        h.buildHeap(); // just in case we use an insane number of inputs
-
-        int lasta = 0;
-        if (h.isEmpty())
-            return;
-        mainloop:
-        while (true) { // goes until no more active inputs
-            final int a = h.peek().endOfRun();
-            // I suppose we have a run of length a - lasta here.
-            f.dispatch(out, lasta, a);
-            lasta = a;
+    }
 
-            while (h.peek().endOfRun() == a) {
-                final EWAHPointer32 p = h.peek();
-                p.parseNextRun();
-                p.callbackUpdate(f);
-                if (p.hasNoData()) {
-                    h.poll(); // we just remove it
-                    if (h.isEmpty())
-                        break mainloop;
-                } else {
-                    h.percolateDown(); // since we have
-                    // increased the key
-                }
-            }
-        }
+    /**
+     * Compute a Boolean symmetric query lazily: the result is generated
+     * block by block as the iterator is consumed, so that it can be fed to
+     * further aggregations (e.g., IteratorAggregation32) without being
+     * materialized. The function and the inputs should not be used
+     * elsewhere while the iterator is in use. The iterator cannot be cloned.
+     *
+     * @param f   symmetric boolean function to be processed
+     * @param set the inputs
+     * @return an iterator over the result
+     * @since 0.8.12
+     */
+    public IteratingRLW32 iterator(UpdateableBitmapFunction32 f, EWAHCompressedBitmap32... set) {
+        return new BufferedIterator32(new RunningBitmapMergeIterator32(f,
+                IteratorAggregation32.DEFAULT_MAX_BUF_SIZE, set));
     }
 
 }
@@ -0,0 +1,113 @@
+package com.googlecode.javaewah32.symmetric;
+
+import com.googlecode.javaewah.CloneableIterator;
+import com.googlecode.javaewah.datastructure.IntPriorityQ;
+import com.googlecode.javaewah32.BitmapStorage32;
+import com.googlecode.javaewah32.EWAHCompressedBitmap32;
+import com.googlecode.javaewah32.EWAHIterator32;
+import com.googlecode.javaewah32.IteratingBufferedRunningLengthWord32;
+
+/**
+ * The state of the RunningBitmapMerge32 algorithm. The runs can be processed
+ * one at a time (see step) or by blocks of words (as an iterator), so that
+ * the result can be consumed lazily.
+ *
+ * @author Daniel Lemire
+ * @since 0.8.12
+ */
+final class RunningBitmapMergeIterator32 implements CloneableIterator<EWAHIterator32> {
+
+    RunningBitmapMergeIterator32(final UpdateableBitmapFunction32 f, final int bufferSize,
+                               final EWAHCompressedBitmap32... set) {
+        this(f, bufferSize, 0, Integer.MAX_VALUE, set);
+    }
+
+    /**
+     * Merge only the words in [begin, end).
+     */
+    RunningBitmapMergeIterator32(final UpdateableBitmapFunction32 f, final int bufferSize,
+                               final int begin, final int end, final EWAHCompressedBitmap32... set) {
+        this.f = f;
+        this.bufferSize = bufferSize;
+        this.lasta = begin;
+        this.end = end;
+        this.h = new IntPriorityQ(set.length);
+        this.pointers = new EWAHPointer32[set.length];
+        f.resize(set.length);
+        f.start();
+        for (int k = 0; k < set.length; ++k) {
+            final IteratingBufferedRunningLengthWord32 i = new IteratingBufferedRunningLengthWord32(set[k]);
+            if (begin > 0)
+                i.discardFirstWords(begin);
+            final EWAHPointer32 x = new EWAHPointer32(begin, i, k);
+            if (x.hasNoData())
+                continue;
+            f.rw[k] = x;
+            this.pointers[k] = x;
+            x.callbackUpdate(f);
+            this.h.toss(x.endOfRun(), k);
+        }
+        this.h.buildHeap(); // just in case we use an insane number of inputs
+    }
+
+    /**
+     * Process the next run.
+     *
+     * @param out where we write
+     * @return false if there was no more run
+     */
+    boolean step(final BitmapStorage32 out) {
+        if (this.h.isEmpty() || (this.lasta >= this.end))
+            return false;
+        final int a = Math.min(this.h.peekKey(), this.end);
+        // I suppose we have a run of length a - lasta here.
+        this.f.dispatch(out, this.lasta, a);
+        this.lasta = a;
+
+        while (this.h.peekKey() == a) {
+            final EWAHPointer32 p = this.pointers[this.h.peekValue()];
+            p.parseNextRun();
+            p.callbackUpdate(this.f);
+            if (p.hasNoData()) {
+                this.h.poll(); // we just remove it
+                if (this.h.isEmpty())
+                    break;
+            } else {
+                this.h.updateTopKey(p.endOfRun()); // since we have
+                // increased the key
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean hasNext() {
+        // there is always at least one (possibly empty) block
+        return !this.started || (!this.h.isEmpty() && (this.lasta < this.end));
+    }
+
+    @Override
+    public EWAHIterator32 next() {
+        this.started = true;
+        this.buffer.clear();
+        final int begin = this.lasta;
+        while ((this.lasta - begin < this.bufferSize) && step(this.buffer)) {
+        }
+        return this.buffer.getEWAHIterator();
+    }
+
+    @Override
+    public RunningBitmapMergeIterator32 clone() throws CloneNotSupportedException {
+        // the state of the function and of the heap cannot be copied
+        throw new CloneNotSupportedException();
+    }
+
+    private final UpdateableBitmapFunction32 f;
+    private final IntPriorityQ h;
+    private final EWAHPointer32[] pointers;
+    private final EWAHCompressedBitmap32 buffer = new EWAHCompressedBitmap32();
+    private final int bufferSize;
+    private final int end;
+    private int lasta = 0;
+    private boolean started = false;
+}
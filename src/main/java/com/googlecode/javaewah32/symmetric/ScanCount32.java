@@ -0,0 +1,114 @@
+package com.googlecode.javaewah32.symmetric;
+
+import com.googlecode.javaewah32.BitmapStorage32;
+import com.googlecode.javaewah32.EWAHCompressedBitmap32;
+import com.googlecode.javaewah32.IteratingBufferedRunningLengthWord32;
+
+import java.util.Arrays;
+
+/**
+ * This is an implementation of the ScanCount algorithm: a counter is kept
+ * for each bit position and incremented for each input having a true bit at
+ * this position. The counters are then scanned to generate the result. The
+ * counters cover a block of words at a time so that the memory usage does
+ * not depend on the size of the bitmaps.
+ *
+ * ScanCount does not depend on the threshold and it is efficient when the
+ * inputs are sparse. It is described in the following paper:
+ *
+ * Owen Kaser and Daniel Lemire, Compressed bitmap indexes: beyond unions and intersections
+ * <a href="http://arxiv.org/abs/1402.4466">http://arxiv.org/abs/1402.4466</a>
+ *
+ * The function must support UpdateableBitmapFunction32.evaluate(int) (see
+ * supportsCounts()).
+ *
+ * @author Daniel Lemire
+ * @since 0.8.12
+ */
+public class ScanCount32 implements BitmapSymmetricAlgorithm32 {
+
+    @Override
+    public void symmetric(UpdateableBitmapFunction32 f, BitmapStorage32 out,
+                          EWAHCompressedBitmap32... set) {
+        if (!f.supportsCounts())
+            throw new IllegalArgumentException("ScanCount only supports functions which can be evaluated from a count");
+        out.clear();
+        final boolean[] truth = new boolean[set.length + 1];
+        for (int c = 0; c <= set.length; ++c)
+            truth[c] = f.evaluate(c);
+        final IteratingBufferedRunningLengthWord32[] iterators = new IteratingBufferedRunningLengthWord32[set.length];
+        for (int k = 0; k < set.length; ++k)
+            iterators[k] = new IteratingBufferedRunningLengthWord32(set[k]);
+        final int[] counters = new int[BLOCK_SIZE * EWAHCompressedBitmap32.WORD_IN_BITS];
+        final int[] runCounters = new int[BLOCK_SIZE];
+        final boolean[] hasLiterals = new boolean[BLOCK_SIZE];
+        while (true) {
+            int blockLength = 0;
+            for (IteratingBufferedRunningLengthWord32 i : iterators) {
+                final int length = count(i, counters, runCounters, hasLiterals);
+                if (length > blockLength)
+                    blockLength = length;
+            }
+            if (blockLength == 0)
+                break;
+            int w = 0;
+            while (w < blockLength) {
+                if (hasLiterals[w]) {
+                    int word = 0;
+                    final int offset = w * EWAHCompressedBitmap32.WORD_IN_BITS;
+                    for (int bit = 0; bit < EWAHCompressedBitmap32.WORD_IN_BITS; ++bit)
+                        if (truth[runCounters[w] + counters[offset + bit]])
+                            word |= 1 << bit;
+                    Arrays.fill(counters, offset, offset + EWAHCompressedBitmap32.WORD_IN_BITS, 0);
+                    out.addWord(word);
+                    ++w;
+                } else {
+                    // consecutive words without literals make a run
+                    final int begin = w;
+                    final int runCounter = runCounters[w];
+                    while ((w < blockLength) && !hasLiterals[w] && (runCounters[w] == runCounter))
+                        ++w;
+                    out.addStreamOfEmptyWords(truth[runCounter], w - begin);
+                }
+            }
+            Arrays.fill(runCounters, 0, blockLength, 0);
+            Arrays.fill(hasLiterals, 0, blockLength, false);
+        }
+    }
+
+    /**
+     * Add the next block of an input to the counters.
+     *
+     * @return the number of words consumed
+     */
+    private static int count(final IteratingBufferedRunningLengthWord32 i, final int[] counters,
+                             final int[] runCounters, final boolean[] hasLiterals) {
+        int w = 0;
+        while ((w < BLOCK_SIZE) && (i.size() > 0)) {
+            final int rl = Math.min(i.getRunningLength(), BLOCK_SIZE - w);
+            if (i.getRunningBit())
+                for (int j = w; j < w + rl; ++j)
+                    runCounters[j]++;
+            w += rl;
+            final int nl = Math.min(i.getNumberOfLiteralWords(), BLOCK_SIZE - w);
+            for (int j = 0; j < nl; ++j) {
+                int bitset = i.getLiteralWordAt(j);
+                final int offset = (w + j) * EWAHCompressedBitmap32.WORD_IN_BITS;
+                hasLiterals[w + j] = true;
+                while (bitset != 0) {
+                    final int t = bitset & -bitset;
+                    counters[offset + Integer.bitCount(t - 1)]++;
+                    bitset ^= t;
+                }
+            }
+            w += nl;
+            i.discardFirstWords(rl + nl);
+        }
+        return w;
+    }
+
+    /**
+     * Number of words covered by the counters.
+     */
+    private static final int BLOCK_SIZE = 1024;
+}
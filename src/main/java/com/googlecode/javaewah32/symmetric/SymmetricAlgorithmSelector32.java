@@ -0,0 +1,85 @@
+package com.googlecode.javaewah32.symmetric;
+
+import com.googlecode.javaewah32.BitmapStorage32;
+import com.googlecode.javaewah32.EWAHCompressedBitmap32;
+
+/**
+ * Picks the algorithm expected to be the fastest given the function, the
+ * number of inputs and their compressed sizes, and delegates to it. The
+ * candidates are RunningBitmapMerge32, ScanCount32 (for functions which can be
+ * evaluated from a count, see UpdateableBitmapFunction32.supportsCounts()) and
+ * LoopedThreshold32 (for threshold functions). Only the compressed sizes are
+ * used, so that selecting an algorithm does not read the inputs.
+ *
+ * The cost model is a rough estimate in the spirit of the following paper:
+ *
+ * Owen Kaser and Daniel Lemire, Compressed bitmap indexes: beyond unions and intersections
+ * <a href="http://arxiv.org/abs/1402.4466">http://arxiv.org/abs/1402.4466</a>
+ *
+ * @author Daniel Lemire
+ * @since 0.8.12
+ */
+public class SymmetricAlgorithmSelector32 implements BitmapSymmetricAlgorithm32 {
+
+    @Override
+    public void symmetric(UpdateableBitmapFunction32 f, BitmapStorage32 out,
+                          EWAHCompressedBitmap32... set) {
+        select(f, set).symmetric(f, out, set);
+    }
+
+    /**
+     * Choose an algorithm.
+     *
+     * @param f   symmetric boolean function to be processed
+     * @param set the inputs
+     * @return the algorithm with the lowest estimated cost
+     */
+    public BitmapSymmetricAlgorithm32 select(final UpdateableBitmapFunction32 f, final EWAHCompressedBitmap32... set) {
+        long sizeInWords = 0;
+        long universeInWords = 0;
+        for (EWAHCompressedBitmap32 b : set) {
+            sizeInWords += b.sizeInBytes() / (EWAHCompressedBitmap32.WORD_IN_BITS / 8);
+            universeInWords = Math.max(universeInWords, b.sizeInBits() / EWAHCompressedBitmap32.WORD_IN_BITS);
+        }
+        // RunningBitmapMerge maintains a heap over the inputs
+        final double mergeCost = MERGE_COST * sizeInWords * (1 + log2(set.length));
+        double bestCost = mergeCost;
+        BitmapSymmetricAlgorithm32 best = RUNNING_BITMAP_MERGE;
+        if (f instanceof ThresholdFuncBitmap32) {
+            // each input is merged with up to t intermediate bitmaps which
+            // grow up to the size of the universe
+            final int t = ((ThresholdFuncBitmap32) f).getThreshold();
+            final long intermediateSize = Math.min(universeInWords, sizeInWords / 2);
+            final double loopedCost = LOOPED_COST * Math.max(1, t)
+                    * (sizeInWords + (double) set.length * intermediateSize);
+            if (loopedCost < bestCost) {
+                bestCost = loopedCost;
+                best = LOOPED;
+            }
+        }
+        if (f.supportsCounts()) {
+            // the set bits of the literal words are counted one by one and
+            // the counters are scanned for each output word having literals
+            final double scanCost = SCAN_COST * sizeInWords
+                    + SCAN_LITERAL_COST * Math.min(universeInWords, sizeInWords);
+            if (scanCost < bestCost)
+                best = SCAN_COUNT;
+        }
+        return best;
+    }
+
+    private static double log2(final int x) {
+        return x <= 1 ? 0 : Math.log(x) / Math.log(2);
+    }
+
+    // approximate costs in nanoseconds, as in SymmetricAlgorithmSelector
+    // except that an output literal word has half as many counters to scan
+    private static final double MERGE_COST = 15;
+    private static final double LOOPED_COST = 15;
+    private static final double SCAN_COST = 20;
+    private static final double SCAN_LITERAL_COST = 150;
+
+    private static final BitmapSymmetricAlgorithm32 RUNNING_BITMAP_MERGE = new RunningBitmapMerge32();
+    private static final BitmapSymmetricAlgorithm32 LOOPED = new LoopedThreshold32();
+    private static final BitmapSymmetricAlgorithm32 SCAN_COUNT = new ScanCount32();
+}
@@ -39,6 +39,36 @@ public final class ThresholdFuncBitmap32 extends UpdateableBitmapFunction32 {
         this.bufferUsed = 0;
     }
 
+    /**
+     * Construct the majority function: it is true when more than half of
+     * the inputs are true.
+     *
+     * @param numberOfInputs how many inputs the function receives
+     * @return the majority function
+     * @since 0.8.12
+     */
+    public static ThresholdFuncBitmap32 majority(final int numberOfInputs) {
+        return new ThresholdFuncBitmap32(numberOfInputs / 2 + 1);
+    }
+
+    /**
+     * @return the threshold
+     * @since 0.8.12
+     */
+    public int getThreshold() {
+        return this.min;
+    }
+
+    @Override
+    public boolean evaluate(final int numberOfTrueInputs) {
+        return numberOfTrueInputs >= this.min;
+    }
+
+    @Override
+    public boolean supportsCounts() {
+        return true;
+    }
+
     @Override
     public void dispatch(BitmapStorage32 out, int runBegin, int runend) {
         final int runLength = runend - runBegin;
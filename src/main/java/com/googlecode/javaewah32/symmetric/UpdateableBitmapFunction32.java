@@ -93,6 +93,13 @@ public abstract class UpdateableBitmapFunction32 {
         this.b = java.util.Arrays.copyOf(this.b, newsize);
     }
 
+    /**
+     * A new computation begins, over the inputs given to the last call to
+     * resize. The default implementation does nothing.
+     */
+    void start() {
+    }
+
     /**
      * @param pos position of a literal
      */
@@ -121,7 +128,7 @@ public abstract class UpdateableBitmapFunction32 {
     /**
      * @param pos position where a zero word was added
      */
-    public final void setZero(final int pos) {
+    public void setZero(final int pos) {
         if (this.b[pos]) {
             this.b[pos] = false;
             --this.hammingWeight;
@@ -133,7 +140,7 @@ public abstract class UpdateableBitmapFunction32 {
     /**
      * @param pos position were a 11...1 word was added
      */
-    public final void setOne(final int pos) {
+    public void setOne(final int pos) {
         if (!this.b[pos]) {
             clearLiteral(pos);
             this.b[pos] = true;
@@ -141,6 +148,29 @@ public abstract class UpdateableBitmapFunction32 {
         }
     }
 
+    /**
+     * Evaluates the function given the number of true inputs. This is used
+     * by the algorithms which do not process the inputs run by run (e.g.,
+     * ScanCount32).
+     *
+     * @param numberOfTrueInputs how many inputs are true
+     * @return the value of the function
+     * @throws UnsupportedOperationException if supportsCounts() is false
+     * @since 0.8.12
+     */
+    public boolean evaluate(final int numberOfTrueInputs) {
+        throw new UnsupportedOperationException("This function cannot be evaluated from a count");
+    }
+
+    /**
+     * @return whether the function can be evaluated from the number of true
+     * inputs (see evaluate(int))
+     * @since 0.8.12
+     */
+    public boolean supportsCounts() {
+        return false;
+    }
+
     /**
      * Writes out the answer.
      *
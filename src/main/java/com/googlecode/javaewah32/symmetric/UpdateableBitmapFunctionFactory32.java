@@ -0,0 +1,16 @@
+package com.googlecode.javaewah32.symmetric;
+
+/**
+ * Creates new instances of a function. Algorithms processing several parts
+ * of the inputs concurrently need one function instance per part since the
+ * functions hold the state of a computation.
+ *
+ * @author Daniel Lemire
+ * @since 0.8.12
+ */
+public interface UpdateableBitmapFunctionFactory32 {
+    /**
+     * @return a new function, independent from the previously created ones
+     */
+    UpdateableBitmapFunction32 newFunction();
+}
@@ -0,0 +1,179 @@
+package com.googlecode.javaewah32.symmetric;
+
+import com.googlecode.javaewah32.BitmapStorage32;
+
+import java.util.Arrays;
+
+/**
+ * A weighted threshold Boolean function: each input has a non-negative
+ * weight and the function is true when the sum of the weights of the true
+ * inputs is at least the threshold. With unit weights, it is the threshold
+ * function (see ThresholdFuncBitmap32).
+ *
+ * The weights of the inputs whose current word is a run of ones and of the
+ * inputs whose current word is a literal are maintained as the runs are
+ * parsed so that most runs can be settled without looking at the literals.
+ * The function is not symmetric in general so it cannot be evaluated from a
+ * count of true inputs.
+ *
+ * It is not thread safe: you should use one object per thread.
+ *
+ * @author Daniel Lemire
+ * @see <a
+ * href="http://en.wikipedia.org/wiki/Linear_threshold_function">http://en.wikipedia.org/wiki/Linear_threshold_function</a>
+ * @since 0.8.12
+ */
+public final class WeightedThresholdFuncBitmap32 extends UpdateableBitmapFunction32 {
+    private final long threshold;
+    private final int[] weights;
+    private long onesWeight = 0;
+    private long literalsWeight = 0;
+    private int[] buffers = new int[16];
+    private int[] bufferWeights = new int[16];
+    private final long[] bufCounters = new long[32];
+
+    /**
+     * Construct a weighted threshold function.
+     *
+     * @param threshold the minimal total weight
+     * @param weights   the weight of each input, in the order of the inputs
+     */
+    public WeightedThresholdFuncBitmap32(final long threshold, final int... weights) {
+        super();
+        for (int w : weights)
+            if (w < 0)
+                throw new IllegalArgumentException("Weights should be non-negative, got " + w);
+        this.threshold = threshold;
+        this.weights = weights.clone();
+    }
+
+    /**
+     * @return the threshold
+     */
+    public long getThreshold() {
+        return this.threshold;
+    }
+
+    /**
+     * @param pos index of an input
+     * @return the weight of this input
+     */
+    public int getWeight(final int pos) {
+        if (pos >= this.weights.length)
+            throw new IllegalArgumentException("No weight for input " + pos + ": only "
+                    + this.weights.length + " weights were provided");
+        return this.weights[pos];
+    }
+
+    @Override
+    public void setLiteral(final int pos) {
+        final boolean wasLiteral = this.litwlist.get(pos);
+        final boolean wasOne = this.b[pos];
+        super.setLiteral(pos);
+        if (!wasLiteral)
+            this.literalsWeight += getWeight(pos);
+        if (wasOne && !this.b[pos])
+            this.onesWeight -= getWeight(pos);
+    }
+
+    @Override
+    public void clearLiteral(final int pos) {
+        if (this.litwlist.get(pos))
+            this.literalsWeight -= getWeight(pos);
+        super.clearLiteral(pos);
+    }
+
+    @Override
+    public void setZero(final int pos) {
+        final boolean wasOne = this.b[pos];
+        super.setZero(pos);
+        if (wasOne)
+            this.onesWeight -= getWeight(pos);
+    }
+
+    @Override
+    public void setOne(final int pos) {
+        final boolean wasOne = this.b[pos];
+        super.setOne(pos);
+        if (!wasOne)
+            this.onesWeight += getWeight(pos);
+    }
+
+    @Override
+    public void dispatch(BitmapStorage32 out, int runBegin, int runEnd) {
+        final int runLength = runEnd - runBegin;
+        if (this.onesWeight >= this.threshold) {
+            out.addStreamOfEmptyWords(true, runLength);
+        } else if (this.onesWeight + this.literalsWeight < this.threshold) {
+            out.addStreamOfEmptyWords(false, runLength);
+        } else {
+            final long deficit = this.threshold - this.onesWeight;
+            int minWeight = Integer.MAX_VALUE;
+            for (int k = this.litwlist.nextSetBit(0); k >= 0; k = this.litwlist.nextSetBit(k + 1))
+                minWeight = Math.min(minWeight, getWeight(k));
+            if (minWeight >= deficit) {
+                // any literal suffices
+                orLiterals(out, runBegin, runLength);
+            } else if (this.literalsWeight - minWeight < deficit) {
+                // all literals are needed
+                andLiterals(out, runBegin, runLength);
+            } else {
+                generalLiterals(deficit, out, runBegin, runLength);
+            }
+        }
+    }
+
+    private void orLiterals(final BitmapStorage32 out, final int runBegin, final int runLength) {
+        for (int i = 0; i < runLength; ++i) {
+            int w = 0;
+            for (EWAHPointer32 R : this.getLiterals()) {
+                w |= R.iterator.getLiteralWordAt(i + runBegin - R.beginOfRun());
+            }
+            out.addWord(w);
+        }
+    }
+
+    private void andLiterals(final BitmapStorage32 out, final int runBegin, final int runLength) {
+        for (int i = 0; i < runLength; ++i) {
+            int w = ~0;
+            for (EWAHPointer32 R : this.getLiterals()) {
+                w &= R.iterator.getLiteralWordAt(i + runBegin - R.beginOfRun());
+            }
+            out.addWord(w);
+        }
+    }
+
+    private void generalLiterals(final long deficit, final BitmapStorage32 out,
+                                 final int runBegin, final int runLength) {
+        final int bufferUsed = this.getNumberOfLiterals();
+        if (bufferUsed > this.buffers.length) {
+            this.buffers = new int[2 * bufferUsed];
+            this.bufferWeights = new int[2 * bufferUsed];
+        }
+        int p = 0;
+        for (int k = this.litwlist.nextSetBit(0); k >= 0; k = this.litwlist.nextSetBit(k + 1))
+            this.bufferWeights[p++] = getWeight(k);
+        final long[] counters = this.bufCounters;
+        for (int i = 0; i < runLength; ++i) {
+            p = 0;
+            for (EWAHPointer32 R : this.getLiterals()) {
+                this.buffers[p++] = R.iterator.getLiteralWordAt(i + runBegin - R.beginOfRun());
+            }
+            Arrays.fill(counters, 0);
+            for (int k = 0; k < bufferUsed; ++k) {
+                int bitset = this.buffers[k];
+                final int weight = this.bufferWeights[k];
+                while (bitset != 0) {
+                    final int t = bitset & -bitset;
+                    counters[Integer.bitCount(t - 1)] += weight;
+                    bitset ^= t;
+                }
+            }
+            int result = 0;
+            for (int pos = 0; pos < 32; ++pos)
+                if (counters[pos] >= deficit)
+                    result |= (1 << pos);
+            out.addWord(result);
+        }
+    }
+}
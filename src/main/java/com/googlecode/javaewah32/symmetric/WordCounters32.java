@@ -0,0 +1,33 @@
+package com.googlecode.javaewah32.symmetric;
+
+/**
+ * Helper functions to count, bit by bit, how many words have a true bit.
+ *
+ * @author Daniel Lemire
+ * @since 0.8.12
+ */
+final class WordCounters32 {
+
+    /** Private constructor to prevent instantiation */
+    private WordCounters32() {}
+
+    /**
+     * Computes the first levels of the "looped" counters: after the call,
+     * v[j] has the bits which are true in at least j+1 of the words.
+     *
+     * @param v      the counters (at least "levels" words)
+     * @param levels the number of levels to compute
+     * @param buf    the words
+     * @param used   the number of words
+     */
+    static void atLeast(final int[] v, final int levels, final int[] buf, final int used) {
+        for (int j = 0; j < levels; ++j)
+            v[j] = 0;
+        for (int k = 0; k < used; ++k) {
+            final int c = buf[k];
+            for (int j = Math.min(levels - 1, k); j >= 1; --j)
+                v[j] |= c & v[j - 1];
+            v[0] |= c;
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package com.googlecode.javaewah;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Random;
+
+/*
+ * Copyright 2009-2014, Daniel Lemire, Cliff Moon, David McIntosh, Robert Becho, Google Inc., Veronika Zenz, Owen Kaser, Gregory Ssi-Yan-Kai, Rory Graves
+ * Licensed under the Apache License, Version 2.0.
+ */
+
+/**
+ * Tests for the append-only bitmap file.
+ */
+public class AppendOnlyBitmapStorageTest {
+
+    private static File tempFile() throws IOException {
+        final File file = File.createTempFile("ewah", ".bitmap");
+        file.deleteOnExit();
+        return file;
+    }
+
+    /**
+     * Copy the file as it is on disk, as if the process had stopped.
+     */
+    private static File crash(final File file) throws IOException {
+        final RandomAccessFile in = new RandomAccessFile(file, "r");
+        final byte[] bytes = new byte[(int) in.length()];
+        in.readFully(bytes);
+        in.close();
+        final File copy = tempFile();
+        final RandomAccessFile out = new RandomAccessFile(copy, "rw");
+        out.write(bytes);
+        out.close();
+        return copy;
+    }
+
+    private static void check(final EWAHCompressedBitmap expected, final File file) throws IOException {
+        final EWAHCompressedBitmap actual = AppendOnlyBitmapStorage.read(file);
+        Assert.assertEquals(expected, actual);
+        Assert.assertEquals(expected.sizeInBits(), actual.sizeInBits());
+        Assert.assertArrayEquals(expected.toArray(), actual.toArray());
+    }
+
+    /**
+     * Apply the same random updates to a bitmap and to a storage.
+     */
+    private static void update(final Random rand, final EWAHCompressedBitmap bitmap,
+                               final AppendOnlyBitmapStorage storage) {
+        final long[] words = new long[1500];
+        for (int r = rand.nextInt(10); r > 0; --r) {
+            switch (rand.nextInt(4)) {
+                case 0:
+                    final boolean v = rand.nextBoolean();
+                    final int number = rand.nextInt(100);
+                    bitmap.addStreamOfEmptyWords(v, number);
+                    storage.addStreamOfEmptyWords(v, number);
+                    break;
+                case 1:
+                    for (int k = 0; k < words.length; ++k)
+                        words[k] = rand.nextLong();
+                    final int length = rand.nextInt(rand.nextBoolean() ? 10 : words.length);
+                    bitmap.addStreamOfLiteralWords(words, 0, length);
+                    storage.addStreamOfLiteralWords(words, 0, length);
+                    break;
+                default:
+                    int pos = bitmap.sizeInBits() + rand.nextInt(200);
+                    for (int k = rand.nextInt(500); k > 0; --k) {
+                        Assert.assertEquals(bitmap.set(pos), storage.set(pos));
+                        pos += rand.nextInt(10) == 0 ? rand.nextInt(1000) : 1;
+                    }
+            }
+        }
+        if (rand.nextBoolean() && (bitmap.sizeInBits() > 0)) {
+            final int size = bitmap.sizeInBits() - rand.nextInt(1 + (bitmap.sizeInBits() - 1) % 64);
+            bitmap.setSizeInBitsWithinLastWord(size);
+            storage.setSizeInBitsWithinLastWord(size);
+        }
+        Assert.assertEquals(bitmap.sizeInBits(), storage.sizeInBits());
+    }
+
+    @Test
+    public void appends() throws IOException {
+        System.out.println("Testing AppendOnlyBitmapStorage");
+        final Random rand = new Random(1234);
+        final File file = tempFile();
+        final EWAHCompressedBitmap expected = new EWAHCompressedBitmap();
+        AppendOnlyBitmapStorage storage = AppendOnlyBitmapStorage.open(file);
+        check(expected, file);
+        for (int trial = 0; trial < 10; ++trial) {
+            update(rand, expected, storage);
+            storage.commit();
+            check(expected, file);
+            if (rand.nextInt(5) == 0) {
+                storage.close();
+                storage = AppendOnlyBitmapStorage.open(file);
+                Assert.assertEquals(expected.sizeInBits(), storage.sizeInBits());
+            }
+        }
+        storage.clear();
+        check(new EWAHCompressedBitmap(), file);
+        Assert.assertTrue(storage.set(5));
+        storage.close();
+        check(EWAHCompressedBitmap.bitmapOf(5), file);
+    }
+
+    @Test
+    public void recovery() throws IOException {
+        System.out.println("Testing AppendOnlyBitmapStorage recovery");
+        final Random rand = new Random(5678);
+        final File file = tempFile();
+        final AppendOnlyBitmapStorage storage = AppendOnlyBitmapStorage.open(file);
+        final EWAHCompressedBitmap bitmap = new EWAHCompressedBitmap();
+        EWAHCompressedBitmap previous = bitmap.clone();
+        for (int trial = 0; trial < 10; ++trial) {
+            update(rand, bitmap, storage);
+            storage.commit();
+            final EWAHCompressedBitmap committed = bitmap.clone();
+            // a torn write of the last slot falls back to the previous commit
+            final File torn = crash(file);
+            final RandomAccessFile raf = new RandomAccessFile(torn, "rw");
+            final long position = AppendOnlyBitmapStorage.SLOTS_OFFSET
+                    + slotWithHighestSequence(raf) * AppendOnlyBitmapStorage.SLOT_SIZE + 20;
+            raf.seek(position);
+            final int b = raf.read();
+            raf.seek(position);
+            raf.write(b ^ 1);
+            raf.close();
+            check(previous, torn);
+            // updates that are not committed are lost
+            update(rand, bitmap, storage);
+            final File crashed = crash(file);
+            check(committed, crashed);
+            final AppendOnlyBitmapStorage recovered = AppendOnlyBitmapStorage.open(crashed);
+            Assert.assertEquals(committed.sizeInBits(), recovered.sizeInBits());
+            final EWAHCompressedBitmap extended = committed.clone();
+            final int pos = extended.sizeInBits() + 3;
+            extended.set(pos);
+            recovered.set(pos);
+            final int words = recovered.sizeInWords();
+            recovered.close();
+            check(extended, crashed);
+            // the uncommitted words were truncated
+            Assert.assertEquals(AppendOnlyBitmapStorage.DATA_OFFSET + 8l * words, crashed.length());
+            storage.commit();
+            previous = bitmap.clone();
+        }
+        storage.close();
+    }
+
+    private static long slotWithHighestSequence(final RandomAccessFile raf) throws IOException {
+        raf.seek(AppendOnlyBitmapStorage.SLOTS_OFFSET);
+        final long first = Long.reverseBytes(raf.readLong());
+        raf.seek(AppendOnlyBitmapStorage.SLOTS_OFFSET + AppendOnlyBitmapStorage.SLOT_SIZE);
+        final long second = Long.reverseBytes(raf.readLong());
+        return first > second ? 0 : 1;
+    }
+}
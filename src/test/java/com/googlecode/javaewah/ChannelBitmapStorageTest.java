@@ -0,0 +1,157 @@
+package com.googlecode.javaewah;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.Random;
+
+/*
+ * Copyright 2009-2014, Daniel Lemire, Cliff Moon, David McIntosh, Robert Becho, Google Inc., Veronika Zenz, Owen Kaser, Gregory Ssi-Yan-Kai, Rory Graves
+ * Licensed under the Apache License, Version 2.0.
+ */
+
+/**
+ * Tests for the storage writing bitmaps to a file.
+ */
+public class ChannelBitmapStorageTest {
+
+    private static EWAHCompressedBitmap randomBitmap(final Random rand) {
+        final EWAHCompressedBitmap bitmap = new EWAHCompressedBitmap();
+        for (int r = rand.nextInt(10); r > 0; --r) {
+            switch (rand.nextInt(3)) {
+                case 0:
+                    bitmap.addStreamOfEmptyWords(rand.nextBoolean(), rand.nextInt(200));
+                    break;
+                default:
+                    for (int k = rand.nextInt(rand.nextBoolean() ? 30 : 3000); k > 0; --k)
+                        bitmap.addWord(rand.nextInt(4) == 0 ? ~0l : rand.nextLong());
+            }
+        }
+        return bitmap;
+    }
+
+    private static FileChannel tempChannel() throws IOException {
+        final File file = File.createTempFile("ewah", ".bitmap");
+        file.deleteOnExit();
+        return new RandomAccessFile(file, "rw").getChannel();
+    }
+
+    private static void check(final EWAHCompressedBitmap expected, final FileChannel channel) throws IOException {
+        final EWAHCompressedBitmap actual = new EWAHCompressedBitmap();
+        actual.readFrom(channel);
+        Assert.assertEquals(expected, actual);
+        Assert.assertEquals(expected.sizeInBits(), actual.sizeInBits());
+        Assert.assertEquals(expected.cardinality(), actual.cardinality());
+        // the position of the last marker word is valid
+        actual.set(actual.sizeInBits() + 70);
+        Assert.assertEquals(expected.cardinality() + 1, actual.cardinality());
+    }
+
+    @Test
+    public void aggregation() throws IOException {
+        System.out.println("Testing ChannelBitmapStorage with logical operations");
+        final Random rand = new Random(1234);
+        final FileChannel channel = tempChannel();
+        try {
+            for (int trial = 0; trial < 20; ++trial) {
+                final EWAHCompressedBitmap x = randomBitmap(rand);
+                final EWAHCompressedBitmap y = randomBitmap(rand);
+                final EWAHCompressedBitmap z = randomBitmap(rand);
+                channel.truncate(0);
+                channel.position(0);
+                ChannelBitmapStorage storage = new ChannelBitmapStorage(channel);
+                x.andToContainer(y, storage);
+                storage.close();
+                storage = new ChannelBitmapStorage(channel);
+                x.xorToContainer(y, storage);
+                storage.close();
+                storage = new ChannelBitmapStorage(channel);
+                FastAggregation.orToContainer(storage, x, y, z);
+                storage.close();
+                Assert.assertEquals(channel.size(), channel.position());
+                channel.position(0);
+                check(x.and(y), channel);
+                check(x.xor(y), channel);
+                check(EWAHCompressedBitmap.or(x, y, z), channel);
+                Assert.assertEquals(channel.size(), channel.position());
+            }
+        } finally {
+            channel.close();
+        }
+    }
+
+    @Test
+    public void words() throws IOException {
+        System.out.println("Testing ChannelBitmapStorage with words");
+        final Random rand = new Random(5678);
+        final FileChannel channel = tempChannel();
+        try {
+            for (int trial = 0; trial < 50; ++trial) {
+                final EWAHCompressedBitmap expected = new EWAHCompressedBitmap();
+                channel.truncate(0);
+                channel.position(0);
+                final ChannelBitmapStorage storage = new ChannelBitmapStorage(channel);
+                final long[] words = new long[3000];
+                for (int r = rand.nextInt(20); r > 0; --r) {
+                    for (int k = 0; k < words.length; ++k)
+                        words[k] = rand.nextLong();
+                    final int number = rand.nextInt(rand.nextBoolean() ? 10 : words.length);
+                    switch (rand.nextInt(5)) {
+                        case 0:
+                            final boolean v = rand.nextBoolean();
+                            expected.addStreamOfEmptyWords(v, number);
+                            storage.addStreamOfEmptyWords(v, number);
+                            break;
+                        case 1:
+                            expected.addStreamOfLiteralWords(words, 0, number);
+                            storage.addStreamOfLiteralWords(words, 0, number);
+                            break;
+                        case 2:
+                            expected.addStreamOfNegatedLiteralWords(words, 0, number);
+                            storage.addStreamOfNegatedLiteralWords(words, 0, number);
+                            break;
+                        default:
+                            final long w = rand.nextBoolean() ? words[0] : rand.nextBoolean() ? 0 : ~0l;
+                            expected.addWord(w);
+                            storage.addWord(w);
+                    }
+                }
+                if (expected.sizeInBits() > 0) {
+                    final int size = expected.sizeInBits() - rand.nextInt(64);
+                    expected.setSizeInBitsWithinLastWord(size);
+                    storage.setSizeInBitsWithinLastWord(size);
+                }
+                Assert.assertEquals(expected.sizeInBits(), storage.sizeInBits());
+                storage.close();
+                channel.position(0);
+                check(expected, channel);
+            }
+        } finally {
+            channel.close();
+        }
+    }
+
+    @Test
+    public void clear() throws IOException {
+        System.out.println("Testing ChannelBitmapStorage.clear");
+        final FileChannel channel = tempChannel();
+        try {
+            final ChannelBitmapStorage storage = new ChannelBitmapStorage(channel);
+            for (int k = 0; k < 5000; ++k)
+                storage.addWord(k * 0x9E3779B97F4A7C15l);
+            storage.clear();
+            storage.addStreamOfEmptyWords(true, 3);
+            storage.close();
+            channel.position(0);
+            final EWAHCompressedBitmap expected = new EWAHCompressedBitmap();
+            expected.addStreamOfEmptyWords(true, 3);
+            check(expected, channel);
+        } finally {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package com.googlecode.javaewah;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.*;
+import java.util.Random;
+
+/*
+ * Copyright 2009-2014, Daniel Lemire, Cliff Moon, David McIntosh, Robert Becho, Google Inc., Veronika Zenz, Owen Kaser, Gregory Ssi-Yan-Kai, Rory Graves
+ * Licensed under the Apache License, Version 2.0.
+ */
+
+/**
+ * Tests for the sorted-array/EWAH hybrid bitmap.
+ */
+public class CompressedBitmapTest {
+
+    /**
+     * Bits scattered over a large range, or dense clusters.
+     */
+    private static EWAHCompressedBitmap randomBitmap(final Random rand, final boolean sparse) {
+        final EWAHCompressedBitmap bitmap = new EWAHCompressedBitmap();
+        int k = rand.nextInt(1000);
+        final int n = rand.nextInt(sparse ? 50 : 5000);
+        for (int j = 0; j < n; ++j) {
+            bitmap.set(k);
+            k += sparse ? 1 + rand.nextInt(1 << 20) : 1 + rand.nextInt(4);
+        }
+        bitmap.setSizeInBits(k, false);
+        return bitmap;
+    }
+
+    private static void check(final EWAHCompressedBitmap expected, final CompressedBitmap actual) {
+        Assert.assertEquals(expected.cardinality(), actual.cardinality());
+        if (actual.isSparse())
+            Assert.assertArrayEquals(expected.toArray(), actual.toArray());
+        Assert.assertEquals(expected, actual.toEWAHCompressedBitmap());
+        Assert.assertEquals(CompressedBitmap.valueOf(expected), actual);
+        Assert.assertEquals(CompressedBitmap.valueOf(expected).hashCode(), actual.hashCode());
+        // the smaller representation is picked
+        Assert.assertTrue(actual.sizeInBytes() <= Math.max(expected.sizeInBytes(), 4 * expected.cardinality()));
+    }
+
+    @Test
+    public void operations() {
+        System.out.println("Testing CompressedBitmap operations");
+        final Random rand = new Random(1234);
+        for (int trial = 0; trial < 200; ++trial) {
+            final EWAHCompressedBitmap x = randomBitmap(rand, rand.nextBoolean());
+            final EWAHCompressedBitmap y = randomBitmap(rand, rand.nextBoolean());
+            final CompressedBitmap a = CompressedBitmap.valueOf(x);
+            final CompressedBitmap b = CompressedBitmap.valueOf(y);
+            check(x, a);
+            check(y, b);
+            check(x.and(y), a.and(b));
+            check(x.or(y), a.or(b));
+            check(x.xor(y), a.xor(b));
+            check(x.andNot(y), a.andNot(b));
+            check(y.andNot(x), b.andNot(a));
+            Assert.assertEquals(x.andCardinality(y), a.andCardinality(b));
+            Assert.assertEquals(x.intersects(y), a.intersects(b));
+            Assert.assertEquals(x.and(y).sizeInBits(), a.and(b).sizeInBits());
+            final int[] positions = x.toArray();
+            if (positions.length > 0) {
+                Assert.assertTrue(a.get(positions[positions.length / 2]));
+                Assert.assertFalse(a.get(positions[positions.length - 1] + 1));
+            }
+            final EWAHCompressedBitmap notx = x.clone();
+            notx.not();
+            final CompressedBitmap nota = a.clone();
+            nota.not();
+            check(notx, nota);
+            check(x, a);
+        }
+    }
+
+    @Test
+    public void switching() {
+        System.out.println("Testing CompressedBitmap representation switching");
+        final CompressedBitmap a = new CompressedBitmap();
+        for (int k = 0; k < 100; ++k)
+            a.set(k * 10000000);
+        Assert.assertTrue(a.isSparse());
+        Assert.assertEquals(400, a.sizeInBytes());
+        Assert.assertTrue(a.sizeInBytes() * 4 <= a.toEWAHCompressedBitmap().sizeInBytes());
+        for (int k = 1000000000; k < 1000001000; ++k)
+            a.set(k);
+        Assert.assertFalse(a.isSparse());
+        Assert.assertEquals(1100, a.cardinality());
+        final CompressedBitmap rare = CompressedBitmap.bitmapOf(1, 1000000000, 1000000999);
+        final CompressedBitmap hits = rare.and(a);
+        Assert.assertTrue(hits.isSparse());
+        Assert.assertArrayEquals(new int[]{1000000000, 1000000999}, hits.toArray());
+        // removing the dense part goes back to an array
+        final CompressedBitmap scattered = a.andNot(CompressedBitmap.valueOf(
+                a.toEWAHCompressedBitmap().and(EWAHCompressedBitmap.bitmapOf(1000000000))));
+        Assert.assertFalse(scattered.isSparse());
+        final CompressedBitmap none = a.xor(a);
+        Assert.assertTrue(none.isSparse());
+        Assert.assertTrue(none.isEmpty());
+        Assert.assertEquals(a.sizeInBits(), none.sizeInBits());
+        Assert.assertFalse(a.set(5));
+    }
+
+    @Test
+    public void hashCodes() {
+        System.out.println("Testing CompressedBitmap hash codes");
+        final CompressedBitmap full = new CompressedBitmap();
+        for (int k = 0; k < 64; ++k)
+            full.set(k);
+        final CompressedBitmap run = new CompressedBitmap();
+        for (int k = 0; k < 64000; ++k)
+            run.set(k);
+        final CompressedBitmap halves = CompressedBitmap.bitmapOf(0, 32);
+        final int[] hashes = {new CompressedBitmap().hashCode(), full.hashCode(), run.hashCode(), halves.hashCode()};
+        for (int i = 0; i < hashes.length; ++i)
+            for (int j = i + 1; j < hashes.length; ++j)
+                Assert.assertTrue(hashes[i] != hashes[j]);
+        // same hash codes whatever the representation
+        for (CompressedBitmap b : new CompressedBitmap[]{full, run, halves})
+            Assert.assertEquals(CompressedBitmap.valueOf(b.toEWAHCompressedBitmap()).hashCode(), b.hashCode());
+    }
+
+    @Test
+    public void serialization() throws IOException {
+        System.out.println("Testing CompressedBitmap serialization");
+        final Random rand = new Random(5678);
+        for (int trial = 0; trial < 20; ++trial) {
+            final CompressedBitmap a = CompressedBitmap.valueOf(randomBitmap(rand, trial % 2 == 0));
+            final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            final ObjectOutputStream oo = new ObjectOutputStream(bos);
+            a.writeExternal(oo);
+            oo.close();
+            final CompressedBitmap b = new CompressedBitmap();
+            b.readExternal(new ObjectInputStream(new ByteArrayInputStream(bos.toByteArray())));
+            Assert.assertEquals(a, b);
+            Assert.assertEquals(a.isSparse(), b.isSparse());
+            Assert.assertEquals(a.sizeInBits(), b.sizeInBits());
+            final ByteArrayOutputStream raw = new ByteArrayOutputStream();
+            a.serialize(new DataOutputStream(raw));
+            Assert.assertEquals(a.serializedSizeInBytes(), raw.size());
+        }
+    }
+
+    @Test
+    public void aggregation() {
+        System.out.println("Testing CompressedBitmap with FastAggregation");
+        final CompressedBitmap a = CompressedBitmap.bitmapOf(1, 5000, 1 << 30);
+        final CompressedBitmap b = CompressedBitmap.bitmapOf(2, 5000);
+        final CompressedBitmap c = new CompressedBitmap();
+        for (int k = 0; k < 10000; ++k)
+            c.set(k);
+        final CompressedBitmap or = FastAggregation.or(a, b, c);
+        Assert.assertEquals(10001, or.cardinality());
+        Assert.assertTrue(or.get(1 << 30));
+        Assert.assertEquals("{1,2,5000}", a.or(b).and(c).toString());
+        final CompressedBitmap composed = c.compose(b);
+        Assert.assertEquals(c.toEWAHCompressedBitmap().compose(b.toEWAHCompressedBitmap()),
+                composed.toEWAHCompressedBitmap());
+    }
+}
@@ -0,0 +1,231 @@
+package com.googlecode.javaewah;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/*
+ * Copyright 2009-2014, Daniel Lemire, Cliff Moon, David McIntosh, Robert Becho, Google Inc., Veronika Zenz, Owen Kaser, Gregory Ssi-Yan-Kai, Rory Graves
+ * Licensed under the Apache License, Version 2.0.
+ */
+
+/**
+ * Tests for the bitmaps with one writer and lock-free readers.
+ */
+public class ConcurrentEWAHCompressedBitmapTest {
+
+    private static void check(final EWAHCompressedBitmap expected, final ConcurrentEWAHCompressedBitmap.Snapshot snapshot) {
+        Assert.assertEquals(expected.sizeInBits(), snapshot.sizeInBits());
+        Assert.assertEquals(expected.cardinality(), snapshot.cardinality());
+        Assert.assertEquals(expected.isEmpty(), snapshot.isEmpty());
+        Assert.assertArrayEquals(expected.toArray(), snapshot.toArray());
+        final EWAHCompressedBitmap copy = snapshot.toBitmap();
+        Assert.assertEquals(expected, copy);
+        Assert.assertEquals(expected.sizeInBits(), copy.sizeInBits());
+    }
+
+    // the words added directly start at a word boundary
+    private static void align(final EWAHCompressedBitmap bitmap) {
+        final int words = (bitmap.sizeInBits() + EWAHCompressedBitmap.WORD_IN_BITS - 1)
+                / EWAHCompressedBitmap.WORD_IN_BITS;
+        bitmap.setSizeInBits(words * EWAHCompressedBitmap.WORD_IN_BITS, false);
+    }
+
+    @Test
+    public void appends() {
+        System.out.println("Testing ConcurrentEWAHCompressedBitmap");
+        final Random rand = new Random(1234);
+        for (int trial = 0; trial < 20; ++trial) {
+            final ConcurrentEWAHCompressedBitmap bitmap = new ConcurrentEWAHCompressedBitmap(1 + rand.nextInt(8));
+            final EWAHCompressedBitmap expected = new EWAHCompressedBitmap();
+            check(expected, bitmap.snapshot());
+            long version = bitmap.snapshot().version();
+            for (int k = 0; k < 300; ++k) {
+                switch (rand.nextInt(6)) {
+                    case 0:
+                        final long word = rand.nextBoolean() ? rand.nextLong() : (rand.nextBoolean() ? 0 : ~0l);
+                        align(expected);
+                        expected.addWord(word);
+                        bitmap.addWord(word);
+                        break;
+                    case 1:
+                        final boolean v = rand.nextBoolean();
+                        final long number = rand.nextInt(100);
+                        if (number > 0)
+                            align(expected);
+                        expected.addStreamOfEmptyWords(v, number);
+                        bitmap.addStreamOfEmptyWords(v, number);
+                        break;
+                    case 2:
+                        final long[] words = new long[rand.nextInt(5)];
+                        for (int w = 0; w < words.length; ++w)
+                            words[w] = rand.nextLong();
+                        if (words.length > 0)
+                            align(expected);
+                        expected.addStreamOfLiteralWords(words, 0, words.length);
+                        bitmap.addStreamOfLiteralWords(words, 0, words.length);
+                        break;
+                    default:
+                        final int i = expected.sizeInBits() + (rand.nextInt(4) == 0 ? rand.nextInt(1000) : rand.nextInt(3));
+                        Assert.assertTrue(bitmap.set(i));
+                        expected.set(i);
+                        Assert.assertFalse(bitmap.set(i));
+                }
+                final ConcurrentEWAHCompressedBitmap.Snapshot snapshot = bitmap.snapshot();
+                Assert.assertTrue(snapshot.version() >= version);
+                version = snapshot.version();
+                if (k % 10 == 0) {
+                    check(expected, snapshot);
+                    for (int r = 0; r < 10; ++r) {
+                        final int i = rand.nextInt(expected.sizeInBits() + 10);
+                        Assert.assertEquals(expected.get(i), snapshot.get(i));
+                    }
+                }
+            }
+            final ConcurrentEWAHCompressedBitmap.Snapshot snapshot = bitmap.snapshot();
+            check(expected, snapshot);
+            Assert.assertTrue(snapshot.numberOfSegments() > 0);
+            // the segments are merged as they are sealed
+            Assert.assertTrue(snapshot.numberOfSegments() < 2 * (32 - Integer.numberOfLeadingZeros(
+                    expected.sizeInBytes() + 1)));
+        }
+    }
+
+    @Test
+    public void wordsAfterSet() {
+        System.out.println("Testing ConcurrentEWAHCompressedBitmap with words added after a set bit");
+        final Random rand = new Random(2468);
+        final ConcurrentEWAHCompressedBitmap bitmap = new ConcurrentEWAHCompressedBitmap(4);
+        final EWAHCompressedBitmap expected = new EWAHCompressedBitmap();
+        bitmap.set(1);
+        expected.set(1);
+        align(expected);
+        for (int k = 0; k < 10000; ++k) {
+            final long word = rand.nextBoolean() ? rand.nextLong() : 0;
+            bitmap.addWord(word);
+            expected.addWord(word);
+        }
+        final ConcurrentEWAHCompressedBitmap.Snapshot snapshot = bitmap.snapshot();
+        check(expected, snapshot);
+        // the tail is sealed even though it was not aligned after set
+        Assert.assertTrue(snapshot.numberOfSegments() > 0);
+        Assert.assertTrue(snapshot.numberOfSegments() < 2 * (32 - Integer.numberOfLeadingZeros(
+                expected.sizeInBytes() + 1)));
+    }
+
+    @Test
+    public void olderSnapshots() throws CloneNotSupportedException {
+        System.out.println("Testing ConcurrentEWAHCompressedBitmap snapshots read after later appends");
+        final Random rand = new Random(1357);
+        final ConcurrentEWAHCompressedBitmap bitmap = new ConcurrentEWAHCompressedBitmap(16);
+        final EWAHCompressedBitmap expected = new EWAHCompressedBitmap();
+        final List<ConcurrentEWAHCompressedBitmap.Snapshot> snapshots = new ArrayList<ConcurrentEWAHCompressedBitmap.Snapshot>();
+        final List<EWAHCompressedBitmap> expectedSnapshots = new ArrayList<EWAHCompressedBitmap>();
+        int i = 0;
+        for (int k = 0; k < 3000; ++k) {
+            // consecutive bits rewrite the last word, sparse ones the marker
+            i += rand.nextInt(10) == 0 ? rand.nextInt(500) : 1 + rand.nextInt(2);
+            bitmap.set(i);
+            expected.set(i);
+            // the snapshots are only read once the tail has changed
+            snapshots.add(bitmap.snapshot());
+            expectedSnapshots.add(expected.clone());
+        }
+        for (int k = 0; k < snapshots.size(); k += 7)
+            check(expectedSnapshots.get(k), snapshots.get(k));
+    }
+
+    @Test
+    public void iterating() throws CloneNotSupportedException {
+        System.out.println("Testing ConcurrentEWAHCompressedBitmap iterators");
+        final Random rand = new Random(5678);
+        for (int trial = 0; trial < 20; ++trial) {
+            final ConcurrentEWAHCompressedBitmap bitmap = new ConcurrentEWAHCompressedBitmap(1 + rand.nextInt(4));
+            final EWAHCompressedBitmap expected = new EWAHCompressedBitmap();
+            final EWAHCompressedBitmap other = new EWAHCompressedBitmap();
+            int i = 0;
+            for (int k = 0; k < 2000; ++k) {
+                i += rand.nextInt(20) == 0 ? rand.nextInt(2000) : 1 + rand.nextInt(3);
+                bitmap.set(i);
+                expected.set(i);
+                if (rand.nextBoolean())
+                    other.set(i + rand.nextInt(2));
+            }
+            final ConcurrentEWAHCompressedBitmap.Snapshot snapshot = bitmap.snapshot();
+            Assert.assertEquals(expected.and(other), IteratorUtil.materialize(IteratorAggregation.bufferedand(
+                    snapshot.getIteratingRLW(), other.getIteratingRLW())));
+            Assert.assertEquals(expected.or(other), IteratorUtil.materialize(IteratorAggregation.bufferedor(
+                    snapshot.getIteratingRLW(), other.getIteratingRLW())));
+            Assert.assertEquals(expected.xor(other), IteratorUtil.materialize(IteratorAggregation.bufferedxor(
+                    snapshot.getIteratingRLW(), other.getIteratingRLW())));
+            Assert.assertEquals(expected.cardinality(), IteratorUtil.cardinality(snapshot.getIteratingRLW()));
+            // skipping words
+            final int words = expected.sizeInBits() / EWAHCompressedBitmap.WORD_IN_BITS;
+            final long discarded = rand.nextInt(words);
+            final IteratingRLW x = expected.getIteratingRLW();
+            final IteratingRLW y = snapshot.getIteratingRLW();
+            x.discardFirstWords(discarded);
+            y.discardFirstWords(discarded);
+            final IteratingRLW z = y.clone();
+            Assert.assertEquals(IteratorUtil.materialize(x), IteratorUtil.materialize(y));
+            int skipped = 0;
+            for (int position : expected.toArray())
+                if (position < discarded * EWAHCompressedBitmap.WORD_IN_BITS)
+                    ++skipped;
+            Assert.assertEquals(expected.cardinality() - skipped, IteratorUtil.cardinality(z));
+        }
+    }
+
+    @Test
+    public void concurrentReaders() throws Exception {
+        System.out.println("Testing ConcurrentEWAHCompressedBitmap across threads");
+        final Random rand = new Random(4321);
+        final int[] positions = new int[20000];
+        for (int k = 1; k < positions.length; ++k)
+            positions[k] = positions[k - 1] + (rand.nextInt(50) == 0 ? 1 + rand.nextInt(5000) : 1 + rand.nextInt(3));
+        final ConcurrentEWAHCompressedBitmap bitmap = new ConcurrentEWAHCompressedBitmap(16);
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+            for (int t = 0; t < 3; ++t) {
+                results.add(executor.submit(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() {
+                        long version = -1;
+                        int cardinality = 0;
+                        while (cardinality < positions.length) {
+                            final ConcurrentEWAHCompressedBitmap.Snapshot snapshot = bitmap.snapshot();
+                            if (snapshot.version() < version)
+                                return false;
+                            version = snapshot.version();
+                            final int[] values = snapshot.toArray();
+                            // a snapshot holds the first bits which were set, and nothing else
+                            if ((values.length < cardinality) || (snapshot.cardinality() != values.length)
+                                    || !Arrays.equals(values, Arrays.copyOf(positions, values.length)))
+                                return false;
+                            if ((values.length > 0) && (snapshot.sizeInBits() != values[values.length - 1] + 1))
+                                return false;
+                            cardinality = values.length;
+                        }
+                        return true;
+                    }
+                }));
+            }
+            for (int position : positions)
+                Assert.assertTrue(bitmap.set(position));
+            for (Future<Boolean> result : results)
+                Assert.assertTrue(result.get());
+        } finally {
+            executor.shutdown();
+        }
+        Assert.assertEquals(EWAHCompressedBitmap.bitmapOf(positions), bitmap.snapshot().toBitmap());
+    }
+}
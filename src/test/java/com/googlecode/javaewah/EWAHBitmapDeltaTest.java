@@ -0,0 +1,120 @@
+package com.googlecode.javaewah;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+/*
+ * Copyright 2009-2014, Daniel Lemire, Cliff Moon, David McIntosh, Robert Becho, Google Inc., Veronika Zenz, Owen Kaser, Gregory Ssi-Yan-Kai, Rory Graves
+ * Licensed under the Apache License, Version 2.0.
+ */
+
+/**
+ * Tests for the patches between versions of a bitmap.
+ */
+public class EWAHBitmapDeltaTest {
+
+    private static EWAHCompressedBitmap randomBitmap(final Random rand) {
+        final EWAHCompressedBitmap bitmap = new EWAHCompressedBitmap();
+        int pos = rand.nextInt(1000);
+        for (int k = rand.nextInt(5) == 0 ? 0 : rand.nextInt(5000); k > 0; --k) {
+            bitmap.set(pos);
+            pos += rand.nextInt(10) == 0 ? rand.nextInt(50000) : 1 + rand.nextInt(4);
+        }
+        if (rand.nextBoolean())
+            bitmap.setSizeInBits(bitmap.sizeInBits() + rand.nextInt(500), false);
+        return bitmap;
+    }
+
+    /**
+     * Flip a few bits of a bitmap, possibly changing its size.
+     */
+    private static EWAHCompressedBitmap update(final Random rand, final EWAHCompressedBitmap bitmap) {
+        final int size = Math.max(1, bitmap.sizeInBits());
+        final int[] positions = new int[rand.nextInt(20)];
+        for (int k = 0; k < positions.length; ++k)
+            positions[k] = rand.nextInt(size);
+        Arrays.sort(positions);
+        final EWAHCompressedBitmap flipped = new EWAHCompressedBitmap();
+        for (int position : positions)
+            flipped.set(position);
+        final EWAHCompressedBitmap answer = bitmap.xor(flipped);
+        answer.setSizeInBits(bitmap.sizeInBits(), false);
+        switch (rand.nextInt(3)) {
+            case 0:
+                answer.set(answer.sizeInBits() + rand.nextInt(1000));
+                return answer;
+            case 1:
+                // drop the end of the bitmap
+                final int newSize = rand.nextInt(size);
+                final EWAHCompressedBitmap truncated = new EWAHCompressedBitmap();
+                for (int position : answer.toArray())
+                    if (position < newSize)
+                        truncated.set(position);
+                truncated.setSizeInBits(newSize, false);
+                return truncated;
+            default:
+                return answer;
+        }
+    }
+
+    private static EWAHBitmapDelta copy(final EWAHBitmapDelta patch) throws IOException {
+        final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bos);
+        patch.serialize(out);
+        out.close();
+        Assert.assertEquals(patch.serializedSizeInBytes(), bos.size());
+        return EWAHBitmapDelta.deserialize(new DataInputStream(new ByteArrayInputStream(bos.toByteArray())));
+    }
+
+    @Test
+    public void diffAndApply() throws IOException {
+        System.out.println("Testing EWAHBitmapDelta");
+        final Random rand = new Random(1234);
+        for (int trial = 0; trial < 200; ++trial) {
+            final EWAHCompressedBitmap older = randomBitmap(rand);
+            final EWAHCompressedBitmap newer = rand.nextBoolean() ? update(rand, older) : randomBitmap(rand);
+            final EWAHBitmapDelta patch = copy(EWAHBitmapDelta.diff(older, newer));
+            final EWAHCompressedBitmap answer = EWAHBitmapDelta.apply(older, patch);
+            Assert.assertEquals(newer, answer);
+            Assert.assertEquals(newer.sizeInBits(), answer.sizeInBits());
+            Assert.assertArrayEquals(newer.toArray(), answer.toArray());
+            // the answer can be extended
+            answer.set(answer.sizeInBits() + 3);
+            Assert.assertEquals(newer.cardinality() + 1, answer.cardinality());
+        }
+    }
+
+    @Test
+    public void sizeOfPatch() throws IOException {
+        System.out.println("Testing EWAHBitmapDelta size");
+        final EWAHCompressedBitmap older = new EWAHCompressedBitmap();
+        for (int k = 0; k < 10000000; k += 3)
+            older.set(k);
+        final EWAHCompressedBitmap newer = older.clone();
+        newer.set(10000001);
+        final EWAHCompressedBitmap removed = EWAHCompressedBitmap.bitmapOf(3000, 600000, 9000000);
+        final EWAHCompressedBitmap updated = newer.andNot(removed);
+        final EWAHBitmapDelta patch = EWAHBitmapDelta.diff(older, updated);
+        Assert.assertTrue(patch.serializedSizeInBytes() < 64);
+        Assert.assertFalse(patch.isEmpty());
+        Assert.assertEquals(4, patch.getChanges().cardinality());
+        Assert.assertEquals(updated, EWAHBitmapDelta.apply(older, copy(patch)));
+        Assert.assertTrue(EWAHBitmapDelta.diff(older, older.clone()).isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void wrongBitmap() {
+        System.out.println("Testing EWAHBitmapDelta with the wrong bitmap");
+        final EWAHBitmapDelta patch = EWAHBitmapDelta.diff(EWAHCompressedBitmap.bitmapOf(1, 2, 3),
+                EWAHCompressedBitmap.bitmapOf(1, 3));
+        EWAHBitmapDelta.apply(EWAHCompressedBitmap.bitmapOf(1, 3), patch);
+    }
+}
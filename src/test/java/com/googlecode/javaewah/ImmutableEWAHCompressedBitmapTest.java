@@ -0,0 +1,130 @@
+package com.googlecode.javaewah;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/*
+ * Copyright 2009-2014, Daniel Lemire, Cliff Moon, David McIntosh, Robert Becho, Google Inc., Veronika Zenz, Owen Kaser, Gregory Ssi-Yan-Kai, Rory Graves
+ * Licensed under the Apache License, Version 2.0.
+ */
+
+/**
+ * Tests for the immutable bitmaps.
+ */
+public class ImmutableEWAHCompressedBitmapTest {
+
+    private static EWAHCompressedBitmap randomBitmap(final Random rand) {
+        final EWAHCompressedBitmap bitmap = new EWAHCompressedBitmap();
+        int pos = rand.nextInt(1000);
+        for (int k = rand.nextInt(5000); k > 0; --k) {
+            bitmap.set(pos);
+            pos += rand.nextInt(10) == 0 ? rand.nextInt(5000) : 1 + rand.nextInt(4);
+        }
+        return bitmap;
+    }
+
+    @Test
+    public void freeze() throws IOException {
+        System.out.println("Testing ImmutableEWAHCompressedBitmap");
+        final Random rand = new Random(1234);
+        for (int trial = 0; trial < 50; ++trial) {
+            final EWAHCompressedBitmap x = randomBitmap(rand);
+            final EWAHCompressedBitmap y = randomBitmap(rand);
+            final EWAHCompressedBitmap source = x.clone();
+            final ImmutableEWAHCompressedBitmap fx = source.freeze();
+            // the words were handed over
+            Assert.assertTrue(source.isEmpty());
+            Assert.assertEquals(0, source.sizeInBits());
+            source.set(5);
+            Assert.assertEquals(1, source.cardinality());
+            final ImmutableEWAHCompressedBitmap fy = ImmutableEWAHCompressedBitmap.copyOf(y);
+            Assert.assertEquals(y.cardinality(), fy.cardinality());
+            Assert.assertEquals(x.cardinality(), fx.cardinality());
+            // cached
+            Assert.assertEquals(x.cardinality(), fx.cardinality());
+            Assert.assertEquals(x.sizeInBits(), fx.sizeInBits());
+            Assert.assertEquals(x.isEmpty(), fx.isEmpty());
+            Assert.assertArrayEquals(x.toArray(), fx.toArray());
+            Assert.assertEquals(x.and(y), fx.and(fy));
+            Assert.assertEquals(x.and(y), fx.and(y));
+            Assert.assertEquals(x.or(y), fx.or(fy));
+            Assert.assertEquals(x.xor(y), fx.xor(fy));
+            Assert.assertEquals(x.andNot(y), fx.andNot(fy));
+            Assert.assertEquals(x.andCardinality(y), fx.andCardinality(fy));
+            Assert.assertEquals(x.orCardinality(y), fx.orCardinality(fy));
+            Assert.assertEquals(x.xorCardinality(y), fx.xorCardinality(fy));
+            Assert.assertEquals(x.andNotCardinality(y), fx.andNotCardinality(fy));
+            Assert.assertEquals(x.intersects(y), fx.intersects(fy));
+            final EWAHCompressedBitmap notx = x.clone();
+            notx.not();
+            Assert.assertEquals(notx, fx.not());
+            Assert.assertEquals(x.cardinality(), fx.cardinality());
+            if (!x.isEmpty()) {
+                final int position = x.toArray()[rand.nextInt(x.cardinality())];
+                Assert.assertTrue(fx.get(position));
+            }
+            // the results are mutable copies
+            final EWAHCompressedBitmap mutable = fx.toMutable();
+            mutable.clear();
+            Assert.assertEquals(x.cardinality(), fx.cardinality());
+            Assert.assertEquals(x, fx.toMutable());
+            Assert.assertEquals(ImmutableEWAHCompressedBitmap.copyOf(x), fx);
+            Assert.assertEquals(ImmutableEWAHCompressedBitmap.copyOf(x).hashCode(), fx.hashCode());
+            final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            fx.serialize(new DataOutputStream(bos));
+            Assert.assertEquals(fx.serializedSizeInBytes(), bos.size());
+            Assert.assertEquals(fx, ImmutableEWAHCompressedBitmap.deserialize(
+                    new DataInputStream(new ByteArrayInputStream(bos.toByteArray()))));
+        }
+        Assert.assertArrayEquals(new int[]{1, 10, 100}, ImmutableEWAHCompressedBitmap.bitmapOf(1, 10, 100).toArray());
+    }
+
+    @Test
+    public void sharing() throws Exception {
+        System.out.println("Testing ImmutableEWAHCompressedBitmap across threads");
+        final Random rand = new Random(5678);
+        final ImmutableEWAHCompressedBitmap[] bitmaps = new ImmutableEWAHCompressedBitmap[20];
+        for (int k = 0; k < bitmaps.length; ++k)
+            bitmaps[k] = randomBitmap(rand).freeze();
+        final int[] expected = new int[bitmaps.length];
+        for (int k = 0; k < bitmaps.length; ++k)
+            expected[k] = bitmaps[k].toMutable().and(bitmaps[(k + 1) % bitmaps.length].toMutable()).cardinality();
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+            for (int t = 0; t < 8; ++t) {
+                results.add(executor.submit(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() {
+                        for (int r = 0; r < 5; ++r)
+                            for (int k = 0; k < bitmaps.length; ++k) {
+                                final ImmutableEWAHCompressedBitmap next = bitmaps[(k + 1) % bitmaps.length];
+                                if ((bitmaps[k].andCardinality(next) != expected[k])
+                                        || (bitmaps[k].and(next).cardinality() != expected[k])
+                                        || (bitmaps[k].cardinality() != bitmaps[k].toArray().length))
+                                    return false;
+                            }
+                        return true;
+                    }
+                }));
+            }
+            for (Future<Boolean> result : results)
+                Assert.assertTrue(result.get());
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
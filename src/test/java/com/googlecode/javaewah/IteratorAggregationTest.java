@@ -155,6 +155,103 @@ public class IteratorAggregationTest {
         System.gc();
     }
 
+    /**
+     *
+     */
+    @Test
+    public void testSmallBuffersAndClones() throws CloneNotSupportedException {
+        System.out.println("testSmallBuffersAndClones ");
+        Iterator<EWAHCompressedBitmap[]> i = getCollections(7, 10);
+        while (i.hasNext()) {
+            EWAHCompressedBitmap[] x = i.next();
+            EWAHCompressedBitmap or = EWAHCompressedBitmap.or(x);
+            EWAHCompressedBitmap xor = EWAHCompressedBitmap.xor(x);
+            EWAHCompressedBitmap and = EWAHCompressedBitmap.and(x);
+            for (int bufSize = 1; bufSize <= 100; bufSize *= 10) {
+                // wrapped iterators do not use the specialized code paths
+                IteratingRLW[] wrapped = IteratorUtil.toIterators(x);
+                for (int k = 0; k < wrapped.length; ++k)
+                    wrapped[k] = IteratorAggregation.not(IteratorAggregation.not(wrapped[k]));
+                assertTrue(IteratorUtil.materialize(IteratorAggregation.bufferedor(bufSize,
+                        IteratorUtil.toIterators(x))).equals(or));
+                assertTrue(IteratorUtil.materialize(IteratorAggregation.bufferedor(bufSize,
+                        wrapped)).equals(or));
+                assertTrue(IteratorUtil.materialize(IteratorAggregation.bufferedxor(bufSize,
+                        IteratorUtil.toIterators(x))).equals(xor));
+                assertTrue(IteratorUtil.materialize(IteratorAggregation.bufferedand(bufSize,
+                        IteratorUtil.toIterators(x))).equals(and));
+                EWAHCompressedBitmap fast = FastAggregation.bufferedor(bufSize, x);
+                fast.setSizeInBitsWithinLastWord(or.sizeInBits());
+                assertTrue(fast.equals(or));
+                fast = FastAggregation.bufferedxor(bufSize, x);
+                fast.setSizeInBitsWithinLastWord(xor.sizeInBits());
+                assertTrue(fast.equals(xor));
+                assertTrue(FastAggregation.bufferedand(bufSize, x).equals(and));
+            }
+            // a clone does not share its inputs with the original
+            IteratingRLW original = IteratorAggregation.bufferedor(IteratorUtil.toIterators(x));
+            IteratingRLW copy = original.clone();
+            assertTrue(IteratorUtil.materialize(copy).equals(or));
+            assertTrue(IteratorUtil.materialize(original).equals(or));
+            original = IteratorAggregation.bufferedxor(IteratorUtil.toIterators(x));
+            copy = original.clone();
+            assertTrue(IteratorUtil.materialize(copy).equals(xor));
+            assertTrue(IteratorUtil.materialize(original).equals(xor));
+        }
+    }
+
+    /**
+     *
+     */
+    @Test
+    public void testAdaptiveBuffers() {
+        System.out.println("testAdaptiveBuffers ");
+        Iterator<EWAHCompressedBitmap[]> i = getCollections(7, 10);
+        while (i.hasNext()) {
+            EWAHCompressedBitmap[] x = i.next();
+            EWAHCompressedBitmap or = EWAHCompressedBitmap.or(x);
+            EWAHCompressedBitmap xor = EWAHCompressedBitmap.xor(x);
+            EWAHCompressedBitmap and = EWAHCompressedBitmap.and(x);
+            EWAHCompressedBitmap fast = FastAggregation.adaptivebufferedor(x);
+            fast.setSizeInBitsWithinLastWord(or.sizeInBits());
+            assertTrue(fast.equals(or));
+            fast = FastAggregation.adaptivebufferedxor(x);
+            fast.setSizeInBitsWithinLastWord(xor.sizeInBits());
+            assertTrue(fast.equals(xor));
+            assertTrue(FastAggregation.adaptivebufferedand(x).equals(and));
+            assertTrue(IteratorUtil.materialize(IteratorAggregation.adaptivebufferedor(
+                    IteratorUtil.toIterators(x))).equals(or));
+            assertTrue(IteratorUtil.materialize(IteratorAggregation.adaptivebufferedxor(
+                    IteratorUtil.toIterators(x))).equals(xor));
+        }
+        // literal words, then runs, then literal words again: the blocks
+        // shrink, grow and shrink again
+        EWAHCompressedBitmap[] x = new EWAHCompressedBitmap[3];
+        for (int k = 0; k < x.length; ++k) {
+            x[k] = new EWAHCompressedBitmap();
+            for (int j = k; j < 1 << 20; j += 3 + k)
+                x[k].set(j);
+            x[k].set((1 << 23) + k);
+            for (int j = (1 << 24) + k; j < (1 << 24) + (1 << 20); j += 5)
+                x[k].set(j);
+        }
+        EWAHCompressedBitmap or = x[0].or(x[1]).or(x[2]);
+        EWAHCompressedBitmap xor = x[0].xor(x[1]).xor(x[2]);
+        assertTrue(IteratorUtil.materialize(IteratorAggregation.adaptivebufferedor(
+                IteratorUtil.toIterators(x))).equals(or));
+        assertTrue(IteratorUtil.materialize(IteratorAggregation.adaptivebufferedxor(
+                IteratorUtil.toIterators(x))).equals(xor));
+        EWAHCompressedBitmap fast = FastAggregation.adaptivebufferedor(x);
+        fast.setSizeInBitsWithinLastWord(or.sizeInBits());
+        assertTrue(fast.equals(or));
+        assertTrue(BufferSizing.adapt(4096, 4096, 4000, 4096) == 2048);
+        assertTrue(BufferSizing.adapt(2048, 2048, 0, 4096) == 4096);
+        assertTrue(BufferSizing.adapt(4096, 100, 100, 4096) == 4096);
+        assertTrue(BufferSizing.bufferSize(2, 10, 20) == 10);
+        assertTrue(BufferSizing.bufferSize(100, -1, 0) * 8 <= Math.max(BufferSizing.L2_CACHE_SIZE,
+                8 * BufferSizing.MIN_BUF_SIZE));
+    }
+
     /**
     *
     */
@@ -0,0 +1,138 @@
+package com.googlecode.javaewah;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+/*
+ * Copyright 2009-2014, Daniel Lemire, Cliff Moon, David McIntosh, Robert Becho, Google Inc., Veronika Zenz, Owen Kaser, Gregory Ssi-Yan-Kai, Rory Graves
+ * Licensed under the Apache License, Version 2.0.
+ */
+
+/**
+ * Tests for the coded serialization of literal words.
+ */
+public class LiteralCodingTest {
+
+    /**
+     * A bitmap whose literal words have about the given number of set bits
+     * out of 64.
+     */
+    private static EWAHCompressedBitmap randomBitmap(final Random rand, final int density) {
+        final EWAHCompressedBitmap bitmap = new EWAHCompressedBitmap();
+        for (int r = rand.nextInt(10); r > 0; --r) {
+            if (rand.nextBoolean()) {
+                bitmap.addStreamOfEmptyWords(rand.nextBoolean(), rand.nextInt(200));
+                continue;
+            }
+            for (int k = rand.nextInt(rand.nextBoolean() ? 30 : 3000); k > 0; --k) {
+                long word = 0;
+                for (int b = 0; b < 64; ++b)
+                    if (rand.nextInt(64) < density)
+                        word |= 1l << b;
+                bitmap.addWord(word);
+            }
+        }
+        if (rand.nextBoolean())
+            bitmap.setSizeInBits(bitmap.sizeInBits() + rand.nextInt(500), false);
+        if ((bitmap.sizeInBits() > 0) && rand.nextBoolean())
+            bitmap.setSizeInBitsWithinLastWord(bitmap.sizeInBits() - rand.nextInt(1 + (bitmap.sizeInBits() - 1) % 64));
+        return bitmap;
+    }
+
+    private static byte[] serialize(final EWAHCompressedBitmap... bitmaps) throws IOException {
+        final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bos);
+        for (EWAHCompressedBitmap bitmap : bitmaps)
+            LiteralCoding.serialize(bitmap, out);
+        out.close();
+        return bos.toByteArray();
+    }
+
+    @Test
+    public void roundTrip() throws IOException {
+        System.out.println("Testing LiteralCoding");
+        final Random rand = new Random(1234);
+        for (int trial = 0; trial < 100; ++trial) {
+            final int density = new int[]{1, 4, 32, 60, 63}[trial % 5];
+            final EWAHCompressedBitmap x = randomBitmap(rand, density);
+            final EWAHCompressedBitmap y = randomBitmap(rand, density);
+            final byte[] bytes = serialize(x, y);
+            Assert.assertEquals(LiteralCoding.serializedSizeInBytes(x) + LiteralCoding.serializedSizeInBytes(y),
+                    bytes.length);
+            final DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+            final EWAHCompressedBitmap xcopy = LiteralCoding.deserialize(in);
+            final EWAHCompressedBitmap ycopy = LiteralCoding.deserialize(in);
+            Assert.assertEquals(-1, in.read());
+            Assert.assertEquals(x, xcopy);
+            Assert.assertEquals(x.sizeInBits(), xcopy.sizeInBits());
+            Assert.assertArrayEquals(x.toArray(), xcopy.toArray());
+            Assert.assertEquals(y, ycopy);
+            Assert.assertEquals(y.sizeInBits(), ycopy.sizeInBits());
+            // the copy can be extended
+            xcopy.set(xcopy.sizeInBits() + 5);
+            Assert.assertEquals(x.cardinality() + 1, xcopy.cardinality());
+            if ((density < 8) || (density > 56))
+                Assert.assertTrue(LiteralCoding.serializedSizeInBytes(x) <= x.serializedSizeInBytes());
+        }
+    }
+
+    @Test
+    public void iterator() throws IOException {
+        System.out.println("Testing LiteralCoding.iterator");
+        final Random rand = new Random(5678);
+        for (int trial = 0; trial < 50; ++trial) {
+            final EWAHCompressedBitmap x = randomBitmap(rand, 1 + rand.nextInt(63));
+            final EWAHCompressedBitmap y = randomBitmap(rand, 1 + rand.nextInt(63));
+            final EWAHCompressedBitmap z = randomBitmap(rand, 1 + rand.nextInt(63));
+            final byte[] bytes = serialize(x, y, z);
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+            for (EWAHCompressedBitmap expected : new EWAHCompressedBitmap[]{x, y, z}) {
+                final IteratingRLW i = LiteralCoding.iterator(in);
+                Assert.assertEquals(expected.cardinality(), IteratorUtil.cardinality(i));
+            }
+            Assert.assertEquals(-1, in.read());
+            in = new DataInputStream(new ByteArrayInputStream(bytes));
+            final IteratingRLW i = LiteralCoding.iterator(in);
+            final EWAHCompressedBitmap xAndY = IteratorUtil.materialize(
+                    IteratorAggregation.bufferedand(i, y.getIteratingRLW()));
+            Assert.assertEquals(x.and(y).cardinality(), xAndY.cardinality());
+            Assert.assertArrayEquals(x.and(y).toArray(), xAndY.toArray());
+        }
+    }
+
+    @Test
+    public void sparseLiteralWords() throws IOException {
+        System.out.println("Testing LiteralCoding with sparse literal words");
+        final EWAHCompressedBitmap bitmap = new EWAHCompressedBitmap();
+        for (int k = 0; k < 1000000; k += 37)
+            bitmap.set(k);
+        final long coded = LiteralCoding.serializedSizeInBytes(bitmap);
+        Assert.assertTrue(coded * 2 < bitmap.serializedSizeInBytes());
+        Assert.assertEquals(bitmap, LiteralCoding.deserialize(
+                new DataInputStream(new ByteArrayInputStream(serialize(bitmap)))));
+        final EWAHCompressedBitmap dense = bitmap.clone();
+        dense.not();
+        Assert.assertTrue(LiteralCoding.serializedSizeInBytes(dense) * 2 < dense.serializedSizeInBytes());
+    }
+
+    @Test
+    public void invalidData() throws IOException {
+        System.out.println("Testing LiteralCoding with invalid data");
+        final byte[] bytes = serialize(EWAHCompressedBitmap.bitmapOf(1, 3, 100, 1000));
+        // the tag of the first literal word
+        bytes[5] = (byte) 200;
+        try {
+            LiteralCoding.deserialize(new DataInputStream(new ByteArrayInputStream(bytes)));
+            Assert.fail();
+        } catch (IOException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package com.googlecode.javaewah;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/*
+ * Copyright 2009-2014, Daniel Lemire, Cliff Moon, David McIntosh, Robert Becho, Google Inc., Veronika Zenz, Owen Kaser, Gregory Ssi-Yan-Kai, Rory Graves
+ * Licensed under the Apache License, Version 2.0.
+ */
+
+/**
+ * Tests for the partitioned bitmap.
+ */
+public class PartitionedEWAHBitmapTest {
+
+    /**
+     * Long runs of zeroes and ones separated by random bits.
+     */
+    private static EWAHCompressedBitmap randomBitmap(final Random rand) {
+        final EWAHCompressedBitmap bitmap = new EWAHCompressedBitmap();
+        final int runs = rand.nextInt(20);
+        for (int r = 0; r < runs; ++r) {
+            switch (rand.nextInt(3)) {
+                case 0:
+                    bitmap.addStreamOfEmptyWords(false, rand.nextInt(100));
+                    break;
+                case 1:
+                    bitmap.addStreamOfEmptyWords(true, rand.nextInt(100));
+                    break;
+                default:
+                    for (int k = rand.nextInt(50); k > 0; --k)
+                        bitmap.addWord(rand.nextLong());
+            }
+        }
+        if (rand.nextBoolean() && (bitmap.sizeInBits() > 0))
+            bitmap.setSizeInBitsWithinLastWord(bitmap.sizeInBits() - 1 - rand.nextInt(63));
+        return bitmap;
+    }
+
+    private static void check(final EWAHCompressedBitmap expected, final PartitionedEWAHBitmap actual) {
+        Assert.assertEquals(expected.cardinality(), actual.cardinality());
+        Assert.assertArrayEquals(expected.toArray(), actual.toArray());
+        Assert.assertEquals(expected, actual.toEWAHCompressedBitmap());
+        Assert.assertEquals(expected.sizeInBits(), actual.toEWAHCompressedBitmap().sizeInBits());
+        Assert.assertEquals(PartitionedEWAHBitmap.valueOf(expected, actual.getChunkBits()), actual);
+        Assert.assertEquals(expected.hashCode(), actual.hashCode());
+    }
+
+    @Test
+    public void operations() {
+        System.out.println("Testing PartitionedEWAHBitmap operations");
+        final Random rand = new Random(1234);
+        final ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            for (int trial = 0; trial < 50; ++trial) {
+                final int chunkBits = 6 + rand.nextInt(8);
+                final EWAHCompressedBitmap x = randomBitmap(rand);
+                final EWAHCompressedBitmap y = randomBitmap(rand);
+                final PartitionedEWAHBitmap a = PartitionedEWAHBitmap.valueOf(x, chunkBits);
+                final PartitionedEWAHBitmap b = PartitionedEWAHBitmap.valueOf(y, chunkBits);
+                check(x, a);
+                check(y, b);
+                check(x.and(y), a.and(b));
+                check(x.and(y), a.and(b, pool));
+                check(x.or(y), a.or(b));
+                check(x.or(y), a.or(b, pool));
+                check(x.xor(y), a.xor(b));
+                check(x.xor(y), a.xor(b, pool));
+                check(x.andNot(y), a.andNot(b));
+                check(y.andNot(x), b.andNot(a, pool));
+                Assert.assertEquals(x.andCardinality(y), a.andCardinality(b));
+                Assert.assertEquals(x.cardinality(), a.cardinality(pool));
+                Assert.assertEquals(Math.max(x.sizeInBits(), y.sizeInBits()), a.or(b).sizeInBits());
+                for (int k = 0; k < 100; ++k) {
+                    final int p = rand.nextInt(x.sizeInBits() + 100);
+                    Assert.assertEquals(x.get(p), a.get(p));
+                }
+                final EWAHCompressedBitmap notx = x.clone();
+                notx.not();
+                final PartitionedEWAHBitmap nota = a.clone();
+                nota.not();
+                check(notx, nota);
+                check(x, a);
+                check(notx.or(y), nota.or(b));
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void skipping() {
+        System.out.println("Testing PartitionedEWAHBitmap chunk flags");
+        final EWAHCompressedBitmap x = new EWAHCompressedBitmap();
+        x.addStreamOfEmptyWords(false, 32);
+        x.addStreamOfEmptyWords(true, 16);
+        x.set(3500);
+        final PartitionedEWAHBitmap a = PartitionedEWAHBitmap.valueOf(x, 10);
+        Assert.assertEquals(4, a.numberOfChunks());
+        Assert.assertTrue(a.isChunkEmpty(0));
+        Assert.assertTrue(a.isChunkEmpty(1));
+        Assert.assertTrue(a.isChunkFull(2));
+        Assert.assertFalse(a.isChunkEmpty(3));
+        Assert.assertFalse(a.isChunkFull(3));
+        final PartitionedEWAHBitmap b = a.clone();
+        b.not();
+        Assert.assertTrue(b.isChunkFull(0));
+        Assert.assertTrue(b.isChunkEmpty(2));
+        Assert.assertTrue(a.and(b).isEmpty());
+        Assert.assertTrue(a.or(b).isChunkFull(1));
+    }
+
+    @Test
+    public void set() {
+        System.out.println("Testing PartitionedEWAHBitmap.set");
+        final Random rand = new Random(5678);
+        for (int trial = 0; trial < 20; ++trial) {
+            final EWAHCompressedBitmap expected = new EWAHCompressedBitmap();
+            final PartitionedEWAHBitmap actual = new PartitionedEWAHBitmap(8);
+            int k = rand.nextInt(100);
+            for (int n = rand.nextInt(2000); n > 0; --n) {
+                expected.set(k);
+                Assert.assertTrue(actual.set(k));
+                k += rand.nextInt(10) == 0 ? 1 + rand.nextInt(2000) : 1;
+            }
+            check(expected, actual);
+            Assert.assertFalse(actual.set(0));
+            final EWAHCompressedBitmap notExpected = expected.clone();
+            notExpected.not();
+            actual.not();
+            check(notExpected, actual);
+            // full chunks that end the bitmap are partial
+            notExpected.set(k + 300);
+            actual.set(k + 300);
+            check(notExpected, actual);
+        }
+    }
+}
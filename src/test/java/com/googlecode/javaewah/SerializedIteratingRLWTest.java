@@ -0,0 +1,105 @@
+package com.googlecode.javaewah;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Random;
+
+/*
+ * Copyright 2009-2014, Daniel Lemire, Cliff Moon, David McIntosh, Robert Becho, Google Inc., Veronika Zenz, Owen Kaser, Gregory Ssi-Yan-Kai, Rory Graves
+ * Licensed under the Apache License, Version 2.0.
+ */
+
+/**
+ * Tests for the iterator over serialized bitmaps.
+ */
+public class SerializedIteratingRLWTest {
+
+    /**
+     * Runs of ones and random literal words, some of them longer than the
+     * block of literal words held by the iterator.
+     */
+    private static EWAHCompressedBitmap randomBitmap(final Random rand) {
+        final EWAHCompressedBitmap bitmap = new EWAHCompressedBitmap();
+        for (int r = rand.nextInt(10); r > 0; --r) {
+            switch (rand.nextInt(3)) {
+                case 0:
+                    bitmap.addStreamOfEmptyWords(rand.nextBoolean(), rand.nextInt(200));
+                    break;
+                default:
+                    for (int k = rand.nextInt(rand.nextBoolean() ? 30 : 3000); k > 0; --k)
+                        bitmap.addWord(rand.nextLong());
+            }
+        }
+        return bitmap;
+    }
+
+    private static byte[] serialize(final EWAHCompressedBitmap bitmap) throws IOException {
+        final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        bitmap.serialize(new DataOutputStream(bos));
+        return bos.toByteArray();
+    }
+
+    private static byte[] writeTo(final EWAHCompressedBitmap... bitmaps) throws IOException {
+        final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        for (EWAHCompressedBitmap bitmap : bitmaps)
+            bitmap.writeTo(Channels.newChannel(bos));
+        return bos.toByteArray();
+    }
+
+    @Test
+    public void materialize() throws IOException {
+        System.out.println("Testing SerializedIteratingRLW");
+        final Random rand = new Random(1234);
+        for (int trial = 0; trial < 50; ++trial) {
+            final EWAHCompressedBitmap bitmap = randomBitmap(rand);
+            final SerializedIteratingRLW fromData = new SerializedIteratingRLW(
+                    new DataInputStream(new ByteArrayInputStream(serialize(bitmap))));
+            Assert.assertEquals(bitmap.sizeInBits(), fromData.sizeInBits());
+            Assert.assertEquals(bitmap, IteratorUtil.materialize(fromData));
+            final ByteBuffer buffer = ByteBuffer.wrap(writeTo(bitmap));
+            Assert.assertEquals(bitmap, IteratorUtil.materialize(new SerializedIteratingRLW(buffer)));
+            Assert.assertFalse(buffer.hasRemaining());
+            Assert.assertEquals(bitmap.cardinality(), IteratorUtil.cardinality(
+                    new SerializedIteratingRLW(Channels.newChannel(new ByteArrayInputStream(writeTo(bitmap))))));
+        }
+    }
+
+    @Test
+    public void aggregation() throws IOException {
+        System.out.println("Testing aggregation over serialized bitmaps");
+        final Random rand = new Random(5678);
+        for (int trial = 0; trial < 20; ++trial) {
+            final EWAHCompressedBitmap x = randomBitmap(rand);
+            final EWAHCompressedBitmap y = randomBitmap(rand);
+            final EWAHCompressedBitmap z = randomBitmap(rand);
+            final IteratingRLW or = IteratorAggregation.bufferedor(
+                    new SerializedIteratingRLW(ByteBuffer.wrap(writeTo(x))),
+                    new SerializedIteratingRLW(ByteBuffer.wrap(writeTo(y))),
+                    new SerializedIteratingRLW(ByteBuffer.wrap(writeTo(z))));
+            Assert.assertEquals(EWAHCompressedBitmap.or(x, y, z), IteratorUtil.materialize(or));
+            // bitmaps stored one after the other are read in sequence
+            final ReadableByteChannel channel = Channels.newChannel(new ByteArrayInputStream(writeTo(x, y)));
+            Assert.assertEquals(x, IteratorUtil.materialize(new SerializedIteratingRLW(channel)));
+            Assert.assertEquals(y, IteratorUtil.materialize(new SerializedIteratingRLW(channel)));
+            final BitCounter counter = new BitCounter();
+            IteratorUtil.materialize(IteratorAggregation.bufferedand(
+                    new SerializedIteratingRLW(ByteBuffer.wrap(writeTo(x))),
+                    new SerializedIteratingRLW(ByteBuffer.wrap(writeTo(y)))), counter);
+            Assert.assertEquals(x.andCardinality(y), counter.getCount());
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void truncated() throws IOException {
+        final EWAHCompressedBitmap bitmap = EWAHCompressedBitmap.bitmapOf(1, 1000, 100000);
+        final byte[] bytes = serialize(bitmap);
+        final SerializedIteratingRLW i = new SerializedIteratingRLW(
+                new DataInputStream(new ByteArrayInputStream(bytes, 0, bytes.length - 10)));
+        IteratorUtil.materialize(i);
+    }
+}
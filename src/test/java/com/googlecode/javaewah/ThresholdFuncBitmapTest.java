@@ -1,8 +1,26 @@
 package com.googlecode.javaewah;
 
+import com.googlecode.javaewah.symmetric.AtMostKFuncBitmap;
+import com.googlecode.javaewah.symmetric.BitmapSymmetricAlgorithm;
+import com.googlecode.javaewah.symmetric.CoverageCountFuncBitmap;
+import com.googlecode.javaewah.symmetric.ExactlyKFuncBitmap;
+import com.googlecode.javaewah.symmetric.LoopedThreshold;
+import com.googlecode.javaewah.symmetric.ParallelRunningBitmapMerge;
+import com.googlecode.javaewah.symmetric.RunningBitmapMerge;
+import com.googlecode.javaewah.symmetric.ScanCount;
+import com.googlecode.javaewah.symmetric.SymmetricAlgorithmSelector;
+import com.googlecode.javaewah.symmetric.ThresholdFuncBitmap;
+import com.googlecode.javaewah.symmetric.UpdateableBitmapFunction;
+import com.googlecode.javaewah.symmetric.UpdateableBitmapFunctionFactory;
+import com.googlecode.javaewah.symmetric.WeightedThresholdFuncBitmap;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
 @SuppressWarnings("javadoc")
 /**
  * @since 0.8.0
@@ -61,4 +79,194 @@ public class ThresholdFuncBitmapTest {
         Assert.assertTrue(ewahmajth.equals(ewahtruemaj));
     }
 
+    @Test
+    public void alternativeAlgorithms() {
+        System.out.println("Testing ScanCount and LoopedThreshold");
+        final Random rand = new Random(2014);
+        final BitmapSymmetricAlgorithm[] algorithms = {new ScanCount(), new LoopedThreshold(),
+                new SymmetricAlgorithmSelector()};
+        for (int n = 1; n <= 12; ++n) {
+            final EWAHCompressedBitmap[] set = new EWAHCompressedBitmap[n];
+            for (int k = 0; k < n; ++k) {
+                set[k] = new EWAHCompressedBitmap();
+                final int size = rand.nextInt(200000);
+                final int gap = 1 + rand.nextInt(100);
+                for (int x = rand.nextInt(gap); x < size; x += 1 + rand.nextInt(gap)) {
+                    if (rand.nextInt(50) == 0)
+                        for (int end = Math.min(size, x + rand.nextInt(5000)); x < end; ++x)
+                            set[k].set(x);
+                    else
+                        set[k].set(x);
+                }
+            }
+            for (int t = 1; t <= n + 1; ++t) {
+                final EWAHCompressedBitmap expected = new EWAHCompressedBitmap();
+                new RunningBitmapMerge().symmetric(new ThresholdFuncBitmap(t), expected, set);
+                for (BitmapSymmetricAlgorithm algorithm : algorithms) {
+                    final EWAHCompressedBitmap actual = new EWAHCompressedBitmap();
+                    algorithm.symmetric(new ThresholdFuncBitmap(t), actual, set);
+                    Assert.assertEquals(expected, actual);
+                    Assert.assertEquals(expected.sizeInBits(), actual.sizeInBits());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void cardinalityAndIterator() {
+        System.out.println("Testing thresholdCardinality and RunningBitmapMerge.iterator");
+        final Random rand = new Random(42);
+        final EWAHCompressedBitmap[] set = new EWAHCompressedBitmap[7];
+        for (int k = 0; k < set.length; ++k) {
+            set[k] = new EWAHCompressedBitmap();
+            for (int x = rand.nextInt(10); x < 3000000; x += 1 + rand.nextInt(40 * (k + 1)))
+                set[k].set(x);
+        }
+        for (int t = 1; t <= set.length; ++t) {
+            final EWAHCompressedBitmap expected = EWAHCompressedBitmap.threshold(t, set);
+            Assert.assertEquals(expected.cardinality(), EWAHCompressedBitmap.thresholdCardinality(t, set));
+            final IteratingRLW i = new RunningBitmapMerge().iterator(new ThresholdFuncBitmap(t), set);
+            final EWAHCompressedBitmap streamed = IteratorUtil.materialize(i);
+            Assert.assertEquals(expected, streamed);
+            Assert.assertEquals(expected.sizeInBits(), streamed.sizeInBits());
+        }
+        final EWAHCompressedBitmap majority = IteratorUtil.materialize(IteratorAggregation.bufferedand(
+                new RunningBitmapMerge().iterator(new ThresholdFuncBitmap(4), set), set[0].getIteratingRLW()));
+        Assert.assertEquals(EWAHCompressedBitmap.threshold(4, set).and(set[0]), majority);
+        Assert.assertEquals(0, IteratorUtil.cardinality(new RunningBitmapMerge().iterator(new ThresholdFuncBitmap(1))));
+    }
+
+    @Test
+    public void otherSymmetricFunctions() {
+        System.out.println("Testing exactly-k, at-most-k, weighted threshold and coverage counts");
+        final Random rand = new Random(31);
+        for (int n = 1; n <= 9; ++n) {
+            final EWAHCompressedBitmap[] set = new EWAHCompressedBitmap[n];
+            final int[] weights = new int[n];
+            int universe = 0;
+            for (int k = 0; k < n; ++k) {
+                set[k] = new EWAHCompressedBitmap();
+                final int size = rand.nextInt(20000);
+                final int gap = 1 + rand.nextInt(30);
+                for (int x = rand.nextInt(gap); x < size; x += 1 + rand.nextInt(gap)) {
+                    if (rand.nextInt(20) == 0)
+                        for (int end = Math.min(size, x + rand.nextInt(2000)); x < end; ++x)
+                            set[k].set(x);
+                    else
+                        set[k].set(x);
+                }
+                weights[k] = rand.nextInt(5);
+                universe = Math.max(universe, (set[k].sizeInBits() + 63) / 64 * 64);
+            }
+            final int[] counts = new int[universe];
+            final int[] weightedCounts = new int[universe];
+            for (int k = 0; k < n; ++k)
+                for (IntIterator i = set[k].intIterator(); i.hasNext(); ) {
+                    final int x = i.next();
+                    counts[x]++;
+                    weightedCounts[x] += weights[k];
+                }
+            for (int t = 0; t <= n + 1; ++t) {
+                final EWAHCompressedBitmap exactly = new EWAHCompressedBitmap();
+                final EWAHCompressedBitmap atMost = new EWAHCompressedBitmap();
+                final EWAHCompressedBitmap weighted = new EWAHCompressedBitmap();
+                for (int x = 0; x < universe; ++x) {
+                    if (counts[x] == t)
+                        exactly.set(x);
+                    if (counts[x] <= t)
+                        atMost.set(x);
+                    if (weightedCounts[x] >= 2 * t)
+                        weighted.set(x);
+                }
+                checkSymmetric(exactly, new ExactlyKFuncBitmap(t), set);
+                checkSymmetric(atMost, new AtMostKFuncBitmap(t), set);
+                final EWAHCompressedBitmap actual = new EWAHCompressedBitmap();
+                new RunningBitmapMerge().symmetric(new WeightedThresholdFuncBitmap(2 * t, weights), actual, set);
+                Assert.assertTrue(Arrays.equals(weighted.toArray(), actual.toArray()));
+            }
+            final CoverageCountFuncBitmap coverage = new CoverageCountFuncBitmap();
+            final EWAHCompressedBitmap union = new EWAHCompressedBitmap();
+            new RunningBitmapMerge().symmetric(coverage, union, set);
+            Assert.assertEquals(EWAHCompressedBitmap.or(set), union);
+            final EWAHCompressedBitmap[] slices = coverage.getSlices();
+            Assert.assertEquals(32 - Integer.numberOfLeadingZeros(n), slices.length);
+            final int[] sliced = new int[universe];
+            for (int j = 0; j < slices.length; ++j)
+                for (IntIterator i = slices[j].intIterator(); i.hasNext(); )
+                    sliced[i.next()] += 1 << j;
+            Assert.assertTrue(Arrays.equals(counts, sliced));
+            // the slices of the previous inputs must not be reported again
+            final EWAHCompressedBitmap[] empty = new EWAHCompressedBitmap[n];
+            for (int k = 0; k < n; ++k)
+                empty[k] = new EWAHCompressedBitmap();
+            new RunningBitmapMerge().symmetric(coverage, new EWAHCompressedBitmap(), empty);
+            for (EWAHCompressedBitmap slice : coverage.getSlices())
+                Assert.assertTrue(slice.isEmpty());
+        }
+        Assert.assertTrue(ThresholdFuncBitmap.majority(5).evaluate(3));
+        Assert.assertFalse(ThresholdFuncBitmap.majority(6).evaluate(3));
+    }
+
+    @Test
+    public void parallelMerge() throws InterruptedException {
+        System.out.println("Testing ParallelRunningBitmapMerge");
+        final Random rand = new Random(32);
+        final ExecutorService pool = Executors.newFixedThreadPool(3);
+        try {
+            for (int n = 1; n <= 40; n += 13) {
+                final EWAHCompressedBitmap[] set = new EWAHCompressedBitmap[n];
+                for (int k = 0; k < n; ++k) {
+                    set[k] = new EWAHCompressedBitmap();
+                    final int size = rand.nextInt(1000000);
+                    final int gap = 1 + rand.nextInt(500);
+                    for (int x = rand.nextInt(gap); x < size; x += 1 + rand.nextInt(gap)) {
+                        if (rand.nextInt(50) == 0)
+                            for (int end = Math.min(size, x + rand.nextInt(50000)); x < end; ++x)
+                                set[k].set(x);
+                        else
+                            set[k].set(x);
+                    }
+                    if (rand.nextBoolean())
+                        set[k].setSizeInBits(set[k].sizeInBits() + rand.nextInt(500000), false);
+                }
+                for (int ranges = 1; ranges <= 20; ranges += 6) {
+                    final ParallelRunningBitmapMerge merge = new ParallelRunningBitmapMerge(pool, ranges);
+                    for (int t = 1; t <= n; t += 1 + n / 4) {
+                        final int threshold = t;
+                        final EWAHCompressedBitmap expected = new EWAHCompressedBitmap();
+                        new RunningBitmapMerge().symmetric(new ThresholdFuncBitmap(t), expected, set);
+                        final EWAHCompressedBitmap actual = new EWAHCompressedBitmap();
+                        merge.symmetric(new UpdateableBitmapFunctionFactory() {
+                            @Override
+                            public UpdateableBitmapFunction newFunction() {
+                                return new ThresholdFuncBitmap(threshold);
+                            }
+                        }, actual, set);
+                        Assert.assertEquals(expected, actual);
+                        Assert.assertEquals(expected.sizeInBits(), actual.sizeInBits());
+                        new RunningBitmapMerge().symmetric(new ExactlyKFuncBitmap(t), expected, set);
+                        merge.symmetric(new UpdateableBitmapFunctionFactory() {
+                            @Override
+                            public UpdateableBitmapFunction newFunction() {
+                                return new ExactlyKFuncBitmap(threshold);
+                            }
+                        }, actual, set);
+                        Assert.assertEquals(expected, actual);
+                    }
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static void checkSymmetric(final EWAHCompressedBitmap expected, final UpdateableBitmapFunction f,
+                                       final EWAHCompressedBitmap... set) {
+        for (BitmapSymmetricAlgorithm algorithm : new BitmapSymmetricAlgorithm[]{new RunningBitmapMerge(),
+                new ScanCount(), new SymmetricAlgorithmSelector()}) {
+            final EWAHCompressedBitmap actual = new EWAHCompressedBitmap();
+            algorithm.symmetric(f, actual, set);
+            Assert.assertTrue(Arrays.equals(expected.toArray(), actual.toArray()));
+        }
+    }
 }
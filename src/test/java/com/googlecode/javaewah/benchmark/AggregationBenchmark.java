@@ -0,0 +1,175 @@
+package com.googlecode.javaewah.benchmark;
+
+import com.googlecode.javaewah.BufferedIterator;
+import com.googlecode.javaewah.CloneableIterator;
+import com.googlecode.javaewah.EWAHCompressedBitmap;
+import com.googlecode.javaewah.EWAHIterator;
+import com.googlecode.javaewah.FastAggregation;
+import com.googlecode.javaewah.IteratingRLW;
+import com.googlecode.javaewah.IteratorAggregation;
+import com.googlecode.javaewah.IteratorUtil;
+import com.googlecode.javaewah.synth.ClusteredDataGenerator;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedList;
+
+/*
+ * Copyright 2009-2014, Daniel Lemire, Cliff Moon, David McIntosh, Robert Becho, Google Inc., Veronika Zenz, Owen Kaser, Gregory Ssi-Yan-Kai, Rory Graves
+ * Licensed under the Apache License, Version 2.0.
+ */
+
+/**
+ * Compares the buffered aggregates over many inputs. The iterators wrapped
+ * in a double negation go through the generic code paths whereas the
+ * iterators over bitmaps use the specialized ones. The baseline is the
+ * former or aggregate, which kept its inputs in a LinkedList.
+ *
+ * Usage: java com.googlecode.javaewah.benchmark.AggregationBenchmark
+ *
+ * @author Daniel Lemire
+ * @since 0.8.12
+ */
+public class AggregationBenchmark {
+
+    /**
+     * @param args ignored
+     */
+    public static void main(final String[] args) {
+        final ClusteredDataGenerator cdg = new ClusteredDataGenerator(123);
+        for (int n = 10; n <= 10000; n *= 10) {
+            final EWAHCompressedBitmap[] bitmaps = new EWAHCompressedBitmap[n];
+            for (int k = 0; k < n; ++k)
+                bitmaps[k] = EWAHCompressedBitmap.bitmapOf(cdg.generateClustered(1 << 10, 1 << 22));
+            System.out.println("# " + n + " bitmaps, times in ms (best of " + REPEAT + ")");
+            System.out.println("# bufferedor(LinkedList) bufferedor bufferedor(generic) bufferedxor bufferedand "
+                    + "FastAggregation.bufferedor FastAggregation.bufferedand");
+            long linkedor = Long.MAX_VALUE;
+            long bufferedor = Long.MAX_VALUE, genericor = Long.MAX_VALUE, bufferedxor = Long.MAX_VALUE;
+            long bufferedand = Long.MAX_VALUE, fastor = Long.MAX_VALUE, fastand = Long.MAX_VALUE;
+            int check = 0;
+            for (int r = 0; r < REPEAT; ++r) {
+                long before = System.nanoTime();
+                check += IteratorUtil.cardinality(new BufferedIterator(new LinkedListORIterator(
+                        IteratorUtil.toIterators(bitmaps), IteratorAggregation.DEFAULT_MAX_BUF_SIZE)));
+                linkedor = Math.min(linkedor, System.nanoTime() - before);
+                before = System.nanoTime();
+                check += IteratorUtil.cardinality(IteratorAggregation.bufferedor(IteratorUtil.toIterators(bitmaps)));
+                bufferedor = Math.min(bufferedor, System.nanoTime() - before);
+                before = System.nanoTime();
+                check += IteratorUtil.cardinality(IteratorAggregation.bufferedor(wrap(bitmaps)));
+                genericor = Math.min(genericor, System.nanoTime() - before);
+                before = System.nanoTime();
+                check += IteratorUtil.cardinality(IteratorAggregation.bufferedxor(IteratorUtil.toIterators(bitmaps)));
+                bufferedxor = Math.min(bufferedxor, System.nanoTime() - before);
+                before = System.nanoTime();
+                check += IteratorUtil.cardinality(IteratorAggregation.bufferedand(IteratorUtil.toIterators(bitmaps)));
+                bufferedand = Math.min(bufferedand, System.nanoTime() - before);
+                before = System.nanoTime();
+                check += FastAggregation.bufferedor(IteratorAggregation.DEFAULT_MAX_BUF_SIZE, bitmaps).cardinality();
+                fastor = Math.min(fastor, System.nanoTime() - before);
+                before = System.nanoTime();
+                check += FastAggregation.bufferedand(1024, bitmaps).cardinality();
+                fastand = Math.min(fastand, System.nanoTime() - before);
+            }
+            System.out.println(ms(linkedor) + " " + ms(bufferedor) + " " + ms(genericor) + " " + ms(bufferedxor) + " "
+                    + ms(bufferedand) + " " + ms(fastor) + " " + ms(fastand) + "   # ignore this: " + check);
+        }
+    }
+
+    private static IteratingRLW[] wrap(final EWAHCompressedBitmap[] bitmaps) {
+        final IteratingRLW[] answer = IteratorUtil.toIterators(bitmaps);
+        for (int k = 0; k < answer.length; ++k)
+            answer[k] = IteratorAggregation.not(IteratorAggregation.not(answer[k]));
+        return answer;
+    }
+
+    /**
+     * The or aggregate as it was implemented before the inputs were kept in
+     * an array.
+     */
+    private static final class LinkedListORIterator implements CloneableIterator<EWAHIterator> {
+        LinkedListORIterator(final IteratingRLW[] al, final int bufSize) {
+            Collections.addAll(this.ll, al);
+            this.hardBitmap = new long[bufSize];
+        }
+
+        @Override
+        public LinkedListORIterator clone() throws CloneNotSupportedException {
+            throw new CloneNotSupportedException();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !this.ll.isEmpty();
+        }
+
+        @Override
+        public EWAHIterator next() {
+            this.buffer.clear();
+            long effective = 0;
+            Iterator<IteratingRLW> i = this.ll.iterator();
+            while (i.hasNext()) {
+                IteratingRLW rlw = i.next();
+                if (rlw.size() > 0) {
+                    int eff = inplaceor(this.hardBitmap, rlw);
+                    if (eff > effective)
+                        effective = eff;
+                } else
+                    i.remove();
+            }
+            for (int k = 0; k < effective; ++k)
+                this.buffer.addWord(this.hardBitmap[k]);
+            Arrays.fill(this.hardBitmap, 0);
+            return this.buffer.getEWAHIterator();
+        }
+
+        private static int inplaceor(long[] bitmap, IteratingRLW i) {
+            int pos = 0;
+            long s;
+            while ((s = i.size()) > 0) {
+                if (pos + s < bitmap.length) {
+                    final int L = (int) i.getRunningLength();
+                    if (i.getRunningBit())
+                        Arrays.fill(bitmap, pos, pos + L, ~0l);
+                    pos += L;
+                    final int LR = i.getNumberOfLiteralWords();
+                    for (int k = 0; k < LR; ++k)
+                        bitmap[pos++] |= i.getLiteralWordAt(k);
+                    if (!i.next()) {
+                        return pos;
+                    }
+                } else {
+                    int howmany = bitmap.length - pos;
+                    int l = (int) i.getRunningLength();
+                    if (pos + l > bitmap.length) {
+                        if (i.getRunningBit()) {
+                            Arrays.fill(bitmap, pos, bitmap.length, ~0l);
+                        }
+                        i.discardFirstWords(howmany);
+                        return bitmap.length;
+                    }
+                    if (i.getRunningBit())
+                        Arrays.fill(bitmap, pos, pos + l, ~0l);
+                    pos += l;
+                    for (int k = 0; pos < bitmap.length; ++k)
+                        bitmap[pos++] |= i.getLiteralWordAt(k);
+                    i.discardFirstWords(howmany);
+                    return pos;
+                }
+            }
+            return pos;
+        }
+
+        private final EWAHCompressedBitmap buffer = new EWAHCompressedBitmap();
+        private final long[] hardBitmap;
+        private final LinkedList<IteratingRLW> ll = new LinkedList<IteratingRLW>();
+    }
+
+    private static String ms(final long nanos) {
+        return String.format("%.2f", nanos / 1e6);
+    }
+
+    private static final int REPEAT = 10;
+}
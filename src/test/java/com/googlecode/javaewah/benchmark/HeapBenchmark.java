@@ -0,0 +1,98 @@
+package com.googlecode.javaewah.benchmark;
+
+import com.googlecode.javaewah.datastructure.IntPriorityQ;
+import com.googlecode.javaewah.datastructure.PriorityQ;
+
+import java.util.Comparator;
+import java.util.Random;
+
+/*
+ * Copyright 2009-2014, Daniel Lemire, Cliff Moon, David McIntosh, Robert Becho, Google Inc., Veronika Zenz, Owen Kaser, Gregory Ssi-Yan-Kai, Rory Graves
+ * Licensed under the Apache License, Version 2.0.
+ */
+
+/**
+ * Compares the heaps used to merge many inputs by RunningBitmapMerge: the
+ * generic PriorityQ over objects and IntPriorityQ over packed pairs. As in
+ * the merge, the smallest key grows repeatedly (a run ends and the next one
+ * starts) until the input is exhausted.
+ *
+ * Usage: java com.googlecode.javaewah.benchmark.HeapBenchmark
+ *
+ * @author Daniel Lemire
+ * @since 0.8.12
+ */
+public class HeapBenchmark {
+
+    /**
+     * @param args ignored
+     */
+    public static void main(final String[] args) {
+        System.out.println("# inputs PriorityQ IntPriorityQ, times in ms (best of " + REPEAT + ")");
+        for (int n = 50; n <= 50000; n *= 10) {
+            final int[] steps = new int[UPDATES];
+            final Random rand = new Random(123);
+            for (int k = 0; k < steps.length; ++k)
+                steps[k] = 1 + rand.nextInt(64);
+            long generic = Long.MAX_VALUE, primitive = Long.MAX_VALUE;
+            long check = 0;
+            for (int r = 0; r < REPEAT; ++r) {
+                long before = System.nanoTime();
+                check += generic(n, steps);
+                generic = Math.min(generic, System.nanoTime() - before);
+                before = System.nanoTime();
+                check += primitive(n, steps);
+                primitive = Math.min(primitive, System.nanoTime() - before);
+            }
+            System.out.println(n + " " + String.format("%.2f", generic / 1e6) + " "
+                    + String.format("%.2f", primitive / 1e6) + "   # ignore this: " + check);
+        }
+    }
+
+    private static long generic(final int n, final int[] steps) {
+        final PriorityQ<Run> q = new PriorityQ<Run>(n, new Comparator<Run>() {
+            @Override
+            public int compare(Run a, Run b) {
+                return a.end - b.end;
+            }
+        });
+        for (int k = 0; k < n; ++k)
+            q.toss(new Run(k, k));
+        q.buildHeap();
+        long answer = 0;
+        for (int step : steps) {
+            final Run top = q.peek();
+            answer += top.input;
+            top.end += step;
+            q.percolateDown();
+        }
+        return answer;
+    }
+
+    private static long primitive(final int n, final int[] steps) {
+        final IntPriorityQ q = new IntPriorityQ(n);
+        for (int k = 0; k < n; ++k)
+            q.toss(k, k);
+        q.buildHeap();
+        long answer = 0;
+        for (int step : steps) {
+            answer += q.peekValue();
+            q.updateTopKey(q.peekKey() + step);
+        }
+        return answer;
+    }
+
+    private static final class Run {
+        Run(final int end, final int input) {
+            this.end = end;
+            this.input = input;
+        }
+
+        int end;
+        final int input;
+    }
+
+    private static final int REPEAT = 10;
+
+    private static final int UPDATES = 1 << 20;
+}
@@ -0,0 +1,121 @@
+package com.googlecode.javaewah.benchmark;
+
+import com.googlecode.javaewah.EWAHCompressedBitmap;
+import com.googlecode.javaewah.IteratorUtil;
+import com.googlecode.javaewah.LiteralCoding;
+import com.googlecode.javaewah.SerializedIteratingRLW;
+import com.googlecode.javaewah.synth.ClusteredDataGenerator;
+import com.googlecode.javaewah.synth.UniformDataGenerator;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/*
+ * Copyright 2009-2014, Daniel Lemire, Cliff Moon, David McIntosh, Robert Becho, Google Inc., Veronika Zenz, Owen Kaser, Gregory Ssi-Yan-Kai, Rory Graves
+ * Licensed under the Apache License, Version 2.0.
+ */
+
+/**
+ * Compares the size and the decoding speed of the serialized form of the
+ * bitmaps (EWAHCompressedBitmap.serialize) with the coded form of
+ * LiteralCoding, for uniform and clustered data of increasing density.
+ *
+ * Usage: java com.googlecode.javaewah.benchmark.LiteralCodingBenchmark
+ *
+ * @author Daniel Lemire
+ * @since 0.8.12
+ */
+public class LiteralCodingBenchmark {
+
+    /**
+     * @param args ignored
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    public static void main(final String[] args) throws IOException {
+        final UniformDataGenerator udg = new UniformDataGenerator(123);
+        final ClusteredDataGenerator cdg = new ClusteredDataGenerator(123);
+        System.out.println("# sizes in bytes per set bit, times in ms (best of " + REPEAT + ")");
+        System.out.println("# data density serialized coded serialize(time) coded(time) "
+                + "deserialize(time) decode(time) streamed(time) streamed-coded(time)");
+        for (int density = 1; density <= 512; density *= 8) {
+            final EWAHCompressedBitmap[] uniform = new EWAHCompressedBitmap[BITMAPS];
+            final EWAHCompressedBitmap[] clustered = new EWAHCompressedBitmap[BITMAPS];
+            for (int k = 0; k < BITMAPS; ++k) {
+                uniform[k] = EWAHCompressedBitmap.bitmapOf(udg.generateUniform(density * 64, MAX));
+                clustered[k] = EWAHCompressedBitmap.bitmapOf(cdg.generateClustered(density * 64, MAX));
+            }
+            run("uniform", density * 64.0 / MAX, uniform);
+            run("clustered", density * 64.0 / MAX, clustered);
+        }
+    }
+
+    private static void run(final String name, final double density, final EWAHCompressedBitmap[] bitmaps)
+            throws IOException {
+        long serialize = Long.MAX_VALUE, code = Long.MAX_VALUE, deserialize = Long.MAX_VALUE;
+        long decode = Long.MAX_VALUE, streamed = Long.MAX_VALUE, streamedCoded = Long.MAX_VALUE;
+        byte[] serialized = null, coded = null;
+        int check = 0;
+        for (int r = 0; r < REPEAT; ++r) {
+            long before = System.nanoTime();
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bos);
+            for (EWAHCompressedBitmap bitmap : bitmaps)
+                bitmap.serialize(out);
+            out.flush();
+            serialized = bos.toByteArray();
+            serialize = Math.min(serialize, System.nanoTime() - before);
+            before = System.nanoTime();
+            bos = new ByteArrayOutputStream();
+            out = new DataOutputStream(bos);
+            for (EWAHCompressedBitmap bitmap : bitmaps)
+                LiteralCoding.serialize(bitmap, out);
+            out.flush();
+            coded = bos.toByteArray();
+            code = Math.min(code, System.nanoTime() - before);
+            before = System.nanoTime();
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(serialized));
+            for (int k = 0; k < bitmaps.length; ++k) {
+                final EWAHCompressedBitmap bitmap = new EWAHCompressedBitmap();
+                bitmap.deserialize(in);
+                check += bitmap.sizeInBits();
+            }
+            deserialize = Math.min(deserialize, System.nanoTime() - before);
+            before = System.nanoTime();
+            in = new DataInputStream(new ByteArrayInputStream(coded));
+            for (int k = 0; k < bitmaps.length; ++k)
+                check += LiteralCoding.deserialize(in).sizeInBits();
+            decode = Math.min(decode, System.nanoTime() - before);
+            before = System.nanoTime();
+            in = new DataInputStream(new ByteArrayInputStream(serialized));
+            for (int k = 0; k < bitmaps.length; ++k)
+                check += IteratorUtil.cardinality(new SerializedIteratingRLW(in));
+            streamed = Math.min(streamed, System.nanoTime() - before);
+            before = System.nanoTime();
+            in = new DataInputStream(new ByteArrayInputStream(coded));
+            for (int k = 0; k < bitmaps.length; ++k)
+                check += IteratorUtil.cardinality(LiteralCoding.iterator(in));
+            streamedCoded = Math.min(streamedCoded, System.nanoTime() - before);
+        }
+        long cardinality = 0;
+        for (EWAHCompressedBitmap bitmap : bitmaps)
+            cardinality += bitmap.cardinality();
+        System.out.println(name + " " + String.format("%.4f", density) + " "
+                + String.format("%.2f", serialized.length / (double) cardinality) + " "
+                + String.format("%.2f", coded.length / (double) cardinality) + " "
+                + ms(serialize) + " " + ms(code) + " " + ms(deserialize) + " " + ms(decode) + " "
+                + ms(streamed) + " " + ms(streamedCoded) + "   # ignore this: " + check);
+    }
+
+    private static String ms(final long nanos) {
+        return String.format("%.2f", nanos / 1e6);
+    }
+
+    private static final int BITMAPS = 100;
+
+    private static final int MAX = 1 << 20;
+
+    private static final int REPEAT = 5;
+}
@@ -0,0 +1,92 @@
+package com.googlecode.javaewah.benchmark;
+
+import com.googlecode.javaewah.EWAHCompressedBitmap;
+import com.googlecode.javaewah.symmetric.BitmapSymmetricAlgorithm;
+import com.googlecode.javaewah.symmetric.LoopedThreshold;
+import com.googlecode.javaewah.symmetric.RunningBitmapMerge;
+import com.googlecode.javaewah.symmetric.ScanCount;
+import com.googlecode.javaewah.symmetric.SymmetricAlgorithmSelector;
+import com.googlecode.javaewah.symmetric.ThresholdFuncBitmap;
+import com.googlecode.javaewah.synth.ClusteredDataGenerator;
+import com.googlecode.javaewah.synth.UniformDataGenerator;
+
+/*
+ * Copyright 2009-2014, Daniel Lemire, Cliff Moon, David McIntosh, Robert Becho, Google Inc., Veronika Zenz, Owen Kaser, Gregory Ssi-Yan-Kai, Rory Graves
+ * Licensed under the Apache License, Version 2.0.
+ */
+
+/**
+ * Compares the threshold algorithms (RunningBitmapMerge, LoopedThreshold and
+ * ScanCount) for uniform and clustered data, several numbers of inputs,
+ * densities and thresholds, and reports the algorithm picked by
+ * SymmetricAlgorithmSelector. The times are also given in nanoseconds per
+ * compressed input word, which is how the costs of the selector are
+ * expressed.
+ *
+ * Usage: java com.googlecode.javaewah.benchmark.ThresholdBenchmark
+ *
+ * @author Daniel Lemire
+ * @since 0.8.12
+ */
+public class ThresholdBenchmark {
+
+    /**
+     * @param args ignored
+     */
+    public static void main(final String[] args) {
+        final UniformDataGenerator udg = new UniformDataGenerator(123);
+        final ClusteredDataGenerator cdg = new ClusteredDataGenerator(123);
+        System.out.println("# times in ms (best of " + REPEAT + "), then in ns per compressed input word");
+        System.out.println("# data inputs density threshold merge looped scancount selected");
+        for (int n = 4; n <= 64; n *= 4) {
+            for (int density = 1; density <= 64; density *= 8) {
+                final EWAHCompressedBitmap[] uniform = new EWAHCompressedBitmap[n];
+                final EWAHCompressedBitmap[] clustered = new EWAHCompressedBitmap[n];
+                for (int k = 0; k < n; ++k) {
+                    uniform[k] = EWAHCompressedBitmap.bitmapOf(udg.generateUniform(density * MAX / 512, MAX));
+                    clustered[k] = EWAHCompressedBitmap.bitmapOf(cdg.generateClustered(density * MAX / 512, MAX));
+                }
+                for (int t = 2; t <= n / 2; t *= 4) {
+                    run("uniform", density / 512.0, t, uniform);
+                    run("clustered", density / 512.0, t, clustered);
+                }
+            }
+        }
+    }
+
+    private static void run(final String name, final double density, final int t,
+                            final EWAHCompressedBitmap[] bitmaps) {
+        long words = 0;
+        for (EWAHCompressedBitmap b : bitmaps)
+            words += b.sizeInBytes() / (EWAHCompressedBitmap.WORD_IN_BITS / 8);
+        final ThresholdFuncBitmap f = new ThresholdFuncBitmap(t);
+        final long[] times = new long[ALGORITHMS.length];
+        int check = 0;
+        for (int a = 0; a < ALGORITHMS.length; ++a) {
+            times[a] = Long.MAX_VALUE;
+            for (int r = 0; r < REPEAT; ++r) {
+                final EWAHCompressedBitmap answer = new EWAHCompressedBitmap();
+                final long before = System.nanoTime();
+                ALGORITHMS[a].symmetric(f, answer, bitmaps);
+                times[a] = Math.min(times[a], System.nanoTime() - before);
+                check += answer.sizeInBits();
+            }
+        }
+        final BitmapSymmetricAlgorithm selected = new SymmetricAlgorithmSelector().select(f, bitmaps);
+        final StringBuilder line = new StringBuilder(name + " " + bitmaps.length + " "
+                + String.format("%.4f", density) + " " + t);
+        for (long time : times)
+            line.append(" ").append(String.format("%.2f", time / 1e6));
+        for (long time : times)
+            line.append(" ").append(String.format("%.1f", time / (double) words));
+        line.append(" ").append(selected.getClass().getSimpleName()).append("   # ignore this: ").append(check);
+        System.out.println(line);
+    }
+
+    private static final BitmapSymmetricAlgorithm[] ALGORITHMS = {new RunningBitmapMerge(),
+            new LoopedThreshold(), new ScanCount()};
+
+    private static final int MAX = 1 << 20;
+
+    private static final int REPEAT = 3;
+}
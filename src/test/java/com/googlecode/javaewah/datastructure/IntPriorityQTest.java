@@ -0,0 +1,96 @@
+package com.googlecode.javaewah.datastructure;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+/*
+ * Copyright 2009-2014, Daniel Lemire, Cliff Moon, David McIntosh, Robert Becho, Google Inc., Veronika Zenz, Owen Kaser, Gregory Ssi-Yan-Kai, Rory Graves
+ * Licensed under the Apache License, Version 2.0.
+ */
+
+/**
+ * Tests for the heap of key-value pairs.
+ */
+public class IntPriorityQTest {
+
+    private static long pair(final int key, final int value) {
+        return ((long) key << 32) | value;
+    }
+
+    @Test
+    public void ordering() {
+        System.out.println("Testing IntPriorityQ ordering");
+        final Random rand = new Random(1234);
+        for (int n = 1; n <= 1000; n *= 3) {
+            final IntPriorityQ q = new IntPriorityQ(n);
+            final long[] expected = new long[n];
+            for (int k = 0; k < n; ++k) {
+                final int key = rand.nextInt(Integer.MAX_VALUE);
+                q.toss(key, k);
+                expected[k] = pair(key, k);
+            }
+            q.buildHeap();
+            Arrays.sort(expected);
+            Assert.assertEquals(n, q.size());
+            for (long e : expected) {
+                Assert.assertFalse(q.isEmpty());
+                Assert.assertEquals((int) (e >>> 32), q.peekKey());
+                Assert.assertEquals((int) e, q.peekValue());
+                Assert.assertEquals((int) e, q.poll());
+            }
+            Assert.assertTrue(q.isEmpty());
+        }
+    }
+
+    @Test
+    public void ties() {
+        System.out.println("Testing IntPriorityQ ties");
+        final IntPriorityQ q = new IntPriorityQ(100);
+        for (int value = 99; value >= 0; --value)
+            q.toss(value % 2 == 0 ? 7 : Integer.MAX_VALUE, value);
+        q.buildHeap();
+        // equal keys come out by increasing values
+        for (int value = 0; value < 100; value += 2)
+            Assert.assertEquals(value, q.poll());
+        for (int value = 1; value < 100; value += 2) {
+            Assert.assertEquals(Integer.MAX_VALUE, q.peekKey());
+            Assert.assertEquals(value, q.poll());
+        }
+        Assert.assertTrue(q.isEmpty());
+    }
+
+    @Test
+    public void growingKeys() {
+        System.out.println("Testing IntPriorityQ with growing keys");
+        final Random rand = new Random(5678);
+        final int n = 500;
+        final IntPriorityQ q = new IntPriorityQ(n);
+        final PriorityQueue<Long> reference = new PriorityQueue<Long>();
+        for (int k = 0; k < n; ++k) {
+            final int key = rand.nextInt(1000);
+            q.toss(key, k);
+            reference.add(pair(key, k));
+        }
+        q.buildHeap();
+        // as in RunningBitmapMerge: the smallest key grows until it is removed
+        while (!reference.isEmpty()) {
+            final long top = reference.poll();
+            Assert.assertEquals((int) (top >>> 32), q.peekKey());
+            Assert.assertEquals((int) top, q.peekValue());
+            final int key = (int) (top >>> 32);
+            if (key < 1 << 20) {
+                final int newKey = key + 1 + rand.nextInt(key + 1);
+                q.updateTopKey(newKey);
+                reference.add(pair(newKey, (int) top));
+            } else {
+                Assert.assertEquals((int) top, q.poll());
+            }
+            Assert.assertEquals(reference.size(), q.size());
+        }
+        Assert.assertTrue(q.isEmpty());
+    }
+}
@@ -0,0 +1,118 @@
+package com.googlecode.javaewah.expression;
+
+import com.googlecode.javaewah.EWAHCompressedBitmap;
+import org.junit.Assert;
+import org.junit.Test;
+
+/*
+ * Copyright 2009-2014, Daniel Lemire, Cliff Moon, David McIntosh, Robert Becho, Google Inc., Veronika Zenz, Owen Kaser, Gregory Ssi-Yan-Kai, Rory Graves
+ * Licensed under the Apache License, Version 2.0.
+ */
+
+/**
+ * Tests for the expression cache.
+ */
+public class ExprCacheTest {
+
+    private static EWAHCompressedBitmap range(final int begin, final int end, final int step) {
+        final EWAHCompressedBitmap answer = new EWAHCompressedBitmap();
+        for (int k = begin; k < end; k += step)
+            answer.set(k);
+        return answer;
+    }
+
+    @Test
+    public void canonicalKeys() {
+        System.out.println("Testing canonical keys of expressions");
+        final EWAHCompressedBitmap bitmap = range(0, 100, 3);
+        final Expr a = Expr.of("a", 1, bitmap);
+        final Expr b = Expr.of("b", 1, bitmap);
+        final Expr c = Expr.of("c", 1, bitmap);
+        Assert.assertEquals(Expr.and(a, b).canonicalKey(), Expr.and(b, a, a).canonicalKey());
+        Assert.assertEquals(Expr.or(a, Expr.or(b, c)).canonicalKey(), Expr.or(c, b, a).canonicalKey());
+        Assert.assertEquals(b.canonicalKey(), Expr.xor(a, b, a).canonicalKey());
+        Assert.assertEquals(Expr.xor(Expr.not(a), b).canonicalKey(), Expr.not(Expr.xor(b, a)).canonicalKey());
+        Assert.assertEquals(Expr.andNot(a, b).canonicalKey(), Expr.and(Expr.not(b), a).canonicalKey());
+        Assert.assertFalse(Expr.and(a, b).canonicalKey().equals(Expr.or(a, b).canonicalKey()));
+        Assert.assertFalse(a.canonicalKey().equals(Expr.of("a", 2, bitmap).canonicalKey()));
+        Assert.assertNull(Expr.and(a, Expr.of(bitmap)).canonicalKey());
+    }
+
+    @Test
+    public void hitsAndMisses() {
+        System.out.println("Testing ExprCache hits and misses");
+        final EWAHCompressedBitmap x = range(0, 100000, 3);
+        final EWAHCompressedBitmap y = range(0, 50000, 5);
+        final EWAHCompressedBitmap z = range(1000, 200000, 7);
+        final Expr a = Expr.of("a", 1, x);
+        final Expr b = Expr.of("b", 1, y);
+        final Expr c = Expr.of("c", 1, z);
+        final ExprCache cache = new ExprCache(1 << 20);
+
+        final EWAHCompressedBitmap ab = cache.evaluate(Expr.and(a, b));
+        Assert.assertEquals(x.and(y), ab);
+        Assert.assertEquals(0, cache.getHits());
+        Assert.assertEquals(1, cache.getMisses());
+        Assert.assertSame(ab, cache.evaluate(Expr.and(b, a)));
+        Assert.assertEquals(1, cache.getHits());
+
+        // the cached intersection is reused as an operand
+        final Expr query = Expr.or(Expr.and(a, b), Expr.not(c));
+        final EWAHCompressedBitmap expected = x.and(y);
+        final EWAHCompressedBitmap notz = z.clone();
+        notz.not();
+        Assert.assertEquals(expected.or(notz), cache.evaluate(query));
+        Assert.assertEquals(2, cache.getMisses());
+        Assert.assertEquals(2, cache.getHits());
+        Assert.assertEquals(2, cache.size());
+
+        // a new version is a different bitmap
+        cache.evaluate(Expr.and(Expr.of("a", 2, x), b));
+        Assert.assertEquals(3, cache.getMisses());
+
+        // expressions over anonymous bitmaps are not cached
+        cache.evaluate(Expr.and(Expr.of(x), b));
+        Assert.assertEquals(3, cache.getMisses());
+        Assert.assertEquals(3, cache.size());
+    }
+
+    @Test
+    public void negationDependsOnUniverse() {
+        System.out.println("Testing ExprCache with negations in different universes");
+        final Expr a = Expr.of("a", 1, range(0, 100, 2));
+        final Expr b = Expr.of("b", 1, range(0, 1000, 2));
+        final ExprCache cache = new ExprCache(1 << 20);
+        final EWAHCompressedBitmap small = cache.evaluate(Expr.and(Expr.not(a), Expr.not(a)));
+        Assert.assertEquals(49, small.cardinality());
+        // not(a) is a sub-expression but its universe is larger
+        final EWAHCompressedBitmap large = cache.evaluate(Expr.xor(Expr.and(Expr.not(a), Expr.not(a)), b));
+        Assert.assertEquals(0, cache.getHits());
+        final EWAHCompressedBitmap expected = range(0, 100, 2);
+        expected.setSizeInBits(999, false);
+        expected.not();
+        Assert.assertEquals(expected.xor(range(0, 1000, 2)), large);
+    }
+
+    @Test
+    public void eviction() {
+        System.out.println("Testing ExprCache eviction");
+        final Expr[] leaves = new Expr[10];
+        for (int k = 0; k < leaves.length; ++k)
+            leaves[k] = Expr.of("leaf" + k, 1, range(k, 100000, 11 + k));
+        final long size = Expr.or(leaves[0], leaves[1]).materialize().sizeInBytes();
+        final ExprCache cache = new ExprCache(3 * size);
+        for (int k = 0; k + 1 < leaves.length; ++k)
+            cache.evaluate(Expr.or(leaves[k], leaves[k + 1]));
+        Assert.assertTrue(cache.sizeInBytes() <= 3 * size);
+        Assert.assertTrue(cache.getEvictions() > 0);
+        Assert.assertEquals(9 - cache.getEvictions(), cache.size());
+        // the most recent entry survives, the oldest one is gone
+        cache.evaluate(Expr.or(leaves[8], leaves[9]));
+        Assert.assertEquals(1, cache.getHits());
+        cache.evaluate(Expr.or(leaves[0], leaves[1]));
+        Assert.assertEquals(1, cache.getHits());
+        cache.clear();
+        Assert.assertEquals(0, cache.size());
+        Assert.assertEquals(0, cache.sizeInBytes());
+    }
+}
@@ -0,0 +1,229 @@
+package com.googlecode.javaewah.expression;
+
+import com.googlecode.javaewah.EWAHCompressedBitmap;
+import com.googlecode.javaewah.IteratingRLW;
+import com.googlecode.javaewah.IteratorUtil;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Random;
+
+/*
+ * Copyright 2009-2014, Daniel Lemire, Cliff Moon, David McIntosh, Robert Becho, Google Inc., Veronika Zenz, Owen Kaser, Gregory Ssi-Yan-Kai, Rory Graves
+ * Licensed under the Apache License, Version 2.0.
+ */
+
+/**
+ * Tests for the lazy expression engine.
+ */
+public class ExprTest {
+
+    private static EWAHCompressedBitmap randomBitmap(final Random rand, final int maxSize) {
+        final EWAHCompressedBitmap bitmap = new EWAHCompressedBitmap();
+        final int size = rand.nextInt(maxSize);
+        final int density = 1 + rand.nextInt(20);
+        int k = 0;
+        while (k < size) {
+            if (rand.nextInt(10) == 0) {
+                // runs of ones
+                final int end = Math.min(size, k + rand.nextInt(1000));
+                for (; k < end; ++k)
+                    bitmap.set(k);
+            } else {
+                k += 1 + rand.nextInt(density);
+                if (k < size)
+                    bitmap.set(k);
+            }
+        }
+        bitmap.setSizeInBits(size, false);
+        return bitmap;
+    }
+
+    private static EWAHCompressedBitmap negate(final EWAHCompressedBitmap x, final int universe) {
+        final EWAHCompressedBitmap answer = x.clone();
+        answer.setSizeInBits(universe, false);
+        answer.not();
+        return answer;
+    }
+
+    private static void check(final EWAHCompressedBitmap expected, final Expr e) {
+        final EWAHCompressedBitmap actual = e.materialize();
+        Assert.assertEquals(expected.sizeInBits(), actual.sizeInBits());
+        Assert.assertEquals(expected, actual);
+        Assert.assertEquals(expected.cardinality(), actual.cardinality());
+        Assert.assertEquals(expected.cardinality(), e.cardinality());
+        final EWAHCompressedBitmap streamed = IteratorUtil.materialize(e.iterator());
+        Assert.assertEquals(expected, streamed.and(expected));
+    }
+
+    @Test
+    public void randomExpressions() {
+        System.out.println("Testing Expr on random expressions");
+        final Random rand = new Random(1234);
+        for (int trial = 0; trial < 200; ++trial) {
+            final EWAHCompressedBitmap[] b = new EWAHCompressedBitmap[6];
+            for (int k = 0; k < b.length; ++k)
+                b[k] = randomBitmap(rand, 20000);
+            final Expr[] x = new Expr[b.length];
+            for (int k = 0; k < b.length; ++k)
+                x[k] = Expr.of(b[k]);
+            int u = 0;
+            for (EWAHCompressedBitmap bitmap : b)
+                u = Math.max(u, bitmap.sizeInBits());
+
+            // (A | B | C) & ~D & (E ^ F)
+            EWAHCompressedBitmap expected = b[0].or(b[1]).or(b[2]).and(negate(b[3], u)).and(b[4].xor(b[5]));
+            expected.setSizeInBits(u, false);
+            check(expected, Expr.and(Expr.or(x[0], x[1], x[2]), Expr.not(x[3]), Expr.xor(x[4], x[5])));
+
+            // A & ~B & ~C
+            expected = b[0].andNot(b[1]).andNot(b[2]);
+            expected.setSizeInBits(Math.max(Math.max(b[0].sizeInBits(), b[1].sizeInBits()), b[2].sizeInBits()), false);
+            check(expected, Expr.andNot(Expr.andNot(x[0], x[1]), x[2]));
+
+            // ~A & ~B
+            final int uab = Math.max(b[0].sizeInBits(), b[1].sizeInBits());
+            check(negate(b[0], uab).and(negate(b[1], uab)), Expr.and(Expr.not(x[0]), Expr.not(x[1])));
+
+            // ~A | B
+            check(negate(b[0], uab).or(b[1]), Expr.or(Expr.not(x[0]), x[1]));
+
+            // ~A ^ B ^ ~C
+            final int uabc = Math.max(uab, b[2].sizeInBits());
+            check(negate(b[0], uabc).xor(b[1]).xor(negate(b[2], uabc)),
+                    Expr.xor(Expr.not(x[0]), x[1], Expr.not(x[2])));
+
+            // threshold
+            final EWAHCompressedBitmap[] ors = {b[0].or(b[1]), b[2], b[3], negate(b[4], u), b[5]};
+            expected = EWAHCompressedBitmap.threshold(3, ors);
+            // the threshold function rounds the size up to a whole word
+            expected.setSizeInBitsWithinLastWord(u);
+            check(expected, Expr.threshold(3, Expr.or(x[0], x[1]), x[2], x[3], Expr.not(x[4]), x[5]));
+        }
+    }
+
+    @Test
+    public void thresholdSpecialCases() {
+        System.out.println("Testing Expr.threshold special cases");
+        final EWAHCompressedBitmap a = EWAHCompressedBitmap.bitmapOf(1, 2, 3, 100);
+        final EWAHCompressedBitmap b = EWAHCompressedBitmap.bitmapOf(2, 3, 4, 1000);
+        final Expr[] x = {Expr.of(a), Expr.of(b)};
+        Assert.assertEquals(a.or(b), Expr.threshold(1, x).materialize());
+        Assert.assertEquals(a.and(b), Expr.threshold(2, x).materialize());
+        final EWAHCompressedBitmap none = Expr.threshold(3, x).materialize();
+        Assert.assertTrue(none.isEmpty());
+        Assert.assertEquals(b.sizeInBits(), none.sizeInBits());
+    }
+
+    @Test
+    public void rewriting() {
+        System.out.println("Testing Expr rewriting");
+        final Expr a = Expr.of(EWAHCompressedBitmap.bitmapOf(1, 64, 65));
+        final Expr b = Expr.of(EWAHCompressedBitmap.bitmapOf(2, 64, 129));
+        final Expr c = Expr.of(EWAHCompressedBitmap.bitmapOf(3, 64));
+        Assert.assertSame(a, Expr.not(Expr.not(a)));
+        Assert.assertSame(a, Expr.and(a));
+        final Expr nested = Expr.and(Expr.and(a, b), c);
+        Assert.assertEquals(3, ((Expr.Nary) nested).children.size());
+        Assert.assertEquals(EWAHCompressedBitmap.bitmapOf(64), nested.materialize().and(EWAHCompressedBitmap.bitmapOf(64)));
+        Assert.assertEquals(130, nested.sizeInBits());
+    }
+
+    @Test
+    public void emptyUniverse() {
+        System.out.println("Testing Expr over empty bitmaps");
+        final Expr a = Expr.of(new EWAHCompressedBitmap());
+        final Expr b = Expr.of(new EWAHCompressedBitmap());
+        Assert.assertEquals(0, Expr.not(a).cardinality());
+        Assert.assertTrue(Expr.or(a, Expr.not(b)).materialize().isEmpty());
+        Assert.assertEquals(0, Expr.and(a, b).materialize().sizeInBits());
+    }
+
+    @Test
+    public void paddingAfterDiscardedRun() {
+        System.out.println("Testing the padding of iterators having an empty running length word");
+        final EWAHCompressedBitmap bitmap = new EWAHCompressedBitmap();
+        bitmap.addStreamOfEmptyWords(true, 10);
+        bitmap.addStreamOfEmptyWords(false, 5);
+        bitmap.addWord(5);
+        final PaddedIteratingRLW padded = new PaddedIteratingRLW(new LazyIteratingRLW(bitmap.getIteratingRLW()), 20);
+        padded.discardRunningWords();
+        // the words after the discarded run are not replaced by the padding
+        Assert.assertEquals(6, padded.size());
+        final EWAHCompressedBitmap rest = new EWAHCompressedBitmap();
+        IteratorUtil.materialize(padded, rest);
+        Assert.assertArrayEquals(new int[]{5 * 64, 5 * 64 + 2}, rest.toArray());
+        Assert.assertEquals(10 * 64, rest.sizeInBits());
+    }
+
+    /**
+     * After discardRunningWords, the size is zero until next() is called,
+     * which IteratingRLW allows.
+     */
+    private static final class LazyIteratingRLW implements IteratingRLW {
+        LazyIteratingRLW(final IteratingRLW iterator) {
+            this.iterator = iterator;
+        }
+
+        @Override
+        public boolean next() {
+            this.discarded = false;
+            return this.iterator.next();
+        }
+
+        @Override
+        public long getLiteralWordAt(int index) {
+            return this.iterator.getLiteralWordAt(index);
+        }
+
+        @Override
+        public int getNumberOfLiteralWords() {
+            return this.discarded ? 0 : this.iterator.getNumberOfLiteralWords();
+        }
+
+        @Override
+        public boolean getRunningBit() {
+            return this.iterator.getRunningBit();
+        }
+
+        @Override
+        public long size() {
+            return this.discarded ? 0 : this.iterator.size();
+        }
+
+        @Override
+        public long getRunningLength() {
+            return this.discarded ? 0 : this.iterator.getRunningLength();
+        }
+
+        @Override
+        public void discardFirstWords(long x) {
+            if ((x > 0) && this.discarded && !next())
+                return;
+            this.iterator.discardFirstWords(x);
+        }
+
+        @Override
+        public void discardRunningWords() {
+            if (this.iterator.getNumberOfLiteralWords() == 0)
+                this.discarded = true;
+            else
+                this.iterator.discardRunningWords();
+        }
+
+        @Override
+        public LazyIteratingRLW clone() throws CloneNotSupportedException {
+            final LazyIteratingRLW answer = (LazyIteratingRLW) super.clone();
+            answer.iterator = this.iterator.clone();
+            return answer;
+        }
+
+        private IteratingRLW iterator;
+        private boolean discarded = false;
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void noChildren() {
+        Expr.or();
+    }
+}
@@ -0,0 +1,135 @@
+package com.googlecode.javaewah.index;
+
+import com.googlecode.javaewah.EWAHCompressedBitmap;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Random;
+
+/*
+ * Copyright 2009-2014, Daniel Lemire, Cliff Moon, David McIntosh, Robert Becho, Google Inc., Veronika Zenz, Owen Kaser, Gregory Ssi-Yan-Kai, Rory Graves
+ * Licensed under the Apache License, Version 2.0.
+ */
+
+/**
+ * Tests for the bitmap index builder.
+ */
+public class BitmapIndexBuilderTest {
+
+    private static int[][] randomTable(final int numberOfRows, final int[] cardinalities, final long seed) {
+        final Random rand = new Random(seed);
+        final int[][] columns = new int[cardinalities.length][numberOfRows];
+        for (int c = 0; c < cardinalities.length; ++c)
+            for (int r = 0; r < numberOfRows; ++r)
+                columns[c][r] = rand.nextInt(cardinalities[c]);
+        return columns;
+    }
+
+    private static void checkIndex(final int[][] columns, final BitmapIndex index) {
+        final int[] permutation = index.getRowPermutation();
+        final int numberOfRows = columns[0].length;
+        Assert.assertEquals(numberOfRows, index.getNumberOfRows());
+        final boolean[] seen = new boolean[numberOfRows];
+        for (int row : permutation) {
+            Assert.assertFalse(seen[row]);
+            seen[row] = true;
+        }
+        for (int c = 0; c < columns.length; ++c) {
+            for (int v = 0; v < index.getCardinality(c); ++v) {
+                EWAHCompressedBitmap expected = new EWAHCompressedBitmap();
+                for (int r = 0; r < numberOfRows; ++r)
+                    if (columns[c][permutation[r]] == v)
+                        expected.set(r);
+                EWAHCompressedBitmap actual = index.getBitmap(c, v);
+                Assert.assertEquals(expected, actual);
+                Assert.assertEquals(numberOfRows, actual.sizeInBits());
+                Assert.assertEquals(expected.cardinality(), actual.cardinality());
+            }
+        }
+    }
+
+    @Test
+    public void noReordering() {
+        System.out.println("Testing BitmapIndexBuilder without reordering");
+        final int[][] columns = randomTable(1000, new int[]{3, 10, 200}, 1);
+        final BitmapIndex index = new BitmapIndexBuilder(columns).build();
+        checkIndex(columns, index);
+        for (int r = 0; r < 1000; ++r)
+            Assert.assertEquals(r, index.getRowPermutation()[r]);
+    }
+
+    @Test
+    public void lexicographic() {
+        System.out.println("Testing BitmapIndexBuilder with lexicographic order");
+        final int[][] columns = randomTable(5000, new int[]{7, 3, 50}, 2);
+        final BitmapIndexBuilder builder = new BitmapIndexBuilder(columns);
+        builder.setRowOrder(BitmapIndexBuilder.LEXICOGRAPHIC);
+        final BitmapIndex index = builder.build();
+        checkIndex(columns, index);
+        final int[] p = index.getRowPermutation();
+        for (int r = 1; r < p.length; ++r) {
+            int cmp = 0;
+            for (int c = 0; (c < columns.length) && (cmp == 0); ++c)
+                cmp = columns[c][p[r - 1]] - columns[c][p[r]];
+            Assert.assertTrue(cmp <= 0);
+        }
+        Assert.assertTrue(index.sizeInBytes() < new BitmapIndexBuilder(columns).build().sizeInBytes());
+    }
+
+    @Test
+    public void grayCode() {
+        System.out.println("Testing BitmapIndexBuilder with Gray-code order");
+        final int[][] columns = randomTable(5000, new int[]{7, 3, 50}, 3);
+        final BitmapIndexBuilder builder = new BitmapIndexBuilder(columns);
+        builder.setRowOrder(BitmapIndexBuilder.GRAY_CODE);
+        final BitmapIndex index = builder.build();
+        checkIndex(columns, index);
+        final int[] p = index.getRowPermutation();
+        for (int r = 1; r < p.length; ++r) {
+            int cmp = 0;
+            for (int c = 0; (c < columns.length) && (cmp == 0); ++c) {
+                cmp = columns[c][p[r - 1]] - columns[c][p[r]];
+                if ((c & 1) == 1)
+                    cmp = -cmp;
+            }
+            Assert.assertTrue(cmp <= 0);
+        }
+    }
+
+    @Test
+    public void sortColumnsByCardinality() {
+        System.out.println("Testing BitmapIndexBuilder with columns sorted by cardinality");
+        final int[][] columns = randomTable(5000, new int[]{2, 20, 500}, 4);
+        final BitmapIndexBuilder builder = new BitmapIndexBuilder(columns);
+        builder.setRowOrder(BitmapIndexBuilder.LEXICOGRAPHIC);
+        final long unordered = builder.build().sizeInBytes();
+        builder.setSortColumnsByCardinality(true);
+        final BitmapIndex index = builder.build();
+        checkIndex(columns, index);
+        final int[] p = index.getRowPermutation();
+        for (int r = 1; r < p.length; ++r)
+            Assert.assertTrue(columns[2][p[r - 1]] <= columns[2][p[r]]);
+        Assert.assertTrue(index.sizeInBytes() < unordered);
+    }
+
+    @Test
+    public void addColumnAndMissingValues() {
+        System.out.println("Testing BitmapIndexBuilder.addColumn");
+        final BitmapIndexBuilder builder = new BitmapIndexBuilder();
+        Assert.assertEquals(0, builder.addColumn(new int[]{0, 4, 4, 0, 2}));
+        Assert.assertEquals(1, builder.addColumn(new int[]{1, 1, 1, 1, 1}));
+        builder.setRowOrder(BitmapIndexBuilder.GRAY_CODE);
+        final BitmapIndex index = builder.build();
+        Assert.assertEquals(2, index.getNumberOfColumns());
+        Assert.assertEquals(5, index.getCardinality(0));
+        Assert.assertTrue(index.getBitmap(0, 1).isEmpty());
+        Assert.assertTrue(index.getBitmap(0, 17).isEmpty());
+        Assert.assertEquals(5, index.getBitmap(1, 1).cardinality());
+        Assert.assertEquals(2, index.getBitmap(0, 4).cardinality());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void mismatchedColumns() {
+        new BitmapIndexBuilder(new int[]{1, 2}, new int[]{1});
+    }
+}
@@ -0,0 +1,110 @@
+package com.googlecode.javaewah.index;
+
+import com.googlecode.javaewah.EWAHCompressedBitmap;
+import com.googlecode.javaewah.IteratorAggregation;
+import com.googlecode.javaewah.IteratorUtil;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Random;
+
+/*
+ * Copyright 2009-2014, Daniel Lemire, Cliff Moon, David McIntosh, Robert Becho, Google Inc., Veronika Zenz, Owen Kaser, Gregory Ssi-Yan-Kai, Rory Graves
+ * Licensed under the Apache License, Version 2.0.
+ */
+
+/**
+ * Tests for the bitmap file format.
+ */
+public class BitmapIndexFileTest {
+
+    private static EWAHCompressedBitmap randomBitmap(final Random rand) {
+        final EWAHCompressedBitmap bitmap = new EWAHCompressedBitmap();
+        int pos = rand.nextInt(1000);
+        for (int k = rand.nextInt(3) == 0 ? 0 : rand.nextInt(2000); k > 0; --k) {
+            bitmap.set(pos);
+            pos += rand.nextInt(10) == 0 ? rand.nextInt(50000) : 1 + rand.nextInt(4);
+        }
+        if (rand.nextBoolean())
+            bitmap.setSizeInBits(bitmap.sizeInBits() + rand.nextInt(500), false);
+        return bitmap;
+    }
+
+    private static File tempFile() throws IOException {
+        final File file = File.createTempFile("ewah", ".bitmaps");
+        file.deleteOnExit();
+        return file;
+    }
+
+    @Test
+    public void roundTrip() throws IOException {
+        System.out.println("Testing BitmapIndexFile round trip");
+        final Random rand = new Random(1234);
+        final EWAHCompressedBitmap[] bitmaps = new EWAHCompressedBitmap[100];
+        for (int k = 0; k < bitmaps.length; ++k)
+            bitmaps[k] = randomBitmap(rand);
+        final File file = tempFile();
+        BitmapIndexFile.write(file, bitmaps);
+        final BitmapIndexFile f = BitmapIndexFile.open(file);
+        Assert.assertEquals(bitmaps.length, f.size());
+        Assert.assertTrue(f.verify());
+        for (int k = bitmaps.length - 1; k >= 0; --k) {
+            Assert.assertEquals(bitmaps[k].cardinality(), f.cardinality(k));
+            Assert.assertEquals(bitmaps[k].sizeInBits(), f.sizeInBits(k));
+            Assert.assertEquals(bitmaps[k].sizeInBytes(), f.sizeInBytes(k));
+            final EWAHCompressedBitmap b = f.getBitmap(k);
+            Assert.assertEquals(bitmaps[k], b);
+            Assert.assertEquals(bitmaps[k].sizeInBits(), b.sizeInBits());
+            Assert.assertSame(b, f.getBitmap(k));
+        }
+        final BitmapIndexFile g = BitmapIndexFile.open(file);
+        Assert.assertEquals(bitmaps[5].or(bitmaps[6]), IteratorUtil.materialize(
+                IteratorAggregation.bufferedor(g.getIteratingRLW(5), g.getIteratingRLW(6))));
+        final EWAHCompressedBitmap copy = f.getBitmap(3).clone();
+        copy.set(copy.sizeInBits() + 10);
+        Assert.assertEquals(bitmaps[3].cardinality() + 1, copy.cardinality());
+    }
+
+    @Test
+    public void emptyFile() throws IOException {
+        System.out.println("Testing BitmapIndexFile without bitmaps");
+        final File file = tempFile();
+        new BitmapIndexFileWriter(file).close();
+        final BitmapIndexFile f = BitmapIndexFile.open(file);
+        Assert.assertEquals(0, f.size());
+        Assert.assertTrue(f.verify());
+    }
+
+    @Test
+    public void corruption() throws IOException {
+        System.out.println("Testing BitmapIndexFile checksums");
+        final Random rand = new Random(5678);
+        final File file = tempFile();
+        BitmapIndexFile.write(file, randomBitmap(rand), randomBitmap(rand), EWAHCompressedBitmap.bitmapOf(1, 2, 3));
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            // a byte of the first bitmap
+            raf.seek(30);
+            final int b = raf.read();
+            raf.seek(30);
+            raf.write(b ^ 1);
+            Assert.assertFalse(BitmapIndexFile.open(file).verify());
+            // a byte of the directory
+            raf.seek(raf.length() - BitmapIndexFile.FOOTER_SIZE - 5);
+            final int d = raf.read();
+            raf.seek(raf.length() - BitmapIndexFile.FOOTER_SIZE - 5);
+            raf.write(d ^ 1);
+        } finally {
+            raf.close();
+        }
+        try {
+            BitmapIndexFile.open(file);
+            Assert.fail();
+        } catch (IOException e) {
+            // expected
+        }
+    }
+}
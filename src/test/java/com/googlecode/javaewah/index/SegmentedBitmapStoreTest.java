@@ -0,0 +1,209 @@
+package com.googlecode.javaewah.index;
+
+import com.googlecode.javaewah.EWAHCompressedBitmap;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Copyright 2009-2014, Daniel Lemire, Cliff Moon, David McIntosh, Robert Becho, Google Inc., Veronika Zenz, Owen Kaser, Gregory Ssi-Yan-Kai, Rory Graves
+ * Licensed under the Apache License, Version 2.0.
+ */
+
+/**
+ * Tests for the store of updatable bitmaps.
+ */
+public class SegmentedBitmapStoreTest {
+
+    private static final int KEYS = 20;
+
+    private static File tempDirectory() throws IOException {
+        final File file = File.createTempFile("ewah", ".store");
+        if (!file.delete() || !file.mkdir())
+            throw new IOException("Could not create " + file);
+        file.deleteOnExit();
+        return file;
+    }
+
+    private static void delete(final File directory) {
+        final File[] files = directory.listFiles();
+        if (files != null)
+            for (File file : files)
+                file.delete();
+        directory.delete();
+    }
+
+    private static int[] randomPositions(final Random rand) {
+        final int[] positions = new int[rand.nextInt(50)];
+        final int base = rand.nextInt(100000);
+        for (int k = 0; k < positions.length; ++k)
+            positions[k] = base + rand.nextInt(rand.nextBoolean() ? 200 : 5000);
+        return positions;
+    }
+
+    /**
+     * Apply the same random update to the store and to the expected sets.
+     */
+    private static void update(final Random rand, final SegmentedBitmapStore store, final List<TreeSet<Integer>> expected) {
+        final int key = rand.nextInt(KEYS);
+        switch (rand.nextInt(5)) {
+            case 0:
+                store.clear(key);
+                expected.get(key).clear();
+                break;
+            case 1:
+            case 2:
+                final int[] removed = randomPositions(rand);
+                store.clear(key, removed);
+                for (int position : removed)
+                    expected.get(key).remove(position);
+                break;
+            default:
+                final int[] added = randomPositions(rand);
+                store.set(key, added);
+                for (int position : added)
+                    expected.get(key).add(position);
+        }
+    }
+
+    private static void check(final SegmentedBitmapStore store, final List<TreeSet<Integer>> expected) {
+        for (int key = 0; key < KEYS; ++key) {
+            final EWAHCompressedBitmap bitmap = store.get(key);
+            Assert.assertEquals(expected.get(key).size(), bitmap.cardinality());
+            Assert.assertEquals(expected.get(key).size(), store.expression(key).cardinality());
+            int k = 0;
+            final int[] positions = bitmap.toArray();
+            for (int position : expected.get(key))
+                Assert.assertEquals(position, positions[k++]);
+        }
+    }
+
+    private static List<TreeSet<Integer>> emptySets() {
+        final List<TreeSet<Integer>> sets = new ArrayList<TreeSet<Integer>>(KEYS);
+        for (int key = 0; key < KEYS; ++key)
+            sets.add(new TreeSet<Integer>());
+        return sets;
+    }
+
+    @Test
+    public void updates() throws IOException {
+        System.out.println("Testing SegmentedBitmapStore");
+        final Random rand = new Random(1234);
+        final File directory = tempDirectory();
+        try {
+            final List<TreeSet<Integer>> expected = emptySets();
+            SegmentedBitmapStore store = SegmentedBitmapStore.open(directory);
+            for (int trial = 0; trial < 30; ++trial) {
+                for (int r = rand.nextInt(30); r > 0; --r)
+                    update(rand, store, expected);
+                check(store, expected);
+                switch (rand.nextInt(4)) {
+                    case 0:
+                        store.compact();
+                        Assert.assertTrue(store.numberOfSegments() <= 1);
+                        break;
+                    case 1:
+                        store.close();
+                        store = SegmentedBitmapStore.open(directory);
+                        break;
+                    default:
+                        store.flush();
+                }
+                check(store, expected);
+            }
+            store.flush();
+            store.compact();
+            // the files of the merged segments are deleted
+            Assert.assertEquals(2, directory.listFiles().length);
+            store.close();
+            store = SegmentedBitmapStore.open(directory);
+            check(store, expected);
+            store.close();
+        } finally {
+            delete(directory);
+        }
+    }
+
+    @Test
+    public void expressionIsSnapshot() throws IOException {
+        System.out.println("Testing SegmentedBitmapStore expressions");
+        final File directory = tempDirectory();
+        try {
+            final SegmentedBitmapStore store = SegmentedBitmapStore.open(directory);
+            store.set(3, 1, 5, 1000);
+            store.flush();
+            store.clear(3, 5);
+            final EWAHCompressedBitmap before = store.expression(3).materialize();
+            store.set(3, 7);
+            store.flush();
+            store.compact();
+            Assert.assertEquals(EWAHCompressedBitmap.bitmapOf(1, 1000), before);
+            Assert.assertEquals(EWAHCompressedBitmap.bitmapOf(1, 7, 1000), store.get(3));
+            Assert.assertTrue(store.get(4).isEmpty());
+            store.close();
+        } finally {
+            delete(directory);
+        }
+    }
+
+    @Test
+    public void backgroundCompaction() throws Exception {
+        System.out.println("Testing SegmentedBitmapStore background compaction");
+        final Random rand = new Random(5678);
+        final File directory = tempDirectory();
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final List<TreeSet<Integer>> expected = emptySets();
+            final SegmentedBitmapStore store = SegmentedBitmapStore.open(directory);
+            store.setAutomaticCompaction(executor, 3);
+            for (int trial = 0; trial < 40; ++trial) {
+                for (int r = rand.nextInt(20); r > 0; --r)
+                    update(rand, store, expected);
+                store.flush();
+                check(store, expected);
+            }
+            store.compactInBackground(executor).get();
+            Assert.assertEquals(1, store.numberOfSegments());
+            check(store, expected);
+            store.close();
+            final SegmentedBitmapStore reopened = SegmentedBitmapStore.open(directory);
+            check(reopened, expected);
+            reopened.close();
+        } finally {
+            executor.shutdown();
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+            delete(directory);
+        }
+    }
+
+    @Test
+    public void orphanSegments() throws IOException {
+        System.out.println("Testing SegmentedBitmapStore recovery");
+        final File directory = tempDirectory();
+        try {
+            SegmentedBitmapStore store = SegmentedBitmapStore.open(directory);
+            store.set(1, 2, 3);
+            store.close();
+            // a segment left by an interrupted compaction
+            final File orphan = new File(directory, "segment-7.bitmaps");
+            BitmapIndexFile.write(orphan, EWAHCompressedBitmap.bitmapOf(1));
+            store = SegmentedBitmapStore.open(directory);
+            Assert.assertFalse(orphan.exists());
+            Assert.assertEquals(EWAHCompressedBitmap.bitmapOf(2, 3), store.get(1));
+            store.set(1, 4);
+            store.close();
+            Assert.assertTrue(new File(directory, "segment-8.bitmaps").exists());
+        } finally {
+            delete(directory);
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package com.googlecode.javaewah32;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.Random;
+
+/*
+ * Copyright 2009-2014, Daniel Lemire, Cliff Moon, David McIntosh, Robert Becho, Google Inc., Veronika Zenz, Owen Kaser, Gregory Ssi-Yan-Kai, Rory Graves
+ * Licensed under the Apache License, Version 2.0.
+ */
+
+/**
+ * Tests for the storage writing bitmaps to a file.
+ */
+public class ChannelBitmapStorage32Test {
+
+    private static EWAHCompressedBitmap32 randomBitmap(final Random rand) {
+        final EWAHCompressedBitmap32 bitmap = new EWAHCompressedBitmap32();
+        for (int r = rand.nextInt(10); r > 0; --r) {
+            switch (rand.nextInt(3)) {
+                case 0:
+                    bitmap.addStreamOfEmptyWords(rand.nextBoolean(), rand.nextInt(200));
+                    break;
+                default:
+                    for (int k = rand.nextInt(rand.nextBoolean() ? 30 : 3000); k > 0; --k)
+                        bitmap.addWord(rand.nextInt(4) == 0 ? ~0 : rand.nextInt());
+            }
+        }
+        return bitmap;
+    }
+
+    private static FileChannel tempChannel() throws IOException {
+        final File file = File.createTempFile("ewah", ".bitmap");
+        file.deleteOnExit();
+        return new RandomAccessFile(file, "rw").getChannel();
+    }
+
+    private static void check(final EWAHCompressedBitmap32 expected, final FileChannel channel) throws IOException {
+        final EWAHCompressedBitmap32 actual = new EWAHCompressedBitmap32();
+        actual.readFrom(channel);
+        Assert.assertEquals(expected, actual);
+        Assert.assertEquals(expected.sizeInBits(), actual.sizeInBits());
+        Assert.assertEquals(expected.cardinality(), actual.cardinality());
+        // the position of the last marker word is valid
+        actual.set(actual.sizeInBits() + 40);
+        Assert.assertEquals(expected.cardinality() + 1, actual.cardinality());
+    }
+
+    @Test
+    public void aggregation() throws IOException {
+        System.out.println("Testing ChannelBitmapStorage32 with logical operations");
+        final Random rand = new Random(1234);
+        final FileChannel channel = tempChannel();
+        try {
+            for (int trial = 0; trial < 20; ++trial) {
+                final EWAHCompressedBitmap32 x = randomBitmap(rand);
+                final EWAHCompressedBitmap32 y = randomBitmap(rand);
+                final EWAHCompressedBitmap32 z = randomBitmap(rand);
+                channel.truncate(0);
+                channel.position(0);
+                ChannelBitmapStorage32 storage = new ChannelBitmapStorage32(channel);
+                x.andToContainer(y, storage);
+                storage.close();
+                storage = new ChannelBitmapStorage32(channel);
+                x.xorToContainer(y, storage);
+                storage.close();
+                storage = new ChannelBitmapStorage32(channel);
+                FastAggregation32.orToContainer(storage, x, y, z);
+                storage.close();
+                Assert.assertEquals(channel.size(), channel.position());
+                channel.position(0);
+                check(x.and(y), channel);
+                check(x.xor(y), channel);
+                check(EWAHCompressedBitmap32.or(x, y, z), channel);
+                Assert.assertEquals(channel.size(), channel.position());
+            }
+        } finally {
+            channel.close();
+        }
+    }
+
+    @Test
+    public void words() throws IOException {
+        System.out.println("Testing ChannelBitmapStorage32 with words");
+        final Random rand = new Random(5678);
+        final FileChannel channel = tempChannel();
+        try {
+            for (int trial = 0; trial < 50; ++trial) {
+                final EWAHCompressedBitmap32 expected = new EWAHCompressedBitmap32();
+                channel.truncate(0);
+                channel.position(0);
+                final ChannelBitmapStorage32 storage = new ChannelBitmapStorage32(channel);
+                final int[] words = new int[3000];
+                for (int r = rand.nextInt(20); r > 0; --r) {
+                    for (int k = 0; k < words.length; ++k)
+                        words[k] = rand.nextInt();
+                    final int number = rand.nextInt(rand.nextBoolean() ? 10 : words.length);
+                    switch (rand.nextInt(5)) {
+                        case 0:
+                            final boolean v = rand.nextBoolean();
+                            expected.addStreamOfEmptyWords(v, number);
+                            storage.addStreamOfEmptyWords(v, number);
+                            break;
+                        case 1:
+                            expected.addStreamOfLiteralWords(words, 0, number);
+                            storage.addStreamOfLiteralWords(words, 0, number);
+                            break;
+                        case 2:
+                            expected.addStreamOfNegatedLiteralWords(words, 0, number);
+                            storage.addStreamOfNegatedLiteralWords(words, 0, number);
+                            break;
+                        default:
+                            final int w = rand.nextBoolean() ? words[0] : rand.nextBoolean() ? 0 : ~0;
+                            expected.addWord(w);
+                            storage.addWord(w);
+                    }
+                }
+                if (expected.sizeInBits() > 0) {
+                    final int size = expected.sizeInBits() - rand.nextInt(32);
+                    expected.setSizeInBitsWithinLastWord(size);
+                    storage.setSizeInBitsWithinLastWord(size);
+                }
+                Assert.assertEquals(expected.sizeInBits(), storage.sizeInBits());
+                storage.close();
+                channel.position(0);
+                check(expected, channel);
+            }
+        } finally {
+            channel.close();
+        }
+    }
+
+    @Test
+    public void clear() throws IOException {
+        System.out.println("Testing ChannelBitmapStorage32.clear");
+        final FileChannel channel = tempChannel();
+        try {
+            final ChannelBitmapStorage32 storage = new ChannelBitmapStorage32(channel);
+            for (int k = 0; k < 5000; ++k)
+                storage.addWord(k * 0x9E3779B9);
+            storage.clear();
+            storage.addStreamOfEmptyWords(true, 3);
+            storage.close();
+            channel.position(0);
+            final EWAHCompressedBitmap32 expected = new EWAHCompressedBitmap32();
+            expected.addStreamOfEmptyWords(true, 3);
+            check(expected, channel);
+        } finally {
+            channel.close();
+        }
+    }
+}
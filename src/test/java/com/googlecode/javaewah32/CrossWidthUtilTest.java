@@ -0,0 +1,116 @@
+package com.googlecode.javaewah32;
+
+import com.googlecode.javaewah.EWAHCompressedBitmap;
+import com.googlecode.javaewah.IteratorUtil;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Random;
+
+/*
+ * Copyright 2009-2014, Daniel Lemire, Cliff Moon, David McIntosh, Robert Becho, Google Inc., Veronika Zenz, Owen Kaser, Gregory Ssi-Yan-Kai, Rory Graves
+ * Licensed under the Apache License, Version 2.0.
+ */
+
+/**
+ * Tests for the conversions and operations between 32-bit and 64-bit
+ * bitmaps.
+ */
+public class CrossWidthUtilTest {
+
+    /**
+     * Runs of zeroes and ones of various lengths separated by random bits.
+     */
+    private static int[] randomPositions(final Random rand) {
+        final EWAHCompressedBitmap32 bitmap = new EWAHCompressedBitmap32();
+        int pos = 0;
+        for (int r = rand.nextInt(30); r > 0; --r) {
+            final int length = rand.nextInt(rand.nextBoolean() ? 20 : 5000);
+            switch (rand.nextInt(3)) {
+                case 0:
+                    break;
+                case 1:
+                    for (int k = 0; k < length; ++k)
+                        bitmap.set(pos + k);
+                    break;
+                default:
+                    for (int k = 0; k < length; ++k)
+                        if (rand.nextInt(3) == 0)
+                            bitmap.set(pos + k);
+            }
+            pos += length;
+        }
+        return bitmap.toArray();
+    }
+
+    private static EWAHCompressedBitmap32 bitmap32(final int[] positions, final int sizeInBits) {
+        final EWAHCompressedBitmap32 answer = EWAHCompressedBitmap32.bitmapOf(positions);
+        answer.setSizeInBits(sizeInBits, false);
+        return answer;
+    }
+
+    private static EWAHCompressedBitmap bitmap64(final int[] positions, final int sizeInBits) {
+        final EWAHCompressedBitmap answer = EWAHCompressedBitmap.bitmapOf(positions);
+        answer.setSizeInBits(sizeInBits, false);
+        return answer;
+    }
+
+    private static void check(final EWAHCompressedBitmap32 expected, final EWAHCompressedBitmap actual) {
+        Assert.assertArrayEquals(expected.toArray(), actual.toArray());
+        Assert.assertEquals(expected.sizeInBits(), actual.sizeInBits());
+    }
+
+    private static void check(final EWAHCompressedBitmap expected, final EWAHCompressedBitmap32 actual) {
+        Assert.assertArrayEquals(expected.toArray(), actual.toArray());
+        Assert.assertEquals(expected.sizeInBits(), actual.sizeInBits());
+    }
+
+    @Test
+    public void conversions() {
+        System.out.println("Testing CrossWidthUtil conversions");
+        final Random rand = new Random(1234);
+        for (int trial = 0; trial < 100; ++trial) {
+            final int[] positions = randomPositions(rand);
+            final int sizeInBits = (positions.length == 0 ? 0 : positions[positions.length - 1] + 1)
+                    + rand.nextInt(200);
+            final EWAHCompressedBitmap32 x32 = bitmap32(positions, sizeInBits);
+            final EWAHCompressedBitmap x64 = bitmap64(positions, sizeInBits);
+            check(x32, CrossWidthUtil.toEWAHCompressedBitmap(x32));
+            check(x64, CrossWidthUtil.toEWAHCompressedBitmap32(x64));
+            Assert.assertEquals(x64, CrossWidthUtil.toEWAHCompressedBitmap(x32));
+            Assert.assertEquals(x32, CrossWidthUtil.toEWAHCompressedBitmap32(x64));
+            Assert.assertArrayEquals(positions,
+                    IteratorUtil.materialize(CrossWidthUtil.toIteratingRLW(x32.getIteratingRLW())).toArray());
+            Assert.assertArrayEquals(positions,
+                    IteratorUtil32.materialize(CrossWidthUtil.toIteratingRLW32(x64.getIteratingRLW())).toArray());
+            // runs are not expanded
+            Assert.assertTrue(CrossWidthUtil.toEWAHCompressedBitmap(x32).sizeInBytes() <= x64.sizeInBytes() + 8);
+        }
+    }
+
+    @Test
+    public void operations() {
+        System.out.println("Testing CrossWidthUtil operations");
+        final Random rand = new Random(5678);
+        for (int trial = 0; trial < 100; ++trial) {
+            final int[] px = randomPositions(rand);
+            final int[] py = randomPositions(rand);
+            final int sx = (px.length == 0 ? 0 : px[px.length - 1] + 1) + rand.nextInt(100);
+            final int sy = (py.length == 0 ? 0 : py[py.length - 1] + 1) + rand.nextInt(100);
+            final EWAHCompressedBitmap x64 = bitmap64(px, sx);
+            final EWAHCompressedBitmap y64 = bitmap64(py, sy);
+            final EWAHCompressedBitmap32 x32 = bitmap32(px, sx);
+            final EWAHCompressedBitmap32 y32 = bitmap32(py, sy);
+            check(x64.and(y64), CrossWidthUtil.and(x32, y64));
+            check(x32.and(y32), CrossWidthUtil.and(x64, y32));
+            check(x64.or(y64), CrossWidthUtil.or(x32, y64));
+            check(x32.or(y32), CrossWidthUtil.or(x64, y32));
+            check(x64.xor(y64), CrossWidthUtil.xor(x32, y64));
+            check(x32.xor(y32), CrossWidthUtil.xor(x64, y32));
+            check(x64.andNot(y64), CrossWidthUtil.andNot(x32, y64));
+            check(x32.andNot(y32), CrossWidthUtil.andNot(x64, y32));
+            check(y64.andNot(x64), CrossWidthUtil.andNot(y32, x64));
+            check(y32.andNot(x32), CrossWidthUtil.andNot(y64, x32));
+        }
+    }
+}
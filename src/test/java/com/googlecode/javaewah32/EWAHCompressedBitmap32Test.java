@@ -6,6 +6,9 @@ import com.googlecode.javaewah.IntIterator;
 import org.junit.Assert;
 import org.junit.Test;
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
 import java.util.*;
 import static com.googlecode.javaewah32.EWAHCompressedBitmap32.WORD_IN_BITS;
 
@@ -1331,6 +1334,147 @@ public class EWAHCompressedBitmap32Test {
         EWAHCompressedBitmap32.or(b1, b2, b3);
     }
 
+    @Test
+    public void testByteBufferSerialization() throws IOException {
+        System.out.println("Testing ByteBuffer and channel serialization");
+        Random rand = new Random(1234);
+        for (int trial = 0; trial < 50; ++trial) {
+            EWAHCompressedBitmap32 bitmap = new EWAHCompressedBitmap32();
+            int pos = rand.nextInt(100);
+            for (int k = rand.nextInt(5000); k > 0; --k) {
+                bitmap.set(pos);
+                pos += rand.nextInt(10) == 0 ? rand.nextInt(100000) : 1 + rand.nextInt(3);
+            }
+            if (rand.nextBoolean())
+                bitmap.setSizeInBits(bitmap.sizeInBits() + rand.nextInt(1000), false);
+            // the layout is the one of serialize(DataOutput), little-endian
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            bitmap.serialize(new DataOutputStream(bos));
+            ByteBuffer expected = ByteBuffer.wrap(bos.toByteArray());
+
+            ByteBuffer bb = ByteBuffer.allocate(bitmap.serializedSizeInBytes() + 10);
+            bb.order(rand.nextBoolean() ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+            bb.position(3);
+            bitmap.serialize(bb);
+            Assert.assertEquals(3 + bitmap.serializedSizeInBytes(), bb.position());
+            ByteBuffer written = bb.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+            Assert.assertEquals(expected.getInt(0), written.getInt(3));
+            Assert.assertEquals(expected.getInt(4), written.getInt(7));
+            Assert.assertEquals(expected.getInt(bitmap.serializedSizeInBytes() - 4),
+                    written.getInt(3 + bitmap.serializedSizeInBytes() - 4));
+            bb.position(3);
+            EWAHCompressedBitmap32 copy = new EWAHCompressedBitmap32();
+            copy.deserialize(bb);
+            Assert.assertEquals(3 + bitmap.serializedSizeInBytes(), bb.position());
+            Assert.assertEquals(bitmap, copy);
+            Assert.assertEquals(bitmap.sizeInBits(), copy.sizeInBits());
+            Assert.assertTrue(copy.set(copy.sizeInBits() + 5));
+            Assert.assertTrue(copy.get(copy.sizeInBits() - 1));
+
+            ByteArrayOutputStream channelBytes = new ByteArrayOutputStream();
+            bitmap.writeTo(Channels.newChannel(channelBytes));
+            Assert.assertEquals(bitmap.serializedSizeInBytes(), channelBytes.size());
+            byte[] fromBuffer = new byte[bitmap.serializedSizeInBytes()];
+            bb.position(3);
+            bb.get(fromBuffer);
+            Assert.assertArrayEquals(fromBuffer, channelBytes.toByteArray());
+            copy = new EWAHCompressedBitmap32();
+            copy.readFrom(Channels.newChannel(new ByteArrayInputStream(channelBytes.toByteArray())));
+            Assert.assertEquals(bitmap, copy);
+            Assert.assertEquals(bitmap.sizeInBits(), copy.sizeInBits());
+        }
+    }
+
+    @Test
+    public void testTruncatedChannel() throws IOException {
+        EWAHCompressedBitmap32 bitmap = EWAHCompressedBitmap32.bitmapOf(1, 100, 1000);
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        bitmap.writeTo(Channels.newChannel(bos));
+        byte[] truncated = Arrays.copyOf(bos.toByteArray(), bos.size() - 1);
+        EWAHCompressedBitmap32 target = EWAHCompressedBitmap32.bitmapOf(5, 6, 7);
+        try {
+            target.readFrom(Channels.newChannel(new ByteArrayInputStream(truncated)));
+            Assert.fail("The channel is truncated");
+        } catch (EOFException e) {
+            // the bitmap is left unchanged
+        }
+        Assert.assertEquals(EWAHCompressedBitmap32.bitmapOf(5, 6, 7), target);
+        target.set(8);
+        Assert.assertArrayEquals(new int[]{5, 6, 7, 8}, target.toArray());
+    }
+
+    @Test
+    public void testCanonicalize() throws IOException {
+        System.out.println("testing canonicalize");
+        Random rand = new Random(1234);
+        for (int trial = 0; trial < 100; ++trial) {
+            int[] words = new int[rand.nextInt(2000)];
+            for (int k = 0; k < words.length; ++k) {
+                switch (rand.nextInt(4)) {
+                    case 0:
+                        words[k] = 0;
+                        break;
+                    case 1:
+                        words[k] = ~0;
+                        break;
+                    default:
+                        words[k] = rand.nextInt(10) == 0 ? 1 << rand.nextInt(32) : rand.nextInt();
+                }
+            }
+            EWAHCompressedBitmap32 literals = new EWAHCompressedBitmap32();
+            EWAHCompressedBitmap32 canonical = new EWAHCompressedBitmap32();
+            for (int k = 0; k < words.length; ) {
+                int n = 1 + rand.nextInt(50);
+                if (k + n > words.length)
+                    n = words.length - k;
+                if (rand.nextBoolean()) {
+                    literals.addStreamOfLiteralWords(words, k, n);
+                } else {
+                    for (int j = k; j < k + n; ++j)
+                        literals.addWord(words[j]);
+                }
+                for (int j = k; j < k + n; ++j)
+                    canonical.addWord(words[j]);
+                k += n;
+            }
+            Assert.assertTrue(canonical.isCanonical());
+            EWAHCompressedBitmap32 copy = literals.clone();
+            copy.canonicalize();
+            Assert.assertTrue(copy.isCanonical());
+            Assert.assertEquals(literals, copy);
+            Assert.assertEquals(literals.sizeInBits(), copy.sizeInBits());
+            Assert.assertTrue(copy.sizeInBytes() <= literals.sizeInBytes());
+            Assert.assertArrayEquals(literals.toArray(), copy.toArray());
+            ByteArrayOutputStream expected = new ByteArrayOutputStream();
+            canonical.serialize(new DataOutputStream(expected));
+            ByteArrayOutputStream actual = new ByteArrayOutputStream();
+            copy.serialize(new DataOutputStream(actual));
+            Assert.assertArrayEquals(expected.toByteArray(), actual.toByteArray());
+            Assert.assertEquals(canonical.hashCode(), copy.hashCode());
+            // the canonical bitmap can be extended
+            copy.set(copy.sizeInBits() + 10);
+            Assert.assertEquals(literals.cardinality() + 1, copy.cardinality());
+        }
+    }
+
+    @Test
+    public void testIsCanonical() {
+        System.out.println("testing isCanonical");
+        Assert.assertTrue(new EWAHCompressedBitmap32().isCanonical());
+        Assert.assertTrue(EWAHCompressedBitmap32.bitmapOf(1, 2, 64, 1000, 1001, 100000).isCanonical());
+        EWAHCompressedBitmap32 bitmap = new EWAHCompressedBitmap32();
+        bitmap.addStreamOfLiteralWords(new int[]{1, 0, 2}, 0, 3);
+        Assert.assertFalse(bitmap.isCanonical());
+        bitmap = new EWAHCompressedBitmap32();
+        bitmap.addStreamOfEmptyWords(true, 3);
+        bitmap.setSizeInBitsWithinLastWord(3 * WORD_IN_BITS - 1);
+        EWAHCompressedBitmap32 expected = bitmap.clone();
+        bitmap.canonicalize();
+        Assert.assertTrue(bitmap.isCanonical());
+        Assert.assertEquals(expected, bitmap);
+        Assert.assertEquals(3 * WORD_IN_BITS - 1, bitmap.cardinality());
+    }
+
     @Test
     public void testSizeInBits2() {
         EWAHCompressedBitmap32 bitmap = new EWAHCompressedBitmap32();
@@ -191,4 +191,100 @@ public class IteratorAggregationTest32 {
        assertTrue(x.equals(neg));
    }
 
+    /**
+     *
+     */
+    @Test
+    public void testSmallBuffersAndClones() throws CloneNotSupportedException {
+        System.out.println("testSmallBuffersAndClones ");
+        Iterator<EWAHCompressedBitmap32[]> i = getCollections(7, 10);
+        while (i.hasNext()) {
+            EWAHCompressedBitmap32[] x = i.next();
+            EWAHCompressedBitmap32 or = EWAHCompressedBitmap32.or(x);
+            EWAHCompressedBitmap32 xor = EWAHCompressedBitmap32.xor(x);
+            EWAHCompressedBitmap32 and = EWAHCompressedBitmap32.and(x);
+            for (int bufSize = 1; bufSize <= 100; bufSize *= 10) {
+                // wrapped iterators do not use the specialized code paths
+                IteratingRLW32[] wrapped = IteratorUtil32.toIterators(x);
+                for (int k = 0; k < wrapped.length; ++k)
+                    wrapped[k] = IteratorAggregation32.not(IteratorAggregation32.not(wrapped[k]));
+                assertTrue(IteratorUtil32.materialize(IteratorAggregation32.bufferedor(bufSize,
+                        IteratorUtil32.toIterators(x))).equals(or));
+                assertTrue(IteratorUtil32.materialize(IteratorAggregation32.bufferedor(bufSize,
+                        wrapped)).equals(or));
+                assertTrue(IteratorUtil32.materialize(IteratorAggregation32.bufferedxor(bufSize,
+                        IteratorUtil32.toIterators(x))).equals(xor));
+                assertTrue(IteratorUtil32.materialize(IteratorAggregation32.bufferedand(bufSize,
+                        IteratorUtil32.toIterators(x))).equals(and));
+                EWAHCompressedBitmap32 fast = FastAggregation32.bufferedor(bufSize, x);
+                fast.setSizeInBitsWithinLastWord(or.sizeInBits());
+                assertTrue(fast.equals(or));
+                fast = FastAggregation32.bufferedxor(bufSize, x);
+                fast.setSizeInBitsWithinLastWord(xor.sizeInBits());
+                assertTrue(fast.equals(xor));
+                assertTrue(FastAggregation32.bufferedand(bufSize, x).equals(and));
+            }
+            // a clone does not share its inputs with the original
+            IteratingRLW32 original = IteratorAggregation32.bufferedor(IteratorUtil32.toIterators(x));
+            IteratingRLW32 copy = original.clone();
+            assertTrue(IteratorUtil32.materialize(copy).equals(or));
+            assertTrue(IteratorUtil32.materialize(original).equals(or));
+            original = IteratorAggregation32.bufferedxor(IteratorUtil32.toIterators(x));
+            copy = original.clone();
+            assertTrue(IteratorUtil32.materialize(copy).equals(xor));
+            assertTrue(IteratorUtil32.materialize(original).equals(xor));
+        }
+    }
+
+    /**
+     *
+     */
+    @Test
+    public void testAdaptiveBuffers() {
+        System.out.println("testAdaptiveBuffers ");
+        Iterator<EWAHCompressedBitmap32[]> i = getCollections(7, 10);
+        while (i.hasNext()) {
+            EWAHCompressedBitmap32[] x = i.next();
+            EWAHCompressedBitmap32 or = EWAHCompressedBitmap32.or(x);
+            EWAHCompressedBitmap32 xor = EWAHCompressedBitmap32.xor(x);
+            EWAHCompressedBitmap32 and = EWAHCompressedBitmap32.and(x);
+            EWAHCompressedBitmap32 fast = FastAggregation32.adaptivebufferedor(x);
+            fast.setSizeInBitsWithinLastWord(or.sizeInBits());
+            assertTrue(fast.equals(or));
+            fast = FastAggregation32.adaptivebufferedxor(x);
+            fast.setSizeInBitsWithinLastWord(xor.sizeInBits());
+            assertTrue(fast.equals(xor));
+            assertTrue(FastAggregation32.adaptivebufferedand(x).equals(and));
+            assertTrue(IteratorUtil32.materialize(IteratorAggregation32.adaptivebufferedor(
+                    IteratorUtil32.toIterators(x))).equals(or));
+            assertTrue(IteratorUtil32.materialize(IteratorAggregation32.adaptivebufferedxor(
+                    IteratorUtil32.toIterators(x))).equals(xor));
+        }
+        // literal words, then runs, then literal words again: the blocks
+        // shrink, grow and shrink again
+        EWAHCompressedBitmap32[] x = new EWAHCompressedBitmap32[3];
+        for (int k = 0; k < x.length; ++k) {
+            x[k] = new EWAHCompressedBitmap32();
+            for (int j = k; j < 1 << 20; j += 3 + k)
+                x[k].set(j);
+            x[k].set((1 << 23) + k);
+            for (int j = (1 << 24) + k; j < (1 << 24) + (1 << 20); j += 5)
+                x[k].set(j);
+        }
+        EWAHCompressedBitmap32 or = x[0].or(x[1]).or(x[2]);
+        EWAHCompressedBitmap32 xor = x[0].xor(x[1]).xor(x[2]);
+        assertTrue(IteratorUtil32.materialize(IteratorAggregation32.adaptivebufferedor(
+                IteratorUtil32.toIterators(x))).equals(or));
+        assertTrue(IteratorUtil32.materialize(IteratorAggregation32.adaptivebufferedxor(
+                IteratorUtil32.toIterators(x))).equals(xor));
+        EWAHCompressedBitmap32 fast = FastAggregation32.adaptivebufferedor(x);
+        fast.setSizeInBitsWithinLastWord(or.sizeInBits());
+        assertTrue(fast.equals(or));
+        assertTrue(BufferSizing32.adapt(4096, 4096, 4000, 4096) == 2048);
+        assertTrue(BufferSizing32.adapt(2048, 2048, 0, 4096) == 4096);
+        assertTrue(BufferSizing32.adapt(4096, 100, 100, 4096) == 4096);
+        assertTrue(BufferSizing32.bufferSize(2, 10, 20) == 10);
+        assertTrue(BufferSizing32.bufferSize(100, -1, 0) * 4 <= Math.max(BufferSizing32.L2_CACHE_SIZE,
+                4 * BufferSizing32.MIN_BUF_SIZE));
+    }
 }
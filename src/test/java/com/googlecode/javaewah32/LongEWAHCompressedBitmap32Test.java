@@ -0,0 +1,143 @@
+package com.googlecode.javaewah32;
+
+import com.googlecode.javaewah.LongIterator;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.*;
+import java.util.Random;
+import java.util.TreeSet;
+
+/*
+ * Copyright 2009-2014, Daniel Lemire, Cliff Moon, David McIntosh, Robert Becho, Google Inc., Veronika Zenz, Owen Kaser, Gregory Ssi-Yan-Kai, Rory Graves
+ * Licensed under the Apache License, Version 2.0.
+ */
+
+/**
+ * Tests for the long-addressed bitmap.
+ */
+public class LongEWAHCompressedBitmap32Test {
+
+    /**
+     * Clusters of bits at random places within 2^40 positions.
+     */
+    private static TreeSet<Long> randomSet(final Random rand) {
+        final TreeSet<Long> answer = new TreeSet<Long>();
+        final int clusters = rand.nextInt(10);
+        for (int c = 0; c < clusters; ++c) {
+            long begin = (rand.nextLong() >>> 24) & ~((1L << 20) - 1);
+            // some clusters straddle two chunks
+            if (rand.nextInt(4) == 0)
+                begin |= (1L << LongEWAHCompressedBitmap32.CHUNK_BITS) - 500;
+            for (int k = 0; k < 1000; ++k)
+                answer.add(begin + rand.nextInt(2000));
+        }
+        return answer;
+    }
+
+    private static LongEWAHCompressedBitmap32 toBitmap(final TreeSet<Long> set) {
+        final LongEWAHCompressedBitmap32 answer = new LongEWAHCompressedBitmap32();
+        for (long x : set)
+            answer.set(x);
+        return answer;
+    }
+
+    private static void check(final TreeSet<Long> expected, final LongEWAHCompressedBitmap32 actual) {
+        Assert.assertEquals(expected.size(), actual.cardinality());
+        final long[] values = actual.toArray();
+        int k = 0;
+        for (long x : expected)
+            Assert.assertEquals(x, values[k++]);
+        final LongIterator i = actual.longIterator();
+        for (long x : expected)
+            Assert.assertEquals(x, i.next());
+        Assert.assertFalse(i.hasNext());
+        Assert.assertEquals(toBitmap(expected), actual);
+        Assert.assertEquals(toBitmap(expected).hashCode(), actual.hashCode());
+    }
+
+    @Test
+    public void operations() {
+        System.out.println("Testing LongEWAHCompressedBitmap32 operations");
+        final Random rand = new Random(1234);
+        for (int trial = 0; trial < 100; ++trial) {
+            final TreeSet<Long> x = randomSet(rand);
+            final TreeSet<Long> y = randomSet(rand);
+            if (rand.nextBoolean())
+                y.addAll(x.headSet(x.isEmpty() ? 0 : x.first() + 1000));
+            final LongEWAHCompressedBitmap32 a = toBitmap(x);
+            final LongEWAHCompressedBitmap32 b = toBitmap(y);
+            check(x, a);
+            final TreeSet<Long> and = new TreeSet<Long>(x);
+            and.retainAll(y);
+            check(and, a.and(b));
+            Assert.assertEquals(and.size(), a.andCardinality(b));
+            final TreeSet<Long> or = new TreeSet<Long>(x);
+            or.addAll(y);
+            check(or, a.or(b));
+            final TreeSet<Long> andNot = new TreeSet<Long>(x);
+            andNot.removeAll(y);
+            check(andNot, a.andNot(b));
+            final TreeSet<Long> xor = new TreeSet<Long>(or);
+            xor.removeAll(and);
+            check(xor, a.xor(b));
+            Assert.assertEquals(Math.max(a.sizeInBits(), b.sizeInBits()), a.or(b).sizeInBits());
+            for (long p : x) {
+                Assert.assertTrue(a.get(p));
+                Assert.assertEquals(x.contains(p + 1), a.get(p + 1));
+            }
+            check(x, a);
+        }
+    }
+
+    @Test
+    public void sparseHighRanges() {
+        System.out.println("Testing LongEWAHCompressedBitmap32 over sparse high ranges");
+        final LongEWAHCompressedBitmap32 a = LongEWAHCompressedBitmap32.bitmapOf(1, 3000000000L, 1L << 40,
+                (1L << 40) + 1, Long.MAX_VALUE - 1);
+        Assert.assertEquals(4, a.numberOfChunks());
+        // runs of clean words are split every 2^16 words in the 32-bit format
+        Assert.assertTrue(a.sizeInBytes() < 4096);
+        Assert.assertEquals(Long.MAX_VALUE, a.sizeInBits());
+        Assert.assertEquals("{1,3000000000,1099511627776,1099511627777,9223372036854775806}", a.toString());
+        Assert.assertFalse(a.set(5));
+        Assert.assertFalse(a.get(-1));
+        Assert.assertFalse(a.get(2));
+        Assert.assertTrue(a.get(Long.MAX_VALUE - 1));
+    }
+
+    @Test
+    public void not() {
+        System.out.println("Testing LongEWAHCompressedBitmap32.not");
+        final LongEWAHCompressedBitmap32 a = LongEWAHCompressedBitmap32.bitmapOf(1, 5, (1L << 31) + 7);
+        a.not();
+        Assert.assertEquals((1L << 31) + 8 - 3, a.cardinality());
+        Assert.assertFalse(a.get(1));
+        Assert.assertTrue(a.get(2));
+        Assert.assertTrue(a.get(1L << 30));
+        Assert.assertFalse(a.get((1L << 31) + 7));
+        a.not();
+        Assert.assertEquals(LongEWAHCompressedBitmap32.bitmapOf(1, 5, (1L << 31) + 7), a);
+    }
+
+    @Test
+    public void serialization() throws IOException {
+        System.out.println("Testing LongEWAHCompressedBitmap32 serialization");
+        final Random rand = new Random(5678);
+        for (int trial = 0; trial < 20; ++trial) {
+            final LongEWAHCompressedBitmap32 a = toBitmap(randomSet(rand));
+            final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            final ObjectOutputStream oo = new ObjectOutputStream(bos);
+            a.writeExternal(oo);
+            oo.close();
+            final LongEWAHCompressedBitmap32 b = new LongEWAHCompressedBitmap32();
+            b.readExternal(new ObjectInputStream(new ByteArrayInputStream(bos.toByteArray())));
+            Assert.assertEquals(a, b);
+            Assert.assertEquals(a.sizeInBits(), b.sizeInBits());
+            Assert.assertEquals(a.clone(), b);
+            final ByteArrayOutputStream raw = new ByteArrayOutputStream();
+            a.serialize(new DataOutputStream(raw));
+            Assert.assertEquals(a.serializedSizeInBytes(), raw.size());
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.googlecode.javaewah32;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Random;
+
+/*
+ * Copyright 2009-2014, Daniel Lemire, Cliff Moon, David McIntosh, Robert Becho, Google Inc., Veronika Zenz, Owen Kaser, Gregory Ssi-Yan-Kai, Rory Graves
+ * Licensed under the Apache License, Version 2.0.
+ */
+
+/**
+ * Tests for the iterator over serialized bitmaps.
+ */
+public class SerializedIteratingRLW32Test {
+
+    /**
+     * Runs of ones and random literal words, some of them longer than the
+     * block of literal words held by the iterator.
+     */
+    private static EWAHCompressedBitmap32 randomBitmap(final Random rand) {
+        final EWAHCompressedBitmap32 bitmap = new EWAHCompressedBitmap32();
+        for (int r = rand.nextInt(10); r > 0; --r) {
+            switch (rand.nextInt(3)) {
+                case 0:
+                    bitmap.addStreamOfEmptyWords(rand.nextBoolean(), rand.nextInt(200));
+                    break;
+                default:
+                    for (int k = rand.nextInt(rand.nextBoolean() ? 30 : 3000); k > 0; --k)
+                        bitmap.addWord(rand.nextInt());
+            }
+        }
+        return bitmap;
+    }
+
+    private static byte[] serialize(final EWAHCompressedBitmap32 bitmap) throws IOException {
+        final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        bitmap.serialize(new DataOutputStream(bos));
+        return bos.toByteArray();
+    }
+
+    private static byte[] writeTo(final EWAHCompressedBitmap32... bitmaps) throws IOException {
+        final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        for (EWAHCompressedBitmap32 bitmap : bitmaps)
+            bitmap.writeTo(Channels.newChannel(bos));
+        return bos.toByteArray();
+    }
+
+    @Test
+    public void materialize() throws IOException {
+        System.out.println("Testing SerializedIteratingRLW32");
+        final Random rand = new Random(1234);
+        for (int trial = 0; trial < 50; ++trial) {
+            final EWAHCompressedBitmap32 bitmap = randomBitmap(rand);
+            final SerializedIteratingRLW32 fromData = new SerializedIteratingRLW32(
+                    new DataInputStream(new ByteArrayInputStream(serialize(bitmap))));
+            Assert.assertEquals(bitmap.sizeInBits(), fromData.sizeInBits());
+            Assert.assertEquals(bitmap, IteratorUtil32.materialize(fromData));
+            final ByteBuffer buffer = ByteBuffer.wrap(writeTo(bitmap));
+            Assert.assertEquals(bitmap, IteratorUtil32.materialize(new SerializedIteratingRLW32(buffer)));
+            Assert.assertFalse(buffer.hasRemaining());
+            Assert.assertEquals(bitmap.cardinality(), IteratorUtil32.cardinality(
+                    new SerializedIteratingRLW32(Channels.newChannel(new ByteArrayInputStream(writeTo(bitmap))))));
+        }
+    }
+
+    @Test
+    public void aggregation() throws IOException {
+        System.out.println("Testing aggregation over serialized bitmaps");
+        final Random rand = new Random(5678);
+        for (int trial = 0; trial < 20; ++trial) {
+            final EWAHCompressedBitmap32 x = randomBitmap(rand);
+            final EWAHCompressedBitmap32 y = randomBitmap(rand);
+            final EWAHCompressedBitmap32 z = randomBitmap(rand);
+            final IteratingRLW32 or = IteratorAggregation32.bufferedor(
+                    new SerializedIteratingRLW32(ByteBuffer.wrap(writeTo(x))),
+                    new SerializedIteratingRLW32(ByteBuffer.wrap(writeTo(y))),
+                    new SerializedIteratingRLW32(ByteBuffer.wrap(writeTo(z))));
+            Assert.assertEquals(EWAHCompressedBitmap32.or(x, y, z), IteratorUtil32.materialize(or));
+            // bitmaps stored one after the other are read in sequence
+            final ReadableByteChannel channel = Channels.newChannel(new ByteArrayInputStream(writeTo(x, y)));
+            Assert.assertEquals(x, IteratorUtil32.materialize(new SerializedIteratingRLW32(channel)));
+            Assert.assertEquals(y, IteratorUtil32.materialize(new SerializedIteratingRLW32(channel)));
+            final BitCounter32 counter = new BitCounter32();
+            IteratorUtil32.materialize(IteratorAggregation32.bufferedand(
+                    new SerializedIteratingRLW32(ByteBuffer.wrap(writeTo(x))),
+                    new SerializedIteratingRLW32(ByteBuffer.wrap(writeTo(y)))), counter);
+            Assert.assertEquals(x.andCardinality(y), counter.getCount());
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void truncated() throws IOException {
+        final EWAHCompressedBitmap32 bitmap = EWAHCompressedBitmap32.bitmapOf(1, 1000, 100000);
+        final byte[] bytes = serialize(bitmap);
+        final SerializedIteratingRLW32 i = new SerializedIteratingRLW32(
+                new DataInputStream(new ByteArrayInputStream(bytes, 0, bytes.length - 10)));
+        IteratorUtil32.materialize(i);
+    }
+}
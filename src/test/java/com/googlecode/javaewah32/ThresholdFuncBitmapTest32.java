@@ -1,8 +1,27 @@
 package com.googlecode.javaewah32;
 
+import com.googlecode.javaewah.IntIterator;
+import com.googlecode.javaewah32.symmetric.AtMostKFuncBitmap32;
+import com.googlecode.javaewah32.symmetric.BitmapSymmetricAlgorithm32;
+import com.googlecode.javaewah32.symmetric.CoverageCountFuncBitmap32;
+import com.googlecode.javaewah32.symmetric.ExactlyKFuncBitmap32;
+import com.googlecode.javaewah32.symmetric.LoopedThreshold32;
+import com.googlecode.javaewah32.symmetric.ParallelRunningBitmapMerge32;
+import com.googlecode.javaewah32.symmetric.RunningBitmapMerge32;
+import com.googlecode.javaewah32.symmetric.ScanCount32;
+import com.googlecode.javaewah32.symmetric.SymmetricAlgorithmSelector32;
+import com.googlecode.javaewah32.symmetric.ThresholdFuncBitmap32;
+import com.googlecode.javaewah32.symmetric.UpdateableBitmapFunction32;
+import com.googlecode.javaewah32.symmetric.UpdateableBitmapFunctionFactory32;
+import com.googlecode.javaewah32.symmetric.WeightedThresholdFuncBitmap32;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
 @SuppressWarnings("javadoc")
 /**
  * @since 0.8.2
@@ -61,4 +80,194 @@ public class ThresholdFuncBitmapTest32 {
         Assert.assertTrue(ewahmajth.equals(ewahtruemaj));
     }
 
+    @Test
+    public void alternativeAlgorithms() {
+        System.out.println("Testing ScanCount32 and LoopedThreshold32");
+        final Random rand = new Random(2014);
+        final BitmapSymmetricAlgorithm32[] algorithms = {new ScanCount32(), new LoopedThreshold32(),
+                new SymmetricAlgorithmSelector32()};
+        for (int n = 1; n <= 12; ++n) {
+            final EWAHCompressedBitmap32[] set = new EWAHCompressedBitmap32[n];
+            for (int k = 0; k < n; ++k) {
+                set[k] = new EWAHCompressedBitmap32();
+                final int size = rand.nextInt(200000);
+                final int gap = 1 + rand.nextInt(100);
+                for (int x = rand.nextInt(gap); x < size; x += 1 + rand.nextInt(gap)) {
+                    if (rand.nextInt(50) == 0)
+                        for (int end = Math.min(size, x + rand.nextInt(5000)); x < end; ++x)
+                            set[k].set(x);
+                    else
+                        set[k].set(x);
+                }
+            }
+            for (int t = 1; t <= n + 1; ++t) {
+                final EWAHCompressedBitmap32 expected = new EWAHCompressedBitmap32();
+                new RunningBitmapMerge32().symmetric(new ThresholdFuncBitmap32(t), expected, set);
+                for (BitmapSymmetricAlgorithm32 algorithm : algorithms) {
+                    final EWAHCompressedBitmap32 actual = new EWAHCompressedBitmap32();
+                    algorithm.symmetric(new ThresholdFuncBitmap32(t), actual, set);
+                    Assert.assertEquals(expected, actual);
+                    Assert.assertEquals(expected.sizeInBits(), actual.sizeInBits());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void cardinalityAndIterator() {
+        System.out.println("Testing thresholdCardinality and RunningBitmapMerge32.iterator");
+        final Random rand = new Random(42);
+        final EWAHCompressedBitmap32[] set = new EWAHCompressedBitmap32[7];
+        for (int k = 0; k < set.length; ++k) {
+            set[k] = new EWAHCompressedBitmap32();
+            for (int x = rand.nextInt(10); x < 3000000; x += 1 + rand.nextInt(40 * (k + 1)))
+                set[k].set(x);
+        }
+        for (int t = 1; t <= set.length; ++t) {
+            final EWAHCompressedBitmap32 expected = EWAHCompressedBitmap32.threshold(t, set);
+            Assert.assertEquals(expected.cardinality(), EWAHCompressedBitmap32.thresholdCardinality(t, set));
+            final IteratingRLW32 i = new RunningBitmapMerge32().iterator(new ThresholdFuncBitmap32(t), set);
+            final EWAHCompressedBitmap32 streamed = IteratorUtil32.materialize(i);
+            Assert.assertEquals(expected, streamed);
+            Assert.assertEquals(expected.sizeInBits(), streamed.sizeInBits());
+        }
+        final EWAHCompressedBitmap32 majority = IteratorUtil32.materialize(IteratorAggregation32.bufferedand(
+                new RunningBitmapMerge32().iterator(new ThresholdFuncBitmap32(4), set), set[0].getIteratingRLW()));
+        Assert.assertEquals(EWAHCompressedBitmap32.threshold(4, set).and(set[0]), majority);
+        Assert.assertEquals(0, IteratorUtil32.cardinality(new RunningBitmapMerge32().iterator(new ThresholdFuncBitmap32(1))));
+    }
+
+    @Test
+    public void otherSymmetricFunctions() {
+        System.out.println("Testing exactly-k, at-most-k, weighted threshold and coverage counts");
+        final Random rand = new Random(31);
+        for (int n = 1; n <= 9; ++n) {
+            final EWAHCompressedBitmap32[] set = new EWAHCompressedBitmap32[n];
+            final int[] weights = new int[n];
+            int universe = 0;
+            for (int k = 0; k < n; ++k) {
+                set[k] = new EWAHCompressedBitmap32();
+                final int size = rand.nextInt(20000);
+                final int gap = 1 + rand.nextInt(30);
+                for (int x = rand.nextInt(gap); x < size; x += 1 + rand.nextInt(gap)) {
+                    if (rand.nextInt(20) == 0)
+                        for (int end = Math.min(size, x + rand.nextInt(2000)); x < end; ++x)
+                            set[k].set(x);
+                    else
+                        set[k].set(x);
+                }
+                weights[k] = rand.nextInt(5);
+                universe = Math.max(universe, (set[k].sizeInBits() + 31) / 32 * 32);
+            }
+            final int[] counts = new int[universe];
+            final int[] weightedCounts = new int[universe];
+            for (int k = 0; k < n; ++k)
+                for (IntIterator i = set[k].intIterator(); i.hasNext(); ) {
+                    final int x = i.next();
+                    counts[x]++;
+                    weightedCounts[x] += weights[k];
+                }
+            for (int t = 0; t <= n + 1; ++t) {
+                final EWAHCompressedBitmap32 exactly = new EWAHCompressedBitmap32();
+                final EWAHCompressedBitmap32 atMost = new EWAHCompressedBitmap32();
+                final EWAHCompressedBitmap32 weighted = new EWAHCompressedBitmap32();
+                for (int x = 0; x < universe; ++x) {
+                    if (counts[x] == t)
+                        exactly.set(x);
+                    if (counts[x] <= t)
+                        atMost.set(x);
+                    if (weightedCounts[x] >= 2 * t)
+                        weighted.set(x);
+                }
+                checkSymmetric(exactly, new ExactlyKFuncBitmap32(t), set);
+                checkSymmetric(atMost, new AtMostKFuncBitmap32(t), set);
+                final EWAHCompressedBitmap32 actual = new EWAHCompressedBitmap32();
+                new RunningBitmapMerge32().symmetric(new WeightedThresholdFuncBitmap32(2 * t, weights), actual, set);
+                Assert.assertTrue(Arrays.equals(weighted.toArray(), actual.toArray()));
+            }
+            final CoverageCountFuncBitmap32 coverage = new CoverageCountFuncBitmap32();
+            final EWAHCompressedBitmap32 union = new EWAHCompressedBitmap32();
+            new RunningBitmapMerge32().symmetric(coverage, union, set);
+            Assert.assertEquals(EWAHCompressedBitmap32.or(set), union);
+            final EWAHCompressedBitmap32[] slices = coverage.getSlices();
+            Assert.assertEquals(32 - Integer.numberOfLeadingZeros(n), slices.length);
+            final int[] sliced = new int[universe];
+            for (int j = 0; j < slices.length; ++j)
+                for (IntIterator i = slices[j].intIterator(); i.hasNext(); )
+                    sliced[i.next()] += 1 << j;
+            Assert.assertTrue(Arrays.equals(counts, sliced));
+            // the slices of the previous inputs must not be reported again
+            final EWAHCompressedBitmap32[] empty = new EWAHCompressedBitmap32[n];
+            for (int k = 0; k < n; ++k)
+                empty[k] = new EWAHCompressedBitmap32();
+            new RunningBitmapMerge32().symmetric(coverage, new EWAHCompressedBitmap32(), empty);
+            for (EWAHCompressedBitmap32 slice : coverage.getSlices())
+                Assert.assertTrue(slice.isEmpty());
+        }
+        Assert.assertTrue(ThresholdFuncBitmap32.majority(5).evaluate(3));
+        Assert.assertFalse(ThresholdFuncBitmap32.majority(6).evaluate(3));
+    }
+
+    @Test
+    public void parallelMerge() throws InterruptedException {
+        System.out.println("Testing ParallelRunningBitmapMerge32");
+        final Random rand = new Random(32);
+        final ExecutorService pool = Executors.newFixedThreadPool(3);
+        try {
+            for (int n = 1; n <= 40; n += 13) {
+                final EWAHCompressedBitmap32[] set = new EWAHCompressedBitmap32[n];
+                for (int k = 0; k < n; ++k) {
+                    set[k] = new EWAHCompressedBitmap32();
+                    final int size = rand.nextInt(1000000);
+                    final int gap = 1 + rand.nextInt(500);
+                    for (int x = rand.nextInt(gap); x < size; x += 1 + rand.nextInt(gap)) {
+                        if (rand.nextInt(50) == 0)
+                            for (int end = Math.min(size, x + rand.nextInt(50000)); x < end; ++x)
+                                set[k].set(x);
+                        else
+                            set[k].set(x);
+                    }
+                    if (rand.nextBoolean())
+                        set[k].setSizeInBits(set[k].sizeInBits() + rand.nextInt(500000), false);
+                }
+                for (int ranges = 1; ranges <= 20; ranges += 6) {
+                    final ParallelRunningBitmapMerge32 merge = new ParallelRunningBitmapMerge32(pool, ranges);
+                    for (int t = 1; t <= n; t += 1 + n / 4) {
+                        final int threshold = t;
+                        final EWAHCompressedBitmap32 expected = new EWAHCompressedBitmap32();
+                        new RunningBitmapMerge32().symmetric(new ThresholdFuncBitmap32(t), expected, set);
+                        final EWAHCompressedBitmap32 actual = new EWAHCompressedBitmap32();
+                        merge.symmetric(new UpdateableBitmapFunctionFactory32() {
+                            @Override
+                            public UpdateableBitmapFunction32 newFunction() {
+                                return new ThresholdFuncBitmap32(threshold);
+                            }
+                        }, actual, set);
+                        Assert.assertEquals(expected, actual);
+                        Assert.assertEquals(expected.sizeInBits(), actual.sizeInBits());
+                        new RunningBitmapMerge32().symmetric(new ExactlyKFuncBitmap32(t), expected, set);
+                        merge.symmetric(new UpdateableBitmapFunctionFactory32() {
+                            @Override
+                            public UpdateableBitmapFunction32 newFunction() {
+                                return new ExactlyKFuncBitmap32(threshold);
+                            }
+                        }, actual, set);
+                        Assert.assertEquals(expected, actual);
+                    }
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static void checkSymmetric(final EWAHCompressedBitmap32 expected, final UpdateableBitmapFunction32 f,
+                                       final EWAHCompressedBitmap32... set) {
+        for (BitmapSymmetricAlgorithm32 algorithm : new BitmapSymmetricAlgorithm32[]{new RunningBitmapMerge32(),
+                new ScanCount32(), new SymmetricAlgorithmSelector32()}) {
+            final EWAHCompressedBitmap32 actual = new EWAHCompressedBitmap32();
+            algorithm.symmetric(f, actual, set);
+            Assert.assertTrue(Arrays.equals(expected.toArray(), actual.toArray()));
+        }
+    }
 }